@@ -0,0 +1,373 @@
+package socialnetwork.Graph;
+
+import java.util.Arrays;
+
+/**
+ * Friendship rows of the CSR base packed at about 2 to 4 bytes per edge,
+ * used instead of the plain {@code neighbors} and {@code levels} arrays when
+ * the graph is set to compress its adjacency.
+ *
+ * A row starts with its degree as a varint. Its friends, sorted by node,
+ * are split into blocks of {@link #BLOCK}. Each block holds one byte with
+ * the bit width of its largest level, the levels of the block packed at
+ * that width, then the friends as varint gaps: the first friend of the row
+ * is coded relative to the node itself, every other one as its distance
+ * from the previous friend minus one. Rows with more than one block start
+ * with an index giving the first friend and the offset of every block after
+ * the first, so lookups and skips only decode the block they land in.
+ *
+ * Rows are appended to pages of at most 1 GiB and never straddle two, so
+ * the total size is not bound by the size of a Java array. The structure is
+ * immutable once built and is shared by every snapshot of the same base.
+ */
+final class CompressedAdjacency {
+    static final int BLOCK = 64;
+
+    private static final int PAGE_BITS = 30;
+    private static final int MAX_PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int INDEX_ENTRY = 8;
+
+    final byte[][] pages;
+
+    /* offsets[node] is the page (high bits) and position of the row of node */
+    final long[] offsets;
+
+    final long edges;
+    final long bytes;
+
+    private CompressedAdjacency(byte[][] pages, long[] offsets, long edges, long bytes) {
+        this.pages = pages;
+        this.offsets = offsets;
+        this.edges = edges;
+        this.bytes = bytes;
+    }
+
+    /* Packs the rows of the first nodeCount nodes of a snapshot, removed nodes get empty rows */
+    static CompressedAdjacency of(GraphSnapshot snapshot, int nodeCount) {
+        Builder builder = new Builder(nodeCount);
+        NeighborCursor cursor = new NeighborCursor();
+        int[] neighbors = new int[16];
+        byte[] levels = new byte[16];
+        for (int node = 0; node < nodeCount; node++) {
+            int degree = 0;
+            if (snapshot.contains(node)) {
+                snapshot.neighbors(node, cursor);
+                degree = cursor.size();
+                if (neighbors.length < degree) {
+                    neighbors = new int[Math.max(degree, neighbors.length * 2)];
+                    levels = new byte[neighbors.length];
+                }
+                for (int k = 0; cursor.next(); k++) {
+                    neighbors[k] = cursor.neighbor();
+                    levels[k] = (byte) cursor.level();
+                }
+            }
+            builder.add(node, neighbors, levels, 0, degree);
+        }
+        return builder.build();
+    }
+
+    /* Packs plain CSR arrays */
+    static CompressedAdjacency of(int[] offsets, int[] neighbors, byte[] levels, int nodeCount) {
+        Builder builder = new Builder(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            builder.add(node, neighbors, levels, offsets[node], offsets[node + 1]);
+        }
+        return builder.build();
+    }
+
+    int degree(int node) {
+        byte[] page = pages[(int) (offsets[node] >>> PAGE_BITS)];
+        int position = (int) offsets[node] & (MAX_PAGE_SIZE - 1);
+        int degree = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = page[position++];
+            degree |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return degree;
+            }
+        }
+    }
+
+    /* k-th friend of node, decoding its block up to it */
+    int neighbor(int node, int k) {
+        Row row = new Row(this, node);
+        int block = k / BLOCK;
+        int position = row.skipLevels(block);
+        int friend = row.first(block, position);
+        if (block == 0) {
+            position = row.next;
+        }
+        for (int i = 1; i <= k % BLOCK; i++) {
+            position = row.readVarint(position);
+            friend += row.value + 1;
+        }
+        return friend;
+    }
+
+    int level(int node, int k) {
+        Row row = new Row(this, node);
+        int block = k / BLOCK;
+        int start = row.blockStart(block);
+        return readLevel(row.page, start + 1, row.page[start], k % BLOCK);
+    }
+
+    /* Position of neighbor in the row of node, or -(insertion point) - 1 */
+    int find(int node, int neighbor) {
+        Row row = new Row(this, node);
+        if (row.degree == 0) {
+            return -1;
+        }
+
+        // Last block whose first friend is not above neighbor
+        int low = 1;
+        int high = row.blocks - 1;
+        int block = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (row.indexFirst(middle) <= neighbor) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        int position = row.skipLevels(block);
+        int friend = row.first(block, position);
+        if (block == 0) {
+            position = row.next;
+        }
+        int count = Math.min(BLOCK, row.degree - block * BLOCK);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                position = row.readVarint(position);
+                friend += row.value + 1;
+            }
+            if (friend == neighbor) {
+                return block * BLOCK + i;
+            }
+            if (friend > neighbor) {
+                return -(block * BLOCK + i) - 1;
+            }
+        }
+        return -(block * BLOCK + count) - 1;
+    }
+
+    static int readLevel(byte[] page, int levelsStart, int width, int i) {
+        if (width == 0) {
+            return 0;
+        }
+        int bit = i * width;
+        int at = levelsStart + (bit >>> 3);
+        int value = page[at] & 0xFF;
+        if ((bit & 7) + width > 8) {
+            value |= (page[at + 1] & 0xFF) << 8;
+        }
+        return (value >>> (bit & 7)) & ((1 << width) - 1);
+    }
+
+    static int levelBytes(int count, int width) {
+        return (count * width + 7) >>> 3;
+    }
+
+    /*
+    Header of one row, decoded on demand. Only used by the random access
+    methods, cursors keep the same state in their own fields.
+    */
+    private static final class Row {
+        final byte[] page;
+        final int node;
+        final int degree;
+        final int blocks;
+        /* position of the block index and of the first block */
+        final int index;
+        final int data;
+
+        /* result and end position of the last readVarint */
+        int value;
+        int next;
+
+        Row(CompressedAdjacency adjacency, int node) {
+            long offset = adjacency.offsets[node];
+            this.page = adjacency.pages[(int) (offset >>> PAGE_BITS)];
+            this.node = node;
+            int position = readVarint((int) offset & (MAX_PAGE_SIZE - 1));
+            this.degree = value;
+            this.blocks = (degree + BLOCK - 1) / BLOCK;
+            this.index = position;
+            this.data = position + (blocks > 1 ? (blocks - 1) * INDEX_ENTRY : 0);
+        }
+
+        int readVarint(int position) {
+            int result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = page[position++];
+                result |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    value = result;
+                    next = position;
+                    return position;
+                }
+            }
+        }
+
+        int indexFirst(int block) {
+            return readInt(page, index + (block - 1) * INDEX_ENTRY);
+        }
+
+        int blockStart(int block) {
+            return block == 0 ? data : data + readInt(page, index + (block - 1) * INDEX_ENTRY + 4);
+        }
+
+        /* Position of the gaps of block */
+        int skipLevels(int block) {
+            int start = blockStart(block);
+            int count = Math.min(BLOCK, degree - block * BLOCK);
+            return start + 1 + levelBytes(count, page[start]);
+        }
+
+        /* First friend of block, for block 0 decoded at gaps and next is left after it */
+        int first(int block, int gaps) {
+            if (block > 0) {
+                return indexFirst(block);
+            }
+            readVarint(gaps);
+            return node + zigZagDecode(value);
+        }
+    }
+
+    static int readInt(byte[] page, int position) {
+        return (page[position] & 0xFF)
+            | (page[position + 1] & 0xFF) << 8
+            | (page[position + 2] & 0xFF) << 16
+            | (page[position + 3] & 0xFF) << 24;
+    }
+
+    static int zigZagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /* Appends rows in node order */
+    private static final class Builder {
+        private final long[] offsets;
+        private byte[][] pages = new byte[1][];
+        private int pageCount = 0;
+        private byte[] page = new byte[1 << 16];
+        private int position = 0;
+        private byte[] row = new byte[1 << 10];
+        private long edges = 0;
+        private long bytes = 0;
+
+        Builder(int nodeCount) {
+            offsets = new long[nodeCount];
+        }
+
+        void add(int node, int[] neighbors, byte[] levels, int from, int to) {
+            int size = encode(node, neighbors, levels, from, to);
+            if (size > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Too many friends to compress the row of node " + node);
+            }
+
+            if (position + size > MAX_PAGE_SIZE) {
+                finishPage();
+            }
+            if (position + size > page.length) {
+                page = Arrays.copyOf(page, (int) Math.min(MAX_PAGE_SIZE, Math.max((long) position + size, 2L * page.length)));
+            }
+            System.arraycopy(row, 0, page, position, size);
+            offsets[node] = ((long) pageCount << PAGE_BITS) | position;
+            position += size;
+            edges += to - from;
+            bytes += size;
+        }
+
+        CompressedAdjacency build() {
+            finishPage();
+            return new CompressedAdjacency(Arrays.copyOf(pages, pageCount), offsets, edges, bytes);
+        }
+
+        private void finishPage() {
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, pages.length * 2);
+            }
+            pages[pageCount++] = Arrays.copyOf(page, position);
+            position = 0;
+        }
+
+        /* Encodes a row into row and returns its size */
+        private int encode(int node, int[] neighbors, byte[] levels, int from, int to) {
+            int degree = to - from;
+            int blocks = (degree + BLOCK - 1) / BLOCK;
+            // varint degree, index, per block: width, levels, and at most 5 bytes per friend
+            int bound = 5 + Math.max(0, blocks - 1) * INDEX_ENTRY + blocks * (1 + BLOCK) + 5 * degree;
+            if (row.length < bound) {
+                row = new byte[Math.max(bound, row.length * 2)];
+            }
+
+            int at = writeVarint(row, 0, degree);
+            int index = at;
+            int data = index + Math.max(0, blocks - 1) * INDEX_ENTRY;
+            at = data;
+            for (int block = 0; block < blocks; block++) {
+                int start = from + block * BLOCK;
+                int end = Math.min(to, start + BLOCK);
+                if (block > 0) {
+                    writeInt(row, index + (block - 1) * INDEX_ENTRY, neighbors[start]);
+                    writeInt(row, index + (block - 1) * INDEX_ENTRY + 4, at - data);
+                }
+
+                int maxLevel = 0;
+                for (int k = start; k < end; k++) {
+                    maxLevel |= levels[k];
+                }
+                int width = 32 - Integer.numberOfLeadingZeros(maxLevel);
+                row[at++] = (byte) width;
+                int levelBytes = levelBytes(end - start, width);
+                Arrays.fill(row, at, at + levelBytes, (byte) 0);
+                for (int k = start; k < end; k++) {
+                    int bit = (k - start) * width;
+                    int value = levels[k] << (bit & 7);
+                    row[at + (bit >>> 3)] |= (byte) value;
+                    if ((bit & 7) + width > 8) {
+                        row[at + (bit >>> 3) + 1] |= (byte) (value >>> 8);
+                    }
+                }
+                at += levelBytes;
+
+                if (block == 0) {
+                    int delta = neighbors[start] - node;
+                    at = writeVarint(row, at, (delta << 1) ^ (delta >> 31));
+                }
+                for (int k = start + 1; k < end; k++) {
+                    at = writeVarint(row, at, neighbors[k] - neighbors[k - 1] - 1);
+                }
+            }
+            return at;
+        }
+
+        private static int writeVarint(byte[] buffer, int at, int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer[at++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[at++] = (byte) value;
+            return at;
+        }
+
+        private static void writeInt(byte[] buffer, int at, int value) {
+            buffer[at] = (byte) value;
+            buffer[at + 1] = (byte) (value >>> 8);
+            buffer[at + 2] = (byte) (value >>> 16);
+            buffer[at + 3] = (byte) (value >>> 24);
+        }
+    }
+
+    static int pageOf(long offset) {
+        return (int) (offset >>> PAGE_BITS);
+    }
+
+    static int positionOf(long offset) {
+        return (int) offset & (MAX_PAGE_SIZE - 1);
+    }
+}
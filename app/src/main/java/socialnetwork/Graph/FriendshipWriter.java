@@ -0,0 +1,14 @@
+package socialnetwork.Graph;
+
+/**
+ * Applies the friendship changes made through the {@link socialnetwork.Model.Profile}
+ * views of a {@link ProfileGraph}. The graph applies them itself unless its
+ * owner sets a writer, so the owner can make them durable and measure them
+ * like its own changes.
+ */
+public interface FriendshipWriter {
+    void connect(int node1, int node2, int friendshipLevel) throws IllegalArgumentException;
+
+    /* Returns the level the friendship had */
+    int disconnect(int node1, int node2) throws IllegalArgumentException;
+}
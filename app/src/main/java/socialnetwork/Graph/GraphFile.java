@@ -0,0 +1,494 @@
+package socialnetwork.Graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary image of a graph, so a restart doesn't have to parse and validate
+ * the CSV file again.
+ *
+ * A file is a 64-byte header followed by column sections, each padded to 8
+ * bytes, all little-endian:
+ *
+ * <pre>
+ * header    magic, format version, header size, node count, edge slots,
+ *           name bytes, CRC32C of everything after the header, graph version,
+ *           id table slots
+ * ids       most significant bits of every id (long), then least significant
+ * ages      int per node
+ * genders   byte per node (Gender ordinal)
+ * names     UTF-8 offsets (long per node + 1), then the UTF-8 bytes
+ * offsets   CSR row offsets (long per node + 1)
+ * neighbors int per edge slot
+ * levels    byte per edge slot
+ * id table  open-addressed table of (high, low, node) longs, probed linearly
+ *           from idHash, node -1 in empty slots
+ * </pre>
+ *
+ * The sections are the CSR arrays of {@link GraphSnapshot} as they are, so
+ * a file is either read by bulk-copying each section into an array, or
+ * mapped with {@link #map} and read in place, id table included. Removed
+ * profiles are not written and the remaining nodes are renumbered densely.
+ * The graph read back continues from the version of the snapshot that was
+ * written, so writes logged after that version can be told apart from the
+ * ones already in the file.
+ *
+ * Version 1 and 2 files, with int offsets and no id table, can still be
+ * read but not mapped.
+ */
+public final class GraphFile {
+    private static final long MAGIC = 0x4850415247534E53L; // "SNSGRAPH" in little-endian
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int IO_BUFFER_SIZE = 1 << 20;
+    private static final int ID_SLOT = 24;
+
+    private GraphFile() {
+    }
+
+    /**
+     * Writes a snapshot to path. The file is written next to it first and
+     * moved into place once complete, so a crash never leaves a torn file.
+     */
+    public static void write(GraphSnapshot snapshot, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(snapshot, channel, false);
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+    Writes every node of a snapshot under its own node, removed ones with
+    their columns, no friends and no entry in the id table. Used to compact a
+    mapped graph into a new base file, which is not synced since it is not
+    kept across restarts.
+    */
+    static void writeImage(GraphSnapshot snapshot, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(snapshot, channel, true);
+        }
+    }
+
+    private static void write(GraphSnapshot snapshot, FileChannel channel, boolean keepNodes) throws IOException {
+        int n = keepNodes ? snapshot.nodeCount : snapshot.size();
+        int[] newNode = keepNodes ? null : new int[snapshot.nodeCount];
+        int[] written = new int[n];
+        for (int node = 0, i = 0; node < snapshot.nodeCount; node++) {
+            boolean contains = snapshot.contains(node);
+            if (keepNodes) {
+                written[i++] = node;
+            } else {
+                newNode[node] = contains ? i : -1;
+                if (contains) {
+                    written[i++] = node;
+                }
+            }
+        }
+
+        channel.position(HEADER_SIZE);
+        SectionWriter out = new SectionWriter(channel);
+
+        for (int i = 0; i < n; i++) {
+            out.putLong(snapshot.idOf(written[i]).getMostSignificantBits());
+        }
+        for (int i = 0; i < n; i++) {
+            out.putLong(snapshot.idOf(written[i]).getLeastSignificantBits());
+        }
+        for (int i = 0; i < n; i++) {
+            out.putInt(snapshot.ageOf(written[i]));
+        }
+        out.pad();
+        for (int i = 0; i < n; i++) {
+            out.putByte((byte) snapshot.genderOf(written[i]).ordinal());
+        }
+        out.pad();
+
+        long nameBytes = 0;
+        out.putLong(0);
+        for (int i = 0; i < n; i++) {
+            nameBytes += snapshot.nameOf(written[i]).getBytes(StandardCharsets.UTF_8).length;
+            out.putLong(nameBytes);
+        }
+        for (int i = 0; i < n; i++) {
+            out.putBytes(snapshot.nameOf(written[i]).getBytes(StandardCharsets.UTF_8));
+        }
+        out.pad();
+
+        NeighborCursor cursor = new NeighborCursor();
+        long edgeSlots = 0;
+        out.putLong(0);
+        for (int i = 0; i < n; i++) {
+            if (snapshot.contains(written[i])) {
+                edgeSlots += snapshot.degree(written[i]);
+            }
+            out.putLong(edgeSlots);
+        }
+        // Renumbering keeps node order, so rows stay sorted
+        for (int i = 0; i < n; i++) {
+            if (!snapshot.contains(written[i])) {
+                continue;
+            }
+            snapshot.neighbors(written[i], cursor);
+            while (cursor.next()) {
+                out.putInt(keepNodes ? cursor.neighbor() : newNode[cursor.neighbor()]);
+            }
+        }
+        out.pad();
+        for (int i = 0; i < n; i++) {
+            if (!snapshot.contains(written[i])) {
+                continue;
+            }
+            snapshot.neighbors(written[i], cursor);
+            while (cursor.next()) {
+                out.putByte((byte) cursor.level());
+            }
+        }
+        out.pad();
+        out.flush();
+
+        // The id table is filled in place through a mapping of its part of the file
+        // Sized by every node written, removed ones included, which is what readers check it against
+        long idSlots = idSlotsFor(n);
+        MappedRegion table = MappedRegion.map(channel, FileChannel.MapMode.READ_WRITE, out.position(), ID_SLOT * idSlots);
+        table.fill((byte) -1);
+        for (int i = 0; i < n; i++) {
+            if (!snapshot.contains(written[i])) {
+                continue;
+            }
+            UUID id = snapshot.idOf(written[i]);
+            long slot = idHash(id.getMostSignificantBits(), id.getLeastSignificantBits()) & (idSlots - 1);
+            while (table.getLong(ID_SLOT * slot + 16) >= 0) {
+                slot = (slot + 1) & (idSlots - 1);
+            }
+            table.setLong(ID_SLOT * slot, id.getMostSignificantBits());
+            table.setLong(ID_SLOT * slot + 8, id.getLeastSignificantBits());
+            table.setLong(ID_SLOT * slot + 16, i);
+        }
+        table.force();
+        out.include(table);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC)
+            .putInt(FORMAT_VERSION)
+            .putInt(HEADER_SIZE)
+            .putInt(n)
+            .putInt(0)
+            .putLong(edgeSlots)
+            .putLong(nameBytes)
+            .putLong(out.checksum())
+            .putLong(snapshot.version)
+            .putLong(idSlots);
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #write} into the heap.
+     *
+     * @throws IllegalArgumentException if the file is not a graph file, was
+     *         written by another format version, fails its checksum or is
+     *         too large for Java arrays
+     */
+    public static ProfileGraph read(Path path) throws IOException, IllegalArgumentException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedRegion file = MappedRegion.map(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Layout layout = Layout.of(file);
+            verify(file, layout);
+            if (layout.edgeSlots > Integer.MAX_VALUE || layout.nameBytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Graph file is too large to read, map it instead");
+            }
+            int n = layout.nodeCount;
+            int m = (int) layout.edgeSlots;
+
+            long[] high = new long[n];
+            long[] low = new long[n];
+            file.copy(layout.ids, high, 0, n);
+            file.copy(layout.ids + 8L * n, low, 0, n);
+            UUID[] uuids = new UUID[n];
+            for (int node = 0; node < n; node++) {
+                uuids[node] = new UUID(high[node], low[node]);
+            }
+
+            int[] ages = new int[n];
+            file.copy(layout.ages, ages, 0, n);
+            byte[] genders = new byte[n];
+            file.copy(layout.genders, genders, 0, n);
+
+            int[] nameOffsets = readOffsets(file, layout, layout.nameOffsets, n + 1);
+            byte[] nameData = new byte[(int) layout.nameBytes];
+            file.copy(layout.names, nameData, 0, nameData.length);
+            String[] names = new String[n];
+            for (int node = 0; node < n; node++) {
+                names[node] = new String(nameData, nameOffsets[node], nameOffsets[node + 1] - nameOffsets[node], StandardCharsets.UTF_8);
+            }
+
+            int[] offsets = readOffsets(file, layout, layout.offsets, n + 1);
+            int[] neighbors = new int[m];
+            file.copy(layout.neighbors, neighbors, 0, m);
+            byte[] levels = new byte[m];
+            file.copy(layout.levels, levels, 0, m);
+
+            ProfileGraph graph = ProfileGraph.fromArrays(uuids, names, ages, genders, offsets, neighbors, levels);
+            graph.startAt(layout.graphVersion);
+            return graph;
+        }
+    }
+
+    /**
+     * Maps a graph written by {@link #write} and returns a graph reading its
+     * profiles and friendships straight from the file, see
+     * {@link MappedGraphFile}. Only the profiles added and the rows changed
+     * after it was mapped live on the heap. The file must not be modified in
+     * place while it is mapped; {@link #write} replaces a file rather than
+     * overwriting it, so saving over a mapped file is fine.
+     *
+     * @throws IllegalArgumentException if the file is not a graph file, was
+     *         written by a format version that cannot be mapped or fails its
+     *         checksum
+     */
+    public static ProfileGraph map(Path path) throws IOException, IllegalArgumentException {
+        MappedGraphFile file = mapFile(path, true);
+        ProfileGraph graph = ProfileGraph.fromMapped(file);
+        graph.startAt(file.graphVersion);
+        return graph;
+    }
+
+    /* Maps a file written by writeImage, which was checked while it was written */
+    static MappedGraphFile mapImage(Path path) throws IOException {
+        return mapFile(path, false);
+    }
+
+    private static MappedGraphFile mapFile(Path path, boolean verify) throws IOException, IllegalArgumentException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Released by the garbage collector once no snapshot reads the file
+            MappedRegion file = MappedRegion.map(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Layout layout = Layout.of(file);
+            if (layout.formatVersion < 3) {
+                throw new IllegalArgumentException("Graph file version " + layout.formatVersion + " cannot be mapped, save it again");
+            }
+            if (verify) {
+                verify(file, layout);
+            }
+            return new MappedGraphFile(path, file, layout);
+        }
+    }
+
+    private static void verify(MappedRegion file, Layout layout) throws IllegalArgumentException {
+        CRC32C crc = new CRC32C();
+        for (ByteBuffer buffer : file.buffers(HEADER_SIZE)) {
+            crc.update(buffer);
+        }
+        if (crc.getValue() != layout.checksum) {
+            throw new IllegalArgumentException("Invalid graph file: checksum mismatch");
+        }
+    }
+
+    /* Offsets section as ints, the file has longs since version 3 */
+    private static int[] readOffsets(MappedRegion file, Layout layout, long position, int count) {
+        int[] offsets = new int[count];
+        if (layout.formatVersion < 3) {
+            file.copy(position, offsets, 0, count);
+            return offsets;
+        }
+        for (int i = 0; i < count; i++) {
+            offsets[i] = (int) file.getLong(position + 8L * i);
+        }
+        return offsets;
+    }
+
+    /* Slot of an id in the id table is idHash(high, low) & (slots - 1); part of the file format */
+    static long idHash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return h;
+    }
+
+    /* Power of two keeping the table at most half full */
+    private static long idSlotsFor(int ids) {
+        long slots = 16;
+        while (slots < 2L * ids) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    private static long padded(long length) {
+        return (length + 7) & ~7L;
+    }
+
+    /**
+     * Header of a file and the positions of its sections, checked against
+     * the size of the file.
+     */
+    static final class Layout {
+        final int formatVersion;
+        final int nodeCount;
+        final long edgeSlots;
+        final long nameBytes;
+        final long checksum;
+        final long graphVersion;
+        final long idSlots;
+
+        final long ids;
+        final long ages;
+        final long genders;
+        final long nameOffsets;
+        final long names;
+        final long offsets;
+        final long neighbors;
+        final long levels;
+        final long idTable;
+
+        private Layout(MappedRegion file) throws IllegalArgumentException {
+            if (file.byteSize() < HEADER_SIZE) {
+                throw new IllegalArgumentException("Invalid graph file: too short");
+            }
+            if (file.getLong(0) != MAGIC) {
+                throw new IllegalArgumentException("Invalid graph file: bad magic number");
+            }
+            formatVersion = file.getInt(8);
+            if (formatVersion < 1 || formatVersion > FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported graph file version " + formatVersion);
+            }
+            if (file.getInt(12) != HEADER_SIZE) {
+                throw new IllegalArgumentException("Invalid graph file: bad header size");
+            }
+            nodeCount = file.getInt(16);
+            edgeSlots = file.getLong(24);
+            nameBytes = file.getLong(32);
+            checksum = file.getLong(40);
+            // version 1 files don't record the graph version, only version 3 ones have an id table
+            graphVersion = formatVersion == 1 ? 0 : file.getLong(48);
+            idSlots = formatVersion < 3 ? 0 : file.getLong(56);
+            if (nodeCount < 0 || edgeSlots < 0 || nameBytes < 0 || idSlots < 0 || Long.bitCount(idSlots) > 1) {
+                throw new IllegalArgumentException("Invalid graph file: bad header");
+            }
+            if (formatVersion < 3 && (edgeSlots > Integer.MAX_VALUE || nameBytes > Integer.MAX_VALUE)) {
+                throw new IllegalArgumentException("Invalid graph file: bad header");
+            }
+            if (formatVersion == 3 && idSlots <= nodeCount) {
+                throw new IllegalArgumentException("Invalid graph file: bad header");
+            }
+
+            int offsetSize = formatVersion < 3 ? 4 : 8;
+            long position = HEADER_SIZE;
+            ids = position;
+            position += 16L * nodeCount;
+            ages = position;
+            position += padded(4L * nodeCount);
+            genders = position;
+            position += padded(nodeCount);
+            nameOffsets = position;
+            position += padded((long) offsetSize * (nodeCount + 1));
+            names = position;
+            position += padded(nameBytes);
+            offsets = position;
+            position += padded((long) offsetSize * (nodeCount + 1));
+            neighbors = position;
+            position += padded(4L * edgeSlots);
+            levels = position;
+            position += padded(edgeSlots);
+            idTable = position;
+            position += ID_SLOT * idSlots;
+            if (position != file.byteSize()) {
+                throw new IllegalArgumentException("Invalid graph file: size does not match header");
+            }
+        }
+
+        static Layout of(MappedRegion file) throws IllegalArgumentException {
+            return new Layout(file);
+        }
+    }
+
+    /* Buffered little-endian writer that checksums what it writes */
+    private static final class SectionWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private long written;
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (int start = 0; start < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - start);
+                buffer.put(bytes, start, length);
+                start += length;
+            }
+        }
+
+        /* Pads what was written so far to a multiple of 8 bytes */
+        void pad() throws IOException {
+            while ((written + buffer.position()) % 8 != 0) {
+                putByte((byte) 0);
+            }
+        }
+
+        /* File position of the next byte written */
+        long position() {
+            return HEADER_SIZE + written + buffer.position();
+        }
+
+        /* Accounts for a section written straight into the file after a flush */
+        void include(MappedRegion section) {
+            for (ByteBuffer buffer : section.buffers(0)) {
+                crc.update(buffer);
+            }
+            written += section.byteSize();
+        }
+
+        long checksum() {
+            return crc.getValue();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            written += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package socialnetwork.Graph;
+
+/**
+ * Callback for the writes on a {@link ProfileGraph}, one call per write.
+ *
+ * Calls are made while the writer holds the stripes of every node it changes
+ * and before {@code version} is published, so no snapshot that contains the
+ * write can be read before the listener has seen it, and writes on the same
+ * nodes are seen in version order. {@code snapshot} is the graph right before
+ * the write; under the writer's locks it already holds every earlier change
+ * to those nodes. Listeners must be quick and must not write to the graph.
+ */
+public interface GraphListener {
+    /* node's columns are already filled in snapshot */
+    default void nodeAdded(GraphSnapshot snapshot, long version, int node) {
+    }
+
+    /* node's friendships, still in snapshot, are removed together with it */
+    default void nodeRemoved(GraphSnapshot snapshot, long version, int node) {
+    }
+
+    default void edgeAdded(GraphSnapshot snapshot, long version, int node1, int node2, int friendshipLevel) {
+    }
+
+    default void edgeRemoved(GraphSnapshot snapshot, long version, int node1, int node2) {
+    }
+}
@@ -0,0 +1,309 @@
+package socialnetwork.Graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import socialnetwork.Model.Gender;
+import socialnetwork.Model.Profile;
+
+/**
+ * Consistent, read-only view of a {@link ProfileGraph} at one version.
+ *
+ * A snapshot copies nothing: it shares the node columns, the CSR arrays and
+ * the overlay table with the graph and with every other snapshot. Overlay
+ * rows are immutable and chained to the row they replaced, each tagged with
+ * the version of the write that produced it, so a snapshot reads a node by
+ * skipping the rows newer than its own version. Writers only ever prepend
+ * rows, hence any number of threads can read a snapshot while the graph keeps
+ * changing.
+ *
+ * The base can also be a mapped {@link GraphFile}: the columns and rows of
+ * the nodes it holds are then read from the file, and the columns on the
+ * heap only hold the nodes added after it, starting at {@code columnBase}.
+ *
+ * Looking a profile up by id goes through the graph's live dictionary, so a
+ * profile removed after the snapshot was taken is not found by
+ * {@link #indexOf(UUID)}, although its node is still readable.
+ */
+public final class GraphSnapshot {
+    private static final Gender[] GENDERS = Gender.values();
+
+    final ProfileGraph graph;
+    final long version;
+    final int nodeCount;
+    final int liveCount;
+
+    /* node columns from columnBase on, written once before the node is published */
+    final int columnBase;
+    final UUID[] ids;
+    final String[] names;
+    final int[] ages;
+    final byte[] genders;
+
+    /* CSR rows for nodes [0, baseCount), either plain, compressed or mapped */
+    final int baseCount;
+    final int[] offsets;
+    final int[] neighbors;
+    final byte[] levels;
+    final CompressedAdjacency compressed;
+    final MappedGraphFile mapped;
+
+    /* newest overlay row of each node, null if it still reads from the CSR arrays */
+    final ProfileGraph.Row[] rows;
+
+    GraphSnapshot(
+        ProfileGraph graph,
+        long version,
+        int nodeCount,
+        int liveCount,
+        UUID[] ids,
+        String[] names,
+        int[] ages,
+        byte[] genders,
+        int baseCount,
+        int[] offsets,
+        int[] neighbors,
+        byte[] levels,
+        CompressedAdjacency compressed,
+        MappedGraphFile mapped,
+        ProfileGraph.Row[] rows
+    ) {
+        this.graph = graph;
+        this.version = version;
+        this.nodeCount = nodeCount;
+        this.liveCount = liveCount;
+        this.columnBase = mapped != null ? mapped.nodeCount : 0;
+        this.ids = ids;
+        this.names = names;
+        this.ages = ages;
+        this.genders = genders;
+        this.baseCount = baseCount;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.levels = levels;
+        this.compressed = compressed;
+        this.mapped = mapped;
+        this.rows = rows;
+    }
+
+    /* Same storage, seen at a later version */
+    GraphSnapshot withVersion(long version, int nodeCount, int liveCount) {
+        return new GraphSnapshot(graph, version, nodeCount, liveCount, ids, names, ages, genders, baseCount, offsets, neighbors, levels, compressed, mapped, rows);
+    }
+
+    public ProfileGraph graph() {
+        return graph;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /* Number of profiles in the snapshot */
+    public int size() {
+        return liveCount;
+    }
+
+    /* Upper bound (exclusive) of the node ids in the snapshot */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /* Returns the node of a profile, or -1 if it is not in the snapshot */
+    public int indexOf(UUID profileID) {
+        int node = graph.indexOf(profileID);
+        return contains(node) ? node : -1;
+    }
+
+    /* Same as indexOf(new UUID(high, low)) without the UUID */
+    public int indexOf(long high, long low) {
+        int node = graph.indexOf(high, low);
+        return contains(node) ? node : -1;
+    }
+
+    public boolean contains(int node) {
+        if (node < 0 || node >= nodeCount) {
+            return false;
+        }
+
+        ProfileGraph.Row row = row(node);
+        return row == null ? node < baseCount : !row.removed;
+    }
+
+    public UUID idOf(int node) {
+        return node < columnBase ? mapped.idOf(node) : ids[node - columnBase];
+    }
+
+    public String nameOf(int node) {
+        return node < columnBase ? mapped.nameOf(node) : names[node - columnBase];
+    }
+
+    public int ageOf(int node) {
+        return node < columnBase ? mapped.ageOf(node) : ages[node - columnBase];
+    }
+
+    public Gender genderOf(int node) {
+        return GENDERS[node < columnBase ? mapped.genderOf(node) : genders[node - columnBase]];
+    }
+
+    /* Points cursor at the friends of node and returns it */
+    public NeighborCursor neighbors(int node, NeighborCursor cursor) {
+        ProfileGraph.Row row = row(node);
+        if (row != null) {
+            cursor.reset(row.neighbors, row.levels, 0, row.neighbors.length);
+        } else if (node < baseCount && compressed != null) {
+            cursor.reset(compressed, node);
+        } else if (node < baseCount && mapped != null) {
+            cursor.reset(mapped, node);
+        } else if (node < baseCount) {
+            cursor.reset(neighbors, levels, offsets[node], offsets[node + 1]);
+        } else {
+            cursor.reset(neighbors, levels, 0, 0);
+        }
+        return cursor;
+    }
+
+    public int degree(int node) {
+        ProfileGraph.Row row = row(node);
+        if (row != null) {
+            return row.neighbors.length;
+        }
+        if (node >= baseCount) {
+            return 0;
+        }
+        if (mapped != null) {
+            return mapped.degree(node);
+        }
+        return compressed != null ? compressed.degree(node) : offsets[node + 1] - offsets[node];
+    }
+
+    /*
+    k-th friend of a node, friends are sorted by node. On a compressed base
+    this decodes part of a block, walk rows with a cursor instead.
+    */
+    public int neighbor(int node, int k) {
+        ProfileGraph.Row row = row(node);
+        if (row != null) {
+            return row.neighbors[k];
+        }
+        if (mapped != null) {
+            return mapped.neighbor(node, k);
+        }
+        return compressed != null ? compressed.neighbor(node, k) : neighbors[offsets[node] + k];
+    }
+
+    /* Friendship level between a node and its k-th friend */
+    public int level(int node, int k) {
+        ProfileGraph.Row row = row(node);
+        if (row != null) {
+            return row.levels[k];
+        }
+        if (mapped != null) {
+            return mapped.level(node, k);
+        }
+        return compressed != null ? compressed.level(node, k) : levels[offsets[node] + k];
+    }
+
+    /*
+    Returns the position of neighbor in the row of node, or
+    -(insertion point) - 1 if they are not friends
+    */
+    public int findNeighbor(int node, int neighbor) {
+        ProfileGraph.Row row = row(node);
+        if (row != null) {
+            return Arrays.binarySearch(row.neighbors, neighbor);
+        }
+        if (node >= baseCount) {
+            return -1;
+        }
+        if (compressed != null) {
+            return compressed.find(node, neighbor);
+        }
+        if (mapped != null) {
+            return mapped.find(node, neighbor);
+        }
+
+        int start = offsets[node];
+        int k = Arrays.binarySearch(neighbors, start, offsets[node + 1], neighbor);
+        return k >= 0 ? k - start : k + start;
+    }
+
+    public boolean areFriends(int node1, int node2) {
+        return findNeighbor(node1, node2) >= 0;
+    }
+
+    public Profile profile(int node) {
+        if (!contains(node)) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
+        return new Profile(this, node);
+    }
+
+    public Map<UUID, Integer> friendsOf(int node) {
+        NeighborCursor cursor = neighbors(node, new NeighborCursor());
+        Map<UUID, Integer> friends = new HashMap<>(cursor.size() * 2);
+        while (cursor.next()) {
+            friends.put(idOf(cursor.neighbor()), cursor.level());
+        }
+        return friends;
+    }
+
+    public UUID[] profileIDs() {
+        UUID[] result = new UUID[liveCount];
+        int i = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (contains(node)) {
+                result[i++] = idOf(node);
+            }
+        }
+        return result;
+    }
+
+    /* Friendships in the CSR base, both directions counted */
+    long baseEdges() {
+        if (mapped != null) {
+            return mapped.edgeSlots;
+        }
+        return compressed != null ? compressed.edges : neighbors.length;
+    }
+
+    /* Upper bound (exclusive) of the nodes the node columns and overlay table have room for */
+    int capacity() {
+        return columnBase + ids.length;
+    }
+
+    /* Whether the CSR base is compressed */
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /* Whether the base is read from a mapped graph file */
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
+    /*
+    Bytes taken by the CSR base, offsets included, in the file when it is
+    mapped. Overlay rows written since the last compaction are not counted.
+    */
+    public long adjacencyBytes() {
+        if (mapped != null) {
+            return mapped.adjacencyBytes();
+        }
+        if (compressed != null) {
+            return compressed.bytes + 8L * compressed.offsets.length;
+        }
+        return 4L * offsets.length + 5L * neighbors.length;
+    }
+
+    /* Newest row of node visible at this version, null if it reads from the CSR arrays */
+    ProfileGraph.Row row(int node) {
+        ProfileGraph.Row row = rows[node];
+        while (row != null && row.version > version) {
+            row = row.previous;
+        }
+        return row;
+    }
+}
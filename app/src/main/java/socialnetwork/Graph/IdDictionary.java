@@ -0,0 +1,247 @@
+package socialnetwork.Graph;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.UUID;
+
+/**
+ * Map from profile ids to dense int nodes, without boxing.
+ *
+ * A UUID is stored as its two longs in a flat open-addressed table probed
+ * linearly, followed by its node, so a lookup reads one array and
+ * allocates nothing. Nodes must not be negative.
+ *
+ * Reads never lock. Writes are serialized on the dictionary; a writer fills
+ * the key of a slot before publishing its value with release semantics, and
+ * a reader only compares keys after acquiring a value, so it never sees a
+ * half written entry. A slot keeps its key forever: removing an id leaves a
+ * tombstone, which only the same id can take again. When the used slots
+ * pass the load factor the table is rebuilt into new arrays, tombstones
+ * dropped, and swapped in at once.
+ */
+public class IdDictionary {
+    private static final int EMPTY = -1;
+    private static final int REMOVED = -2;
+
+    /* largest table whose slots still fit in one long array */
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final class Table {
+        /* slots[3 * slot] and slots[3 * slot + 1] are the high and low longs
+         * of the id in slot and slots[3 * slot + 2] its node, so a lookup
+         * usually reads a single cache line */
+        final long[] slots;
+        final int capacity;
+        final int mask;
+
+        Table(int capacity) {
+            slots = new long[3 * capacity];
+            this.capacity = capacity;
+            mask = capacity - 1;
+            for (int slot = 0; slot < capacity; slot++) {
+                slots[3 * slot + 2] = EMPTY;
+            }
+        }
+    }
+
+    private volatile Table table;
+
+    /* live ids and slots taken, live or removed; guarded by this */
+    private int size;
+    private int used;
+
+    public IdDictionary() {
+        this(16);
+    }
+
+    /* Room for expectedSize ids without a rebuild, at most 2^28 of them */
+    public IdDictionary(int expectedSize) throws IllegalArgumentException {
+        table = new Table(capacityFor(expectedSize));
+    }
+
+    /**
+     * Builds a dictionary mapping {@code ids[node]} to {@code node} for every
+     * node in one pass, sized so that it never rehashes.
+     *
+     * @throws IllegalArgumentException if two nodes share an id
+     */
+    public static IdDictionary of(UUID[] ids) throws IllegalArgumentException {
+        long[] high = new long[ids.length];
+        long[] low = new long[ids.length];
+        for (int node = 0; node < ids.length; node++) {
+            high[node] = ids[node].getMostSignificantBits();
+            low[node] = ids[node].getLeastSignificantBits();
+        }
+        return of(high, low);
+    }
+
+    /* Same as of(UUID[]) with the ids given as their high and low longs */
+    public static IdDictionary of(long[] high, long[] low) throws IllegalArgumentException {
+        int n = high.length;
+        IdDictionary dictionary = new IdDictionary(n);
+        Table table = dictionary.table;
+        for (int node = 0; node < n; node++) {
+            int slot = hash(high[node], low[node]) & table.mask;
+            while (table.slots[3 * slot + 2] != EMPTY) {
+                if (table.slots[3 * slot] == high[node] && table.slots[3 * slot + 1] == low[node]) {
+                    throw new IllegalArgumentException("Profile already exists");
+                }
+                slot = (slot + 1) & table.mask;
+            }
+            table.slots[3 * slot] = high[node];
+            table.slots[3 * slot + 1] = low[node];
+            table.slots[3 * slot + 2] = node;
+        }
+
+        synchronized (dictionary) {
+            dictionary.size = n;
+            dictionary.used = n;
+            // publishes the plain writes above to every reader of the volatile field
+            dictionary.table = table;
+        }
+        return dictionary;
+    }
+
+    /* Returns the node of an id, or -1 if it is not in the dictionary */
+    public int get(UUID id) {
+        return get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /* Same as get(new UUID(high, low)) without the UUID */
+    public int get(long high, long low) {
+        Table table = this.table;
+        int slot = hash(high, low) & table.mask;
+        while (true) {
+            long value = (long) VALUES.getAcquire(table.slots, 3 * slot + 2);
+            if (value == EMPTY) {
+                return -1;
+            }
+            if (table.slots[3 * slot] == high && table.slots[3 * slot + 1] == low) {
+                return value == REMOVED ? -1 : (int) value;
+            }
+            slot = (slot + 1) & table.mask;
+        }
+    }
+
+    public boolean contains(UUID id) {
+        return get(id) >= 0;
+    }
+
+    /* Number of ids in the dictionary */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Maps an id to a node unless it is already mapped.
+     *
+     * @return -1 if the id was added, or the node it already had, in which
+     *         case nothing changed
+     * @throws IllegalArgumentException if {@code node} is negative or the
+     *         table can't grow any more
+     */
+    public int putIfAbsent(UUID id, int node) throws IllegalArgumentException {
+        return putIfAbsent(id.getMostSignificantBits(), id.getLeastSignificantBits(), node);
+    }
+
+    /* Same as putIfAbsent(new UUID(high, low), node) without the UUID */
+    public synchronized int putIfAbsent(long high, long low, int node) throws IllegalArgumentException {
+        if (node < 0) {
+            throw new IllegalArgumentException("Node must not be negative");
+        }
+
+        Table table = this.table;
+        int slot = hash(high, low) & table.mask;
+        while (table.slots[3 * slot + 2] != EMPTY) {
+            if (table.slots[3 * slot] == high && table.slots[3 * slot + 1] == low) {
+                if (table.slots[3 * slot + 2] != REMOVED) {
+                    return (int) table.slots[3 * slot + 2];
+                }
+                VALUES.setRelease(table.slots, 3 * slot + 2, (long) node);
+                size++;
+                return -1;
+            }
+            slot = (slot + 1) & table.mask;
+        }
+
+        if ((used + 1) * 3L > table.capacity * 2L) {
+            rebuild(size + 1);
+            putIfAbsent(high, low, node);
+            return -1;
+        }
+        table.slots[3 * slot] = high;
+        table.slots[3 * slot + 1] = low;
+        VALUES.setRelease(table.slots, 3 * slot + 2, (long) node);
+        size++;
+        used++;
+        return -1;
+    }
+
+    /* Removes an id and returns the node it had, or -1 if it wasn't there */
+    public synchronized int remove(UUID id) {
+        long high = id.getMostSignificantBits();
+        long low = id.getLeastSignificantBits();
+        Table table = this.table;
+        int slot = hash(high, low) & table.mask;
+        while (table.slots[3 * slot + 2] != EMPTY) {
+            if (table.slots[3 * slot] == high && table.slots[3 * slot + 1] == low) {
+                int node = (int) table.slots[3 * slot + 2];
+                if (node == REMOVED) {
+                    return -1;
+                }
+                VALUES.setRelease(table.slots, 3 * slot + 2, (long) REMOVED);
+                size--;
+                return node;
+            }
+            slot = (slot + 1) & table.mask;
+        }
+        return -1;
+    }
+
+    /* New arrays holding the live ids only, with room for expectedSize of them */
+    private void rebuild(int expectedSize) {
+        Table old = table;
+        Table rebuilt = new Table(capacityFor(expectedSize));
+        for (int i = 0; i < old.capacity; i++) {
+            long value = old.slots[3 * i + 2];
+            if (value < 0) {
+                continue;
+            }
+            long high = old.slots[3 * i];
+            long low = old.slots[3 * i + 1];
+            int slot = hash(high, low) & rebuilt.mask;
+            while (rebuilt.slots[3 * slot + 2] != EMPTY) {
+                slot = (slot + 1) & rebuilt.mask;
+            }
+            rebuilt.slots[3 * slot] = high;
+            rebuilt.slots[3 * slot + 1] = low;
+            rebuilt.slots[3 * slot + 2] = value;
+        }
+        used = size;
+        table = rebuilt;
+    }
+
+    /* Power of two keeping expectedSize ids under a 1/2 load, so there is room to grow to 2/3 */
+    private static int capacityFor(int expectedSize) throws IllegalArgumentException {
+        if (expectedSize > MAX_CAPACITY / 2) {
+            throw new IllegalArgumentException("Too many ids for a dictionary: " + expectedSize);
+        }
+
+        int capacity = 16;
+        while (capacity < 2L * expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /* Random UUIDs are already well mixed, this also copes with sequential ones */
+    private static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return (int) h;
+    }
+}
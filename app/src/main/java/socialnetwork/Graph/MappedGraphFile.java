@@ -0,0 +1,140 @@
+package socialnetwork.Graph;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * A {@link GraphFile} mapped into memory and read in place, used as the base
+ * of a graph instead of the node columns and CSR arrays on the heap.
+ *
+ * Every read goes to the mapped buffers, so the file is paged in by the
+ * operating system as it is used and can be larger than both the heap and
+ * the physical memory. Nothing is copied at open time besides the header;
+ * looking an id up probes the id table stored in the file. The mapping is
+ * released by the garbage collector once no snapshot reads it any more.
+ */
+final class MappedGraphFile {
+    private static final int ID_SLOT = 24;
+
+    final Path path;
+    final MappedRegion file;
+    final int nodeCount;
+    final long edgeSlots;
+    final long graphVersion;
+
+    /* section positions, see GraphFile */
+    private final long ids;
+    private final long ages;
+    private final long genders;
+    private final long nameOffsets;
+    private final long names;
+    private final long offsets;
+    final long neighbors;
+    final long levels;
+    private final long idTable;
+    private final long idMask;
+
+    MappedGraphFile(Path path, MappedRegion file, GraphFile.Layout layout) {
+        this.path = path;
+        this.file = file;
+        this.nodeCount = layout.nodeCount;
+        this.edgeSlots = layout.edgeSlots;
+        this.graphVersion = layout.graphVersion;
+        this.ids = layout.ids;
+        this.ages = layout.ages;
+        this.genders = layout.genders;
+        this.nameOffsets = layout.nameOffsets;
+        this.names = layout.names;
+        this.offsets = layout.offsets;
+        this.neighbors = layout.neighbors;
+        this.levels = layout.levels;
+        this.idTable = layout.idTable;
+        this.idMask = layout.idSlots - 1;
+    }
+
+    long idHigh(int node) {
+        return file.getLong(ids + 8L * node);
+    }
+
+    long idLow(int node) {
+        return file.getLong(ids + 8L * nodeCount + 8L * node);
+    }
+
+    UUID idOf(int node) {
+        return new UUID(idHigh(node), idLow(node));
+    }
+
+    String nameOf(int node) {
+        long start = file.getLong(nameOffsets + 8L * node);
+        long end = file.getLong(nameOffsets + 8L * (node + 1));
+        byte[] bytes = new byte[(int) (end - start)];
+        file.copy(names + start, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int ageOf(int node) {
+        return file.getInt(ages + 4L * node);
+    }
+
+    byte genderOf(int node) {
+        return file.getByte(genders + node);
+    }
+
+    /* Edge slot where the row of node starts, rowStart(node + 1) is where it ends */
+    long rowStart(int node) {
+        return file.getLong(offsets + 8L * node);
+    }
+
+    int degree(int node) {
+        return (int) (rowStart(node + 1) - rowStart(node));
+    }
+
+    int neighbor(int node, int k) {
+        return file.getInt(neighbors + 4L * (rowStart(node) + k));
+    }
+
+    int level(int node, int k) {
+        return file.getByte(levels + rowStart(node) + k);
+    }
+
+    /* Position of neighbor in the row of node, or -(insertion point) - 1 */
+    int find(int node, int neighbor) {
+        long start = rowStart(node);
+        int low = 0;
+        int high = (int) (rowStart(node + 1) - start) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int friend = file.getInt(neighbors + 4L * (start + middle));
+            if (friend < neighbor) {
+                low = middle + 1;
+            } else if (friend > neighbor) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /* Node of an id in the file's id table, or -1. Removed nodes are not in the table */
+    int indexOf(long high, long low) {
+        long slot = GraphFile.idHash(high, low) & idMask;
+        while (true) {
+            long at = idTable + ID_SLOT * slot;
+            long node = file.getLong(at + 16);
+            if (node < 0) {
+                return -1;
+            }
+            if (file.getLong(at) == high && file.getLong(at + 8) == low) {
+                return (int) node;
+            }
+            slot = (slot + 1) & idMask;
+        }
+    }
+
+    /* Bytes of the adjacency sections */
+    long adjacencyBytes() {
+        return 8L * (nodeCount + 1) + 5L * edgeSlots;
+    }
+}
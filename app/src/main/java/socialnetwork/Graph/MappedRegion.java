@@ -0,0 +1,128 @@
+package socialnetwork.Graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Part of a file mapped into memory, read and written little-endian at long
+ * positions.
+ *
+ * A MappedByteBuffer holds at most 2 GB, so the region is mapped as buffers
+ * of 1 GB each. Longs and ints must sit at positions aligned to their size,
+ * as every section of a {@link GraphFile} does, so that no value straddles
+ * two buffers. The buffers are unmapped by the garbage collector once
+ * nothing reads them any more.
+ */
+final class MappedRegion {
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    private MappedRegion(MappedByteBuffer[] chunks, long size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    static MappedRegion map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map(mode, position + start, Math.min(CHUNK_SIZE, size - start));
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new MappedRegion(chunks, size);
+    }
+
+    long byteSize() {
+        return size;
+    }
+
+    long getLong(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].getLong((int) (position & CHUNK_MASK));
+    }
+
+    int getInt(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].getInt((int) (position & CHUNK_MASK));
+    }
+
+    byte getByte(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & CHUNK_MASK));
+    }
+
+    void setLong(long position, long value) {
+        chunks[(int) (position >>> CHUNK_SHIFT)].putLong((int) (position & CHUNK_MASK), value);
+    }
+
+    void fill(byte value) {
+        byte[] run = new byte[1 << 16];
+        Arrays.fill(run, value);
+        for (MappedByteBuffer chunk : chunks) {
+            for (int at = 0; at < chunk.capacity(); at += run.length) {
+                chunk.put(at, run, 0, Math.min(run.length, chunk.capacity() - at));
+            }
+        }
+    }
+
+    void copy(long position, long[] destination, int offset, int count) {
+        while (count > 0) {
+            int at = (int) (position & CHUNK_MASK);
+            int length = (int) Math.min(count, (CHUNK_SIZE - at) / Long.BYTES);
+            slice(position, length * Long.BYTES).asLongBuffer().get(destination, offset, length);
+            position += (long) length * Long.BYTES;
+            offset += length;
+            count -= length;
+        }
+    }
+
+    void copy(long position, int[] destination, int offset, int count) {
+        while (count > 0) {
+            int at = (int) (position & CHUNK_MASK);
+            int length = (int) Math.min(count, (CHUNK_SIZE - at) / Integer.BYTES);
+            slice(position, length * Integer.BYTES).asIntBuffer().get(destination, offset, length);
+            position += (long) length * Integer.BYTES;
+            offset += length;
+            count -= length;
+        }
+    }
+
+    void copy(long position, byte[] destination, int offset, int count) {
+        while (count > 0) {
+            int at = (int) (position & CHUNK_MASK);
+            int length = (int) Math.min(count, CHUNK_SIZE - at);
+            chunks[(int) (position >>> CHUNK_SHIFT)].get(at, destination, offset, length);
+            position += length;
+            offset += length;
+            count -= length;
+        }
+    }
+
+    /* Buffers covering the bytes from position to the end, for checksums */
+    ByteBuffer[] buffers(long position) {
+        int first = (int) (position >>> CHUNK_SHIFT);
+        ByteBuffer[] buffers = new ByteBuffer[Math.max(0, chunks.length - first)];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = chunks[first + i].duplicate();
+        }
+        if (buffers.length > 0) {
+            buffers[0].position((int) (position & CHUNK_MASK));
+        }
+        return buffers;
+    }
+
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    private ByteBuffer slice(long position, int length) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].slice((int) (position & CHUNK_MASK), length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
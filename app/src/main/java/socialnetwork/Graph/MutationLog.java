@@ -0,0 +1,373 @@
+package socialnetwork.Graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import socialnetwork.Model.Gender;
+
+/**
+ * Append-only log of the writes on a {@link ProfileGraph}, so they survive a
+ * restart without rewriting the whole dataset.
+ *
+ * The log listens to the graph and appends one record per write to an
+ * in-memory batch while the writer still holds its locks, so writes on the
+ * same nodes are logged in the order they happened. {@link #sync()} writes
+ * the batch through the file channel and forces it to disk; writers that
+ * call it at the same time share a single fsync (group commit). With a sync
+ * interval the log is also synced in the background every interval, and
+ * writers don't need to wait for it.
+ *
+ * Every record carries the version of its write. Records refer to profiles
+ * by id, so they can be replayed on a graph with different node numbers, and
+ * {@link #replay} skips the ones not newer than the graph it is replayed on.
+ * {@link #truncate} drops the records already folded into a new base file.
+ *
+ * Record layout, little-endian: payload length (int), type (byte), version
+ * (long), payload, CRC32C of type, version and payload (int). A torn record
+ * at the end of the file, left by a crash, is cut off when the log is opened.
+ */
+public class MutationLog implements GraphListener, Closeable {
+    private static final Logger logger = LogManager.getLogger(MutationLog.class);
+
+    private static final byte ADD_NODE = 1;
+    private static final byte REMOVE_NODE = 2;
+    private static final byte CONNECT = 3;
+    private static final byte DISCONNECT = 4;
+
+    /* length, type, version and checksum around each payload */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4;
+
+    private final Path path;
+    private final long syncIntervalMillis;
+    private final ScheduledExecutorService syncer;
+
+    /* current file, replaced by truncate, guarded by syncLock */
+    private FileChannel channel;
+    private final Object syncLock = new Object();
+
+    /* records appended but not yet written, guarded by this */
+    private ByteBuffer batch = newBatch(1 << 16);
+    private long appended;
+    private volatile long durable;
+
+    private MutationLog(Path path, FileChannel channel, long syncIntervalMillis) {
+        this.path = path;
+        this.channel = channel;
+        this.syncIntervalMillis = syncIntervalMillis;
+
+        if (syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mutation-log-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Opens or creates the log at path, cutting off a torn record at its end.
+     * With a sync interval of 0 writers are expected to call {@link #sync()}
+     * after each write, otherwise the log syncs itself every interval.
+     */
+    public static MutationLog open(Path path, long syncIntervalMillis) throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("Sync interval cannot be negative");
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = scan(channel, null, Long.MIN_VALUE);
+        if (end < channel.size()) {
+            logger.warn("Truncating torn record at byte " + end + " of mutation log " + path);
+            channel.truncate(end);
+            channel.force(true);
+        }
+        channel.position(end);
+        return new MutationLog(path, channel, syncIntervalMillis);
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Applies every record newer than the graph's version to the graph and
+     * returns how many were applied. Records that no longer apply, e.g. a
+     * friendship that already exists, are logged and skipped.
+     */
+    public int replay(ProfileGraph graph) throws IOException {
+        synchronized (syncLock) {
+            Replayer replayer = new Replayer(graph);
+            scan(channel, replayer, graph.snapshot().version());
+            return replayer.applied;
+        }
+    }
+
+    /**
+     * Writes every record appended so far and forces it to disk. Concurrent
+     * callers are served by the same write and fsync.
+     */
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+
+        synchronized (syncLock) {
+            if (durable >= target) {
+                return;
+            }
+
+            ByteBuffer pending;
+            long upTo;
+            synchronized (this) {
+                pending = batch;
+                upTo = appended;
+                batch = newBatch(pending.capacity());
+            }
+
+            pending.flip();
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+            channel.force(false);
+            durable = upTo;
+        }
+    }
+
+    /**
+     * Replaces the log with one holding only the records newer than
+     * {@code version}, once a base file containing everything up to that
+     * version is safely in place. The new log is written next to the old one
+     * and moved over it, so a crash leaves either of them.
+     */
+    public void truncate(long version) throws IOException {
+        synchronized (syncLock) {
+            sync();
+
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                scan(channel, record -> {
+                    record.rewind();
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                }, version);
+                out.force(true);
+            }
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        synchronized (syncLock) {
+            sync();
+            channel.close();
+        }
+    }
+
+    @Override
+    public void nodeAdded(GraphSnapshot snapshot, long version, int node) {
+        byte[] name = snapshot.nameOf(node).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = begin(ADD_NODE, version, 16 + 4 + 1 + name.length);
+        putID(record, snapshot.idOf(node));
+        record.putInt(snapshot.ageOf(node));
+        record.put((byte) snapshot.genderOf(node).ordinal());
+        record.put(name);
+        end(record);
+    }
+
+    @Override
+    public void nodeRemoved(GraphSnapshot snapshot, long version, int node) {
+        ByteBuffer record = begin(REMOVE_NODE, version, 16);
+        putID(record, snapshot.idOf(node));
+        end(record);
+    }
+
+    @Override
+    public void edgeAdded(GraphSnapshot snapshot, long version, int node1, int node2, int friendshipLevel) {
+        ByteBuffer record = begin(CONNECT, version, 16 + 16 + 1);
+        putID(record, snapshot.idOf(node1));
+        putID(record, snapshot.idOf(node2));
+        record.put((byte) friendshipLevel);
+        end(record);
+    }
+
+    @Override
+    public void edgeRemoved(GraphSnapshot snapshot, long version, int node1, int node2) {
+        ByteBuffer record = begin(DISCONNECT, version, 16 + 16);
+        putID(record, snapshot.idOf(node1));
+        putID(record, snapshot.idOf(node2));
+        end(record);
+    }
+
+    /* Starts a record in the batch, the caller fills the payload and calls end */
+    private ByteBuffer begin(byte type, long version, int payloadLength) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(payloadLength);
+        record.put(type);
+        record.putLong(version);
+        return record;
+    }
+
+    private void end(ByteBuffer record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 4, record.position() - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        synchronized (this) {
+            if (batch.remaining() < record.remaining()) {
+                ByteBuffer larger = newBatch(Math.max(batch.capacity() * 2, batch.position() + record.remaining()));
+                batch.flip();
+                larger.put(batch);
+                batch = larger;
+            }
+            batch.put(record);
+            appended++;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            logger.error("Error syncing mutation log " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static ByteBuffer newBatch(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void putID(ByteBuffer record, UUID id) {
+        record.putLong(id.getMostSignificantBits());
+        record.putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID getID(ByteBuffer record) {
+        return new UUID(record.getLong(), record.getLong());
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        /* record spans the whole record, positioned after the version */
+        void visit(ByteBuffer record) throws IOException;
+    }
+
+    /*
+    Visits the valid records newer than version from the start of the file
+    and returns where the valid records end
+    */
+    private static long scan(FileChannel channel, RecordVisitor visitor, long version) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C crc = new CRC32C();
+        while (position + RECORD_OVERHEAD <= size) {
+            length.clear();
+            channel.read(length, position);
+            int payloadLength = length.getInt(0);
+            if (payloadLength < 0 || position + RECORD_OVERHEAD + payloadLength > size) {
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+            while (record.hasRemaining()) {
+                if (channel.read(record, position + record.position()) < 0) {
+                    break;
+                }
+            }
+            crc.reset();
+            crc.update(record.array(), 4, 1 + 8 + payloadLength);
+            if ((int) crc.getValue() != record.getInt(RECORD_OVERHEAD - 4 + payloadLength)) {
+                break;
+            }
+
+            record.position(5);
+            if (visitor != null && record.getLong() > version) {
+                visitor.visit(record);
+            }
+            position += RECORD_OVERHEAD + payloadLength;
+        }
+        return position;
+    }
+
+    /* Applies records to a graph by profile id */
+    private static final class Replayer implements RecordVisitor {
+        private static final Gender[] GENDERS = Gender.values();
+
+        private final ProfileGraph graph;
+        private int applied;
+
+        Replayer(ProfileGraph graph) {
+            this.graph = graph;
+        }
+
+        @Override
+        public void visit(ByteBuffer record) {
+            byte type = record.get(4);
+            try {
+                switch (type) {
+                    case ADD_NODE: {
+                        UUID profileID = getID(record);
+                        int age = record.getInt();
+                        Gender gender = GENDERS[record.get()];
+                        byte[] name = new byte[record.remaining() - 4];
+                        record.get(name);
+                        graph.addNode(profileID, new String(name, StandardCharsets.UTF_8), age, gender);
+                        break;
+                    }
+                    case REMOVE_NODE:
+                        graph.removeNode(nodeOf(getID(record)));
+                        break;
+                    case CONNECT:
+                        graph.connect(nodeOf(getID(record)), nodeOf(getID(record)), record.get());
+                        break;
+                    case DISCONNECT:
+                        graph.disconnect(nodeOf(getID(record)), nodeOf(getID(record)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown record type " + type);
+                }
+                applied++;
+            } catch (IllegalArgumentException e) {
+                logger.warn("Skipping mutation log record of type " + type + ": " + e.getMessage(), e);
+            }
+        }
+
+        private int nodeOf(UUID profileID) {
+            int node = graph.indexOf(profileID);
+            if (node < 0) {
+                throw new IllegalArgumentException("Profile " + profileID + " does not exist");
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package socialnetwork.Graph;
+
+/**
+ * Reusable iterator over the friends of one node, in increasing node order.
+ * Point it at a node with {@link GraphSnapshot#neighbors(int, NeighborCursor)}
+ * and call {@link #next()} before reading each friend.
+ *
+ * Compressed and mapped rows are decoded, or copied, one block at a time
+ * into buffers owned by the cursor, so reading a friend is an array access
+ * whatever the storage.
+ */
+public final class NeighborCursor {
+    private int[] neighbors;
+    private byte[] levels;
+    private int start;
+    private int end;
+    private int position;
+    private int size;
+
+    /* state of a row read block by block, blocks is 0 for plain rows */
+    private int blocks;
+    private int nextBlock;
+
+    /* compressed row, page is null for mapped rows */
+    private byte[] page;
+    private int node;
+    private int index;
+    private int data;
+    private int nextGaps;
+
+    /* mapped row, its friends and levels start at these file positions */
+    private MappedRegion file;
+    private long neighborsAt;
+    private long levelsAt;
+
+    private int[] blockNeighbors;
+    private byte[] blockLevels;
+
+    void reset(int[] neighbors, byte[] levels, int start, int end) {
+        this.neighbors = neighbors;
+        this.levels = levels;
+        this.start = start;
+        this.end = end;
+        this.position = start - 1;
+        this.size = end - start;
+        this.blocks = 0;
+        this.page = null;
+        this.file = null;
+    }
+
+    void reset(CompressedAdjacency adjacency, int node) {
+        long offset = adjacency.offsets[node];
+        byte[] page = adjacency.pages[CompressedAdjacency.pageOf(offset)];
+        int at = CompressedAdjacency.positionOf(offset);
+        int degree = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = page[at++];
+            degree |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+
+        allocateBlock();
+        this.page = page;
+        this.node = node;
+        this.size = degree;
+        this.blocks = (degree + CompressedAdjacency.BLOCK - 1) / CompressedAdjacency.BLOCK;
+        this.index = at;
+        this.data = at + Math.max(0, blocks - 1) * 8;
+        this.nextBlock = 0;
+        this.nextGaps = data;
+        this.file = null;
+        this.neighbors = blockNeighbors;
+        this.levels = blockLevels;
+        this.start = 0;
+        this.end = 0;
+        this.position = -1;
+    }
+
+    void reset(MappedGraphFile mapped, int node) {
+        long row = mapped.rowStart(node);
+        allocateBlock();
+        this.file = mapped.file;
+        this.neighborsAt = mapped.neighbors + 4 * row;
+        this.levelsAt = mapped.levels + row;
+        this.size = (int) (mapped.rowStart(node + 1) - row);
+        this.blocks = (size + CompressedAdjacency.BLOCK - 1) / CompressedAdjacency.BLOCK;
+        this.nextBlock = 0;
+        this.page = null;
+        this.neighbors = blockNeighbors;
+        this.levels = blockLevels;
+        this.start = 0;
+        this.end = 0;
+        this.position = -1;
+    }
+
+    private void allocateBlock() {
+        if (blockNeighbors == null) {
+            blockNeighbors = new int[CompressedAdjacency.BLOCK];
+            blockLevels = new byte[CompressedAdjacency.BLOCK];
+        }
+    }
+
+    /* Number of friends of the node */
+    public int size() {
+        return size;
+    }
+
+    public boolean next() {
+        return ++position < end || decodeBlock(nextBlock);
+    }
+
+    public int neighbor() {
+        return neighbors[position];
+    }
+
+    public int level() {
+        return levels[position];
+    }
+
+    /**
+     * Moves forward to the first friend not below {@code target}, staying
+     * put if the current one already is, and returns false if there is no
+     * such friend. Works before the first {@link #next()} as well. Plain rows
+     * are galloped through, compressed and mapped ones skip whole blocks.
+     */
+    public boolean skipTo(int target) {
+        if (position < start && !next()) {
+            return false;
+        }
+        if (position >= end) {
+            return false;
+        }
+
+        if (neighbors[end - 1] < target) {
+            if (!skipBlocks(target)) {
+                position = end;
+                return false;
+            }
+        }
+
+        // The answer is in [position, end): gallop, then binary search the last step
+        int low = position;
+        int step = 1;
+        int probe = position;
+        while (neighbors[probe] < target) {
+            low = probe + 1;
+            probe = Math.min(end - 1, probe + step);
+            step <<= 1;
+        }
+        int high = probe;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (neighbors[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        position = low;
+        return true;
+    }
+
+    /* Decodes the block holding the first friend not below target, false if there is none */
+    private boolean skipBlocks(int target) {
+        int block = nextBlock;
+        if (block >= blocks) {
+            return false;
+        }
+        while (block + 1 < blocks && firstOf(block + 1) <= target) {
+            block++;
+        }
+        if (!decodeBlock(block)) {
+            return false;
+        }
+        // the first friend of the block may still be below target, but its last one is not
+        // unless target lies past the whole row
+        if (neighbors[end - 1] < target) {
+            return skipBlocks(target);
+        }
+        return true;
+    }
+
+    /* First friend of a block after the first one */
+    private int firstOf(int block) {
+        if (page == null) {
+            return file.getInt(neighborsAt + 4L * block * CompressedAdjacency.BLOCK);
+        }
+        return CompressedAdjacency.readInt(page, index + (block - 1) * 8);
+    }
+
+    private boolean decodeBlock(int block) {
+        if (block >= blocks) {
+            return false;
+        }
+        if (page == null) {
+            return copyBlock(block);
+        }
+
+        int at = block == nextBlock ? nextGaps : data + CompressedAdjacency.readInt(page, index + (block - 1) * 8 + 4);
+        int count = Math.min(CompressedAdjacency.BLOCK, size - block * CompressedAdjacency.BLOCK);
+        int width = page[at++];
+        for (int i = 0; i < count; i++) {
+            blockLevels[i] = (byte) CompressedAdjacency.readLevel(page, at, width, i);
+        }
+        at += CompressedAdjacency.levelBytes(count, width);
+
+        int friend;
+        int i = 0;
+        if (block == 0) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = page[at++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            friend = node + CompressedAdjacency.zigZagDecode(value);
+        } else {
+            friend = CompressedAdjacency.readInt(page, index + (block - 1) * 8);
+        }
+        blockNeighbors[i++] = friend;
+        for (; i < count; i++) {
+            int b = page[at++];
+            int gap = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = page[at++];
+                gap |= (b & 0x7F) << shift;
+            }
+            friend += gap + 1;
+            blockNeighbors[i] = friend;
+        }
+
+        nextBlock = block + 1;
+        nextGaps = at;
+        start = 0;
+        end = count;
+        position = 0;
+        return true;
+    }
+
+    private boolean copyBlock(int block) {
+        int first = block * CompressedAdjacency.BLOCK;
+        int count = Math.min(CompressedAdjacency.BLOCK, size - first);
+        file.copy(neighborsAt + 4L * first, blockNeighbors, 0, count);
+        file.copy(levelsAt + first, blockLevels, 0, count);
+
+        nextBlock = block + 1;
+        start = 0;
+        end = count;
+        position = 0;
+        return true;
+    }
+}
@@ -0,0 +1,912 @@
+package socialnetwork.Graph;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import socialnetwork.Model.Gender;
+import socialnetwork.Model.Profile;
+
+/**
+ * Int-indexed store for the profiles network.
+ *
+ * Every profile gets a dense int id (its node) when it is added. Profile
+ * attributes live in columns indexed by node and adjacency is kept in
+ * compressed-sparse-row form: the friends of node {@code i} are
+ * {@code neighbors[offsets[i] .. offsets[i + 1])}, sorted by node, and the
+ * friendship level of each edge is in the same slot of {@code levels}.
+ *
+ * The graph is versioned. Every write gets the next version and, instead of
+ * touching the CSR arrays, prepends a new immutable {@link Row} to each node
+ * it changes, so readers working on an older {@link GraphSnapshot} are never
+ * disturbed. Once the rows written since the CSR arrays were built grow past
+ * a fraction of the graph they are folded into fresh arrays by
+ * {@link #compact()}, on a background thread; snapshots taken before keep
+ * the arrays they had.
+ *
+ * Reads go through {@link #snapshot()} and never block. Writers lock the
+ * {@link StripedLocks} stripes of every node they change, in increasing
+ * order, so writes on unrelated nodes run in parallel and both sides of an
+ * edge always change under the same locks. A writer takes its version only
+ * once it holds its locks and publishes it strictly after every lower
+ * version, so each published snapshot contains whole writes only. Growing
+ * the node columns and swapping a compacted base in take every stripe; the
+ * base itself is built from a snapshot without holding any.
+ *
+ * The CSR base can also be kept compressed, see
+ * {@link #setCompressedAdjacency(boolean)}, or be a graph file mapped into
+ * memory, see {@link GraphFile#map}. A mapped graph keeps only the overlay
+ * rows, the overlay table and the profiles added since the file was mapped
+ * on the heap, and compacts into a new mapped file.
+ *
+ * Node ids of removed profiles are never reused.
+ */
+public class ProfileGraph implements FriendshipWriter {
+    private static final Logger logger = LogManager.getLogger(ProfileGraph.class);
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /* runs the compactions writes trigger, one at a time for all graphs, off the writers' path */
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "profile-graph-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int MIN_COMPACTION_THRESHOLD = 1024;
+
+    /* marks nodes that were already removed when the CSR arrays were built */
+    private static final Row REMOVED = new Row(0, true, new int[0], new byte[0], null);
+
+    /**
+     * Friends of a node as of one version. Rows are never modified once
+     * published; {@code previous} is the row this one replaced, or null if the
+     * node read from the CSR arrays before.
+     */
+    static final class Row {
+        final long version;
+        final boolean removed;
+        final int[] neighbors;
+        final byte[] levels;
+        final Row previous;
+
+        Row(long version, boolean removed, int[] neighbors, byte[] levels, Row previous) {
+            this.version = version;
+            this.removed = removed;
+            this.neighbors = neighbors;
+            this.levels = levels;
+            this.previous = previous;
+        }
+    }
+
+    /* ids of the nodes not in the mapped base, if any; replaced when a mapped graph compacts */
+    private volatile IdDictionary nodes;
+    private volatile GraphSnapshot current;
+
+    private final StripedLocks locks = StripedLocks.forAvailableProcessors();
+    private final AtomicLong nextVersion = new AtomicLong();
+
+    /* node ids handed out so far, guarded by allocationLock */
+    private final Object allocationLock = new Object();
+    private volatile int allocated;
+
+    /* total size of the rows written since the CSR arrays were built */
+    private final LongAdder overlayEdges = new LongAdder();
+
+    /* overlay size when a compaction last failed, the next one waits for it to double */
+    private volatile long failedCompactionEdges;
+
+    /* held while a compaction builds its base and swaps it in, so they run one at a time */
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    private final CopyOnWriteArrayList<GraphListener> listeners = new CopyOnWriteArrayList<>();
+
+    /* where Profile views send their friendship changes, null for the graph itself */
+    private volatile FriendshipWriter friendshipWriter;
+
+    /* whether compactions pack the CSR rows, see CompressedAdjacency */
+    private volatile boolean compressedAdjacency;
+
+    /* Every factory installs the first snapshot, so the constructor never hands out this */
+    private ProfileGraph(IdDictionary nodes) {
+        this.nodes = nodes;
+    }
+
+    public static ProfileGraph empty() {
+        return empty(DEFAULT_CAPACITY);
+    }
+
+    /* Empty graph with room for capacity profiles before its columns grow */
+    public static ProfileGraph empty(int capacity) {
+        ProfileGraph graph = new ProfileGraph(new IdDictionary(capacity));
+        capacity = Math.max(capacity, DEFAULT_CAPACITY);
+        graph.current = new GraphSnapshot(
+            graph, 0, 0, 0,
+            new UUID[capacity], new String[capacity], new int[capacity], new byte[capacity],
+            0, new int[1], new int[0], new byte[0], null, null,
+            new Row[capacity]
+        );
+        return graph;
+    }
+
+    /**
+     * Builds a graph from profiles that are not stored in any graph yet,
+     * using each profile's own friends map as its adjacency row. Friends that
+     * are not among {@code profiles} and self friendships are dropped.
+     *
+     * @throws IllegalArgumentException if two profiles share an id or a
+     *         friendship level is out of range
+     */
+    public static ProfileGraph fromProfiles(Collection<Profile> profiles) throws IllegalArgumentException {
+        ProfileGraph graph = empty(profiles.size());
+        int n = 0;
+        for (Profile profile : profiles) {
+            if (graph.nodes.putIfAbsent(profile.getProfileID(), n++) >= 0) {
+                throw new IllegalArgumentException("Profile already exists");
+            }
+        }
+
+        UUID[] ids = new UUID[n];
+        String[] names = new String[n];
+        int[] ages = new int[n];
+        byte[] genders = new byte[n];
+        Map<?, ?>[] rows = new Map<?, ?>[n];
+        int[] offsets = new int[n + 1];
+
+        int node = 0;
+        for (Profile profile : profiles) {
+            ids[node] = profile.getProfileID();
+            names[node] = profile.getName();
+            ages[node] = profile.getAge();
+            genders[node] = (byte) profile.getGender().ordinal();
+
+            Map<UUID, Integer> friends = profile.getFriends();
+            int degree = 0;
+            for (UUID friendID : friends.keySet()) {
+                int friend = graph.nodes.get(friendID);
+                if (friend >= 0 && friend != node) {
+                    degree++;
+                }
+            }
+
+            rows[node] = friends;
+            offsets[node + 1] = offsets[node] + degree;
+            node++;
+        }
+
+        int[] neighbors = new int[offsets[n]];
+        byte[] levels = new byte[offsets[n]];
+        long[] scratch = new long[0];
+        for (node = 0; node < n; node++) {
+            int degree = offsets[node + 1] - offsets[node];
+            if (scratch.length < degree) {
+                scratch = new long[degree];
+            }
+
+            // Pack (neighbor, level) so a single sort orders the row by neighbor
+            int k = 0;
+            for (Map.Entry<?, ?> entry : rows[node].entrySet()) {
+                int friend = graph.nodes.get((UUID) entry.getKey());
+                if (friend < 0 || friend == node) {
+                    continue;
+                }
+                scratch[k++] = ((long) friend << 8) | toLevel((Integer) entry.getValue());
+            }
+            rows[node] = null;
+
+            Arrays.sort(scratch, 0, degree);
+            for (k = 0; k < degree; k++) {
+                neighbors[offsets[node] + k] = (int) (scratch[k] >>> 8);
+                levels[offsets[node] + k] = (byte) scratch[k];
+            }
+        }
+
+        graph.install(ids, names, ages, genders, offsets, neighbors, levels);
+        return graph;
+    }
+
+    /**
+     * Builds a graph straight from its node columns and CSR rows, which it
+     * takes ownership of. Each row must be sorted by node, without self
+     * friendships, and every edge must be in the rows of both of its nodes
+     * with the same level.
+     *
+     * @throws IllegalArgumentException if two nodes share an id
+     */
+    public static ProfileGraph fromArrays(
+        UUID[] ids,
+        String[] names,
+        int[] ages,
+        byte[] genders,
+        int[] offsets,
+        int[] neighbors,
+        byte[] levels
+    ) throws IllegalArgumentException {
+        return fromArrays(IdDictionary.of(ids), ids, names, ages, genders, offsets, neighbors, levels);
+    }
+
+    /**
+     * Same as {@link #fromArrays(UUID[], String[], int[], byte[], int[], int[], byte[])}
+     * with the dictionary of the ids already built, e.g. by a loader that
+     * needed it to resolve friends. The graph takes ownership of it as well;
+     * it must map {@code ids[node]} to {@code node} and nothing else.
+     */
+    public static ProfileGraph fromArrays(
+        IdDictionary nodes,
+        UUID[] ids,
+        String[] names,
+        int[] ages,
+        byte[] genders,
+        int[] offsets,
+        int[] neighbors,
+        byte[] levels
+    ) throws IllegalArgumentException {
+        if (nodes.size() != ids.length) {
+            throw new IllegalArgumentException("Dictionary does not match the ids");
+        }
+
+        ProfileGraph graph = new ProfileGraph(nodes);
+        graph.install(ids, names, ages, genders, offsets, neighbors, levels);
+        return graph;
+    }
+
+    /* Graph reading its base from a mapped file, see GraphFile.map */
+    static ProfileGraph fromMapped(MappedGraphFile file) {
+        ProfileGraph graph = new ProfileGraph(new IdDictionary());
+        int n = file.nodeCount;
+        graph.current = new GraphSnapshot(
+            graph, 0, n, n,
+            new UUID[DEFAULT_CAPACITY], new String[DEFAULT_CAPACITY], new int[DEFAULT_CAPACITY], new byte[DEFAULT_CAPACITY],
+            n, new int[1], new int[0], new byte[0], null, file,
+            new Row[n + DEFAULT_CAPACITY]
+        );
+        graph.allocated = n;
+        return graph;
+    }
+
+    /* Makes the next write get version + 1, used when the graph continues a saved one */
+    void startAt(long version) {
+        nextVersion.set(version);
+        current = current.withVersion(version, allocated, current.liveCount);
+    }
+
+    private void install(UUID[] ids, String[] names, int[] ages, byte[] genders, int[] offsets, int[] neighbors, byte[] levels) {
+        int n = ids.length;
+        current = new GraphSnapshot(
+            this, 0, n, n,
+            ids, names, ages, genders,
+            n, offsets, neighbors, levels, null, null,
+            new Row[n]
+        );
+        allocated = n;
+    }
+
+    /* Consistent view of the graph as of the last completed write */
+    public GraphSnapshot snapshot() {
+        return current;
+    }
+
+    /*
+    Waits until every write that has taken its version is published, and
+    returns the snapshot holding them. A listener added before the call is
+    told about every write the returned snapshot does not hold
+    */
+    public GraphSnapshot awaitWrites() {
+        long version = nextVersion.get();
+        GraphSnapshot snapshot;
+        int spins = 0;
+        while ((snapshot = current).version < version) {
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        return snapshot;
+    }
+
+    public void addListener(GraphListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(GraphListener listener) {
+        listeners.remove(listener);
+    }
+
+    /* Writer of the friendship changes made through Profile views, null to apply them here */
+    public void setFriendshipWriter(FriendshipWriter writer) {
+        this.friendshipWriter = writer;
+    }
+
+    public FriendshipWriter friendshipWriter() {
+        FriendshipWriter writer = friendshipWriter;
+        return writer == null ? this : writer;
+    }
+
+    /* Returns the node of a profile, or -1 if it is not in the graph */
+    public int indexOf(UUID profileID) {
+        return indexOf(profileID.getMostSignificantBits(), profileID.getLeastSignificantBits());
+    }
+
+    /* Same as indexOf(new UUID(high, low)), for callers holding ids as longs */
+    public int indexOf(long high, long low) {
+        // the dictionary is read first: a compaction swaps it only after publishing the new base
+        int node = nodes.get(high, low);
+        return node >= 0 ? node : mappedIndexOf(current, high, low);
+    }
+
+    /* Node of a profile in the mapped base of snapshot, or -1 if it is not there or was removed */
+    private static int mappedIndexOf(GraphSnapshot snapshot, long high, long low) {
+        if (snapshot.mapped == null) {
+            return -1;
+        }
+        int node = snapshot.mapped.indexOf(high, low);
+        return node >= 0 && snapshot.contains(node) ? node : -1;
+    }
+
+    /*
+    Whether the mapped base of snapshot holds a profile, unless its removal
+    is already written. Reads the newest row, published or not, so an id is
+    free again as soon as the removal of its node is visible
+    */
+    private static boolean inMappedBase(GraphSnapshot snapshot, long high, long low) {
+        if (snapshot.mapped == null) {
+            return false;
+        }
+        int node = snapshot.mapped.indexOf(high, low);
+        if (node < 0) {
+            return false;
+        }
+        Row row = snapshot.rows[node];
+        return row == null || !row.removed;
+    }
+
+    /**
+     * Adds a node without friends and returns its id.
+     *
+     * @throws IllegalArgumentException if a profile with the same id exists
+     */
+    public int addNode(UUID profileID, String name, int age, Gender gender) throws IllegalArgumentException {
+        int node;
+        while (true) {
+            synchronized (allocationLock) {
+                GraphSnapshot snapshot = current;
+                node = allocated;
+                if (node < snapshot.capacity()) {
+                    if (inMappedBase(snapshot, profileID.getMostSignificantBits(), profileID.getLeastSignificantBits())
+                        || nodes.putIfAbsent(profileID, node) >= 0) {
+                        throw new IllegalArgumentException("Profile already exists");
+                    }
+                    // columns are filled before the node is counted, so compactions always find them
+                    int column = node - snapshot.columnBase;
+                    snapshot.ids[column] = profileID;
+                    snapshot.names[column] = name;
+                    snapshot.ages[column] = age;
+                    snapshot.genders[column] = (byte) gender.ordinal();
+                    allocated = node + 1;
+                    break;
+                }
+            }
+            grow(node + 1);
+        }
+
+        locks.lock(node);
+        try {
+            GraphSnapshot snapshot = current;
+            long version = nextVersion.incrementAndGet();
+            try {
+                // a compaction that ran before this point saw the node as removed
+                snapshot.rows[node] = new Row(version, false, new int[0], new byte[0], snapshot.rows[node]);
+                for (GraphListener listener : listeners) {
+                    listener.nodeAdded(snapshot, version, node);
+                }
+            } finally {
+                publish(version, 1);
+            }
+        } finally {
+            locks.unlock(node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Removes a node together with all of its friendships.
+     *
+     * @throws IllegalArgumentException unless {@code node} exists
+     */
+    public void removeNode(int node) throws IllegalArgumentException {
+        boolean[] held = new boolean[locks.stripes()];
+        while (true) {
+            checkNode(current, node);
+            Arrays.fill(held, false);
+            markStripes(current, node, held);
+
+            locks.lock(held);
+            try {
+                // Friends may have been added before the locks were taken
+                GraphSnapshot snapshot = current;
+                checkNode(snapshot, node);
+                if (!holdsStripes(snapshot, node, held)) {
+                    continue;
+                }
+
+                long version = nextVersion.incrementAndGet();
+                try {
+                    NeighborCursor cursor = snapshot.neighbors(node, new NeighborCursor());
+                    while (cursor.next()) {
+                        deleteFromRow(snapshot, version, cursor.neighbor(), node);
+                    }
+                    setRow(snapshot, node, new Row(version, true, new int[0], new byte[0], snapshot.rows[node]));
+                    for (GraphListener listener : listeners) {
+                        listener.nodeRemoved(snapshot, version, node);
+                    }
+                    // the id is freed before the removal is published, so it can be added again once it is visible
+                    nodes.remove(snapshot.idOf(node));
+                } finally {
+                    publish(version, -1);
+                }
+                break;
+            } finally {
+                locks.unlock(held);
+            }
+        }
+
+        maybeCompact();
+    }
+
+    /**
+     * Connects two nodes in both directions.
+     *
+     * @throws IllegalArgumentException if a node doesn't exist, the nodes are
+     *         the same, they are already friends or the level is out of range
+     */
+    public void connect(int node1, int node2, int friendshipLevel) throws IllegalArgumentException {
+        if (node1 == node2) {
+            throw new IllegalArgumentException("A profile cannot be friends with itself");
+        }
+        byte level = toLevel(friendshipLevel);
+
+        locks.lock(node1, node2);
+        try {
+            GraphSnapshot snapshot = current;
+            checkNode(snapshot, node1);
+            checkNode(snapshot, node2);
+            if (snapshot.areFriends(node1, node2) || snapshot.areFriends(node2, node1)) {
+                throw new IllegalArgumentException("Frienship relationship already exists");
+            }
+
+            long version = nextVersion.incrementAndGet();
+            try {
+                insertIntoRow(snapshot, version, node1, node2, level);
+                insertIntoRow(snapshot, version, node2, node1, level);
+                for (GraphListener listener : listeners) {
+                    listener.edgeAdded(snapshot, version, node1, node2, level);
+                }
+            } finally {
+                publish(version, 0);
+            }
+        } finally {
+            locks.unlock(node1, node2);
+        }
+
+        maybeCompact();
+    }
+
+    /**
+     * Disconnects two nodes in both directions and returns the level the
+     * friendship had.
+     *
+     * @throws IllegalArgumentException if a node doesn't exist or the nodes
+     *         are not friends
+     */
+    public int disconnect(int node1, int node2) throws IllegalArgumentException {
+        int friendshipLevel;
+
+        locks.lock(node1, node2);
+        try {
+            GraphSnapshot snapshot = current;
+            checkNode(snapshot, node1);
+            checkNode(snapshot, node2);
+            int k = snapshot.findNeighbor(node1, node2);
+            if (k < 0 || !snapshot.areFriends(node2, node1)) {
+                throw new IllegalArgumentException("Friendship relationship does not exist");
+            }
+
+            friendshipLevel = snapshot.level(node1, k);
+            long version = nextVersion.incrementAndGet();
+            try {
+                deleteFromRow(snapshot, version, node1, node2);
+                deleteFromRow(snapshot, version, node2, node1);
+                for (GraphListener listener : listeners) {
+                    listener.edgeRemoved(snapshot, version, node1, node2);
+                }
+            } finally {
+                publish(version, 0);
+            }
+        } finally {
+            locks.unlock(node1, node2);
+        }
+
+        maybeCompact();
+        return friendshipLevel;
+    }
+
+    /*
+    Switches the CSR base between plain arrays and delta-varint blocks and
+    rebuilds it in the new form right away. Compressed rows take 2 to 4
+    bytes per edge instead of 5, at the price of decoding them on every
+    walk; writes still go to plain overlay rows until the next compaction.
+    A mapped base stays in its file either way.
+    */
+    public void setCompressedAdjacency(boolean compressedAdjacency) {
+        boolean changed;
+        synchronized (compactionLock) {
+            changed = this.compressedAdjacency != compressedAdjacency || current.isCompressed() != compressedAdjacency;
+            this.compressedAdjacency = compressedAdjacency;
+        }
+        if (changed && current.mapped == null) {
+            compact();
+        }
+    }
+
+    public boolean isCompressedAdjacency() {
+        return compressedAdjacency;
+    }
+
+    /*
+    Folds the rows written so far into a fresh CSR base. The base is built
+    from the current snapshot while writers go on; only swapping it in
+    takes every stripe, and the rows written in the meantime stay in the
+    overlay on top of it. Snapshots taken before keep reading the old base.
+
+    @throws UncheckedIOException if the new base of a mapped graph cannot
+            be written
+    */
+    public void compact() {
+        synchronized (compactionLock) {
+            GraphSnapshot snapshot = current;
+            Row[] rows = removedRows(snapshot);
+            if (snapshot.mapped != null) {
+                MappedGraphFile mapped = compactedImage(snapshot);
+                locks.lockAll();
+                try {
+                    swapMapped(snapshot, mapped, rows);
+                } finally {
+                    locks.unlockAll();
+                }
+                return;
+            }
+
+            int nodeCount = snapshot.nodeCount;
+            int[] offsets = new int[1];
+            int[] neighbors = new int[0];
+            byte[] levels = new byte[0];
+            CompressedAdjacency compressed = null;
+            if (compressedAdjacency) {
+                compressed = CompressedAdjacency.of(snapshot, nodeCount);
+            } else {
+                offsets = new int[nodeCount + 1];
+                for (int node = 0; node < nodeCount; node++) {
+                    offsets[node + 1] = offsets[node] + snapshot.degree(node);
+                }
+
+                neighbors = new int[offsets[nodeCount]];
+                levels = new byte[offsets[nodeCount]];
+                NeighborCursor cursor = new NeighborCursor();
+                for (int node = 0; node < nodeCount; node++) {
+                    if (!snapshot.contains(node)) {
+                        continue;
+                    }
+
+                    snapshot.neighbors(node, cursor);
+                    for (int k = offsets[node]; cursor.next(); k++) {
+                        neighbors[k] = cursor.neighbor();
+                        levels[k] = (byte) cursor.level();
+                    }
+                }
+            }
+
+            locks.lockAll();
+            try {
+                GraphSnapshot latest = current;
+                current = new GraphSnapshot(
+                    this, latest.version, latest.nodeCount, latest.liveCount,
+                    latest.ids, latest.names, latest.ages, latest.genders,
+                    nodeCount, offsets, neighbors, levels, compressed, null,
+                    rebase(latest, snapshot, rows)
+                );
+            } finally {
+                locks.unlockAll();
+            }
+        }
+    }
+
+    /* Overlay table of a base built from snapshot: nodes the snapshot does not hold are marked removed */
+    private static Row[] removedRows(GraphSnapshot snapshot) {
+        Row[] rows = new Row[snapshot.rows.length];
+        for (int node = 0; node < snapshot.nodeCount; node++) {
+            if (!snapshot.contains(node)) {
+                rows[node] = REMOVED;
+            }
+        }
+        return rows;
+    }
+
+    /*
+    Moves the rows latest has and base had not, the writes made while the
+    base was built, into rows on top of the markers of the new base, and
+    counts them as the new overlay. Callers hold every stripe
+    */
+    private Row[] rebase(GraphSnapshot latest, GraphSnapshot base, Row[] rows) {
+        if (rows.length < latest.rows.length) {
+            rows = Arrays.copyOf(rows, latest.rows.length);
+        }
+
+        long kept = 0;
+        for (int node = 0; node < latest.rows.length; node++) {
+            Row row = latest.rows[node];
+            if (row == null || row.version <= base.version) {
+                continue;
+            }
+
+            // Copies of the newer rows, in the same order, ending in what the base holds
+            int count = 0;
+            for (Row newer = row; newer != null && newer.version > base.version; newer = newer.previous) {
+                count++;
+            }
+            Row[] newer = new Row[count];
+            for (int i = 0; i < count; i++, row = row.previous) {
+                newer[i] = row;
+            }
+            Row chain = rows[node];
+            for (int i = count - 1; i >= 0; i--) {
+                chain = new Row(newer[i].version, newer[i].removed, newer[i].neighbors, newer[i].levels, chain);
+                kept += newer[i].neighbors.length + 1;
+            }
+            rows[node] = chain;
+        }
+
+        overlayEdges.reset();
+        overlayEdges.add(kept);
+        return rows;
+    }
+
+    /*
+    Writes every node of snapshot as a new graph file next to the mapped one
+    and maps it, so the compacted graph stays off the heap. The file is
+    deleted right away, its mapping keeps it readable until no snapshot
+    uses it. Nodes keep their ids, removed ones stay in the file without
+    friends.
+    */
+    private static MappedGraphFile compactedImage(GraphSnapshot snapshot) {
+        Path directory = snapshot.mapped.path.toAbsolutePath().getParent();
+        try {
+            Path image = Files.createTempFile(directory, "compacted-", ".graph");
+            try {
+                GraphFile.writeImage(snapshot, image);
+                return GraphFile.mapImage(image);
+            } finally {
+                try {
+                    Files.delete(image);
+                } catch (IOException e) {
+                    // some platforms can't delete a mapped file
+                    image.toFile().deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the compacted graph to " + directory, e);
+        }
+    }
+
+    /*
+    Swaps in the mapped image of base. Only the profiles added after base
+    keep their columns and ids on the heap. Callers hold every stripe
+    */
+    private void swapMapped(GraphSnapshot base, MappedGraphFile mapped, Row[] rows) {
+        // addNode fills columns under the allocation lock, not under the stripes
+        synchronized (allocationLock) {
+            GraphSnapshot latest = current;
+            int nodeCount = base.nodeCount;
+            int columns = latest.rows.length - nodeCount;
+            int added = allocated - nodeCount;
+            int from = nodeCount - latest.columnBase;
+            UUID[] ids = new UUID[columns];
+            String[] names = new String[columns];
+            int[] ages = new int[columns];
+            byte[] genders = new byte[columns];
+            System.arraycopy(latest.ids, from, ids, 0, added);
+            System.arraycopy(latest.names, from, names, 0, added);
+            System.arraycopy(latest.ages, from, ages, 0, added);
+            System.arraycopy(latest.genders, from, genders, 0, added);
+
+            current = new GraphSnapshot(
+                this, latest.version, latest.nodeCount, latest.liveCount,
+                ids, names, ages, genders,
+                nodeCount, new int[1], new int[0], new byte[0], null, mapped,
+                rebase(latest, base, rows)
+            );
+
+            // The dictionary keeps the ids the new file has no entry for: nodes base did not hold yet
+            IdDictionary old = nodes;
+            IdDictionary kept = new IdDictionary();
+            for (int node = latest.columnBase; node < allocated; node++) {
+                if (node < nodeCount && base.contains(node)) {
+                    continue;
+                }
+                UUID id = latest.ids[node - latest.columnBase];
+                if (id != null && old.get(id) == node) {
+                    kept.putIfAbsent(id, node);
+                }
+            }
+            nodes = kept;
+        }
+    }
+
+    private boolean needsCompaction() {
+        long threshold = Math.max(MIN_COMPACTION_THRESHOLD, Math.max(current.baseEdges() / 4, 2 * failedCompactionEdges));
+        return overlayEdges.sum() > threshold;
+    }
+
+    /* Hands the compaction to the background thread, the write that asks for it does not wait */
+    private void maybeCompact() {
+        if (!needsCompaction() || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        COMPACTOR.execute(() -> {
+            try {
+                if (needsCompaction()) {
+                    compact();
+                    failedCompactionEdges = 0;
+                }
+            } catch (UncheckedIOException e) {
+                // the writes went through, the overlay just keeps growing for now
+                failedCompactionEdges = overlayEdges.sum();
+                logger.error("Error compacting the profiles graph: " + e.getMessage(), e);
+            } finally {
+                compactionScheduled.set(false);
+            }
+        });
+    }
+
+    /*
+    Publishes the snapshot of version once every lower version is published.
+    Callers hold the locks of everything they wrote, so the wait is only on
+    writers that are already past their own locking.
+    */
+    private void publish(long version, int liveDelta) {
+        GraphSnapshot snapshot;
+        int spins = 0;
+        while ((snapshot = current).version != version - 1) {
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        current = snapshot.withVersion(version, allocated, snapshot.liveCount + liveDelta);
+    }
+
+    /* Flags the stripes of node and its friends in held */
+    private void markStripes(GraphSnapshot snapshot, int node, boolean[] held) {
+        held[locks.stripeOf(node)] = true;
+        NeighborCursor cursor = snapshot.neighbors(node, new NeighborCursor());
+        while (cursor.next()) {
+            held[locks.stripeOf(cursor.neighbor())] = true;
+        }
+    }
+
+    private boolean holdsStripes(GraphSnapshot snapshot, int node, boolean[] held) {
+        NeighborCursor cursor = snapshot.neighbors(node, new NeighborCursor());
+        while (cursor.next()) {
+            if (!held[locks.stripeOf(cursor.neighbor())]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setRow(GraphSnapshot snapshot, int node, Row row) {
+        snapshot.rows[node] = row;
+        overlayEdges.add(row.neighbors.length + 1);
+    }
+
+    private void insertIntoRow(GraphSnapshot snapshot, long version, int node, int neighbor, byte level) {
+        int position = -snapshot.findNeighbor(node, neighbor) - 1;
+        NeighborCursor cursor = snapshot.neighbors(node, new NeighborCursor());
+        int degree = cursor.size();
+
+        int[] newNeighbors = new int[degree + 1];
+        byte[] newLevels = new byte[degree + 1];
+        for (int k = 0; cursor.next(); k++) {
+            int slot = k < position ? k : k + 1;
+            newNeighbors[slot] = cursor.neighbor();
+            newLevels[slot] = (byte) cursor.level();
+        }
+        newNeighbors[position] = neighbor;
+        newLevels[position] = level;
+
+        setRow(snapshot, node, new Row(version, false, newNeighbors, newLevels, snapshot.rows[node]));
+    }
+
+    private void deleteFromRow(GraphSnapshot snapshot, long version, int node, int neighbor) {
+        int position = snapshot.findNeighbor(node, neighbor);
+        if (position < 0) {
+            return;
+        }
+
+        NeighborCursor cursor = snapshot.neighbors(node, new NeighborCursor());
+        int degree = cursor.size();
+
+        int[] newNeighbors = new int[degree - 1];
+        byte[] newLevels = new byte[degree - 1];
+        for (int k = 0; cursor.next(); k++) {
+            if (k == position) {
+                continue;
+            }
+            int slot = k < position ? k : k - 1;
+            newNeighbors[slot] = cursor.neighbor();
+            newLevels[slot] = (byte) cursor.level();
+        }
+
+        setRow(snapshot, node, new Row(version, false, newNeighbors, newLevels, snapshot.rows[node]));
+    }
+
+    /*
+    Grows the node columns and the overlay table to fit capacity nodes. The
+    new arrays are only seen by snapshots published after this call.
+    */
+    private void grow(int capacity) {
+        locks.lockAll();
+        try {
+            GraphSnapshot snapshot = current;
+            if (capacity <= snapshot.capacity()) {
+                return;
+            }
+
+            // The columns start at columnBase, only the overlay table covers the mapped nodes too
+            int columns = Math.max(capacity - snapshot.columnBase, Math.max(DEFAULT_CAPACITY, snapshot.ids.length * 2));
+            synchronized (allocationLock) {
+                current = new GraphSnapshot(
+                    this, snapshot.version, snapshot.nodeCount, snapshot.liveCount,
+                    Arrays.copyOf(snapshot.ids, columns),
+                    Arrays.copyOf(snapshot.names, columns),
+                    Arrays.copyOf(snapshot.ages, columns),
+                    Arrays.copyOf(snapshot.genders, columns),
+                    snapshot.baseCount, snapshot.offsets, snapshot.neighbors, snapshot.levels, snapshot.compressed, snapshot.mapped,
+                    Arrays.copyOf(snapshot.rows, snapshot.columnBase + columns)
+                );
+            }
+        } finally {
+            locks.unlockAll();
+        }
+    }
+
+    private static void checkNode(GraphSnapshot snapshot, int node) throws IllegalArgumentException {
+        if (!snapshot.contains(node)) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
+    }
+
+    static byte toLevel(int friendshipLevel) throws IllegalArgumentException {
+        if (friendshipLevel < 0 || friendshipLevel > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Friendship level must be between 0 and " + Byte.MAX_VALUE);
+        }
+        return (byte) friendshipLevel;
+    }
+}
@@ -0,0 +1,91 @@
+package socialnetwork.Graph;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks that nodes are hashed onto. Every caller takes its
+ * stripes in increasing order, and taking all of them excludes every writer,
+ * so no acquisition order can deadlock.
+ */
+public final class StripedLocks {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedLocks(int minStripes) {
+        int stripes = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = stripes - 1;
+    }
+
+    /* Enough stripes for writers on every core to rarely collide */
+    public static StripedLocks forAvailableProcessors() {
+        return new StripedLocks(Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    public int stripes() {
+        return locks.length;
+    }
+
+    public int stripeOf(int node) {
+        return node & mask;
+    }
+
+    public void lock(int node) {
+        locks[stripeOf(node)].lock();
+    }
+
+    public void unlock(int node) {
+        locks[stripeOf(node)].unlock();
+    }
+
+    /* Locks the stripes of two nodes, lower stripe first */
+    public void lock(int node1, int node2) {
+        int stripe1 = stripeOf(node1);
+        int stripe2 = stripeOf(node2);
+        locks[Math.min(stripe1, stripe2)].lock();
+        if (stripe1 != stripe2) {
+            locks[Math.max(stripe1, stripe2)].lock();
+        }
+    }
+
+    public void unlock(int node1, int node2) {
+        int stripe1 = stripeOf(node1);
+        int stripe2 = stripeOf(node2);
+        if (stripe1 != stripe2) {
+            locks[Math.max(stripe1, stripe2)].unlock();
+        }
+        locks[Math.min(stripe1, stripe2)].unlock();
+    }
+
+    /* Locks every stripe flagged in held, in increasing order */
+    public void lock(boolean[] held) {
+        for (int stripe = 0; stripe < locks.length; stripe++) {
+            if (held[stripe]) {
+                locks[stripe].lock();
+            }
+        }
+    }
+
+    public void unlock(boolean[] held) {
+        for (int stripe = locks.length - 1; stripe >= 0; stripe--) {
+            if (held[stripe]) {
+                locks[stripe].unlock();
+            }
+        }
+    }
+
+    public void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    public void unlockAll() {
+        for (int stripe = locks.length - 1; stripe >= 0; stripe--) {
+            locks[stripe].unlock();
+        }
+    }
+}
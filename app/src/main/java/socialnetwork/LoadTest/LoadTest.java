@@ -0,0 +1,311 @@
+package socialnetwork.LoadTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import socialnetwork.LoadTest.Workload.Operation;
+import socialnetwork.LoadTest.Workload.OperationType;
+import socialnetwork.Metrics.OperationMetrics;
+import socialnetwork.Model.Profile;
+import socialnetwork.Service.ProfilesManager;
+
+/**
+ * Replays a {@link Workload} against a {@link ProfilesManager} on several
+ * worker threads and reports throughput and latency percentiles per
+ * operation type.
+ *
+ * Workers take the operations in workload order from a shared counter. In
+ * closed loop (no rate) each worker starts its next operation as soon as the
+ * previous one returns, which measures the highest throughput the threads
+ * reach. In open loop operation {@code i} is due {@code i / rate} seconds
+ * after the start whatever happened before, and its latency is counted from
+ * that moment rather than from when a worker got to it, so time spent
+ * queued behind slow operations shows up in the percentiles instead of
+ * being hidden by the workers slowing down.
+ *
+ * Operations that throw or that the manager rejects are counted as
+ * failures. The first {@code warmup} operations run but are not recorded.
+ *
+ * Run it with
+ * {@code java socialnetwork.LoadTest.LoadTest <profiles.csv> [--workload=FILE | --operations=N
+ * [--mix=suggest=80,connect=8,disconnect=6,add=3,remove=3] [--filtered=F] [--seed=S] [--save=FILE]]
+ * [--threads=T] [--rate=OPS] [--warmup=W] [--compressed=true|false] [--mapped=true|false]}.
+ * With {@code --mapped} the profiles are saved to a temporary graph file
+ * and served from its mapping rather than from the heap.
+ */
+public class LoadTest {
+    private static final Logger logger = LogManager.getLogger(LoadTest.class);
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double rate = 0;
+    private int warmup = 0;
+
+    /**
+     * Throughput and latencies of one run, per operation type.
+     */
+    public static final class Report {
+        private final Map<OperationType, OperationMetrics> operations;
+        private final int threads;
+        private final double rate;
+        private final long elapsedNanos;
+        private final long maxLagNanos;
+
+        private Report(Map<OperationType, OperationMetrics> operations, int threads, double rate, long elapsedNanos, long maxLagNanos) {
+            this.operations = operations;
+            this.threads = threads;
+            this.rate = rate;
+            this.elapsedNanos = elapsedNanos;
+            this.maxLagNanos = maxLagNanos;
+        }
+
+        public OperationMetrics getMetrics(OperationType type) {
+            return operations.get(type);
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /* Operations recorded, failed ones included */
+        public long getOperations() {
+            long total = 0;
+            for (OperationMetrics metrics : operations.values()) {
+                total += metrics.getCalls();
+            }
+            return total;
+        }
+
+        public long getFailures() {
+            long total = 0;
+            for (OperationMetrics metrics : operations.values()) {
+                total += metrics.getFailures();
+            }
+            return total;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : getOperations() * 1e9 / elapsedNanos;
+        }
+
+        public double getThroughput(OperationType type) {
+            return elapsedNanos == 0 ? 0 : operations.get(type).getCalls() * 1e9 / elapsedNanos;
+        }
+
+        /* Open loop only, the longest an operation waited past the time it was due */
+        public long getMaxLagNanos() {
+            return maxLagNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(
+                "%d operations in %.2f s on %d threads, %s: %.1f ops/s, %d failures%n",
+                getOperations(), elapsedNanos / 1e9, threads,
+                rate > 0 ? String.format("open loop at %.1f ops/s", rate) : "closed loop",
+                getThroughput(), getFailures()
+            ));
+            if (rate > 0) {
+                report.append(String.format("max lag behind schedule: %.1f ms%n", maxLagNanos / 1e6));
+            }
+            report.append(String.format(
+                "%-10s %10s %9s %11s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "failures", "ops/s", "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"
+            ));
+            for (Map.Entry<OperationType, OperationMetrics> entry : operations.entrySet()) {
+                OperationMetrics metrics = entry.getValue();
+                if (metrics.getCalls() == 0) {
+                    continue;
+                }
+                report.append(String.format(
+                    "%-10s %10d %9d %11.1f %9.1f %9d %9d %9d %9d %9d%n",
+                    entry.getKey().name().toLowerCase(), metrics.getCalls(), metrics.getFailures(), getThroughput(entry.getKey()),
+                    metrics.getMeanMicros(), metrics.getP50Micros(), metrics.getP90Micros(), metrics.getP99Micros(),
+                    metrics.getP999Micros(), metrics.getMaxMicros()
+                ));
+            }
+            return report.toString();
+        }
+    }
+
+    public LoadTest setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /* Operations per second for an open loop run, 0 for a closed loop one */
+    public LoadTest setRate(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate cannot be negative");
+        }
+        this.rate = rate;
+        return this;
+    }
+
+    /* Operations run first without being recorded, to warm the JIT and the caches up */
+    public LoadTest setWarmup(int warmup) {
+        if (warmup < 0) {
+            throw new IllegalArgumentException("Warmup cannot be negative");
+        }
+        this.warmup = warmup;
+        return this;
+    }
+
+    public Report run(ProfilesManager manager, Workload workload) throws InterruptedException {
+        Map<OperationType, OperationMetrics> operations = new EnumMap<>(OperationType.class);
+        for (OperationType type : OperationType.values()) {
+            operations.put(type, new OperationMetrics(type.name().toLowerCase()));
+        }
+
+        int size = workload.size();
+        int recordedFrom = Math.min(warmup, size);
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong measuredStart = new AtomicLong();
+        AtomicLong maxLag = new AtomicLong();
+        double intervalNanos = rate > 0 ? 1e9 / rate : 0;
+
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < size) {
+                    long due = start + (long) (index * intervalNanos);
+                    if (rate > 0) {
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+
+                    long begin = System.nanoTime();
+                    if (index == recordedFrom) {
+                        measuredStart.set(rate > 0 ? due : begin);
+                    }
+                    boolean succeeded = execute(manager, workload.get(index));
+                    long end = System.nanoTime();
+
+                    if (index >= recordedFrom) {
+                        long from = rate > 0 ? due : begin;
+                        operations.get(workload.get(index).getType()).recordNanos(end - from, succeeded);
+                        if (rate > 0) {
+                            maxLag.accumulateAndGet(begin - due, Math::max);
+                        }
+                    }
+                }
+            }, "load-test-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = recordedFrom < size ? System.nanoTime() - measuredStart.get() : 0;
+
+        return new Report(operations, threads, rate, elapsed, maxLag.get());
+    }
+
+    private static boolean execute(ProfilesManager manager, Operation operation) {
+        try {
+            switch (operation.getType()) {
+                case SUGGEST:
+                    manager.suggestConnections(
+                        operation.getProfileID(),
+                        operation.getMaxSuggestions(),
+                        operation.getGender() == null ? null : operation.getGender().name(),
+                        operation.getMinAge(),
+                        operation.getMaxAge()
+                    );
+                    return true;
+                case CONNECT:
+                    return manager.connectProfiles(operation.getProfileID(), operation.getOtherID(), operation.getFriendshipLevel());
+                case DISCONNECT:
+                    return manager.disconnectProfiles(operation.getProfileID(), operation.getOtherID());
+                case ADD:
+                    manager.addProfile(new Profile(
+                        operation.getProfileID(), operation.getName(), operation.getAge(), operation.getGender().name(), null
+                    ));
+                    return true;
+                default:
+                    manager.removeProfile(operation.getProfileID());
+                    return true;
+            }
+        } catch (IllegalArgumentException e) {
+            logger.debug("Operation failed: " + operation + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadTest <profiles.csv> [--workload=FILE | --operations=N [--mix=suggest=80,connect=8,disconnect=6,add=3,remove=3] [--filtered=F] [--seed=S] [--save=FILE]] [--threads=T] [--rate=OPS] [--warmup=W] [--compressed=true|false] [--mapped=true|false]");
+            System.exit(1);
+        }
+
+        LoadTest loadTest = new LoadTest();
+        Workload.Mix mix = Workload.Mix.defaultMix();
+        String workloadFile = null;
+        String saveFile = null;
+        int count = 100000;
+        long seed = 42;
+        double filtered = 0;
+        boolean compressed = false;
+        boolean mapped = false;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Invalid option " + args[i]);
+            }
+
+            switch (option[0]) {
+                case "--workload" -> workloadFile = option[1];
+                case "--operations" -> count = Integer.parseInt(option[1]);
+                case "--mix" -> mix = Workload.Mix.parse(option[1]);
+                case "--filtered" -> filtered = Double.parseDouble(option[1]);
+                case "--seed" -> seed = Long.parseLong(option[1]);
+                case "--save" -> saveFile = option[1];
+                case "--threads" -> loadTest.setThreads(Integer.parseInt(option[1]));
+                case "--rate" -> loadTest.setRate(Double.parseDouble(option[1]));
+                case "--warmup" -> loadTest.setWarmup(Integer.parseInt(option[1]));
+                case "--compressed" -> compressed = Boolean.parseBoolean(option[1]);
+                case "--mapped" -> mapped = Boolean.parseBoolean(option[1]);
+                default -> throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        ProfilesManager manager = new ProfilesManager();
+        manager.setCompressedAdjacency(compressed);
+        manager.loadProfilesMapped(args[0]);
+        if (mapped) {
+            Path graphFile = Files.createTempFile("load-test-", ".graph");
+            graphFile.toFile().deleteOnExit();
+            manager.saveGraph(graphFile.toString());
+            manager.mapGraph(graphFile.toString());
+        }
+
+        Workload workload;
+        if (workloadFile != null) {
+            workload = Workload.read(Path.of(workloadFile));
+        } else {
+            workload = Workload.generate(manager.getSnapshot(), mix.setFilteredSuggestions(filtered), count, seed);
+        }
+        if (saveFile != null) {
+            workload.write(Path.of(saveFile));
+        }
+        System.out.println("Replaying " + workload + " against " + manager.getSnapshot().size() + " profiles, "
+            + manager.getSnapshot().adjacencyBytes() / (1 << 20) + " MiB of " + (mapped ? "mapped " : compressed ? "compressed " : "") + "friendships");
+
+        System.out.print(loadTest.run(manager, workload));
+    }
+}
@@ -0,0 +1,494 @@
+package socialnetwork.LoadTest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Model.Gender;
+
+/**
+ * Sequence of operations to replay against a {@link socialnetwork.Service.ProfilesManager}.
+ *
+ * A workload file has one operation per line, fields separated by blanks,
+ * {@code -} for a filter that is not set. Blank lines and lines starting
+ * with {@code #} are skipped.
+ * <pre>
+ * suggest    &lt;profile&gt; [&lt;max&gt; [&lt;gender&gt; &lt;minAge&gt; &lt;maxAge&gt;]]
+ * connect    &lt;profile&gt; &lt;profile&gt; &lt;level&gt;
+ * disconnect &lt;profile&gt; &lt;profile&gt;
+ * add        &lt;profile&gt; &lt;age&gt; &lt;gender&gt; &lt;name&gt;
+ * remove     &lt;profile&gt;
+ * </pre>
+ * The name of an added profile is the rest of the line, so it may contain
+ * blanks.
+ */
+public class Workload {
+    public enum OperationType {
+        SUGGEST,
+        CONNECT,
+        DISCONNECT,
+        ADD,
+        REMOVE;
+
+        public static OperationType fromString(String type) {
+            for (OperationType value : values()) {
+                if (value.name().equalsIgnoreCase(type)) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + type);
+        }
+    }
+
+    /* One operation, the fields that don't apply to its type are null or 0 */
+    public static final class Operation {
+        private final OperationType type;
+        private final UUID profileID;
+        private final UUID otherID;
+        private final int value;
+        private final Gender gender;
+        private final Integer minAge;
+        private final Integer maxAge;
+        private final String name;
+
+        private Operation(OperationType type, UUID profileID, UUID otherID, int value, Gender gender, Integer minAge, Integer maxAge, String name) {
+            this.type = type;
+            this.profileID = profileID;
+            this.otherID = otherID;
+            this.value = value;
+            this.gender = gender;
+            this.minAge = minAge;
+            this.maxAge = maxAge;
+            this.name = name;
+        }
+
+        public static Operation suggest(UUID profileID, int maxSuggestions, Gender gender, Integer minAge, Integer maxAge) {
+            return new Operation(OperationType.SUGGEST, profileID, null, maxSuggestions, gender, minAge, maxAge, null);
+        }
+
+        public static Operation connect(UUID profileID1, UUID profileID2, int friendshipLevel) {
+            return new Operation(OperationType.CONNECT, profileID1, profileID2, friendshipLevel, null, null, null, null);
+        }
+
+        public static Operation disconnect(UUID profileID1, UUID profileID2) {
+            return new Operation(OperationType.DISCONNECT, profileID1, profileID2, 0, null, null, null, null);
+        }
+
+        public static Operation add(UUID profileID, String name, int age, Gender gender) {
+            return new Operation(OperationType.ADD, profileID, null, age, gender, null, null, name);
+        }
+
+        public static Operation remove(UUID profileID) {
+            return new Operation(OperationType.REMOVE, profileID, null, 0, null, null, null, null);
+        }
+
+        public OperationType getType() {
+            return type;
+        }
+
+        public UUID getProfileID() {
+            return profileID;
+        }
+
+        /* Second profile of a connect or disconnect */
+        public UUID getOtherID() {
+            return otherID;
+        }
+
+        public int getMaxSuggestions() {
+            return value;
+        }
+
+        public int getFriendshipLevel() {
+            return value;
+        }
+
+        public int getAge() {
+            return value;
+        }
+
+        /* Gender filter of a suggest, gender of an added profile */
+        public Gender getGender() {
+            return gender;
+        }
+
+        public Integer getMinAge() {
+            return minAge;
+        }
+
+        public Integer getMaxAge() {
+            return maxAge;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case SUGGEST:
+                    String line = "suggest " + profileID + " " + value;
+                    if (gender != null || minAge != null || maxAge != null) {
+                        line += " " + orDash(gender) + " " + orDash(minAge) + " " + orDash(maxAge);
+                    }
+                    return line;
+                case CONNECT:
+                    return "connect " + profileID + " " + otherID + " " + value;
+                case DISCONNECT:
+                    return "disconnect " + profileID + " " + otherID;
+                case ADD:
+                    return "add " + profileID + " " + value + " " + gender + " " + name;
+                default:
+                    return "remove " + profileID;
+            }
+        }
+
+        private static String orDash(Object value) {
+            return value == null ? "-" : value.toString();
+        }
+    }
+
+    /**
+     * Relative weights of the operation types in a generated workload, and
+     * the share of suggestions that carry a filter.
+     */
+    public static final class Mix {
+        private final Map<OperationType, Integer> weights = new EnumMap<>(OperationType.class);
+        private double filteredSuggestions = 0;
+
+        /* Read-heavy traffic, profiles come and go at the same rate */
+        public static Mix defaultMix() {
+            return new Mix()
+                .setWeight(OperationType.SUGGEST, 80)
+                .setWeight(OperationType.CONNECT, 8)
+                .setWeight(OperationType.DISCONNECT, 6)
+                .setWeight(OperationType.ADD, 3)
+                .setWeight(OperationType.REMOVE, 3);
+        }
+
+        /* Parses weights written as "suggest=80,connect=10,...", types not listed get 0 */
+        public static Mix parse(String mix) throws IllegalArgumentException {
+            Mix parsed = new Mix();
+            for (String entry : mix.split(",")) {
+                String[] parts = entry.trim().split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid mix entry " + entry);
+                }
+                try {
+                    parsed.setWeight(OperationType.fromString(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid weight in mix entry " + entry);
+                }
+            }
+            return parsed;
+        }
+
+        public Mix setWeight(OperationType type, int weight) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight cannot be negative");
+            }
+            weights.put(type, weight);
+            return this;
+        }
+
+        public int getWeight(OperationType type) {
+            return weights.getOrDefault(type, 0);
+        }
+
+        /* Fraction of the suggestions filtered by gender and a 15 years age range */
+        public Mix setFilteredSuggestions(double filteredSuggestions) {
+            if (filteredSuggestions < 0 || filteredSuggestions > 1) {
+                throw new IllegalArgumentException("Filtered suggestions must be between 0 and 1");
+            }
+            this.filteredSuggestions = filteredSuggestions;
+            return this;
+        }
+
+        public double getFilteredSuggestions() {
+            return filteredSuggestions;
+        }
+
+        private int total() {
+            int total = 0;
+            for (int weight : weights.values()) {
+                total += weight;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder mix = new StringBuilder();
+            for (OperationType type : OperationType.values()) {
+                if (mix.length() > 0) {
+                    mix.append(',');
+                }
+                mix.append(type.name().toLowerCase()).append('=').append(getWeight(type));
+            }
+            return mix.toString();
+        }
+    }
+
+    private static final String[] NAMES = {"Patricia Gomez", "Dorothy Flores", "James Smith", "Maria Garcia", "Robert Brown", "Linda Lopez"};
+    private static final int MAX_GENERATED_LEVEL = 5;
+    private static final int DEFAULT_MAX_SUGGESTIONS = 10;
+
+    private final List<Operation> operations;
+
+    public Workload(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public Operation get(int index) {
+        return operations.get(index);
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Reads a workload file.
+     *
+     * @throws IllegalArgumentException with the line number if a line is
+     *         not a valid operation
+     */
+    public static Workload read(Path file) throws IOException, IllegalArgumentException {
+        List<Operation> operations = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                try {
+                    operations.add(parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + number + " of " + file + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return new Workload(operations);
+    }
+
+    private static Operation parse(String line) throws IllegalArgumentException {
+        String[] fields = line.split("\\s+");
+        OperationType type = OperationType.fromString(fields[0]);
+        switch (type) {
+            case SUGGEST:
+                if (fields.length != 2 && fields.length != 3 && fields.length != 6) {
+                    throw new IllegalArgumentException("Expected a profile, then a maximum and the three filters or just a maximum: " + line);
+                }
+                return Operation.suggest(
+                    UUID.fromString(fields[1]),
+                    fields.length > 2 ? Integer.parseInt(fields[2]) : DEFAULT_MAX_SUGGESTIONS,
+                    fields.length > 3 ? genderOrNull(fields[3]) : null,
+                    fields.length > 3 ? intOrNull(fields[4]) : null,
+                    fields.length > 3 ? intOrNull(fields[5]) : null
+                );
+            case CONNECT:
+                expectFields(fields, 4, 4, line);
+                return Operation.connect(UUID.fromString(fields[1]), UUID.fromString(fields[2]), Integer.parseInt(fields[3]));
+            case DISCONNECT:
+                expectFields(fields, 3, 3, line);
+                return Operation.disconnect(UUID.fromString(fields[1]), UUID.fromString(fields[2]));
+            case ADD:
+                fields = line.split("\\s+", 5);
+                expectFields(fields, 5, 5, line);
+                return Operation.add(UUID.fromString(fields[1]), fields[4], Integer.parseInt(fields[2]), genderOf(fields[3]));
+            default:
+                expectFields(fields, 2, 2, line);
+                return Operation.remove(UUID.fromString(fields[1]));
+        }
+    }
+
+    private static void expectFields(String[] fields, int min, int max, String line) {
+        if (fields.length < min || fields.length > max) {
+            throw new IllegalArgumentException("Wrong number of fields: " + line);
+        }
+    }
+
+    private static Gender genderOf(String gender) {
+        Gender parsed = Gender.fromString(gender);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Invalid gender " + gender);
+        }
+        return parsed;
+    }
+
+    private static Gender genderOrNull(String gender) {
+        return gender.equals("-") ? null : genderOf(gender);
+    }
+
+    private static Integer intOrNull(String value) {
+        return value.equals("-") ? null : Integer.valueOf(value);
+    }
+
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Operation operation : operations) {
+                writer.write(operation.toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Generates {@code count} operations drawn from {@code mix}, starting
+     * from the profiles and friendships of {@code snapshot}.
+     *
+     * The generator follows the network its own operations build, so removed
+     * profiles are not used again, added ones are, and disconnects mostly
+     * undo earlier connects. Replayed on several threads, operations may
+     * still run out of order and fail; the report counts those failures. The
+     * same snapshot, mix, count and seed always give the same workload.
+     */
+    public static Workload generate(GraphSnapshot snapshot, Mix mix, int count, long seed) throws IllegalArgumentException {
+        int total = mix.total();
+        if (total == 0) {
+            throw new IllegalArgumentException("Mix has no operations");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Number of operations cannot be negative");
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+
+        // Live profiles, with their position for swap removal
+        List<UUID> live = new ArrayList<>(snapshot.size());
+        Map<UUID, Integer> positions = new HashMap<>(snapshot.size() * 2);
+        for (int node = 0; node < snapshot.nodeCount(); node++) {
+            if (snapshot.contains(node)) {
+                positions.put(snapshot.idOf(node), live.size());
+                live.add(snapshot.idOf(node));
+            }
+        }
+        List<UUID[]> connected = new ArrayList<>();
+
+        OperationType[] types = OperationType.values();
+        List<Operation> operations = new ArrayList<>(count);
+        while (operations.size() < count) {
+            int pick = random.nextInt(total);
+            OperationType type = types[0];
+            for (OperationType candidate : types) {
+                pick -= mix.getWeight(candidate);
+                if (pick < 0) {
+                    type = candidate;
+                    break;
+                }
+            }
+
+            // Operations on profiles need some, adding one never does
+            if (live.size() < 2 && type != OperationType.ADD) {
+                type = OperationType.ADD;
+            }
+
+            switch (type) {
+                case SUGGEST:
+                    UUID profileID = live.get(random.nextInt(live.size()));
+                    if (random.nextDouble() < mix.getFilteredSuggestions()) {
+                        int minAge = 18 + random.nextInt(45);
+                        Gender gender = Gender.values()[random.nextInt(Gender.values().length)];
+                        operations.add(Operation.suggest(profileID, DEFAULT_MAX_SUGGESTIONS, gender, minAge, minAge + 15));
+                    } else {
+                        operations.add(Operation.suggest(profileID, DEFAULT_MAX_SUGGESTIONS, null, null, null));
+                    }
+                    break;
+                case CONNECT:
+                    UUID[] pair = {live.get(random.nextInt(live.size())), live.get(random.nextInt(live.size()))};
+                    if (pair[0].equals(pair[1])) {
+                        continue;
+                    }
+                    connected.add(pair);
+                    operations.add(Operation.connect(pair[0], pair[1], 1 + random.nextInt(MAX_GENERATED_LEVEL)));
+                    break;
+                case DISCONNECT:
+                    UUID[] friends = takeConnected(connected, positions, random);
+                    if (friends == null) {
+                        friends = friendOf(snapshot, positions, live.get(random.nextInt(live.size())), random);
+                    }
+                    if (friends == null) {
+                        continue;
+                    }
+                    operations.add(Operation.disconnect(friends[0], friends[1]));
+                    break;
+                case ADD:
+                    UUID added = new UUID(random.nextLong(), random.nextLong());
+                    positions.put(added, live.size());
+                    live.add(added);
+                    operations.add(Operation.add(
+                        added,
+                        NAMES[random.nextInt(NAMES.length)],
+                        18 + random.nextInt(60),
+                        Gender.values()[random.nextInt(Gender.values().length)]
+                    ));
+                    break;
+                default:
+                    UUID removed = live.get(random.nextInt(live.size()));
+                    int position = positions.remove(removed);
+                    UUID last = live.remove(live.size() - 1);
+                    if (!last.equals(removed)) {
+                        live.set(position, last);
+                        positions.put(last, position);
+                    }
+                    operations.add(Operation.remove(removed));
+                    break;
+            }
+        }
+
+        return new Workload(operations);
+    }
+
+    /* A random earlier connect whose profiles both still exist, or null */
+    private static UUID[] takeConnected(List<UUID[]> connected, Map<UUID, Integer> positions, SplittableRandom random) {
+        while (!connected.isEmpty()) {
+            int index = random.nextInt(connected.size());
+            UUID[] pair = connected.get(index);
+            connected.set(index, connected.get(connected.size() - 1));
+            connected.remove(connected.size() - 1);
+            if (positions.containsKey(pair[0]) && positions.containsKey(pair[1])) {
+                return pair;
+            }
+        }
+        return null;
+    }
+
+    /* The profile and one of its friends in the initial network that still exists, or null */
+    private static UUID[] friendOf(GraphSnapshot snapshot, Map<UUID, Integer> positions, UUID profileID, SplittableRandom random) {
+        int node = snapshot.indexOf(profileID);
+        if (node < 0 || snapshot.degree(node) == 0) {
+            return null;
+        }
+        UUID friendID = snapshot.idOf(snapshot.neighbor(node, random.nextInt(snapshot.degree(node))));
+        return positions.containsKey(friendID) ? new UUID[]{profileID, friendID} : null;
+    }
+
+    @Override
+    public String toString() {
+        Map<OperationType, Integer> counts = new EnumMap<>(OperationType.class);
+        for (Operation operation : operations) {
+            counts.merge(operation.getType(), 1, Integer::sum);
+        }
+        return "Workload[operations=" + operations.size() + ", " + counts + "]";
+    }
+}
@@ -0,0 +1,18 @@
+package socialnetwork.Metrics;
+
+/* Distribution of the values recorded in a Histogram, in their own unit */
+public interface HistogramMXBean {
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP90();
+
+    long getP99();
+
+    long getP999();
+}
@@ -0,0 +1,54 @@
+package socialnetwork.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class LoaderMetrics implements LoaderMetricsMXBean {
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile double lastRowsPerSecond;
+    private volatile double lastMegabytesPerSecond;
+
+    public void record(long loadedRows, long loadedBytes, long nanos) {
+        loads.increment();
+        rows.add(loadedRows);
+        bytes.add(loadedBytes);
+
+        double seconds = Math.max(nanos, 1) / 1e9;
+        lastRowsPerSecond = loadedRows / seconds;
+        lastMegabytesPerSecond = loadedBytes / 1e6 / seconds;
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getRowsLoaded() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getBytesLoaded() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getLastRowsPerSecond() {
+        return lastRowsPerSecond;
+    }
+
+    @Override
+    public double getLastMegabytesPerSecond() {
+        return lastMegabytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "loader: loads=%d rows=%d bytes=%d last=%.0f rows/s %.1f MB/s",
+            getLoads(), getRowsLoaded(), getBytesLoaded(), getLastRowsPerSecond(), getLastMegabytesPerSecond()
+        );
+    }
+}
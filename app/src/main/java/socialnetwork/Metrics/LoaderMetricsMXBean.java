@@ -0,0 +1,14 @@
+package socialnetwork.Metrics;
+
+/* Totals over every dataset load and the throughput of the last one */
+public interface LoaderMetricsMXBean {
+    long getLoads();
+
+    long getRowsLoaded();
+
+    long getBytesLoaded();
+
+    double getLastRowsPerSecond();
+
+    double getLastMegabytesPerSecond();
+}
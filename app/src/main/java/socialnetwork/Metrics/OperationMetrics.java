@@ -0,0 +1,85 @@
+package socialnetwork.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histogram of one operation. Callers take
+ * {@code System.nanoTime()} before the operation and pass it to
+ * {@link #record} once it is done.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    private final String name;
+    private final LongAdder failures = new LongAdder();
+    private final Histogram latencyNanos = new Histogram();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long startNanos, boolean succeeded) {
+        recordNanos(System.nanoTime() - startNanos, succeeded);
+    }
+
+    public void recordNanos(long nanos, boolean succeeded) {
+        latencyNanos.record(nanos);
+        if (!succeeded) {
+            failures.increment();
+        }
+    }
+
+    public Histogram getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    @Override
+    public long getCalls() {
+        return latencyNanos.getCount();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencyNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latencyNanos.getP50() / 1000;
+    }
+
+    @Override
+    public long getP90Micros() {
+        return latencyNanos.getP90() / 1000;
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latencyNanos.getP99() / 1000;
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latencyNanos.getP999() / 1000;
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latencyNanos.getMax() / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s: calls=%d failures=%d mean=%.1fus p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+            name, getCalls(), getFailures(), getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(), getP999Micros(), getMaxMicros()
+        );
+    }
+}
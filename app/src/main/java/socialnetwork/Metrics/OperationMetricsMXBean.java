@@ -0,0 +1,20 @@
+package socialnetwork.Metrics;
+
+/* Calls, failures and latency of one ProfilesManager operation, latencies in microseconds */
+public interface OperationMetricsMXBean {
+    long getCalls();
+
+    long getFailures();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP90Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+}
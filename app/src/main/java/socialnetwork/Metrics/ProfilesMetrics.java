@@ -0,0 +1,176 @@
+package socialnetwork.Metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Counters and latency histograms of the ProfilesManager operations, the
+ * size of the candidate set of every suggestion query and the loader
+ * throughput. Recording doesn't allocate, so it stays on in production.
+ *
+ * The metrics can be read over JMX once {@link #register} is called, under
+ * {@code socialnetwork:type=ProfilesManager,name=<name>}, and dumped to the
+ * log every period with {@link #startReporting}.
+ */
+public class ProfilesMetrics implements ProfilesMetricsMXBean {
+    private static final Logger logger = LogManager.getLogger(ProfilesMetrics.class);
+
+    public final OperationMetrics suggestConnections = new OperationMetrics("suggestConnections");
+    public final OperationMetrics connectProfiles = new OperationMetrics("connectProfiles");
+    public final OperationMetrics disconnectProfiles = new OperationMetrics("disconnectProfiles");
+    public final OperationMetrics removeProfile = new OperationMetrics("removeProfile");
+    public final OperationMetrics loadProfiles = new OperationMetrics("loadProfiles");
+
+    /* candidates ranked per suggestion query, before filtering, see RankedSuggestions */
+    public final Histogram suggestionCandidates = new Histogram();
+    public final LoaderMetrics loader = new LoaderMetrics();
+
+    /* outliers, written only when beaten, so under a lock that is rarely taken */
+    private volatile UUID slowestSuggestionProfile;
+    private volatile long slowestSuggestionNanos;
+    private volatile UUID largestCandidateSetProfile;
+    private volatile long largestCandidateSet;
+
+    private final List<ObjectName> registered = new ArrayList<>();
+    private ScheduledExecutorService reporter;
+
+    public void recordSuggestion(UUID profileID, long startNanos, int candidates, boolean succeeded) {
+        long nanos = System.nanoTime() - startNanos;
+        suggestConnections.recordNanos(nanos, succeeded);
+        if (!succeeded) {
+            return;
+        }
+
+        suggestionCandidates.record(candidates);
+        if (nanos > slowestSuggestionNanos || candidates > largestCandidateSet) {
+            recordOutlier(profileID, nanos, candidates);
+        }
+    }
+
+    private synchronized void recordOutlier(UUID profileID, long nanos, int candidates) {
+        if (nanos > slowestSuggestionNanos) {
+            slowestSuggestionNanos = nanos;
+            slowestSuggestionProfile = profileID;
+        }
+        if (candidates > largestCandidateSet) {
+            largestCandidateSet = candidates;
+            largestCandidateSetProfile = profileID;
+        }
+    }
+
+    @Override
+    public String getSlowestSuggestionProfile() {
+        UUID profileID = slowestSuggestionProfile;
+        return profileID == null ? null : profileID.toString();
+    }
+
+    @Override
+    public long getSlowestSuggestionMicros() {
+        return slowestSuggestionNanos / 1000;
+    }
+
+    @Override
+    public String getLargestCandidateSetProfile() {
+        UUID profileID = largestCandidateSetProfile;
+        return profileID == null ? null : profileID.toString();
+    }
+
+    @Override
+    public long getLargestCandidateSet() {
+        return largestCandidateSet;
+    }
+
+    public List<OperationMetrics> operations() {
+        return List.of(suggestConnections, connectProfiles, disconnectProfiles, removeProfile, loadProfiles);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder report = new StringBuilder("Profiles manager metrics");
+        for (OperationMetrics operation : operations()) {
+            report.append(System.lineSeparator()).append("  ").append(operation);
+        }
+        report.append(System.lineSeparator()).append(String.format(
+            "  suggestion candidates: mean=%.1f p50=%d p99=%d max=%d (%s)",
+            suggestionCandidates.getMean(), suggestionCandidates.getP50(), suggestionCandidates.getP99(),
+            getLargestCandidateSet(), getLargestCandidateSetProfile()
+        ));
+        report.append(System.lineSeparator()).append(String.format(
+            "  slowest suggestion: %dus (%s)", getSlowestSuggestionMicros(), getSlowestSuggestionProfile()
+        ));
+        report.append(System.lineSeparator()).append("  ").append(loader);
+        return report.toString();
+    }
+
+    /*
+    Registers the metrics with the platform MBean server, name tells apart
+    the managers of one JVM
+    */
+    public synchronized void register(String name) {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String prefix = "socialnetwork:type=ProfilesManager,name=" + ObjectName.quote(name);
+        try {
+            register(server, new ObjectName(prefix), this);
+            for (OperationMetrics operation : operations()) {
+                register(server, new ObjectName(prefix + ",operation=" + operation.getName()), operation);
+            }
+            register(server, new ObjectName(prefix + ",metric=suggestionCandidates"), suggestionCandidates);
+            register(server, new ObjectName(prefix + ",metric=loader"), loader);
+        } catch (Exception e) {
+            logger.error("Error registering metrics " + name + ": " + e.getMessage(), e);
+            unregister();
+            throw new IllegalArgumentException("Failed to register metrics " + name, e);
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName objectName, Object bean) throws Exception {
+        server.registerMBean(bean, objectName);
+        registered.add(objectName);
+    }
+
+    public synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (Exception e) {
+                logger.warn("Error unregistering metrics " + objectName + ": " + e.getMessage(), e);
+            }
+        }
+        registered.clear();
+    }
+
+    /* Logs dump() every periodMillis from a daemon thread */
+    public synchronized void startReporting(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Reporting period must be positive");
+        }
+
+        stopReporting();
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "profiles-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> logger.info(dump()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package socialnetwork.Metrics;
+
+/* Suggestion queries that stood out, to spot hub users */
+public interface ProfilesMetricsMXBean {
+    String getSlowestSuggestionProfile();
+
+    long getSlowestSuggestionMicros();
+
+    String getLargestCandidateSetProfile();
+
+    long getLargestCandidateSet();
+
+    /* The text report logged by the periodic dump */
+    String dump();
+}
@@ -4,13 +4,22 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.UUID;
 
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.ProfileGraph;
+
 public class Profile {
     private final UUID profileID;
     private final String name;
     private int age;
     private Gender gender;
+
+    /* friends of a profile that is not stored in a ProfileGraph yet */
     private Map<UUID, Integer> friends;
 
+    /* once stored in a ProfileGraph, the profile is a view over its node */
+    private ProfileGraph graph;
+    private int node = -1;
+
     public Profile(
         UUID profileID,
         String name,
@@ -52,6 +61,29 @@ public class Profile {
         this(UUID.randomUUID(), name, age, gender, null);
     }
 
+    /*
+    View over a node that already lives in the graph. Friends are always read
+    from the latest version of the graph.
+    */
+    public Profile(GraphSnapshot snapshot, int node) {
+        this.profileID = snapshot.idOf(node);
+        this.name = snapshot.nameOf(node);
+        this.age = snapshot.ageOf(node);
+        this.gender = snapshot.genderOf(node);
+        this.graph = snapshot.graph();
+        this.node = node;
+    }
+
+    /*
+    Turns this profile into a view over the node it was stored at. Its own
+    friends map is dropped, the graph holds the friendships from now on.
+    */
+    public void attach(ProfileGraph graph, int node) {
+        this.graph = graph;
+        this.node = node;
+        this.friends = null;
+    }
+
     public UUID getProfileID() {
         return profileID;
     }
@@ -69,10 +101,23 @@ public class Profile {
     }
 
     public Map<UUID, Integer> getFriends() {
+        if (graph != null) {
+            return graph.snapshot().friendsOf(node);
+        }
         return new HashMap<>(friends); // Return a copy of the friends map to prevent modification
     }
 
+    /*
+    For a profile stored in a graph, friendships are always symmetric: adding
+    or removing a friend updates both profiles. The change goes through the
+    graph's friendship writer, so its owner sees it like its own changes
+    */
     public void addFriend(UUID friendID, Integer friendshipLevel) throws IllegalArgumentException {
+        if (graph != null) {
+            graph.friendshipWriter().connect(node, graph.indexOf(friendID), friendshipLevel);
+            return;
+        }
+
         if (friends.containsKey(friendID)) {
             throw new IllegalArgumentException("Frienship relationship already exists");
         }
@@ -80,6 +125,10 @@ public class Profile {
     }
 
     public Integer removeFriend(UUID friendID) throws IllegalArgumentException {
+        if (graph != null) {
+            return graph.friendshipWriter().disconnect(node, graph.indexOf(friendID));
+        }
+
         if (!friends.containsKey(friendID)) {
             throw new IllegalArgumentException("Friendship relationship does not exist");
         }
@@ -96,7 +145,7 @@ public class Profile {
             ", name='" + name + '\'' +
             ", age=" + age +
             ", gender=" + gender +
-            ", friends=" + friends +
+            ", friends=" + getFriends() +
             '}';
     }
 }
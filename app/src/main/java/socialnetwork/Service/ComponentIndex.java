@@ -0,0 +1,532 @@
+package socialnetwork.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import socialnetwork.Graph.GraphListener;
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+import socialnetwork.Graph.ProfileGraph;
+
+/**
+ * Connected components of the whole network, kept as a union-find forest
+ * over the dense node ids of a graph, so asking whether two profiles are in
+ * the same community or how large a community is costs two finds instead of
+ * a walk.
+ *
+ * Components are labeled once from a snapshot with a parallel union-find,
+ * and then the index listens to the graph. New friendships merge two
+ * components on the spot. A removed friendship or profile can split a
+ * component, which a union-find cannot undo, so the component is only
+ * marked dirty together with the profiles the split could have separated,
+ * and the first query that reaches it labels it again with a walk from
+ * those profiles. Only that component is walked, and many removals on it
+ * cost a single walk.
+ *
+ * Listeners only queue the writes, so a writer never waits on the index.
+ * Queries apply the queued writes under the index's own lock before they
+ * answer, and a background task applies them when many pile up between
+ * queries. Writes queued while the index is built are applied once it is
+ * done.
+ *
+ * The walk reads the snapshot the query started from. Writes the index has
+ * already applied but that snapshot does not hold are kept aside and
+ * replayed on top of the new labels, so none is lost. A component can be
+ * left dirty by such a write, and is then labeled again by a later query.
+ */
+public class ComponentIndex implements GraphListener {
+    private static final byte UNKNOWN = 0;
+    private static final byte LIVE = 1;
+    private static final byte REMOVED = 2;
+
+    private static final int NODE_ADDED = 0;
+    private static final int NODE_REMOVED = 1;
+    private static final int EDGE_ADDED = 2;
+    private static final int EDGE_REMOVED = 3;
+
+    /* nodes per task of the initial labeling */
+    private static final int BUILD_BATCH = 1 << 12;
+    /* queued writes past which they are applied without waiting for a query */
+    private static final int DRAIN_BATCH = 1 << 14;
+
+    private static final ExecutorService DRAINER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "component-index-drainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ProfileGraph graph;
+
+    /* writes told by the listeners and not applied yet */
+    private final ConcurrentLinkedQueue<Event> queued = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    /* everything below is guarded by this, which writers never take */
+    private int[] parent = new int[0];
+    /* live profiles of a component, at its root */
+    private int[] size = new int[0];
+    private byte[] state = new byte[0];
+    private int components;
+    private long builtVersion;
+
+    /* seeds of the dirty components, by root: every part the component may have split into holds one */
+    private final Map<Integer, IntList> dirty = new HashMap<>();
+
+    /* writes applied to the index that may not be published yet */
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+
+    /* scratch of the relabeling walks */
+    private int[] visited = new int[0];
+    private int visitEpoch;
+    private int[] queue = new int[16];
+    private final NeighborCursor cursor = new NeighborCursor();
+
+    private long relabeledComponents;
+    private long relabeledProfiles;
+
+    private static final class Event {
+        final long version;
+        final int type;
+        final int node1;
+        final int node2;
+        /* graph right before a profile was removed, to read its friends; null once applied and for other writes */
+        GraphSnapshot before;
+
+        Event(long version, int type, int node1, int node2, GraphSnapshot before) {
+            this.version = version;
+            this.type = type;
+            this.node1 = node1;
+            this.node2 = node2;
+            this.before = before;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+    }
+
+    private ComponentIndex(ProfileGraph graph) {
+        this.graph = graph;
+    }
+
+    /*
+    Index of graph. Writes already past their listeners when the index is
+    added are not told about, so the build waits for them to be published
+    first. The writes told about meanwhile stay queued and are applied after it
+    */
+    public static ComponentIndex of(ProfileGraph graph) {
+        ComponentIndex index = new ComponentIndex(graph);
+        synchronized (index) {
+            graph.addListener(index);
+            GraphSnapshot snapshot = graph.awaitWrites();
+            index.build(snapshot);
+            index.drain(snapshot);
+        }
+        return index;
+    }
+
+    public ProfileGraph graph() {
+        return graph;
+    }
+
+    /* Whether there is a chain of friendships between node1 and node2 */
+    public synchronized boolean sameComponent(int node1, int node2) throws IllegalArgumentException {
+        GraphSnapshot snapshot = graph.snapshot();
+        drain(snapshot);
+        resolve(node1, snapshot);
+        resolve(node2, snapshot);
+        return find(node1) == find(node2);
+    }
+
+    /* Profiles in the component of node, node included */
+    public synchronized int componentSize(int node) throws IllegalArgumentException {
+        GraphSnapshot snapshot = graph.snapshot();
+        drain(snapshot);
+        return size[resolve(node, snapshot)];
+    }
+
+    /* Number of components, isolated profiles included */
+    public synchronized int componentCount() {
+        GraphSnapshot snapshot = graph.snapshot();
+        drain(snapshot);
+        for (Integer root : new ArrayList<>(dirty.keySet())) {
+            if (dirty.containsKey(root)) {
+                relabel(root, snapshot);
+            }
+        }
+        return components;
+    }
+
+    /* Components labeled again after a split could have happened in them */
+    public synchronized long relabeledComponents() {
+        return relabeledComponents;
+    }
+
+    /* Profiles walked to label components again */
+    public synchronized long relabeledProfiles() {
+        return relabeledProfiles;
+    }
+
+    @Override
+    public void nodeAdded(GraphSnapshot snapshot, long version, int node) {
+        queue(new Event(version, NODE_ADDED, node, node, null));
+    }
+
+    @Override
+    public void nodeRemoved(GraphSnapshot snapshot, long version, int node) {
+        queue(new Event(version, NODE_REMOVED, node, node, snapshot));
+    }
+
+    @Override
+    public void edgeAdded(GraphSnapshot snapshot, long version, int node1, int node2, int friendshipLevel) {
+        queue(new Event(version, EDGE_ADDED, node1, node2, null));
+    }
+
+    @Override
+    public void edgeRemoved(GraphSnapshot snapshot, long version, int node1, int node2) {
+        queue(new Event(version, EDGE_REMOVED, node1, node2, null));
+    }
+
+    private void queue(Event event) {
+        queued.add(event);
+        if (queuedCount.incrementAndGet() < DRAIN_BATCH || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        DRAINER.execute(() -> {
+            synchronized (this) {
+                drainScheduled.set(false);
+                drain(graph.snapshot());
+            }
+        });
+    }
+
+    /*
+    Applies the queued writes. Every write snapshot holds was queued before
+    it was published, so none of them is left in the queue afterwards
+    */
+    private void drain(GraphSnapshot snapshot) {
+        while (!events.isEmpty() && events.peekFirst().version <= snapshot.version()) {
+            events.pollFirst();
+        }
+
+        Event event;
+        while ((event = queued.poll()) != null) {
+            queuedCount.decrementAndGet();
+            if (event.version > builtVersion && apply(event)) {
+                events.addLast(event);
+            }
+            event.before = null;
+        }
+    }
+
+    /* Applies a write to the components, false if it changes nothing */
+    private boolean apply(Event event) {
+        int node = event.node1;
+        switch (event.type) {
+            case NODE_ADDED:
+                ensureCapacity(node + 1);
+                if (state[node] == UNKNOWN) {
+                    state[node] = LIVE;
+                    parent[node] = node;
+                    size[node] = 1;
+                    components++;
+                }
+                return true;
+            case NODE_REMOVED: {
+                if (!isLive(node)) {
+                    return false;
+                }
+                int root = find(node);
+                state[node] = REMOVED;
+                if (--size[root] == 0) {
+                    components--;
+                    dirty.remove(root);
+                } else if (event.before.degree(node) > 0) {
+                    // Even a single friend is a seed: the profile may itself have been the seed of an earlier split
+                    IntList seeds = dirty.computeIfAbsent(root, r -> new IntList());
+                    NeighborCursor friends = event.before.neighbors(node, cursor);
+                    while (friends.next()) {
+                        seeds.add(friends.neighbor());
+                    }
+                }
+                return true;
+            }
+            case EDGE_ADDED:
+                union(event.node1, event.node2);
+                return true;
+            default:
+                markDirty(event.node1, event.node2);
+                return true;
+        }
+    }
+
+    private void build(GraphSnapshot snapshot) {
+        int nodeCount = snapshot.nodeCount();
+        builtVersion = snapshot.version();
+        ensureCapacity(nodeCount);
+
+        // Lock-free union-find: roots are only ever linked under a lower root, so no cycle can form
+        AtomicIntegerArray roots = new AtomicIntegerArray(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            roots.set(node, node);
+        }
+        int batches = (nodeCount + BUILD_BATCH - 1) / BUILD_BATCH;
+        IntStream.range(0, batches).parallel().forEach(batch -> {
+            NeighborCursor friends = new NeighborCursor();
+            int end = Math.min(nodeCount, (batch + 1) * BUILD_BATCH);
+            for (int node = batch * BUILD_BATCH; node < end; node++) {
+                if (!snapshot.contains(node)) {
+                    continue;
+                }
+                snapshot.neighbors(node, friends);
+                while (friends.next()) {
+                    if (friends.neighbor() < node) {
+                        link(roots, node, friends.neighbor());
+                    }
+                }
+            }
+        });
+
+        for (int node = 0; node < nodeCount; node++) {
+            parent[node] = findConcurrent(roots, node);
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (snapshot.contains(node)) {
+                state[node] = LIVE;
+                if (size[parent[node]]++ == 0) {
+                    components++;
+                }
+            }
+        }
+    }
+
+    private static void link(AtomicIntegerArray roots, int node1, int node2) {
+        while (true) {
+            int root1 = findConcurrent(roots, node1);
+            int root2 = findConcurrent(roots, node2);
+            if (root1 == root2) {
+                return;
+            }
+            if (root1 < root2) {
+                int root = root1;
+                root1 = root2;
+                root2 = root;
+            }
+            if (roots.compareAndSet(root1, root1, root2)) {
+                return;
+            }
+        }
+    }
+
+    /* Find with path halving, safe while other threads link */
+    private static int findConcurrent(AtomicIntegerArray roots, int node) {
+        int up;
+        while ((up = roots.get(node)) != node) {
+            int grandparent = roots.get(up);
+            if (up != grandparent) {
+                roots.compareAndSet(node, up, grandparent);
+            }
+            node = up;
+        }
+        return node;
+    }
+
+    /* Root of the component of node, labeled again first if it is dirty */
+    private int resolve(int node, GraphSnapshot snapshot) {
+        if (!isLive(node)) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
+
+        int root = find(node);
+        if (dirty.containsKey(root)) {
+            relabel(root, snapshot);
+            root = find(node);
+        }
+        return root;
+    }
+
+    private boolean isLive(int node) {
+        return node >= 0 && node < state.length && state[node] == LIVE;
+    }
+
+    private int find(int node) {
+        int root = node;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        while (parent[node] != root) {
+            int next = parent[node];
+            parent[node] = root;
+            node = next;
+        }
+        return root;
+    }
+
+    private void union(int node1, int node2) {
+        if (!isLive(node1) || !isLive(node2)) {
+            return;
+        }
+
+        int root1 = find(node1);
+        int root2 = find(node2);
+        if (root1 == root2) {
+            return;
+        }
+        if (size[root1] < size[root2]) {
+            int root = root1;
+            root1 = root2;
+            root2 = root;
+        }
+        parent[root2] = root1;
+        size[root1] += size[root2];
+        components--;
+
+        IntList seeds = dirty.remove(root2);
+        if (seeds != null) {
+            dirty.computeIfAbsent(root1, r -> new IntList()).addAll(seeds);
+        }
+    }
+
+    private void markDirty(int node1, int node2) {
+        int node = isLive(node1) ? node1 : node2;
+        if (!isLive(node)) {
+            return;
+        }
+
+        IntList seeds = dirty.computeIfAbsent(find(node), r -> new IntList());
+        seeds.add(node1);
+        seeds.add(node2);
+    }
+
+    /*
+    Labels the dirty component of root again from snapshot, then replays on
+    it the writes the snapshot does not hold yet
+    */
+    private void relabel(int root, GraphSnapshot snapshot) {
+        IntList seeds = dirty.remove(root);
+        if (size[root] == 0) {
+            return;
+        }
+
+        List<Event> later = new ArrayList<>();
+        for (Event event : events) {
+            if (event.version > snapshot.version()) {
+                later.add(event);
+            }
+        }
+        later.sort(Comparator.comparingLong(event -> event.version));
+
+        // A part can also have been joined to the component by a later write, its ends are seeds too
+        for (Event event : later) {
+            seeds.add(event.node1);
+            seeds.add(event.node2);
+        }
+
+        // Every part to walk holds a seed still in the component; profiles added later are left out of the walk
+        IntList starts = new IntList();
+        IntList added = new IntList();
+        for (int i = 0; i < seeds.size; i++) {
+            int seed = seeds.values[i];
+            if (isLive(seed) && find(seed) == root && snapshot.contains(seed)) {
+                starts.add(seed);
+            }
+        }
+        for (Event event : later) {
+            if (event.type == NODE_ADDED && isLive(event.node1) && find(event.node1) == root) {
+                added.add(event.node1);
+            }
+        }
+
+        components--;
+        int epoch = ++visitEpoch;
+        for (int i = 0; i < starts.size; i++) {
+            int start = starts.values[i];
+            if (visited[start] == epoch) {
+                continue;
+            }
+
+            // Walk one part of the component, then point all of it at its first profile
+            visited[start] = epoch;
+            queue[0] = start;
+            int tail = 1;
+            for (int head = 0; head < tail; head++) {
+                NeighborCursor friends = snapshot.neighbors(queue[head], cursor);
+                while (friends.next()) {
+                    int friend = friends.neighbor();
+                    if (isLive(friend) && visited[friend] != epoch) {
+                        visited[friend] = epoch;
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, tail * 2);
+                        }
+                        queue[tail++] = friend;
+                    }
+                }
+            }
+            for (int k = 0; k < tail; k++) {
+                parent[queue[k]] = start;
+            }
+            size[start] = tail;
+            components++;
+            relabeledProfiles += tail;
+        }
+        for (int i = 0; i < added.size; i++) {
+            int node = added.values[i];
+            parent[node] = node;
+            size[node] = 1;
+            components++;
+        }
+        relabeledComponents++;
+
+        for (Event event : later) {
+            if (event.type == EDGE_ADDED) {
+                union(event.node1, event.node2);
+            } else if (event.type == EDGE_REMOVED) {
+                markDirty(event.node1, event.node2);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= parent.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, parent.length * 2);
+        int oldCapacity = parent.length;
+        parent = Arrays.copyOf(parent, newCapacity);
+        size = Arrays.copyOf(size, newCapacity);
+        state = Arrays.copyOf(state, newCapacity);
+        visited = Arrays.copyOf(visited, newCapacity);
+        for (int node = oldCapacity; node < newCapacity; node++) {
+            parent[node] = node;
+        }
+    }
+}
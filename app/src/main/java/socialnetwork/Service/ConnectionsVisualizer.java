@@ -1,17 +1,23 @@
 package socialnetwork.Service;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.UUID;
-import java.util.Map;
-import java.util.Set;
-import java.util.HashMap;
-import java.util.HashSet;
 
 import org.graphstream.graph.Graph;
 import org.graphstream.graph.Node;
 import org.graphstream.graph.Edge;
 import org.graphstream.graph.implementations.SingleGraph;
 
-import socialnetwork.Model.Profile;
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
 
 public class ConnectionsVisualizer {
     private static ProfilesManager profilesManager;
@@ -19,11 +25,11 @@ public class ConnectionsVisualizer {
     public static void setProfilesManager(ProfilesManager profilesManager) {
         ConnectionsVisualizer.profilesManager = profilesManager;
     }
-    
+
     private ProfileTree tree;
 
     public ConnectionsVisualizer() {
-        tree = new ProfileTree(profilesManager.getProfilesIDs());
+        tree = new ProfileTree(profilesManager.getSnapshot());
     }
 
     public void drawGraph(UUID profileID, int maxGraphDepth) {
@@ -31,92 +37,191 @@ public class ConnectionsVisualizer {
         tree.drawTree();
     }
 
-    private void computeTree(UUID profileID, int maxTreeDepth) {
-        Profile tempProfile;
-        Set<UUID> addedFriends = new HashSet<>();
-        
-        Set<UUID> currentLevelProfiles = new HashSet<>();
-        currentLevelProfiles.add(profileID);
-        
-        for (int i = 0; i < maxTreeDepth; i++) {
-            for (UUID id : currentLevelProfiles) {
+    /*
+    Writes the tree to out in the format of options, without opening a window,
+    so it also runs on headless machines. out is flushed but not closed.
+    */
+    public void exportGraph(UUID profileID, int maxGraphDepth, OutputStream out, ExportOptions options) throws IOException {
+        computeTree(profileID, maxGraphDepth);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        tree.export(writer, options);
+        writer.flush();
+    }
+
+    public void exportGraph(UUID profileID, int maxGraphDepth, Path file, ExportOptions options) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            exportGraph(profileID, maxGraphDepth, out, options);
+        }
+    }
+
+    /*
+    Builds the tree without drawing it. Only the profiles reached within
+    maxTreeDepth get state, and the buffers are kept for the next call.
+    */
+    public void computeTree(UUID profileID, int maxTreeDepth) {
+        tree.reset();
+        int root = tree.add(tree.nodeOf(profileID));
+
+        // BFS frontiers are ranges of tree elements, in the order they were reached
+        int levelStart = root;
+        int levelEnd = root + 1;
+        for (int i = 0; i < maxTreeDepth && levelStart < levelEnd; i++) {
+            for (int element = levelStart; element < levelEnd; element++) {
                 if (tree.getCount() <= 1) {
                     break;
                 }
 
-                tempProfile = profilesManager.getProfile(id);
-                addedFriends.addAll(connectFriends(tempProfile));
+                connectFriends(element);
             }
-            currentLevelProfiles = Set.copyOf(addedFriends);
-            addedFriends.clear();
+            levelStart = levelEnd;
+            levelEnd = tree.size();
         }
     }
 
-    private Set<UUID> connectFriends(Profile profile) {
-        HashSet<UUID> connectedProfiles = new HashSet<>();
-        Map<UUID, Integer> friends = profile.getFriends();
-
-        boolean connected = false;
-        int connectionStrength = 0;
-        UUID parentID = profile.getProfileID();
-        for (Map.Entry<UUID, Integer> friend : friends.entrySet()) {
-            UUID friendIndex = friend.getKey();
-            connectionStrength = friend.getValue();
-
-            connected = tree.union(parentID, friendIndex, connectionStrength);
-            if (connected) {
-                connectedProfiles.add(friendIndex);
-            }
+    private void connectFriends(int element) {
+        NeighborCursor friends = tree.profileGraph.neighbors(tree.nodes[element], tree.cursor);
+        while (friends.next()) {
+            tree.union(element, tree.add(friends.neighbor()), friends.level());
         }
-
-        return connectedProfiles;
     }
 
+    /*
+    Cluster tree around one profile. Profiles are given a dense tree element
+    the first time they are reached, so every array is sized to the
+    neighborhood visited rather than to the whole network.
+    */
     private class ProfileTree {
-        /* connectionsStrength[i] is the strength of the connection
-         * between the profile at index i and its parent */
-        private int[] connectionsStrength;
+        private static final int SELF_CONNECTION_STRENGTH = 5; // strength of the connection between a profile and itself
+
+        private final GraphSnapshot profileGraph;
+        private final NeighborCursor cursor = new NeighborCursor();
+
+        /* nodes[e] is the graph node of tree element e */
+        private int[] nodes = new int[16];
+
+        /* treeParent[e] is the element e was reached from, e for the root */
+        private int[] treeParent = new int[16];
+
+        /* connectionsStrength[e] is the strength of the connection
+         * between element e and its tree parent */
+        private int[] connectionsStrength = new int[16];
 
-        /* parent[i] is the parent of the profile at index i */
-        private int[] parent;
+        /* union-find forest with path compression and union by rank */
+        private int[] parent = new int[16];
+        private byte[] rank = new byte[16];
 
-        private Map<UUID, Integer> profileToIndex = new HashMap<>();
+        /* open-addressed map from graph node to tree element, keys are node + 1 and 0 is empty */
+        private int[] slotNodes = new int[32];
+        private int[] slotElements = new int[32];
 
+        private int size;
+
+        /* profiles of the network not yet in the root's set */
         private int count;
 
-        // creates a tree for the given profile
-        public ProfileTree(UUID[] ids) {
-            count = ids.length;
-            parent = new int[ids.length];
-            connectionsStrength = new int[ids.length];
+        public ProfileTree(GraphSnapshot graph) {
+            this.profileGraph = graph;
+        }
+
+        public void reset() {
+            Arrays.fill(slotNodes, 0);
+            size = 0;
+            count = profileGraph.size();
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int nodeOf(UUID profileID) {
+            int node = profileGraph.indexOf(profileID);
+            if (node < 0) {
+                throw new IllegalArgumentException("Profile with id " + profileID + " does not exist");
+            }
+            return node;
+        }
+
+        /* Tree element of node, given a set of its own the first time */
+        public int add(int node) {
+            int mask = slotNodes.length - 1;
+            int slot = mix(node) & mask;
+            while (slotNodes[slot] != 0) {
+                if (slotNodes[slot] == node + 1) {
+                    return slotElements[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (size == nodes.length) {
+                int capacity = nodes.length * 2;
+                nodes = Arrays.copyOf(nodes, capacity);
+                treeParent = Arrays.copyOf(treeParent, capacity);
+                connectionsStrength = Arrays.copyOf(connectionsStrength, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                rank = Arrays.copyOf(rank, capacity);
+            }
+
+            int element = size++;
+            nodes[element] = node;
+            treeParent[element] = element;
+            connectionsStrength[element] = SELF_CONNECTION_STRENGTH;
+            parent[element] = element;
+            rank[element] = 0;
+
+            slotNodes[slot] = node + 1;
+            slotElements[slot] = element;
+            if (size * 2 > slotNodes.length) {
+                rehash();
+            }
+            return element;
+        }
 
-            int selfConnectionStrength = 5; // strength of the connection between a profile and itself
-            
-            int index = 0;
-            for (UUID id : ids) {
-                profileToIndex.put(id, index);
-                parent[index] = index;
-                connectionsStrength[index] = selfConnectionStrength;
-                index++;
+        private void rehash() {
+            int[] oldNodes = slotNodes;
+            int[] oldElements = slotElements;
+            slotNodes = new int[oldNodes.length * 2];
+            slotElements = new int[oldNodes.length * 2];
+            int mask = slotNodes.length - 1;
+            for (int i = 0; i < oldNodes.length; i++) {
+                if (oldNodes[i] != 0) {
+                    int slot = mix(oldNodes[i] - 1) & mask;
+                    while (slotNodes[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slotNodes[slot] = oldNodes[i];
+                    slotElements[slot] = oldElements[i];
+                }
             }
         }
 
+        private int mix(int node) {
+            int hash = node * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
          /**
-         * Returns the canonical element of the set containing element {@code p}.
+         * Returns the canonical element of the set containing element {@code p},
+         * pointing every element on the way straight at it.
          *
-         * @param  profileID id of an element
+         * @param  p tree element
          * @return the canonical element of the set containing {@code p}
-         * @throws IllegalArgumentException unless {@code 0 <= p < n}
+         * @throws IllegalArgumentException unless {@code 0 <= p < size}
          */
-        public int find(UUID profileID) {
-            Integer p = profileToIndex.get(profileID);
-            if (p == null) {
-                throw new IllegalArgumentException("Profile with id " + profileID + " does not exist");
+        public int find(int p) {
+            if (p < 0 || p >= size) {
+                throw new IllegalArgumentException("Profile with tree element " + p + " does not exist");
             }
 
-            while (p != parent[p])
-                p = parent[p];
-            return p;
+            int root = p;
+            while (root != parent[root]) {
+                root = parent[root];
+            }
+            while (p != root) {
+                int next = parent[p];
+                parent[p] = root;
+                p = next;
+            }
+            return root;
         }
 
         /**
@@ -127,39 +232,48 @@ public class ConnectionsVisualizer {
          * @return {@code true} if {@code p} and {@code q} are in the same set;
          *         {@code false} otherwise
          * @throws IllegalArgumentException unless
-         *         both {@code 0 <= p < n} and {@code 0 <= q < n}
+         *         both {@code 0 <= p < size} and {@code 0 <= q < size}
          */
-        public boolean connected(UUID p, UUID q) {
+        public boolean connected(int p, int q) {
             return find(p) == find(q);
         }
 
         /**
          * Merges the set containing element {@code p} with the set
          * containing element {@code q} if they are in different sets
-         * and if {@code q} is a root element of its own tree. In that
-         * case, {@code p} is set as the parent of {@code q}.
+         * and if {@code q} is alone in its set. In that case, {@code p}
+         * is set as the tree parent of {@code q}; the sets themselves are
+         * linked by rank, so finds stay short whatever the tree looks like.
          *
          * @param  p one element
          * @param  q the other element
          * @return {@code true} if the union is successful; {@code false}
          *         otherwise
          * @throws IllegalArgumentException unless
-         *         both {@code 0 <= p < n} and {@code 0 <= q < n}
+         *         both {@code 0 <= p < size} and {@code 0 <= q < size}
          */
-        public boolean union(UUID p, UUID q, int connectionStrength) {
+        public boolean union(int p, int q, int connectionStrength) {
             int rootP = find(p);
             int rootQ = find(q);
             if (rootP == rootQ) return false;
 
-            int qIndex = profileToIndex.get(q);
-            if (rootQ != qIndex) {
-                throw new IllegalArgumentException("Profile with id " + q + " is not a root element. Connecting it would damage it's current tree structure");
+            if (rootQ != q || treeParent[q] != q) {
+                throw new IllegalArgumentException("Profile with id " + profileGraph.idOf(nodes[q]) + " is not a root element. Connecting it would damage it's current tree structure");
             }
 
-            parent[qIndex] = profileToIndex.get(p);
-            connectionsStrength[qIndex] = connectionStrength;
+            if (rank[rootP] < rank[rootQ]) {
+                parent[rootP] = rootQ;
+            } else {
+                parent[rootQ] = rootP;
+                if (rank[rootP] == rank[rootQ]) {
+                    rank[rootP]++;
+                }
+            }
+
+            treeParent[q] = p;
+            connectionsStrength[q] = connectionStrength;
             count--;
-            
+
             return true;
         }
 
@@ -167,6 +281,64 @@ public class ConnectionsVisualizer {
             return count;
         }
 
+        /*
+        Streams the tree in BFS order, so the node budget keeps the profiles
+        closest to the root. Leaves under a profile with more of them than
+        the collapse threshold are written as one group node instead.
+        */
+        public void export(Writer out, ExportOptions options) throws IOException {
+            int[] children = new int[size];
+            int[] leaves = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (treeParent[i] != i) {
+                    children[treeParent[i]]++;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (treeParent[i] != i && children[i] == 0) {
+                    leaves[treeParent[i]]++;
+                }
+            }
+
+            int threshold = options.getCollapseLeavesAbove();
+            int budget = options.getMaxNodes();
+            int written = 0;
+            int omitted = 0;
+            TreeWriter writer = TreeWriter.of(options.getFormat(), out);
+            writer.begin();
+            for (int i = 0; i < size; i++) {
+                boolean collapsed = treeParent[i] != i && children[i] == 0 && leaves[treeParent[i]] > threshold;
+                if (collapsed) {
+                    continue;
+                }
+                if (written >= budget) {
+                    omitted += 1 + (leaves[i] > threshold ? leaves[i] : 0);
+                    continue;
+                }
+
+                String id = "n" + nodes[i];
+                writer.node(id, profileGraph.idOf(nodes[i]), profileGraph.nameOf(nodes[i]));
+                written++;
+                if (treeParent[i] != i) {
+                    writer.edge(id, "n" + nodes[treeParent[i]], connectionsStrength[i], false);
+                }
+
+                if (leaves[i] > threshold) {
+                    if (written >= budget) {
+                        omitted += leaves[i];
+                        continue;
+                    }
+                    writer.group("g" + nodes[i], leaves[i]);
+                    writer.edge("g" + nodes[i], id, 0, true);
+                    written++;
+                }
+            }
+            if (omitted > 0) {
+                writer.omitted(omitted);
+            }
+            writer.end();
+        }
+
         public void drawTree(){
             Node node = null;
             Edge edge = null;
@@ -177,23 +349,21 @@ public class ConnectionsVisualizer {
                     "node { fill-color: lightblue; size: 15px; text-size: 15px; } "
                             + "edge { fill-color: gray; size: 2px; text-size: 15px; }");
 
-            Set<Map.Entry<UUID, Integer>> entries = profileToIndex.entrySet();
-            for (Map.Entry<UUID, Integer> entry : entries) {
-                label = profilesManager.getProfile(entry.getKey()).getName();
-                // label += "\n" + entry.getKey().toString();
+            // Only the profiles in the tree, the rest of the network would just be noise
+            for (int i = 0; i < size; i++) {
+                label = profileGraph.nameOf(nodes[i]);
+                // label += "\n" + profileGraph.idOf(nodes[i]).toString();
 
-                node = graph.addNode(String.valueOf(entry.getValue()));
+                node = graph.addNode(String.valueOf(nodes[i]));
                 node.setAttribute("ui.label", label);
             }
 
             graph.display();
 
-            int i = -1;
-            for (Map.Entry<UUID, Integer> entry : entries){
-                i = entry.getValue();
-                if (parent[i] != i){
-                    edge = graph.addEdge(i + "-" + parent[i], String.valueOf(i), String.valueOf(parent[i]));
-                    edge.addAttribute("ui.label", connectionsStrength[i]);
+            for (int i = 0; i < size; i++){
+                if (treeParent[i] != i){
+                    edge = graph.addEdge(nodes[i] + "-" + nodes[treeParent[i]], String.valueOf(nodes[i]), String.valueOf(nodes[treeParent[i]]));
+                    edge.addAttribute("ui.label", connectionsStrength[i], false);
                 }
             }
 
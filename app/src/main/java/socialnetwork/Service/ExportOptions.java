@@ -0,0 +1,65 @@
+package socialnetwork.Service;
+
+/**
+ * How {@link ConnectionsVisualizer#exportGraph} writes a friendship tree:
+ * the output format and the level of detail kept for large clusters.
+ */
+public class ExportOptions {
+    public enum Format {
+        DOT,
+        GRAPHML,
+        JSON_LINES;
+
+        public static Format fromString(String format) {
+            return Format.valueOf(format.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private Format format = Format.DOT;
+    private int maxNodes = Integer.MAX_VALUE;
+    private int collapseLeavesAbove = Integer.MAX_VALUE;
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public ExportOptions setFormat(Format format) {
+        if (format == null) {
+            throw new IllegalArgumentException("Export format cannot be null");
+        }
+        this.format = format;
+        return this;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    /*
+    Stops after maxNodes nodes, closest to the root first. A collapsed group
+    of leaves counts as one node.
+    */
+    public ExportOptions setMaxNodes(int maxNodes) {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("Node budget must be at least 1");
+        }
+        this.maxNodes = maxNodes;
+        return this;
+    }
+
+    public int getCollapseLeavesAbove() {
+        return collapseLeavesAbove;
+    }
+
+    /*
+    Profiles with more than collapseLeavesAbove leaves under them in the tree
+    get a single node standing for all of those leaves
+    */
+    public ExportOptions setCollapseLeavesAbove(int collapseLeavesAbove) {
+        if (collapseLeavesAbove < 0) {
+            throw new IllegalArgumentException("Leaf collapse threshold cannot be negative");
+        }
+        this.collapseLeavesAbove = collapseLeavesAbove;
+        return this;
+    }
+}
@@ -0,0 +1,74 @@
+package socialnetwork.Service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How suggestion queries treat hubs, profiles with more than
+ * {@code hubDegree} friends.
+ *
+ * Without a policy a query walks every friend of every friend, so a single
+ * celebrity friend makes it as slow as the celebrity is popular. With one, a
+ * hub friend contributes a sample of at most {@code fanOut} of its friends,
+ * drawn with probability proportional to their friendship level, and a hub
+ * receiving suggestions only walks its {@code fanOut} strongest friendships.
+ * Samples are seeded by the receiver and the hub, so a query gives the same
+ * answer every time it runs on the same snapshot.
+ *
+ * A query then visits at most its own friends plus {@code fanOut} squared
+ * friends of friends, however skewed the network is. The counters tell how
+ * much was left out.
+ */
+public class HubPolicy {
+    /* Walks everything, the exact ranking */
+    public static final HubPolicy NONE = new HubPolicy(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final int hubDegree;
+    private final int fanOut;
+
+    private final LongAdder sampledHubs = new LongAdder();
+    private final LongAdder skippedCandidates = new LongAdder();
+
+    public HubPolicy(int hubDegree, int fanOut) {
+        if (hubDegree < 1) {
+            throw new IllegalArgumentException("Hub degree must be at least 1");
+        }
+        if (fanOut < 1 || fanOut > hubDegree) {
+            throw new IllegalArgumentException("Fan-out must be between 1 and the hub degree");
+        }
+
+        this.hubDegree = hubDegree;
+        this.fanOut = fanOut;
+    }
+
+    public int getHubDegree() {
+        return hubDegree;
+    }
+
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    public boolean isHub(int degree) {
+        return degree > hubDegree;
+    }
+
+    /* Hubs walked through a sample or a cut of their friends */
+    public long getSampledHubs() {
+        return sampledHubs.sum();
+    }
+
+    /* Friends of hubs that were left out of the walk, so could not become candidates */
+    public long getSkippedCandidates() {
+        return skippedCandidates.sum();
+    }
+
+    void recordSample(long skipped) {
+        sampledHubs.increment();
+        skippedCandidates.add(skipped);
+    }
+
+    @Override
+    public String toString() {
+        return this == NONE ? "HubPolicy[none]" : "HubPolicy[hubDegree=" + hubDegree + ", fanOut=" + fanOut + "]";
+    }
+}
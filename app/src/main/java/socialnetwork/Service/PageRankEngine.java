@@ -0,0 +1,470 @@
+package socialnetwork.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import socialnetwork.Model.Gender;
+import socialnetwork.Model.Profile;
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+
+/**
+ * Suggestions ranked by personalized PageRank from the receiving profile,
+ * so they reach past friends of friends and a hub friend only passes on
+ * its share of the walk instead of flooding the list.
+ *
+ * Scores are approximated with forward push: every profile holds an
+ * estimate and a residual, and a profile whose residual is at least
+ * {@code epsilon} times its degree keeps {@code alpha} of it and pushes the
+ * rest to its friends, in proportion to their friendship levels. When no
+ * residual is left above the threshold, every estimate is within
+ * {@code epsilon} times the profile's degree of its real score.
+ *
+ * Two more bounds keep a query cheap on any graph: pushing stops reaching
+ * new profiles once {@code maxTouched} profiles have state, and stops
+ * altogether after {@code maxMillis}. A query cut short by either of them
+ * still ranks what it has, and is counted in {@link #getTruncatedQueries()}.
+ * State lives in per-thread buffers sized to {@code maxTouched}, never to
+ * the whole network.
+ */
+public class PageRankEngine {
+    private static final double DEFAULT_ALPHA = 0.15;
+    private static final double DEFAULT_EPSILON = 1e-5;
+    private static final int DEFAULT_MAX_TOUCHED = 100000;
+    private static final long DEFAULT_MAX_MILLIS = 50;
+
+    /* the clock is read once per this many steps, a push or a friendship walked */
+    private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private volatile double alpha = DEFAULT_ALPHA;
+    private volatile double epsilon = DEFAULT_EPSILON;
+    private volatile int maxTouched = DEFAULT_MAX_TOUCHED;
+    private volatile long maxMillis = DEFAULT_MAX_MILLIS;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder truncatedQueries = new LongAdder();
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /* Probability of jumping back to the receiving profile, higher keeps walks closer to it */
+    public PageRankEngine setAlpha(double alpha) {
+        if (!(alpha > 0 && alpha < 1)) {
+            throw new IllegalArgumentException("Alpha must be between 0 and 1");
+        }
+        this.alpha = alpha;
+        return this;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public PageRankEngine setEpsilon(double epsilon) {
+        if (!(epsilon > 0)) {
+            throw new IllegalArgumentException("Epsilon must be positive");
+        }
+        this.epsilon = epsilon;
+        return this;
+    }
+
+    public int getMaxTouched() {
+        return maxTouched;
+    }
+
+    public PageRankEngine setMaxTouched(int maxTouched) {
+        if (maxTouched < 1) {
+            throw new IllegalArgumentException("Touched profiles bound must be at least 1");
+        }
+        this.maxTouched = maxTouched;
+        return this;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public PageRankEngine setMaxMillis(long maxMillis) {
+        if (maxMillis < 1) {
+            throw new IllegalArgumentException("Time bound must be at least 1 millisecond");
+        }
+        this.maxMillis = maxMillis;
+        return this;
+    }
+
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    /* Queries stopped by maxTouched or maxMillis before reaching epsilon */
+    public long getTruncatedQueries() {
+        return truncatedQueries.sum();
+    }
+
+    public List<Profile> getSuggestions(
+        UUID profileID,
+        int maxSuggestions,
+        Gender genderFilter,
+        int minAgeFilter,
+        int maxAgeFilter,
+        GraphSnapshot graph
+    ) {
+        int node = graph.indexOf(profileID);
+        if (node < 0) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
+
+        int[] ranking = rankSuggestions(node, maxSuggestions, ProfileIndex.unindexed(genderFilter, minAgeFilter, maxAgeFilter), graph);
+        List<Profile> suggestionsList = new ArrayList<>(ranking.length);
+        for (int suggestion : ranking) {
+            suggestionsList.add(graph.profile(suggestion));
+        }
+        return suggestionsList;
+    }
+
+    /*
+    Single query with the filters resolved against a ProfileIndex. The
+    candidates are every profile that got a score, the profile itself and
+    its friends left out, counted before the filter
+    */
+    public RankedSuggestions getTopSuggestions(int node, int maxSuggestions, ProfileIndex.Filter filter, GraphSnapshot graph) {
+        Scratch buffers = scratch.get();
+        int[] ranking = rankSuggestions(node, maxSuggestions, filter, graph, buffers);
+        List<Profile> suggestionsList = new ArrayList<>(ranking.length);
+        for (int suggestion : ranking) {
+            suggestionsList.add(graph.profile(suggestion));
+        }
+        return new RankedSuggestions(suggestionsList, buffers.candidates);
+    }
+
+    /**
+     * The best {@code maxSuggestions} profiles that pass the filter, if any,
+     * by score, best first. The profile itself and its friends are left out.
+     */
+    public int[] rankSuggestions(int node, int maxSuggestions, ProfileIndex.Filter filter, GraphSnapshot graph) {
+        return rankSuggestions(node, maxSuggestions, filter, graph, scratch.get());
+    }
+
+    private int[] rankSuggestions(int node, int maxSuggestions, ProfileIndex.Filter filter, GraphSnapshot graph, Scratch buffers) {
+        buffers.reset(maxTouched);
+        queries.increment();
+        if (push(node, graph, buffers)) {
+            truncatedQueries.increment();
+        }
+
+        // Friends are touched by the first push, so they can be excluded by element
+        int source = buffers.elementOf(node);
+        buffers.excluded[source] = true;
+        NeighborCursor friends = graph.neighbors(node, buffers.cursor);
+        while (friends.next()) {
+            int friend = buffers.elementOf(friends.neighbor());
+            if (friend >= 0) {
+                buffers.excluded[friend] = true;
+            }
+        }
+
+        return buffers.top(maxSuggestions, filter, graph);
+    }
+
+    /* Runs forward push from node, returns true if a bound cut it short */
+    private boolean push(int node, GraphSnapshot graph, Scratch buffers) {
+        double alpha = this.alpha;
+        double epsilon = this.epsilon;
+        long deadline = System.nanoTime() + maxMillis * 1000000;
+        boolean truncated = false;
+
+        int source = buffers.touch(node);
+        buffers.residuals[source] = 1;
+        buffers.enqueue(source);
+
+        // The deadline is checked inside the rows too, a single push on a hub walks a long row twice
+        NeighborCursor friends = buffers.cursor;
+        pushing:
+        while (buffers.queueSize > 0) {
+            if (buffers.pastDeadline(deadline)) {
+                truncated = true;
+                break;
+            }
+
+            int element = buffers.dequeue();
+            int u = buffers.nodes[element];
+            double residual = buffers.residuals[element];
+            buffers.residuals[element] = 0;
+            buffers.estimates[element] += alpha * residual;
+
+            graph.neighbors(u, friends);
+            long weight = 0;
+            while (friends.next()) {
+                if (buffers.pastDeadline(deadline)) {
+                    truncated = true;
+                    break pushing;
+                }
+                weight += friends.level();
+            }
+
+            double mass = (1 - alpha) * residual;
+            if (weight == 0) {
+                // Walks stuck at a profile without friends start over from the source
+                buffers.residuals[source] += mass;
+                buffers.offer(source, graph, epsilon);
+                continue;
+            }
+
+            graph.neighbors(u, friends);
+            while (friends.next()) {
+                if (buffers.pastDeadline(deadline)) {
+                    // The share of the friends not reached yet is dropped
+                    truncated = true;
+                    break pushing;
+                }
+                int v = buffers.elementOf(friends.neighbor());
+                if (v < 0) {
+                    if (buffers.size == buffers.capacity) {
+                        // The share of profiles that can't be touched any more is dropped
+                        truncated = true;
+                        continue;
+                    }
+                    v = buffers.touch(friends.neighbor());
+                }
+
+                buffers.residuals[v] += mass * friends.level() / weight;
+                buffers.offer(v, graph, epsilon);
+            }
+        }
+        return truncated;
+    }
+
+    /* Per-thread state of a query, indexed by element: the order in which profiles were touched */
+    private static class Scratch {
+        private final NeighborCursor cursor = new NeighborCursor();
+
+        private int capacity;
+        private int size;
+        private int[] nodes = new int[0];
+        private double[] estimates = new double[0];
+        private double[] residuals = new double[0];
+        private boolean[] queued = new boolean[0];
+        private boolean[] excluded = new boolean[0];
+
+        /* ring buffer of queued elements, an element is queued at most once at a time */
+        private int[] queue = new int[0];
+        private int queueHead;
+        private int queueSize;
+
+        /* elements with a score that are not excluded, counted by the last top() before the filter */
+        private int candidates;
+
+        /* pushes and friendships walked by the query */
+        private long steps;
+
+        /* open-addressed map from node to element, keys are node + 1 and 0 is empty */
+        private int[] slotNodes = new int[0];
+        private int[] slotElements = new int[0];
+        private int[] elementSlots = new int[0];
+
+        private void reset(int capacity) {
+            if (this.capacity != capacity) {
+                this.capacity = capacity;
+                int initial = Math.min(capacity, 1024);
+                nodes = new int[initial];
+                estimates = new double[initial];
+                residuals = new double[initial];
+                queued = new boolean[initial];
+                excluded = new boolean[initial];
+                queue = new int[initial];
+                elementSlots = new int[initial];
+                slotNodes = new int[Integer.highestOneBit(initial) * 4];
+                slotElements = new int[slotNodes.length];
+            } else {
+                for (int element = 0; element < size; element++) {
+                    slotNodes[elementSlots[element]] = 0;
+                }
+            }
+            size = 0;
+            queueHead = 0;
+            queueSize = 0;
+            steps = 0;
+        }
+
+        /* Counts a step, reading the clock once per CLOCK_CHECK_INTERVAL of them */
+        private boolean pastDeadline(long deadline) {
+            return ++steps % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() > deadline;
+        }
+
+        private int elementOf(int node) {
+            int mask = slotNodes.length - 1;
+            for (int slot = mix(node) & mask; slotNodes[slot] != 0; slot = (slot + 1) & mask) {
+                if (slotNodes[slot] == node + 1) {
+                    return slotElements[slot];
+                }
+            }
+            return -1;
+        }
+
+        /* Gives node an element with no estimate and no residual, the caller checks the capacity */
+        private int touch(int node) {
+            if (size == nodes.length) {
+                grow();
+            }
+
+            int element = size++;
+            nodes[element] = node;
+            estimates[element] = 0;
+            residuals[element] = 0;
+            queued[element] = false;
+            excluded[element] = false;
+
+            int mask = slotNodes.length - 1;
+            int slot = mix(node) & mask;
+            while (slotNodes[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotNodes[slot] = node + 1;
+            slotElements[slot] = element;
+            elementSlots[element] = slot;
+            return element;
+        }
+
+        private void grow() {
+            int length = (int) Math.min(capacity, 2L * nodes.length);
+            nodes = Arrays.copyOf(nodes, length);
+            estimates = Arrays.copyOf(estimates, length);
+            residuals = Arrays.copyOf(residuals, length);
+            queued = Arrays.copyOf(queued, length);
+            excluded = Arrays.copyOf(excluded, length);
+            elementSlots = Arrays.copyOf(elementSlots, length);
+
+            int[] grownQueue = new int[length];
+            for (int i = 0; i < queueSize; i++) {
+                grownQueue[i] = queue[(queueHead + i) % queue.length];
+            }
+            queue = grownQueue;
+            queueHead = 0;
+
+            // Keeps the table at most half full
+            if (length * 2 > slotNodes.length) {
+                slotNodes = new int[Integer.highestOneBit(length) * 4];
+                slotElements = new int[slotNodes.length];
+                int mask = slotNodes.length - 1;
+                for (int element = 0; element < size; element++) {
+                    int slot = mix(nodes[element]) & mask;
+                    while (slotNodes[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slotNodes[slot] = nodes[element] + 1;
+                    slotElements[slot] = element;
+                    elementSlots[element] = slot;
+                }
+            }
+        }
+
+        /* Queues element if its residual reached the push threshold */
+        private void offer(int element, GraphSnapshot graph, double epsilon) {
+            if (!queued[element] && residuals[element] >= epsilon * Math.max(1, graph.degree(nodes[element]))) {
+                enqueue(element);
+            }
+        }
+
+        private void enqueue(int element) {
+            queue[(queueHead + queueSize) % queue.length] = element;
+            queueSize++;
+            queued[element] = true;
+        }
+
+        private int dequeue() {
+            int element = queue[queueHead];
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+            queued[element] = false;
+            return element;
+        }
+
+        /*
+        Best k elements that pass the filter by estimate, ties to the lower
+        node, selected with a min-heap of elements and returned as nodes.
+        Every candidate, filtered out or not, is counted in candidates
+        */
+        private int[] top(int k, ProfileIndex.Filter filter, GraphSnapshot graph) {
+            int[] heap = new int[Math.max(0, Math.min(k, size))];
+            int heapSize = 0;
+            candidates = 0;
+            for (int element = 0; element < size; element++) {
+                if (excluded[element] || estimates[element] == 0) {
+                    continue;
+                }
+                candidates++;
+                if (heap.length == 0 || filter != null && !filter.matches(nodes[element], graph)) {
+                    continue;
+                }
+
+                if (heapSize < heap.length) {
+                    heap[heapSize] = element;
+                    siftUp(heap, heapSize++);
+                } else if (better(element, heap[0])) {
+                    heap[0] = element;
+                    siftDown(heap, heapSize, 0);
+                }
+            }
+
+            int[] ranking = new int[heapSize];
+            while (heapSize > 0) {
+                ranking[heapSize - 1] = nodes[heap[0]];
+                heap[0] = heap[--heapSize];
+                siftDown(heap, heapSize, 0);
+            }
+            return ranking;
+        }
+
+        private boolean better(int element1, int element2) {
+            if (estimates[element1] != estimates[element2]) {
+                return estimates[element1] > estimates[element2];
+            }
+            return nodes[element1] < nodes[element2];
+        }
+
+        private void siftUp(int[] heap, int i) {
+            int element = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!better(heap[parent], element)) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = element;
+        }
+
+        private void siftDown(int[] heap, int heapSize, int i) {
+            if (heapSize == 0) {
+                return;
+            }
+
+            int element = heap[i];
+            int half = heapSize >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize && better(heap[child], heap[child + 1])) {
+                    child++;
+                }
+                if (!better(element, heap[child])) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = element;
+        }
+
+        private static int mix(int node) {
+            int hash = node * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package socialnetwork.Service;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import socialnetwork.Graph.GraphListener;
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Model.Gender;
+
+/**
+ * Secondary index over the dense node ids of a graph: the number of
+ * profiles of each gender in each age bucket, which bounds how many
+ * profiles a filter can match before any candidate is looked at.
+ *
+ * Candidates themselves are checked against the gender and age columns of
+ * the snapshot, one byte and one int read per candidate; a set lookup
+ * cannot beat that, so the index keeps no per-profile sets.
+ *
+ * The index is counted in one pass over a snapshot and then listens to the
+ * graph, so it follows added and removed profiles. Counts are atomic, so
+ * neither queries nor writers take a lock; changes told while the index is
+ * counted are queued and applied once it is done, unless the snapshot it
+ * counted already holds them. Age and gender of a profile never change and
+ * node ids are never reused, so a query on an older snapshot can use the
+ * index: a profile added or removed after the snapshot was taken only moves
+ * the estimates by one.
+ */
+public class ProfileIndex implements GraphListener {
+    public static final int AGE_BUCKET_WIDTH = 5;
+
+    /* ages from 0 to MAX_BUCKETED_AGE - 1 get their own buckets, the rest share the last one */
+    private static final int MAX_BUCKETED_AGE = 150;
+    private static final int AGE_BUCKETS = MAX_BUCKETED_AGE / AGE_BUCKET_WIDTH + 1;
+    private static final Gender[] GENDERS = Gender.values();
+
+    private static final long NOT_COUNTED = -1;
+
+    private final ProfileGraph graph;
+
+    /* profiles of each gender in each age bucket, at gender * AGE_BUCKETS + bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(GENDERS.length * AGE_BUCKETS);
+
+    /* version of the snapshot the counts start from, NOT_COUNTED until they are */
+    private volatile long countedVersion = NOT_COUNTED;
+    /* changes told before the counts were done */
+    private final ConcurrentLinkedQueue<Change> queued = new ConcurrentLinkedQueue<>();
+
+    private static final class Change {
+        final long version;
+        final int slot;
+        final int delta;
+
+        Change(long version, int slot, int delta) {
+            this.version = version;
+            this.slot = slot;
+            this.delta = delta;
+        }
+    }
+
+    private ProfileIndex(ProfileGraph graph) {
+        this.graph = graph;
+    }
+
+    /*
+    Index of graph. Writes already past their listeners when the index is
+    added are not told about, so it counts a snapshot holding all of them
+    */
+    public static ProfileIndex of(ProfileGraph graph) {
+        ProfileIndex index = new ProfileIndex(graph);
+        graph.addListener(index);
+        index.count(graph.awaitWrites());
+        return index;
+    }
+
+    public ProfileGraph graph() {
+        return graph;
+    }
+
+    /**
+     * Filter of a suggestion query. A null gender or an open age bound
+     * leaves that attribute unfiltered.
+     */
+    public Filter filter(Gender gender, int minAge, int maxAge) {
+        return new Filter(gender, minAge, maxAge, estimateMatches(gender, minAge, maxAge));
+    }
+
+    /* Same filter without an estimate, for graphs without an index */
+    public static Filter unindexed(Gender gender, int minAge, int maxAge) {
+        return new Filter(gender, minAge, maxAge, minAge > maxAge ? 0 : Long.MAX_VALUE);
+    }
+
+    /*
+    Upper bound of the profiles that pass the filters: the profiles of the
+    gender in every age bucket that overlaps the age range
+    */
+    public long estimateMatches(Gender gender, int minAge, int maxAge) {
+        if (minAge > maxAge) {
+            return 0;
+        }
+
+        long matches = 0;
+        for (int bucket = bucketOf(minAge); bucket <= bucketOf(maxAge); bucket++) {
+            if (gender != null) {
+                matches += counts.get(gender.ordinal() * AGE_BUCKETS + bucket);
+            } else {
+                for (int g = 0; g < GENDERS.length; g++) {
+                    matches += counts.get(g * AGE_BUCKETS + bucket);
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public void nodeAdded(GraphSnapshot snapshot, long version, int node) {
+        change(new Change(version, slotOf(snapshot, node), 1));
+    }
+
+    @Override
+    public void nodeRemoved(GraphSnapshot snapshot, long version, int node) {
+        change(new Change(version, slotOf(snapshot, node), -1));
+    }
+
+    private void change(Change change) {
+        if (countedVersion == NOT_COUNTED) {
+            queued.add(change);
+            // The count may have finished and drained the queue right before the change went in
+            if (countedVersion != NOT_COUNTED) {
+                drain();
+            }
+            return;
+        }
+        apply(change);
+    }
+
+    private void count(GraphSnapshot snapshot) {
+        int nodeCount = snapshot.nodeCount();
+        for (int node = 0; node < nodeCount; node++) {
+            if (snapshot.contains(node)) {
+                counts.incrementAndGet(slotOf(snapshot, node));
+            }
+        }
+        countedVersion = snapshot.version();
+        drain();
+    }
+
+    private void drain() {
+        Change change;
+        while ((change = queued.poll()) != null) {
+            apply(change);
+        }
+    }
+
+    /* Changes the counted snapshot already holds are skipped */
+    private void apply(Change change) {
+        if (change.version > countedVersion) {
+            counts.addAndGet(change.slot, change.delta);
+        }
+    }
+
+    private static int slotOf(GraphSnapshot snapshot, int node) {
+        return snapshot.genderOf(node).ordinal() * AGE_BUCKETS + bucketOf(snapshot.ageOf(node));
+    }
+
+    private static int bucketOf(int age) {
+        if (age < 0) {
+            return 0;
+        }
+        return Math.min(age, MAX_BUCKETED_AGE) / AGE_BUCKET_WIDTH;
+    }
+
+    /**
+     * Gender and age filters of one query, resolved against the index once
+     * so a filter nothing passes is known before the query runs. Every
+     * candidate costs a gender and an age comparison on the columns.
+     */
+    public static final class Filter {
+        private final Gender gender;
+        private final int minAge;
+        private final int maxAge;
+        private final long estimatedMatches;
+
+        private Filter(Gender gender, int minAge, int maxAge, long estimatedMatches) {
+            this.gender = gender;
+            this.minAge = minAge;
+            this.maxAge = maxAge;
+            this.estimatedMatches = estimatedMatches;
+        }
+
+        /* True when no profile in the network can pass, so the query can be skipped */
+        public boolean isEmpty() {
+            return estimatedMatches == 0;
+        }
+
+        public long estimatedMatches() {
+            return estimatedMatches;
+        }
+
+        public boolean matches(int node, GraphSnapshot snapshot) {
+            if (gender != null && snapshot.genderOf(node) != gender) {
+                return false;
+            }
+
+            int age = snapshot.ageOf(node);
+            return age >= minAge && age <= maxAge;
+        }
+    }
+}
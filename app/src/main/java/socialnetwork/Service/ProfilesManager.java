@@ -1,78 +1,123 @@
 package socialnetwork.Service;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import socialnetwork.Model.Profile;
 import socialnetwork.Model.Gender;
+import socialnetwork.Graph.FriendshipWriter;
+import socialnetwork.Graph.GraphFile;
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.MutationLog;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Metrics.ProfilesMetrics;
+import socialnetwork.Util.MappedProfilesLoader;
 import socialnetwork.Util.ProfilesLoader;
 
 public class ProfilesManager {
     private static final Logger logger = LogManager.getLogger(ProfilesManager.class);
 
-    private Map<UUID, Profile> profiles;
+    private static final int DEFAULT_MAX_SUGGESTIONS = 100;
+    private static final int DEFAULT_MIN_AGE = 0;
+    private static final int DEFAULT_MAX_AGE = 1000;
+    private static final int DEFAULT_SUGGESTIONS_CACHE_CAPACITY = 10000;
+
+    private volatile ProfileGraph graph;
+    private final int suggestionsCacheCapacity;
+    private volatile SuggestionsCache suggestionsCache;
+    private volatile ProfileIndex profileIndex;
+    /* built by the first community query on a network, null until then */
+    private volatile ComponentIndex componentIndex;
+    private final PageRankEngine pageRankEngine = new PageRankEngine();
+    private volatile HubPolicy hubPolicy = HubPolicy.NONE;
+    private volatile boolean compressedAdjacency;
+
+    /* durable store opened with openStore, null if changes are only kept in memory */
+    private volatile MutationLog mutationLog;
+    private Path storeGraphPath;
+
+    private final ProfilesMetrics metrics = new ProfilesMetrics();
 
     public ProfilesManager() {
-        this.profiles = new HashMap<>();
+        this(DEFAULT_SUGGESTIONS_CACHE_CAPACITY);
+    }
+
+    /*
+    suggestionsCacheCapacity is the number of profiles whose suggestions are
+    kept between calls, 0 disables the cache
+    */
+    public ProfilesManager(int suggestionsCacheCapacity) {
+        this.suggestionsCacheCapacity = suggestionsCacheCapacity;
+        this.graph = ProfileGraph.empty();
+        graph.setFriendshipWriter(new ProfileWrites(graph));
+        this.suggestionsCache = SuggestionsCache.of(graph, suggestionsCacheCapacity);
+        this.profileIndex = ProfileIndex.of(graph);
     }
 
     public void addProfile(Profile profile) throws IllegalArgumentException {
-        if (profiles.containsKey(profile.getProfileID())) {
-            throw new IllegalArgumentException("Profile already exists");
+        ProfileGraph graph = this.graph;
+        Map<UUID, Integer> friends = profile.getFriends();
+        int node = graph.addNode(profile.getProfileID(), profile.getName(), profile.getAge(), profile.getGender());
+        profile.attach(graph, node);
+
+        for (Map.Entry<UUID, Integer> friend : friends.entrySet()) {
+            try {
+                graph.connect(node, graph.indexOf(friend.getKey()), friend.getValue());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Error connecting new profile " + profile.getProfileID() + " with " + friend.getKey() + ": " + e.getMessage(), e);
+            }
         }
-        profiles.put(profile.getProfileID(), profile);
+        syncMutationLog();
     }
 
     public Profile getProfile(UUID profileID) throws IllegalArgumentException {
-        if (!profiles.containsKey(profileID)) {
+        GraphSnapshot snapshot = graph.snapshot();
+        int node = snapshot.indexOf(profileID);
+        if (node < 0) {
             throw new IllegalArgumentException("Profile does not exist");
         }
-        return profiles.get(profileID);
+        return snapshot.profile(node);
     }
 
     public void removeProfile(UUID profileID) throws IllegalArgumentException {
-        Map<UUID, Integer> friends = getProfile(profileID).getFriends();
-        for (UUID friendID : friends.keySet()) {
-            try {
-                getProfile(friendID).removeFriend(profileID);
-            } catch (IllegalArgumentException e) {
-                logger.warn("Error removing friend " + profileID + " from profile " + friendID + ": " + e.getMessage(), e);
-                continue;
+        long start = System.nanoTime();
+        boolean removed = false;
+        try {
+            ProfileGraph graph = this.graph;
+            int node = graph.indexOf(profileID);
+            if (node < 0) {
+                throw new IllegalArgumentException("Profile does not exist");
             }
+            graph.removeNode(node);
+            syncMutationLog();
+            removed = true;
+        } finally {
+            metrics.removeProfile.record(start, removed);
         }
-
-        profiles.remove(profileID);
     }
 
     /*
     Returns true if profiles were connected, false otherwise
     */
     public boolean connectProfiles(UUID profileID1, UUID profileID2, int friendshipLevel) {
-        Profile profile1, profile2;
+        ProfileGraph graph = this.graph;
         try {
-            profile1 = getProfile(profileID1);
-            profile2 = getProfile(profileID2);
-        }
-        catch (IllegalArgumentException e) {
-            logger.warn("Error connecting profiles " + profileID1 + " and " + profileID2 + ": " + e.getMessage(), e);
-            return false;
-        }
-
-        try{
-            profile1.addFriend(profileID2, friendshipLevel);
-            profile2.addFriend(profileID1, friendshipLevel);
+            connect(graph, graph.indexOf(profileID1), graph.indexOf(profileID2), friendshipLevel);
         }
         catch (IllegalArgumentException e) {
             logger.warn("Error connecting profiles " + profileID1 + " and " + profileID2 + ": " + e.getMessage(), e);
-            cleanupConnectionAttempt(profile1, profile2);
             return false;
         }
-
         return true;
     }
 
@@ -80,47 +125,297 @@ public class ProfilesManager {
     Returns true if profiles were disconnected, false otherwise
     */
     public boolean disconnectProfiles(UUID profileID1, UUID profileID2) {
-        Profile profile1, profile2;
+        ProfileGraph graph = this.graph;
         try {
-            profile1 = getProfile(profileID1);
-            profile2 = getProfile(profileID2);
+            disconnect(graph, graph.indexOf(profileID1), graph.indexOf(profileID2));
         }
         catch (IllegalArgumentException e) {
             logger.warn("Error disconnecting profiles " + profileID1 + " and " + profileID2 + ": " + e.getMessage(), e);
             return false;
         }
+        return true;
+    }
+
+    /*
+    Friendship changes made through the manager and through the Profile views
+    of its networks, synced to the open store and measured alike
+    */
+    private void connect(ProfileGraph graph, int node1, int node2, int friendshipLevel) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        boolean connected = false;
+        try {
+            graph.connect(node1, node2, friendshipLevel);
+            syncMutationLog();
+            connected = true;
+        } finally {
+            metrics.connectProfiles.record(start, connected);
+        }
+    }
 
-        Integer friendshipLevel = 0;
-        try{
-            friendshipLevel = profile1.removeFriend(profileID2);
-            friendshipLevel = profile2.removeFriend(profileID1);
+    private int disconnect(ProfileGraph graph, int node1, int node2) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        boolean disconnected = false;
+        try {
+            int friendshipLevel = graph.disconnect(node1, node2);
+            syncMutationLog();
+            disconnected = true;
+            return friendshipLevel;
+        } finally {
+            metrics.disconnectProfiles.record(start, disconnected);
         }
-        catch (IllegalArgumentException e) {
-            logger.warn("Error disconnecting profiles " + profileID1 + " and " + profileID2 + ": " + e.getMessage(), e);
-            cleanupDisconnectionAttempt(profile1, profile2, friendshipLevel);
-            return false;
+    }
+
+    public int countMutualFriends(UUID profileID1, UUID profileID2) throws IllegalArgumentException {
+        GraphSnapshot snapshot = graph.snapshot();
+        int node1 = snapshot.indexOf(profileID1);
+        int node2 = snapshot.indexOf(profileID2);
+        if (node1 < 0 || node2 < 0) {
+            throw new IllegalArgumentException("Profile does not exist");
         }
+        return SuggestionsEngine.countMutualFriends(node1, node2, snapshot);
+    }
 
-        return true;
+    /* Whether a chain of friendships links the two profiles */
+    public boolean inSameCommunity(UUID profileID1, UUID profileID2) throws IllegalArgumentException {
+        ComponentIndex index = componentIndex();
+        GraphSnapshot snapshot = index.graph().snapshot();
+        int node1 = snapshot.indexOf(profileID1);
+        int node2 = snapshot.indexOf(profileID2);
+        if (node1 < 0 || node2 < 0) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
+        return index.sameComponent(node1, node2);
+    }
+
+    /* Profiles linked to this one by a chain of friendships, itself included */
+    public int getCommunitySize(UUID profileID) throws IllegalArgumentException {
+        ComponentIndex index = componentIndex();
+        int node = index.graph().snapshot().indexOf(profileID);
+        if (node < 0) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
+        return index.componentSize(node);
+    }
+
+    /* Connected components of the network, a profile without friends is one on its own */
+    public int getCommunityCount() {
+        return componentIndex().componentCount();
     }
 
     public UUID[] getProfilesIDs() {
-        return profiles.keySet().toArray(new UUID[0]);
+        return graph.snapshot().profileIDs();
         
     }
 
+    /* Exposes the hit and miss counters of the suggestions cache */
+    public SuggestionsCache getSuggestionsCache() {
+        return suggestionsCache;
+    }
+
+    /*
+    Latency histograms and counters of the operations, register them over
+    JMX or start a periodic dump to read them
+    */
+    public ProfilesMetrics getMetrics() {
+        return metrics;
+    }
+
+    public HubPolicy getHubPolicy() {
+        return hubPolicy;
+    }
+
+    /*
+    Bounds the work of FRIENDSHIP_LEVEL suggestion queries on profiles near
+    hubs, HubPolicy.NONE walks everything and gives exact rankings
+    */
+    public void setHubPolicy(HubPolicy hubPolicy) {
+        if (hubPolicy == null) {
+            throw new IllegalArgumentException("Hub policy cannot be null");
+        }
+        this.hubPolicy = hubPolicy;
+        suggestionsCache.setHubPolicy(hubPolicy);
+    }
+
+    public boolean isCompressedAdjacency() {
+        return compressedAdjacency;
+    }
+
+    /*
+    Keeps the friendships of the network delta-varint compressed, at 2 to 4
+    bytes per edge, so much larger networks fit in memory. Applies to the
+    current network right away and to every network loaded afterwards.
+    */
+    public void setCompressedAdjacency(boolean compressedAdjacency) {
+        this.compressedAdjacency = compressedAdjacency;
+        graph.setCompressedAdjacency(compressedAdjacency);
+    }
+
+    /* Bounds and counters of the PERSONALIZED_PAGERANK strategy */
+    public PageRankEngine getPageRankEngine() {
+        return pageRankEngine;
+    }
+
+    public ProfileGraph getGraph() {
+        return graph;
+    }
+
+    /*
+    Consistent view of the profiles network, taking it copies nothing and
+    later changes to the network don't affect it
+    */
+    public GraphSnapshot getSnapshot() {
+        return graph.snapshot();
+    }
+
     public void loadProfiles(String filename) {
+        long start = System.nanoTime();
         try {
             ProfilesLoader loader = new ProfilesLoader();
-            profiles = loader.loadProfilesFromCSV(filename);
+            ProfileGraph loaded = ProfileGraph.fromProfiles(loader.loadProfilesFromCSV(filename).values());
+            setGraph(loaded);
+            recordLoad(filename, start);
         } catch (Exception e) {
+            metrics.loadProfiles.record(start, false);
             logger.error("Error loading profiles from file " + filename + ": " + e.getMessage(), e);
             throw new RuntimeException("Failed to load profiles from file", e);
         }
     }
 
+    /*
+    Loads a large profiles file with the memory-mapped, parallel loader,
+    building the graph without creating a Profile per line
+    */
+    public void loadProfilesMapped(String filename) {
+        long start = System.nanoTime();
+        try {
+            MappedProfilesLoader loader = new MappedProfilesLoader();
+            ProfileGraph loaded = loader.loadGraphFromCSV(filename);
+            setGraph(loaded);
+            recordLoad(filename, start);
+        } catch (Exception e) {
+            metrics.loadProfiles.record(start, false);
+            logger.error("Error loading profiles from file " + filename + ": " + e.getMessage(), e);
+            throw new RuntimeException("Failed to load profiles from file", e);
+        }
+    }
+
+    /*
+    Saves the profiles network in the binary graph format, which loadGraph
+    reads back much faster than a CSV file
+    */
+    public void saveGraph(String filename) {
+        try {
+            GraphFile.write(graph.snapshot(), Path.of(filename));
+        } catch (Exception e) {
+            logger.error("Error saving profiles to file " + filename + ": " + e.getMessage(), e);
+            throw new RuntimeException("Failed to save profiles to file", e);
+        }
+    }
+
+    public void loadGraph(String filename) {
+        long start = System.nanoTime();
+        try {
+            ProfileGraph loaded = GraphFile.read(Path.of(filename));
+            setGraph(loaded);
+            recordLoad(filename, start);
+        } catch (Exception e) {
+            metrics.loadProfiles.record(start, false);
+            logger.error("Error loading profiles from file " + filename + ": " + e.getMessage(), e);
+            throw new RuntimeException("Failed to load profiles from file", e);
+        }
+    }
+
+    /*
+    Maps a graph file instead of reading it: profiles and friendships are
+    read from the file through the page cache, so the network can be larger
+    than the heap. Changes made afterwards are kept on the heap and folded
+    into a new mapped file when the graph compacts; save the graph to keep
+    them.
+    */
+    public void mapGraph(String filename) {
+        long start = System.nanoTime();
+        try {
+            ProfileGraph mapped = GraphFile.map(Path.of(filename));
+            setGraph(mapped);
+            recordLoad(filename, start);
+        } catch (Exception e) {
+            metrics.loadProfiles.record(start, false);
+            logger.error("Error mapping profiles from file " + filename + ": " + e.getMessage(), e);
+            throw new RuntimeException("Failed to map profiles from file", e);
+        }
+    }
+
+    /*
+    Makes changes to the network durable. The network is loaded from
+    graphFilename, or saved there if the file doesn't exist yet, and the
+    changes in logFilename are replayed on top of it. From then on every
+    change is appended to the log: with a sync interval of 0 each change is
+    on disk before the call that made it returns, otherwise the log is synced
+    every syncIntervalMillis.
+    */
+    public void openStore(String graphFilename, String logFilename, long syncIntervalMillis) {
+        closeStore();
+        try {
+            Path graphPath = Path.of(graphFilename);
+            ProfileGraph loaded;
+            if (Files.exists(graphPath)) {
+                loaded = GraphFile.read(graphPath);
+            } else {
+                loaded = graph;
+                GraphFile.write(loaded.snapshot(), graphPath);
+            }
+
+            MutationLog log = MutationLog.open(Path.of(logFilename), syncIntervalMillis);
+            int applied = log.replay(loaded);
+            logger.info("Replayed " + applied + " changes from " + logFilename + " on top of " + graphFilename);
+
+            loaded.addListener(log);
+            setGraph(loaded);
+            storeGraphPath = graphPath;
+            mutationLog = log;
+        } catch (Exception e) {
+            logger.error("Error opening profiles store " + graphFilename + ": " + e.getMessage(), e);
+            throw new RuntimeException("Failed to open profiles store", e);
+        }
+    }
+
+    /*
+    Folds the log into a new graph file, so the log only keeps the changes
+    made after it
+    */
+    public void compactStore() {
+        MutationLog log = mutationLog;
+        if (log == null) {
+            throw new IllegalStateException("No profiles store is open");
+        }
+
+        try {
+            GraphSnapshot snapshot = graph.snapshot();
+            GraphFile.write(snapshot, storeGraphPath);
+            log.truncate(snapshot.version());
+        } catch (Exception e) {
+            logger.error("Error compacting profiles store " + storeGraphPath + ": " + e.getMessage(), e);
+            throw new RuntimeException("Failed to compact profiles store", e);
+        }
+    }
+
+    public void closeStore() {
+        MutationLog log = mutationLog;
+        if (log == null) {
+            return;
+        }
+
+        mutationLog = null;
+        graph.removeListener(log);
+        try {
+            log.close();
+        } catch (Exception e) {
+            logger.error("Error closing profiles store " + storeGraphPath + ": " + e.getMessage(), e);
+        }
+    }
+
     public List<Profile> suggestConnections(UUID profileID) {
-        return suggestConnections(profileID, 100);
+        return suggestConnections(profileID, DEFAULT_MAX_SUGGESTIONS);
     }
 
     public List<Profile> suggestConnections(UUID profileID, Integer maxSuggestions) {
@@ -133,6 +428,23 @@ public class ProfilesManager {
         String genderFilter,
         Integer minAgeFilter,
         Integer maxAgeFilter
+    ) {
+        return suggestConnections(profileID, maxSuggestions, genderFilter, minAgeFilter, maxAgeFilter, RankingStrategy.FRIENDSHIP_LEVEL);
+    }
+
+    /*
+    Suggestions ranked with the given strategy. Only FRIENDSHIP_LEVEL
+    rankings are cached, the other strategies rank on every call. A
+    filtered query, or any query while the cache is disabled, is served
+    from the cache on a hit and otherwise only selects its top K.
+    */
+    public List<Profile> suggestConnections(
+        UUID profileID,
+        Integer maxSuggestions,
+        String genderFilter,
+        Integer minAgeFilter,
+        Integer maxAgeFilter,
+        RankingStrategy strategy
     ) {
         Gender gender = null;
         if (genderFilter != null) {
@@ -140,41 +452,230 @@ public class ProfilesManager {
         }
 
         if (maxSuggestions == null) {
-            maxSuggestions = 100;
+            maxSuggestions = DEFAULT_MAX_SUGGESTIONS;
         }
 
         if (minAgeFilter == null) {
-            minAgeFilter = 0;
+            minAgeFilter = DEFAULT_MIN_AGE;
         }
 
         if (maxAgeFilter == null) {
-            maxAgeFilter = 1000;
+            maxAgeFilter = DEFAULT_MAX_AGE;
         }
-        return SuggestionsEngine.getSuggestions(profileID, maxSuggestions, gender, minAgeFilter, maxAgeFilter, Map.copyOf(profiles));
-    }
 
-    private void cleanupConnectionAttempt(Profile profile1, Profile profile2) {
+        long start = System.nanoTime();
+        int candidates = 0;
+        boolean suggested = false;
         try {
-            profile1.removeFriend(profile2.getProfileID());
+            SuggestionsCache cache = suggestionsCache;
+            GraphSnapshot snapshot = cache.graph().snapshot();
+            int node = snapshot.indexOf(profileID);
+            if (node < 0) {
+                throw new IllegalArgumentException("Profile does not exist");
+            }
+
+            ProfileIndex.Filter filter = filterOf(snapshot, gender, minAgeFilter, maxAgeFilter);
+            List<Profile> suggestions;
+            if (filter.isEmpty()) {
+                suggestions = new ArrayList<>();
+            } else if (strategy == RankingStrategy.PERSONALIZED_PAGERANK) {
+                RankedSuggestions ranked = pageRankEngine.getTopSuggestions(node, maxSuggestions, filter, snapshot);
+                candidates = ranked.getCandidates();
+                suggestions = ranked.getSuggestions();
+            } else if (strategy == RankingStrategy.MUTUAL_FRIENDS) {
+                int[] ranking = SuggestionsEngine.rankSuggestions(node, snapshot, strategy);
+                candidates = ranking.length;
+                suggestions = SuggestionsEngine.filterSuggestions(ranking, maxSuggestions, filter, snapshot);
+            } else {
+                // A full ranking is only computed to be kept: unfiltered misses fill the cache, the rest keep the top K
+                int[] ranking = cache.getCachedRanking(node, snapshot);
+                boolean filtered = gender != null || minAgeFilter > DEFAULT_MIN_AGE || maxAgeFilter < DEFAULT_MAX_AGE;
+                if (ranking == null && !filtered && cache.capacity() > 0) {
+                    ranking = cache.rank(node, snapshot);
+                }
+                // Rankings are unfiltered, so every path counts the candidates before the filters
+                if (ranking != null) {
+                    candidates = ranking.length;
+                    suggestions = SuggestionsEngine.filterSuggestions(ranking, maxSuggestions, filter, snapshot);
+                } else {
+                    RankedSuggestions ranked = SuggestionsEngine.getTopSuggestions(node, maxSuggestions, filter, cache.getHubPolicy(), snapshot);
+                    candidates = ranked.getCandidates();
+                    suggestions = ranked.getSuggestions();
+                }
+            }
+            suggested = true;
+            return suggestions;
+        } finally {
+            metrics.recordSuggestion(profileID, start, candidates, suggested);
         }
-        catch (IllegalArgumentException e) {}
+    }
 
-        try {
-            profile2.removeFriend(profile1.getProfileID());
+    /*
+    Computes the suggestions of every given profile in parallel, on one
+    snapshot of the network, and streams them to sink. Profiles that don't
+    exist are skipped.
+    */
+    public void suggestConnections(
+        Collection<UUID> profileIDs,
+        Integer maxSuggestions,
+        String genderFilter,
+        Integer minAgeFilter,
+        Integer maxAgeFilter,
+        SuggestionsSink sink
+    ) {
+        GraphSnapshot snapshot = graph.snapshot();
+        int[] nodes = new int[profileIDs.size()];
+        int count = 0;
+        for (UUID profileID : profileIDs) {
+            int node = snapshot.indexOf(profileID);
+            if (node < 0) {
+                logger.warn("Skipping suggestions for profile " + profileID + ": Profile does not exist");
+                continue;
+            }
+            nodes[count++] = node;
+        }
+
+        suggestConnections(snapshot, Arrays.copyOf(nodes, count), maxSuggestions, genderFilter, minAgeFilter, maxAgeFilter, sink);
+    }
+
+    /*
+    Same as the batch suggestConnections, for every profile in the network
+    */
+    public void suggestConnectionsForAll(
+        Integer maxSuggestions,
+        String genderFilter,
+        Integer minAgeFilter,
+        Integer maxAgeFilter,
+        SuggestionsSink sink
+    ) {
+        GraphSnapshot snapshot = graph.snapshot();
+        int[] nodes = IntStream.range(0, snapshot.nodeCount()).filter(snapshot::contains).toArray();
+
+        suggestConnections(snapshot, nodes, maxSuggestions, genderFilter, minAgeFilter, maxAgeFilter, sink);
+    }
+
+    /* Loading another dataset detaches the open store, it no longer describes the network */
+    private void setGraph(ProfileGraph loaded) {
+        if (mutationLog != null && loaded != graph) {
+            logger.warn("Closing profiles store " + storeGraphPath + ": another dataset was loaded");
+            closeStore();
+        }
+
+        if (loaded != graph) {
+            loaded.setFriendshipWriter(new ProfileWrites(loaded));
+            if (compressedAdjacency) {
+                loaded.setCompressedAdjacency(true);
+            }
+            SuggestionsCache cache = SuggestionsCache.of(loaded, suggestionsCacheCapacity);
+            cache.setHubPolicy(hubPolicy);
+            suggestionsCache = cache;
+            profileIndex = ProfileIndex.of(loaded);
+            ComponentIndex components = componentIndex;
+            if (components != null) {
+                components.graph().removeListener(components);
+                componentIndex = null;
+            }
+            graph = loaded;
+        }
+    }
+
+    /* Component index of the current network, labeling its components the first time */
+    private ComponentIndex componentIndex() {
+        ProfileGraph graph = this.graph;
+        ComponentIndex index = componentIndex;
+        if (index != null && index.graph() == graph) {
+            return index;
+        }
+
+        synchronized (this) {
+            index = componentIndex;
+            if (index == null || index.graph() != graph) {
+                index = ComponentIndex.of(graph);
+                componentIndex = index;
+            }
+            return index;
         }
-        catch (IllegalArgumentException e) {}
     }
 
-    private void cleanupDisconnectionAttempt(Profile profile1, Profile profile2, Integer friendshipLevel) {
+    /* Resolves the filters against the index, when it indexes the graph of snapshot */
+    private ProfileIndex.Filter filterOf(GraphSnapshot snapshot, Gender gender, int minAge, int maxAge) {
+        ProfileIndex index = profileIndex;
+        if (index.graph() != snapshot.graph()) {
+            return ProfileIndex.unindexed(gender, minAge, maxAge);
+        }
+        return index.filter(gender, minAge, maxAge);
+    }
+
+    /* Counts the profiles loaded from filename, whatever its format */
+    private void recordLoad(String filename, long start) {
+        long nanos = System.nanoTime() - start;
+        metrics.loadProfiles.recordNanos(nanos, true);
+
+        long bytes = 0;
         try {
-            profile1.addFriend(profile2.getProfileID(), friendshipLevel);
+            bytes = Files.size(Path.of(filename));
+        } catch (Exception e) {
+            logger.warn("Error reading size of file " + filename + ": " + e.getMessage(), e);
+        }
+        metrics.loader.record(graph.snapshot().size(), bytes, nanos);
+    }
+
+    private void syncMutationLog() {
+        MutationLog log = mutationLog;
+        if (log == null || log.getSyncIntervalMillis() > 0) {
+            return;
         }
-        catch (IllegalArgumentException e) {}
 
         try {
-            profile2.addFriend(profile1.getProfileID(), friendshipLevel);
+            log.sync();
+        } catch (Exception e) {
+            logger.error("Error syncing profiles store " + storeGraphPath + ": " + e.getMessage(), e);
+            throw new RuntimeException("Failed to persist change", e);
         }
-        catch (IllegalArgumentException e) {}
     }
 
+    private void suggestConnections(
+        GraphSnapshot snapshot,
+        int[] nodes,
+        Integer maxSuggestions,
+        String genderFilter,
+        Integer minAgeFilter,
+        Integer maxAgeFilter,
+        SuggestionsSink sink
+    ) {
+        Gender gender = genderFilter == null ? null : Gender.fromString(genderFilter);
+        ProfileIndex.Filter filter = filterOf(
+            snapshot,
+            gender,
+            minAgeFilter == null ? DEFAULT_MIN_AGE : minAgeFilter,
+            maxAgeFilter == null ? DEFAULT_MAX_AGE : maxAgeFilter
+        );
+        SuggestionsEngine.getTopSuggestions(
+            nodes,
+            maxSuggestions == null ? DEFAULT_MAX_SUGGESTIONS : maxSuggestions,
+            filter,
+            hubPolicy,
+            snapshot,
+            sink
+        );
+    }
+
+    /* Sends the friendship changes of the Profile views of graph through the manager */
+    private final class ProfileWrites implements FriendshipWriter {
+        private final ProfileGraph graph;
+
+        ProfileWrites(ProfileGraph graph) {
+            this.graph = graph;
+        }
+
+        @Override
+        public void connect(int node1, int node2, int friendshipLevel) {
+            ProfilesManager.this.connect(graph, node1, node2, friendshipLevel);
+        }
+
+        @Override
+        public int disconnect(int node1, int node2) {
+            return ProfilesManager.this.disconnect(graph, node1, node2);
+        }
+    }
 }
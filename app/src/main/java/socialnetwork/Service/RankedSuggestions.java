@@ -0,0 +1,29 @@
+package socialnetwork.Service;
+
+import java.util.List;
+
+import socialnetwork.Model.Profile;
+
+/**
+ * Suggestions of a single query together with the number of candidates it
+ * ranked to find them: every profile it could have suggested, the profile
+ * itself and its friends left out, counted before the filters. Hubs only
+ * contribute the candidates of their sample.
+ */
+public class RankedSuggestions {
+    private final List<Profile> suggestions;
+    private final int candidates;
+
+    public RankedSuggestions(List<Profile> suggestions, int candidates) {
+        this.suggestions = suggestions;
+        this.candidates = candidates;
+    }
+
+    public List<Profile> getSuggestions() {
+        return suggestions;
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+}
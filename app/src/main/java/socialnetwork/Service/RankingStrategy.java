@@ -0,0 +1,13 @@
+package socialnetwork.Service;
+
+/* How SuggestionsEngine orders the friends of friends of a profile */
+public enum RankingStrategy {
+    /* Best friendship level with a common friend, then the order of Suggestion.compareTo */
+    FRIENDSHIP_LEVEL,
+
+    /* Number of common friends, then the sum of the friendship levels with them, then node */
+    MUTUAL_FRIENDS,
+
+    /* Personalized PageRank from the profile, ranked by PageRankEngine and not by SuggestionsEngine */
+    PERSONALIZED_PAGERANK
+}
@@ -0,0 +1,374 @@
+package socialnetwork.Service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import socialnetwork.Graph.GraphListener;
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+import socialnetwork.Graph.ProfileGraph;
+
+/**
+ * Bounded cache of the unfiltered suggestion ranking of each node, as
+ * computed by {@link SuggestionsEngine#rankSuggestions}.
+ *
+ * The ranking of a node only changes when a friendship of the node or of one
+ * of its friends changes, so when edge (a, b) changes only the entries of a,
+ * b and their friends are evicted. Each entry remembers the version of the
+ * snapshot it was computed on and each node the version of the last change
+ * that affected it: an entry is only served to snapshots that are not older
+ * than the entry and when nothing affected its node after it was computed.
+ * That keeps results exact even when a ranking computed on an old snapshot
+ * is stored after a newer write evicted its node.
+ *
+ * Nothing takes a lock. Entries sit in one atomic slot per node, and the
+ * versions of the last changes are raised with an atomic max, so readers
+ * never wait on each other or on writers. The capacity is kept by a CLOCK
+ * ring of that many positions, one per entry: a hit only sets the entry's
+ * referenced bit, and a new entry takes the first position whose entry has
+ * not been referenced since the hand last passed it.
+ *
+ * A cache listens to one graph and only serves snapshots of that graph.
+ */
+public class SuggestionsCache implements GraphListener {
+    /* nodes per chunk of the slots and change versions */
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ProfileGraph graph;
+    private final int capacity;
+
+    /* entry of each node and version of the last change that affected it, in chunks that are never copied */
+    private volatile AtomicReferenceArray<Entry>[] entries = newEntryChunks(0);
+    private volatile AtomicLongArray[] changedAt = new AtomicLongArray[0];
+    private final Object growLock = new Object();
+
+    /* node + 1 holding each position of the ring, 0 if it is free */
+    private final AtomicIntegerArray ring;
+    private final AtomicLong hand = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /* rankings are computed with this policy, entries made with another one are not served */
+    private volatile HubPolicy hubPolicy = HubPolicy.NONE;
+
+    private static final class Entry {
+        final long version;
+        final int[] ranking;
+        final HubPolicy hubPolicy;
+        /* position of the ring the entry holds, kept by the entries that replace it */
+        final int position;
+        volatile boolean referenced;
+
+        Entry(long version, int[] ranking, HubPolicy hubPolicy, int position) {
+            this.version = version;
+            this.ranking = ranking;
+            this.hubPolicy = hubPolicy;
+            this.position = position;
+        }
+    }
+
+    private SuggestionsCache(ProfileGraph graph, int capacity) {
+        this.graph = graph;
+        this.capacity = capacity;
+        this.ring = new AtomicIntegerArray(capacity);
+    }
+
+    /*
+    Cache of the rankings of graph keeping up to capacity of them, 0
+    disables it
+    */
+    public static SuggestionsCache of(ProfileGraph graph, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity cannot be negative");
+        }
+
+        SuggestionsCache cache = new SuggestionsCache(graph, capacity);
+        graph.addListener(cache);
+        return cache;
+    }
+
+    public ProfileGraph graph() {
+        return graph;
+    }
+
+    public HubPolicy getHubPolicy() {
+        return hubPolicy;
+    }
+
+    /* Rankings computed with the previous policy are dropped */
+    public void setHubPolicy(HubPolicy hubPolicy) {
+        this.hubPolicy = hubPolicy;
+        clear();
+    }
+
+    /* Ranking of node valid for snapshot, computed and kept if it isn't cached */
+    public int[] getRanking(int node, GraphSnapshot snapshot) {
+        int[] ranking = getCachedRanking(node, snapshot);
+        return ranking != null ? ranking : rank(node, snapshot);
+    }
+
+    /*
+    Cached ranking of node valid for snapshot, or null. Lookups of a
+    disabled cache, or of a snapshot of another graph, are not counted
+    */
+    public int[] getCachedRanking(int node, GraphSnapshot snapshot) {
+        if (capacity == 0 || snapshot.graph() != graph) {
+            return null;
+        }
+
+        int[] ranking = get(node, snapshot.version(), hubPolicy);
+        if (ranking != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return ranking;
+    }
+
+    /* Ranks every candidate of node on snapshot and keeps the ranking */
+    public int[] rank(int node, GraphSnapshot snapshot) {
+        HubPolicy hubs = hubPolicy;
+        int[] ranking = SuggestionsEngine.rankSuggestions(node, snapshot, RankingStrategy.FRIENDSHIP_LEVEL, hubs);
+        if (snapshot.graph() == graph) {
+            put(node, snapshot.version(), ranking, hubs);
+        }
+        return ranking;
+    }
+
+    private int[] get(int node, long version, HubPolicy hubs) {
+        Entry entry = entryOf(node);
+        if (entry == null || entry.version > version || entry.version < changedAt(node) || entry.hubPolicy != hubs) {
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.ranking;
+    }
+
+    /*
+    An entry stored after a newer change affected its node is never served,
+    get checks the change version again, so a put racing an invalidation
+    needs no lock
+    */
+    private void put(int node, long version, int[] ranking, HubPolicy hubs) {
+        if (capacity == 0 || version < changedAt(node)) {
+            return;
+        }
+
+        AtomicReferenceArray<Entry> chunk = entryChunk(node, true);
+        int slot = node & CHUNK_MASK;
+        Entry current = chunk.get(slot);
+        if (current != null) {
+            if (current.version <= version) {
+                chunk.compareAndSet(slot, current, new Entry(version, ranking, hubs, current.position));
+            }
+            return;
+        }
+
+        int position = claimPosition(node);
+        if (!chunk.compareAndSet(slot, null, new Entry(version, ranking, hubs, position))) {
+            ring.compareAndSet(position, node + 1, 0);
+        }
+    }
+
+    /*
+    Moves the hand to the first position that is free, holds a stale node or
+    an entry not referenced since the hand last passed, clearing the bits it
+    passes, and gives that position to node. After two turns of the ring
+    without one, racing hits kept every bit set, and the position under the
+    hand is taken anyway
+    */
+    private int claimPosition(int node) {
+        for (int turn = 0; ; turn++) {
+            int position = (int) (hand.getAndIncrement() % capacity);
+            int occupant = ring.get(position);
+            Entry entry = occupant == 0 ? null : entryOf(occupant - 1);
+            boolean held = entry != null && entry.position == position;
+            if (held && entry.referenced && turn < 2 * capacity) {
+                entry.referenced = false;
+                continue;
+            }
+            if (!ring.compareAndSet(position, occupant, node + 1)) {
+                continue;
+            }
+            if (held) {
+                evict(occupant - 1, position);
+            }
+            return position;
+        }
+    }
+
+    /* Drops the entry of node holding position, and the entries that replaced it in between */
+    private void evict(int node, int position) {
+        AtomicReferenceArray<Entry> chunk = entryChunk(node, false);
+        int slot = node & CHUNK_MASK;
+        Entry entry;
+        while ((entry = chunk.get(slot)) != null && entry.position == position) {
+            chunk.compareAndSet(slot, entry, null);
+        }
+    }
+
+    @Override
+    public void edgeAdded(GraphSnapshot snapshot, long version, int node1, int node2, int friendshipLevel) {
+        edgeChanged(snapshot, version, node1, node2);
+    }
+
+    @Override
+    public void edgeRemoved(GraphSnapshot snapshot, long version, int node1, int node2) {
+        edgeChanged(snapshot, version, node1, node2);
+    }
+
+    /* The node, its friends, which lose it, and their friends, which lose it as a friend of a friend */
+    @Override
+    public void nodeRemoved(GraphSnapshot snapshot, long version, int node) {
+        NeighborCursor friends = snapshot.neighbors(node, new NeighborCursor());
+        NeighborCursor cursor = new NeighborCursor();
+        invalidate(node, version);
+        while (friends.next()) {
+            invalidate(friends.neighbor(), version);
+            snapshot.neighbors(friends.neighbor(), cursor);
+            while (cursor.next()) {
+                invalidate(cursor.neighbor(), version);
+            }
+        }
+    }
+
+    private void edgeChanged(GraphSnapshot snapshot, long version, int node1, int node2) {
+        NeighborCursor cursor = new NeighborCursor();
+        invalidate(node1, version);
+        invalidate(node2, version);
+        // Friends of one side gain or lose the other side as a friend of a friend
+        snapshot.neighbors(node1, cursor);
+        while (cursor.next()) {
+            invalidate(cursor.neighbor(), version);
+        }
+        snapshot.neighbors(node2, cursor);
+        while (cursor.next()) {
+            invalidate(cursor.neighbor(), version);
+        }
+    }
+
+    public void clear() {
+        for (int position = 0; position < capacity; position++) {
+            int occupant = ring.getAndSet(position, 0);
+            if (occupant != 0) {
+                evict(occupant - 1, position);
+            }
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /* Entries kept, counted position by position while others may come and go */
+    public int size() {
+        int size = 0;
+        for (int position = 0; position < capacity; position++) {
+            int occupant = ring.get(position);
+            Entry entry = occupant == 0 ? null : entryOf(occupant - 1);
+            if (entry != null && entry.position == position) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /* Entries dropped because a friendship they depend on changed */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /* Its ring position is left to the hand, which finds it stale */
+    private void invalidate(int node, long version) {
+        changedChunk(node).accumulateAndGet(node & CHUNK_MASK, version, Math::max);
+
+        AtomicReferenceArray<Entry> chunk = entryChunk(node, false);
+        if (chunk != null && chunk.getAndSet(node & CHUNK_MASK, null) != null) {
+            evictions.increment();
+        }
+    }
+
+    private long changedAt(int node) {
+        AtomicLongArray[] chunks = changedAt;
+        int index = node >>> CHUNK_SHIFT;
+        return index < chunks.length ? chunks[index].get(node & CHUNK_MASK) : 0;
+    }
+
+    private Entry entryOf(int node) {
+        AtomicReferenceArray<Entry> chunk = entryChunk(node, false);
+        return chunk == null ? null : chunk.get(node & CHUNK_MASK);
+    }
+
+    /* Chunk holding the entry of node, null if there is none and create is false */
+    private AtomicReferenceArray<Entry> entryChunk(int node, boolean create) {
+        AtomicReferenceArray<Entry>[] chunks = entries;
+        int index = node >>> CHUNK_SHIFT;
+        if (index < chunks.length || !create) {
+            return index < chunks.length ? chunks[index] : null;
+        }
+
+        synchronized (growLock) {
+            chunks = entries;
+            if (index >= chunks.length) {
+                AtomicReferenceArray<Entry>[] grown = newEntryChunks(index + 1);
+                System.arraycopy(chunks, 0, grown, 0, chunks.length);
+                for (int i = chunks.length; i < grown.length; i++) {
+                    grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+                }
+                entries = grown;
+                chunks = grown;
+            }
+            return chunks[index];
+        }
+    }
+
+    private AtomicLongArray changedChunk(int node) {
+        AtomicLongArray[] chunks = changedAt;
+        int index = node >>> CHUNK_SHIFT;
+        if (index < chunks.length) {
+            return chunks[index];
+        }
+
+        synchronized (growLock) {
+            chunks = changedAt;
+            if (index >= chunks.length) {
+                AtomicLongArray[] grown = Arrays.copyOf(chunks, index + 1);
+                for (int i = chunks.length; i < grown.length; i++) {
+                    grown[i] = new AtomicLongArray(CHUNK_SIZE);
+                }
+                changedAt = grown;
+                chunks = grown;
+            }
+            return chunks[index];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<Entry>[] newEntryChunks(int length) {
+        return (AtomicReferenceArray<Entry>[]) new AtomicReferenceArray<?>[length];
+    }
+}
@@ -1,24 +1,30 @@
 package socialnetwork.Service;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.PriorityQueue;
 import java.util.UUID;
+import java.util.stream.IntStream;
 
 import socialnetwork.Model.Profile;
 import socialnetwork.Model.Gender;
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
 import socialnetwork.Util.Suggestion;
+import socialnetwork.Util.SuggestionHeap;
 
 
 public class SuggestionsEngine {
-    private static Map<UUID, Profile> profiles;
+    /* Largest mutual friend count and level sum the packed MUTUAL_FRIENDS sort keys can hold */
+    private static final int KEY_MAX_MUTUAL = 0x7FFF;
+    private static final int KEY_MAX_LEVEL_SUM = 0x1FFFF;
 
-    private static void setProfiles(Map<UUID, Profile> profiles) {
-        SuggestionsEngine.profiles = profiles;
-    }
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
 
     public static List<Profile> getSuggestions(
         UUID profileID,
@@ -26,10 +32,9 @@ public class SuggestionsEngine {
         Gender genderFilter,
         int minAgeFilter,
         int maxAgeFilter,
-        Map<UUID, Profile> profiles
+        GraphSnapshot graph
     ) {
-        setProfiles(profiles);
-        PriorityQueue<Suggestion> suggestions = loadSuggestions(profileID);
+        PriorityQueue<Suggestion> suggestions = loadSuggestions(profileID, graph);
 
         Profile profile = null;
         List<Profile> suggestionsList = new ArrayList<>();
@@ -53,62 +58,601 @@ public class SuggestionsEngine {
         return suggestionsList;
     }
 
-    private static Map<UUID, Integer> getBaseSuggestions(UUID profileID) {
-        Profile profile = profiles.get(profileID);
+    /**
+     * Same result as {@link #getSuggestions}, but the filters are applied
+     * while friends of friends are collected and only the best
+     * {@code maxSuggestions} candidates are kept, in a bounded heap of packed
+     * keys. Friends are walked from the highest friendship level down, so the
+     * first time a candidate is reached is already with its best level and a
+     * per-thread mark array is enough to skip it afterwards. Nothing is
+     * allocated per candidate.
+     */
+    public static List<Profile> getTopSuggestions(
+        UUID profileID,
+        int maxSuggestions,
+        Gender genderFilter,
+        int minAgeFilter,
+        int maxAgeFilter,
+        GraphSnapshot graph
+    ) {
+        int node = graph.indexOf(profileID);
+        if (node < 0) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
 
-        Map<UUID, Integer> friends = profile.getFriends();
-        
-        Map<UUID, Integer> fofs = new HashMap<>();
-        Map<UUID, Integer> suggestionsMap = new HashMap<>();
+        return topSuggestions(node, maxSuggestions, ProfileIndex.unindexed(genderFilter, minAgeFilter, maxAgeFilter), HubPolicy.NONE, graph, scratch.get());
+    }
+
+    /**
+     * Same as {@link #getTopSuggestions} with a choice of ranking. With
+     * {@link RankingStrategy#MUTUAL_FRIENDS} every candidate that passes the
+     * filters is ranked and the first {@code maxSuggestions} are returned.
+     */
+    public static List<Profile> getTopSuggestions(
+        UUID profileID,
+        int maxSuggestions,
+        Gender genderFilter,
+        int minAgeFilter,
+        int maxAgeFilter,
+        GraphSnapshot graph,
+        RankingStrategy strategy
+    ) {
+        if (strategy == RankingStrategy.FRIENDSHIP_LEVEL) {
+            return getTopSuggestions(profileID, maxSuggestions, genderFilter, minAgeFilter, maxAgeFilter, graph);
+        }
+        if (strategy != RankingStrategy.MUTUAL_FRIENDS) {
+            throw new IllegalArgumentException("Personalized PageRank rankings are computed by PageRankEngine");
+        }
+
+        int node = graph.indexOf(profileID);
+        if (node < 0) {
+            throw new IllegalArgumentException("Profile does not exist");
+        }
+
+        Scratch buffers = scratch.get();
+        int count = collectMutualFriends(node, ProfileIndex.unindexed(genderFilter, minAgeFilter, maxAgeFilter), graph, buffers);
+        List<Profile> suggestionsList = new ArrayList<>(Math.max(0, Math.min(maxSuggestions, count)));
+        for (int i = 0; i < count && i < maxSuggestions; i++) {
+            suggestionsList.add(graph.profile(buffers.results[i]));
+        }
+        return suggestionsList;
+    }
+
+    /**
+     * Runs {@link #getTopSuggestions} for every node in {@code nodes} on the
+     * common ForkJoin pool and hands each result to {@code sink} as soon as
+     * it is ready, from whichever worker computed it. All queries read the
+     * same snapshot, and every worker reuses its own scratch buffers. Nodes
+     * that are not in the snapshot are skipped.
+     */
+    public static void getTopSuggestions(
+        int[] nodes,
+        int maxSuggestions,
+        Gender genderFilter,
+        int minAgeFilter,
+        int maxAgeFilter,
+        GraphSnapshot graph,
+        SuggestionsSink sink
+    ) {
+        getTopSuggestions(nodes, maxSuggestions, ProfileIndex.unindexed(genderFilter, minAgeFilter, maxAgeFilter), HubPolicy.NONE, graph, sink);
+    }
+
+    /*
+    Batch query with the filters resolved against a ProfileIndex and hubs
+    handled as hubs says
+    */
+    public static void getTopSuggestions(
+        int[] nodes,
+        int maxSuggestions,
+        ProfileIndex.Filter filter,
+        HubPolicy hubs,
+        GraphSnapshot graph,
+        SuggestionsSink sink
+    ) {
+        IntStream.of(nodes).parallel().forEach(node -> {
+            if (!graph.contains(node)) {
+                return;
+            }
+
+            List<Profile> suggestions = filter.isEmpty() ? new ArrayList<>() : topSuggestions(node, maxSuggestions, filter, hubs, graph, scratch.get());
+            sink.accept(graph.idOf(node), suggestions);
+        });
+    }
+
+    /*
+    Single query with the filters resolved against a ProfileIndex and hubs
+    handled as hubs says. Only the best maxSuggestions candidates that pass
+    the filter are kept while walking, nothing is ranked in full. The
+    candidates are counted before the filter, as a full ranking would be
+    */
+    public static RankedSuggestions getTopSuggestions(int node, int maxSuggestions, ProfileIndex.Filter filter, HubPolicy hubs, GraphSnapshot graph) {
+        if (filter.isEmpty()) {
+            return new RankedSuggestions(new ArrayList<>(), 0);
+        }
+
+        Scratch buffers = scratch.get();
+        List<Profile> suggestions = topSuggestions(node, maxSuggestions, filter, hubs, graph, buffers);
+        return new RankedSuggestions(suggestions, buffers.candidates);
+    }
+
+    /**
+     * Every friend of a friend of {@code node} that could be suggested to it,
+     * best first, without filters. The ranking only depends on the friends of
+     * the node and of its friends, so it can be kept and filtered later with
+     * {@link #filterSuggestions} for as long as none of them changes.
+     */
+    public static int[] rankSuggestions(int node, GraphSnapshot graph) {
+        return rankSuggestions(node, graph, RankingStrategy.FRIENDSHIP_LEVEL);
+    }
+
+    public static int[] rankSuggestions(int node, GraphSnapshot graph, RankingStrategy strategy) {
+        return rankSuggestions(node, graph, strategy, HubPolicy.NONE);
+    }
+
+    /* Ranking with hubs handled as hubs says, which only applies to FRIENDSHIP_LEVEL */
+    public static int[] rankSuggestions(int node, GraphSnapshot graph, RankingStrategy strategy, HubPolicy hubs) {
+        if (strategy == RankingStrategy.PERSONALIZED_PAGERANK) {
+            throw new IllegalArgumentException("Personalized PageRank rankings are computed by PageRankEngine");
+        }
+
+        Scratch buffers = scratch.get();
+        int count = strategy == RankingStrategy.MUTUAL_FRIENDS
+            ? collectMutualFriends(node, null, graph, buffers)
+            : collectTopSuggestions(node, Integer.MAX_VALUE, null, hubs, graph, buffers);
+        return Arrays.copyOf(buffers.results, count);
+    }
+
+    /**
+     * Number of friends two profiles have in common. Rows are sorted by node,
+     * so this is a merge of the two rows, skipping through the longer one
+     * when their lengths are far apart.
+     */
+    public static int countMutualFriends(int node1, int node2, GraphSnapshot graph) {
+        if (graph.degree(node1) > graph.degree(node2)) {
+            return countMutualFriends(node2, node1, graph);
+        }
+
+        NeighborCursor shorter = graph.neighbors(node1, new NeighborCursor());
+        NeighborCursor longer = graph.neighbors(node2, new NeighborCursor());
+        int count = 0;
+        while (shorter.next()) {
+            int friend = shorter.neighbor();
+            if (!longer.skipTo(friend)) {
+                break;
+            }
+            if (longer.neighbor() == friend) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /* First maxSuggestions nodes of a ranking that pass the filters */
+    public static List<Profile> filterSuggestions(
+        int[] ranking,
+        int maxSuggestions,
+        Gender genderFilter,
+        int minAgeFilter,
+        int maxAgeFilter,
+        GraphSnapshot graph
+    ) {
+        return filterSuggestions(ranking, maxSuggestions, ProfileIndex.unindexed(genderFilter, minAgeFilter, maxAgeFilter), graph);
+    }
+
+    /*
+    Same as above with the filters resolved against a ProfileIndex, a filter
+    no profile passes returns right away
+    */
+    public static List<Profile> filterSuggestions(int[] ranking, int maxSuggestions, ProfileIndex.Filter filter, GraphSnapshot graph) {
+        if (filter.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Profile> suggestionsList = new ArrayList<>(Math.max(0, Math.min(maxSuggestions, ranking.length)));
+        for (int i = 0; i < ranking.length && suggestionsList.size() < maxSuggestions; i++) {
+            int node = ranking[i];
+            if (filter.matches(node, graph)) {
+                suggestionsList.add(graph.profile(node));
+            }
+        }
+
+        return suggestionsList;
+    }
+
+    private static List<Profile> topSuggestions(
+        int node,
+        int maxSuggestions,
+        ProfileIndex.Filter filter,
+        HubPolicy hubs,
+        GraphSnapshot graph,
+        Scratch buffers
+    ) {
+        int count = collectTopSuggestions(node, maxSuggestions, filter, hubs, graph, buffers);
+        int[] results = buffers.results;
+        List<Profile> suggestionsList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            suggestionsList.add(graph.profile(results[i]));
+        }
+
+        return suggestionsList;
+    }
+
+    /*
+    Writes the best maxSuggestions candidates that pass the filter, if any,
+    into buffers.results, best first, and returns how many there are. Every
+    candidate walked, filtered out or not, is counted in buffers.candidates.
+    Hubs among the friends only contribute a sample of their friends, see
+    HubPolicy.
+    */
+    private static int collectTopSuggestions(
+        int node,
+        int maxSuggestions,
+        ProfileIndex.Filter filter,
+        HubPolicy hubs,
+        GraphSnapshot graph,
+        Scratch buffers
+    ) {
+        int[] marks = buffers.marks(graph.nodeCount());
+        int mark = buffers.mark;
+        int degree = buffers.loadFriends(graph, node);
+        int[] friends = buffers.friends;
+        int[] friendLevels = buffers.friendLevels;
+        NeighborCursor fofs = buffers.cursor;
+        SuggestionHeap heap = buffers.heap;
+        heap.reset(graph, node, maxSuggestions);
+        buffers.candidates = 0;
+
+        // The profile itself and its friends are never suggested
+        marks[node] = mark;
+        for (int i = 0; i < degree; i++) {
+            marks[friends[i]] = mark;
+        }
+
+        // A hub receiving suggestions only walks its strongest friendships
+        int walked = degree;
+        if (hubs.isHub(degree)) {
+            walked = hubs.getFanOut();
+            long skipped = 0;
+            for (int i = walked; i < degree; i++) {
+                skipped += graph.degree(friends[i]);
+            }
+            hubs.recordSample(skipped);
+        }
+
+        for (int i = 0; i < walked; i++) {
+            int friend = friends[i];
+            int friendshipLevel = friendLevels[i];
+
+            int friendDegree = graph.degree(friend);
+            if (hubs.isHub(friendDegree)) {
+                int drawn = sampleHub(node, friend, friendDegree, friendshipLevel, hubs.getFanOut(), filter, graph, buffers);
+                hubs.recordSample(friendDegree - drawn);
+                continue;
+            }
+
+            graph.neighbors(friend, fofs);
+            while (fofs.next()) {
+                offer(fofs.neighbor(), friendshipLevel, filter, graph, buffers);
+            }
+        }
+
+        return heap.drainInto(buffers.results(heap.size()));
+    }
+
+    private static void offer(int fof, int friendshipLevel, ProfileIndex.Filter filter, GraphSnapshot graph, Scratch buffers) {
+        if (buffers.marks[fof] == buffers.mark) {
+            return;
+        }
+        buffers.marks[fof] = buffers.mark;
+        buffers.candidates++;
+
+        if (filter != null && !filter.matches(fof, graph)) {
+            return;
+        }
+
+        buffers.heap.offer(fof, friendshipLevel);
+    }
+
+    /*
+    Offers up to fanOut friends of hub, drawn without replacement with
+    probability proportional to their friendship level with the hub by
+    rejection against the highest level drawn so far, and returns how many
+    friends were offered. Positions are drawn by a partial Fisher-Yates
+    shuffle over per-thread swap slots, so every friend is looked at once
+    at most. The generator is seeded by node and hub so samples are
+    repeatable.
+    */
+    private static int sampleHub(
+        int node,
+        int hub,
+        int hubDegree,
+        int friendshipLevel,
+        int fanOut,
+        ProfileIndex.Filter filter,
+        GraphSnapshot graph,
+        Scratch buffers
+    ) {
+        int[] swaps = buffers.swaps(hubDegree);
+        int[] swapMarks = buffers.swapMarks;
+        int swapMark = buffers.swapMark;
+        long state = (((long) node << 32 | hub) * 0x9E3779B97F4A7C15L) | 1;
+        int maxLevel = 1;
+        int accepted = 0;
+        int draws = (int) Math.min(4L * fanOut, hubDegree);
+        for (int draw = 0; draw < draws && accepted < fanOut; draw++) {
+            // Swap a random position of the hub's row not drawn yet into slot draw
+            state = nextRandom(state);
+            int slot = draw + (int) ((state >>> 33) % (hubDegree - draw));
+            int k = swapMarks[slot] == swapMark ? swaps[slot] : slot;
+            swaps[slot] = swapMarks[draw] == swapMark ? swaps[draw] : draw;
+            swapMarks[slot] = swapMark;
+
+            int level = graph.level(hub, k);
+            maxLevel = Math.max(maxLevel, level);
+
+            state = nextRandom(state);
+            if ((state >>> 33) % maxLevel >= level) {
+                continue;
+            }
+            accepted++;
+            offer(graph.neighbor(hub, k), friendshipLevel, filter, graph, buffers);
+        }
+        return accepted;
+    }
+
+    /* xorshift64* step */
+    private static long nextRandom(long state) {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state * 0x2545F4914F6CDD1DL;
+    }
+
+    /*
+    Writes every candidate that passes the filter, if any, into
+    buffers.results ranked by mutual friends and returns how many there are.
+    Mutual friend counts and level sums are accumulated in dense per-thread
+    counters indexed by node, and the ranking is a sort of packed keys, or
+    of the candidates themselves when a count is too large for the keys.
+    */
+    private static int collectMutualFriends(int node, ProfileIndex.Filter filter, GraphSnapshot graph, Scratch buffers) {
+        int[] marks = buffers.marks(graph.nodeCount());
+        int mark = buffers.mark;
+        buffers.growCounters(marks.length);
+        int[] mutual = buffers.mutual;
+        int[] levelSums = buffers.levelSums;
+        NeighborCursor friends = graph.neighbors(node, new NeighborCursor());
+        NeighborCursor fofs = buffers.cursor;
+
+        // The profile itself and its friends are never suggested, a count of -1 excludes them
+        marks[node] = mark;
+        mutual[node] = -1;
+        while (friends.next()) {
+            marks[friends.neighbor()] = mark;
+            mutual[friends.neighbor()] = -1;
+        }
+
+        int count = 0;
+        int[] candidates = buffers.results(16);
+        graph.neighbors(node, friends);
+        while (friends.next()) {
+            int friendshipLevel = friends.level();
+
+            graph.neighbors(friends.neighbor(), fofs);
+            while (fofs.next()) {
+                int fof = fofs.neighbor();
+                if (marks[fof] != mark) {
+                    marks[fof] = mark;
+                    if (filter != null && !filter.matches(fof, graph)) {
+                        mutual[fof] = -1;
+                        continue;
+                    }
+
+                    mutual[fof] = 0;
+                    levelSums[fof] = 0;
+                    if (count == candidates.length) {
+                        candidates = buffers.results(count + 1);
+                    }
+                    candidates[count++] = fof;
+                }
+
+                if (mutual[fof] >= 0) {
+                    mutual[fof]++;
+                    levelSums[fof] += friendshipLevel;
+                }
+            }
+        }
+
+        // Mutual count and level sum below the sign bit, above the node inverted so ties go to the lower node
+        long[] keys = buffers.keys(count);
+        for (int i = 0; i < count; i++) {
+            int candidate = candidates[i];
+            if (mutual[candidate] > KEY_MAX_MUTUAL || levelSums[candidate] > KEY_MAX_LEVEL_SUM) {
+                sortMutualFriends(candidates, count, mutual, levelSums);
+                return count;
+            }
+            keys[i] = ((long) mutual[candidate] << 48)
+                | ((long) levelSums[candidate] << 31)
+                | (Integer.MAX_VALUE - candidate);
+        }
+        Arrays.sort(keys, 0, count);
+        for (int i = 0; i < count; i++) {
+            candidates[i] = Integer.MAX_VALUE - (int) (keys[count - 1 - i] & Integer.MAX_VALUE);
+        }
+
+        return count;
+    }
 
-        UUID friendID;
-        Integer friendshipLevel;
+    /* Same order as the packed keys, for counts too large to fit in them */
+    private static void sortMutualFriends(int[] candidates, int count, int[] mutual, int[] levelSums) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = candidates[i];
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(candidate -> -mutual[candidate])
+            .thenComparingInt(candidate -> -levelSums[candidate])
+            .thenComparingInt(candidate -> candidate));
+        for (int i = 0; i < count; i++) {
+            candidates[i] = order[i];
+        }
+    }
+
+    private static Map<Integer, Integer> getBaseSuggestions(int node, GraphSnapshot graph) {
+        Map<Integer, Integer> suggestionsMap = new HashMap<>();
+        NeighborCursor friends = graph.neighbors(node, new NeighborCursor());
+        NeighborCursor fofs = new NeighborCursor();
+
+        int friendshipLevel;
+        int fof;
         Integer currentFriendshipLevel;
-        for (Map.Entry<UUID, Integer> friend : friends.entrySet()) {
-            friendID = friend.getKey();
-            friendshipLevel = friend.getValue();
+        while (friends.next()) {
+            friendshipLevel = friends.level();
+
+            graph.neighbors(friends.neighbor(), fofs);
+            while (fofs.next()) {
+                fof = fofs.neighbor();
 
-            fofs = profiles.get(friendID).getFriends();
-            for (UUID fofID : fofs.keySet()) {
                 // Skip itself
-                if (fofID.equals(profileID)) {
+                if (fof == node) {
                     continue;
                 }
 
                 // Skip friends
-                if (friends.containsKey(fofID)) {
+                if (graph.areFriends(node, fof)) {
                     continue;
                 }
 
-                if (suggestionsMap.containsKey(fofID)) {
-                    currentFriendshipLevel = suggestionsMap.get(fofID);
-                    if (friendshipLevel > currentFriendshipLevel) {
-                        suggestionsMap.put(fofID, friendshipLevel);
-                    }
-                    continue;
+                currentFriendshipLevel = suggestionsMap.get(fof);
+                if (currentFriendshipLevel == null || friendshipLevel > currentFriendshipLevel) {
+                    suggestionsMap.put(fof, friendshipLevel);
                 }
-
-                suggestionsMap.put(fofID, friendshipLevel);   
             }
         }
     
         return suggestionsMap;
     }
 
-    private static PriorityQueue<Suggestion> loadSuggestions(UUID profileID) {
+    private static PriorityQueue<Suggestion> loadSuggestions(UUID profileID, GraphSnapshot graph) {
         PriorityQueue<Suggestion> suggestions = new PriorityQueue<>(Collections.reverseOrder());
-        Map<UUID, Integer> suggestionsMap = getBaseSuggestions(profileID);
+        int node = graph.indexOf(profileID);
+        Profile suggestionsReceiver = graph.profile(node);
+        Map<Integer, Integer> suggestionsMap = getBaseSuggestions(node, graph);
         
         Suggestion suggestionObj = null;
         Profile profile = null;
-        Profile suggestionsReceiver = profiles.get(profileID);
 
-        for (Map.Entry<UUID, Integer> entry : suggestionsMap.entrySet()) {
-            profile = profiles.get(entry.getKey());
+        for (Map.Entry<Integer, Integer> entry : suggestionsMap.entrySet()) {
+            profile = graph.profile(entry.getKey());
             suggestionObj = new Suggestion(entry.getValue(), profile, suggestionsReceiver);
             suggestions.add(suggestionObj);
         }
 
         return suggestions;
     }
+
+    /* Per-thread buffers reused by the top-K queries */
+    private static class Scratch {
+        private int[] marks = new int[0];
+        private int mark;
+
+        /* distinct candidates walked by the last top-K query, before the filter */
+        private int candidates;
+        private int[] friends = new int[16];
+        private int[] friendLevels = new int[16];
+        private final int[] levelCounts = new int[Byte.MAX_VALUE + 1];
+        private int[] results = new int[16];
+        private long[] keys = new long[16];
+
+        /* positions swapped by the hub samples, valid where swapMarks holds swapMark */
+        private int[] swaps = new int[0];
+        private int[] swapMarks = new int[0];
+        private int swapMark;
+
+        /* mutual friend counts and friendship level sums, only allocated for MUTUAL_FRIENDS */
+        private int[] mutual = new int[0];
+        private int[] levelSums = new int[0];
+        private final NeighborCursor cursor = new NeighborCursor();
+        private final SuggestionHeap heap = new SuggestionHeap();
+
+        /* Returns the mark array with a fresh mark value in mark */
+        private int[] marks(int nodeCount) {
+            if (marks.length < nodeCount) {
+                marks = new int[Math.max(nodeCount, marks.length * 2)];
+            }
+            if (++mark == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                mark = 1;
+            }
+            return marks;
+        }
+
+        /* Returns the swap slots of a hub row of degree positions, with a fresh mark value in swapMark */
+        private int[] swaps(int degree) {
+            if (swaps.length < degree) {
+                swaps = new int[Math.max(degree, swaps.length * 2)];
+                swapMarks = new int[swaps.length];
+                swapMark = 0;
+            }
+            if (++swapMark == Integer.MAX_VALUE) {
+                Arrays.fill(swapMarks, 0);
+                swapMark = 1;
+            }
+            return swaps;
+        }
+
+        /*
+        Loads the friends of node into friends and friendLevels, highest
+        friendship level first, and returns how many there are
+        */
+        private int loadFriends(GraphSnapshot graph, int node) {
+            graph.neighbors(node, cursor);
+            int degree = cursor.size();
+            if (friends.length < degree) {
+                friends = new int[Math.max(degree, friends.length * 2)];
+                friendLevels = new int[friends.length];
+            }
+
+            Arrays.fill(levelCounts, 0);
+            while (cursor.next()) {
+                levelCounts[cursor.level()]++;
+            }
+
+            int position = 0;
+            for (int level = levelCounts.length - 1; level >= 0; level--) {
+                int count = levelCounts[level];
+                levelCounts[level] = position;
+                position += count;
+            }
+
+            graph.neighbors(node, cursor);
+            while (cursor.next()) {
+                int slot = levelCounts[cursor.level()]++;
+                friends[slot] = cursor.neighbor();
+                friendLevels[slot] = cursor.level();
+            }
+            return degree;
+        }
+
+        /* Grows results keeping its contents */
+        private int[] results(int size) {
+            if (results.length < size) {
+                results = Arrays.copyOf(results, Math.max(size, results.length * 2));
+            }
+            return results;
+        }
+
+        private void growCounters(int nodeCount) {
+            if (mutual.length < nodeCount) {
+                mutual = new int[nodeCount];
+                levelSums = new int[nodeCount];
+            }
+        }
+
+        private long[] keys(int size) {
+            if (keys.length < size) {
+                keys = new long[Math.max(size, keys.length * 2)];
+            }
+            return keys;
+        }
+    }
 }
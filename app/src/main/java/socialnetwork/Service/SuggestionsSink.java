@@ -0,0 +1,15 @@
+package socialnetwork.Service;
+
+import java.util.List;
+import java.util.UUID;
+
+import socialnetwork.Model.Profile;
+
+/*
+Receives the suggestions of a batch run, one profile at a time. It is called
+from several threads at once and must be thread-safe.
+*/
+@FunctionalInterface
+public interface SuggestionsSink {
+    void accept(UUID profileID, List<Profile> suggestions);
+}
@@ -0,0 +1,192 @@
+package socialnetwork.Service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.UUID;
+
+/**
+ * Streams the nodes and edges of a friendship tree in one of the
+ * {@link ExportOptions.Format formats}. Every element is written as soon as
+ * it is handed over, nothing is kept.
+ */
+abstract class TreeWriter {
+    protected final Writer out;
+
+    protected TreeWriter(Writer out) {
+        this.out = out;
+    }
+
+    static TreeWriter of(ExportOptions.Format format, Writer out) {
+        switch (format) {
+            case DOT:
+                return new Dot(out);
+            case GRAPHML:
+                return new GraphML(out);
+            case JSON_LINES:
+                return new JsonLines(out);
+            default:
+                throw new IllegalArgumentException("Unknown export format " + format);
+        }
+    }
+
+    abstract void begin() throws IOException;
+
+    abstract void node(String id, UUID profileID, String name) throws IOException;
+
+    /* Node standing for count leaves that were collapsed */
+    abstract void group(String id, int count) throws IOException;
+
+    /* strength is the friendship level, ignored for the edge of a group, since 0 is a level as well */
+    abstract void edge(String source, String target, int strength, boolean group) throws IOException;
+
+    /* Profiles of the tree left out by the node budget */
+    abstract void omitted(int count) throws IOException;
+
+    abstract void end() throws IOException;
+
+    private static final class Dot extends TreeWriter {
+        Dot(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin() throws IOException {
+            out.write("graph \"Friendships cluster\" {\n");
+            out.write("  node [style=filled, fillcolor=lightblue];\n");
+        }
+
+        @Override
+        void node(String id, UUID profileID, String name) throws IOException {
+            out.write("  " + id + " [label=\"" + escape(name) + "\", tooltip=\"" + profileID + "\"];\n");
+        }
+
+        @Override
+        void group(String id, int count) throws IOException {
+            out.write("  " + id + " [label=\"+" + count + " profiles\", shape=box, fillcolor=lightgray];\n");
+        }
+
+        @Override
+        void edge(String source, String target, int strength, boolean group) throws IOException {
+            out.write("  " + source + " -- " + target);
+            out.write(group ? " [style=dashed];\n" : " [label=\"" + strength + "\"];\n");
+        }
+
+        @Override
+        void omitted(int count) throws IOException {
+            out.write("  // " + count + " profiles left out by the node budget\n");
+        }
+
+        @Override
+        void end() throws IOException {
+            out.write("}\n");
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+
+    private static final class GraphML extends TreeWriter {
+        GraphML(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin() throws IOException {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+            out.write("  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>\n");
+            out.write("  <key id=\"profileID\" for=\"node\" attr.name=\"profileID\" attr.type=\"string\"/>\n");
+            out.write("  <key id=\"collapsed\" for=\"node\" attr.name=\"collapsed\" attr.type=\"int\"/>\n");
+            out.write("  <key id=\"strength\" for=\"edge\" attr.name=\"strength\" attr.type=\"int\"/>\n");
+            out.write("  <graph id=\"Friendships cluster\" edgedefault=\"undirected\">\n");
+        }
+
+        @Override
+        void node(String id, UUID profileID, String name) throws IOException {
+            out.write("    <node id=\"" + id + "\"><data key=\"label\">" + escape(name) + "</data>"
+                + "<data key=\"profileID\">" + profileID + "</data></node>\n");
+        }
+
+        @Override
+        void group(String id, int count) throws IOException {
+            out.write("    <node id=\"" + id + "\"><data key=\"label\">+" + count + " profiles</data>"
+                + "<data key=\"collapsed\">" + count + "</data></node>\n");
+        }
+
+        @Override
+        void edge(String source, String target, int strength, boolean group) throws IOException {
+            out.write("    <edge source=\"" + source + "\" target=\"" + target + "\">");
+            if (!group) {
+                out.write("<data key=\"strength\">" + strength + "</data>");
+            }
+            out.write("</edge>\n");
+        }
+
+        @Override
+        void omitted(int count) throws IOException {
+            out.write("    <!-- " + count + " profiles left out by the node budget -->\n");
+        }
+
+        @Override
+        void end() throws IOException {
+            out.write("  </graph>\n");
+            out.write("</graphml>\n");
+        }
+
+        private static String escape(String value) {
+            return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+    }
+
+    /* One JSON object per line, so readers can stream the file as well */
+    private static final class JsonLines extends TreeWriter {
+        JsonLines(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin() {
+        }
+
+        @Override
+        void node(String id, UUID profileID, String name) throws IOException {
+            out.write("{\"type\":\"node\",\"id\":\"" + id + "\",\"profileID\":\"" + profileID + "\",\"name\":\"" + escape(name) + "\"}\n");
+        }
+
+        @Override
+        void group(String id, int count) throws IOException {
+            out.write("{\"type\":\"group\",\"id\":\"" + id + "\",\"count\":" + count + "}\n");
+        }
+
+        @Override
+        void edge(String source, String target, int strength, boolean group) throws IOException {
+            out.write("{\"type\":\"edge\",\"source\":\"" + source + "\",\"target\":\"" + target + "\"");
+            out.write(group ? "}\n" : ",\"strength\":" + strength + "}\n");
+        }
+
+        @Override
+        void omitted(int count) throws IOException {
+            out.write("{\"type\":\"omitted\",\"count\":" + count + "}\n");
+        }
+
+        @Override
+        void end() {
+        }
+
+        private static String escape(String value) {
+            StringBuilder escaped = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    escaped.append('\\').append(c);
+                } else if (c < 0x20) {
+                    escaped.append(String.format("\\u%04x", (int) c));
+                } else {
+                    escaped.append(c);
+                }
+            }
+            return escaped.toString();
+        }
+    }
+}
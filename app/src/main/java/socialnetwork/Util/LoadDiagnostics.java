@@ -0,0 +1,214 @@
+package socialnetwork.Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Counters of one profiles load: rows read, rows rejected per reason,
+ * malformed friendships per reason and the time spent in every phase.
+ *
+ * Problems are counted rather than logged. Only the first few of them are
+ * traced, at WARN, and only the first few rows are traced as parsed, at
+ * DEBUG and only when DEBUG is on, so the cost of a load does not grow with
+ * the number of log lines. {@link #summary} gives the whole load as a single
+ * line of {@code key=value} pairs. Counting is thread-safe, the parallel
+ * loader shares one instance between its chunks.
+ *
+ * Both loaders build the same graph, but their counts can differ for rows
+ * that are rejected or replaced: {@link ProfilesLoader} checks the
+ * friendships of a row before its profile fields, and
+ * {@link MappedProfilesLoader} only looks for duplicate friends in the rows
+ * that are kept.
+ */
+public class LoadDiagnostics {
+    private static final Logger logger = LogManager.getLogger(LoadDiagnostics.class);
+
+    public enum Phase {
+        READ,
+        PARSE,
+        MERGE,
+        VALIDATE
+    }
+
+    public enum RowProblem {
+        FIELD_COUNT("has a different number of fields than the header"),
+        INVALID_ID("has an invalid profile id"),
+        INVALID_AGE("has an invalid age"),
+        INVALID_PROFILE("has an invalid name, age or gender"),
+        LEVEL_OUT_OF_RANGE("has a friendship level the graph cannot store"),
+        REPLACED("is replaced by a later row with the same profile id");
+
+        private final String description;
+
+        RowProblem(String description) {
+            this.description = description;
+        }
+    }
+
+    public enum FriendshipProblem {
+        INVALID_FORMAT("is not id:level"),
+        INVALID_ID("has an invalid profile id"),
+        INVALID_LEVEL("has an invalid level"),
+        DUPLICATE("lists the same friend again");
+
+        private final String description;
+
+        FriendshipProblem(String description) {
+            this.description = description;
+        }
+    }
+
+    private final int traceLimit;
+    private final AtomicInteger problemTraces = new AtomicInteger();
+    private final AtomicInteger rowTraces = new AtomicInteger();
+
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder friendshipsRemoved = new LongAdder();
+    private final LongAdder[] rejectedRows = adders(RowProblem.values().length);
+    private final LongAdder[] malformedFriendships = adders(FriendshipProblem.values().length);
+    private final LongAdder[] phaseNanos = adders(Phase.values().length);
+
+    /* traceLimit is how many problems, and how many parsed rows, are traced at most */
+    public LoadDiagnostics(int traceLimit) {
+        if (traceLimit < 0) {
+            throw new IllegalArgumentException("Trace limit cannot be negative");
+        }
+        this.traceLimit = traceLimit;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /* Rows read, blank lines aside, whether they were loaded or rejected */
+    public void addRows(long count) {
+        rows.add(count);
+    }
+
+    public void addPhaseNanos(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /* Friendships dropped after parsing, because a ProfileGraph cannot hold them */
+    public void addFriendshipsRemoved(long count) {
+        friendshipsRemoved.add(count);
+    }
+
+    /* where tells the row apart, a line number or a byte offset */
+    public void rejectRow(RowProblem problem, String where, Supplier<String> detail) {
+        rejectedRows[problem.ordinal()].increment();
+        if (problemTraces.getAndIncrement() < traceLimit) {
+            logger.warn("Row " + where + " " + problem.description + ": " + detail.get());
+        }
+    }
+
+    public void malformedFriendship(FriendshipProblem problem, String profileID, Supplier<String> detail) {
+        malformedFriendships[problem.ordinal()].increment();
+        if (problemTraces.getAndIncrement() < traceLimit) {
+            logger.warn("Friendship of profile " + profileID + " " + problem.description + ": " + detail.get());
+        }
+    }
+
+    /* Whether the caller should trace the row it just parsed, checked before building the trace */
+    public boolean traceRow() {
+        return logger.isDebugEnabled() && rowTraces.getAndIncrement() < traceLimit;
+    }
+
+    public void trace(String message) {
+        logger.debug(message);
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public long getRejectedRows(RowProblem problem) {
+        return rejectedRows[problem.ordinal()].sum();
+    }
+
+    public long getRejectedRows() {
+        return sum(rejectedRows);
+    }
+
+    /* Rows that ended up as profiles */
+    public long getLoadedRows() {
+        return getRows() - getRejectedRows();
+    }
+
+    public long getMalformedFriendships(FriendshipProblem problem) {
+        return malformedFriendships[problem.ordinal()].sum();
+    }
+
+    public long getMalformedFriendships() {
+        return sum(malformedFriendships);
+    }
+
+    public long getFriendshipsRemoved() {
+        return friendshipsRemoved.sum();
+    }
+
+    public long getPhaseMillis(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum() / 1_000_000;
+    }
+
+    /* Problems traced at WARN, rows and friendships share the trace limit */
+    public int getTracedProblems() {
+        return Math.min(problemTraces.get(), traceLimit);
+    }
+
+    /* Problems found past the trace limit, which were counted but not traced */
+    public long getUntracedProblems() {
+        return getRejectedRows() + getMalformedFriendships() - getTracedProblems();
+    }
+
+    private static long sum(LongAdder[] adders) {
+        long total = 0;
+        for (LongAdder adder : adders) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    /* One line summary of the load of source */
+    public String summary(String source) {
+        StringBuilder summary = new StringBuilder("Loaded ").append(source).append(':')
+            .append(" rows=").append(getRows())
+            .append(" loaded=").append(getLoadedRows())
+            .append(" rejected=").append(getRejectedRows());
+        appendReasons(summary, RowProblem.values(), rejectedRows);
+        summary.append(" malformed_friendships=").append(getMalformedFriendships());
+        appendReasons(summary, FriendshipProblem.values(), malformedFriendships);
+        summary.append(" friendships_removed=").append(getFriendshipsRemoved());
+        for (Phase phase : Phase.values()) {
+            if (phaseNanos[phase.ordinal()].sum() > 0) {
+                summary.append(' ').append(phase.name().toLowerCase()).append("_ms=").append(getPhaseMillis(phase));
+            }
+        }
+        if (getUntracedProblems() > 0) {
+            summary.append(" untraced_problems=").append(getUntracedProblems());
+        }
+        return summary.toString();
+    }
+
+    private static void appendReasons(StringBuilder summary, Enum<?>[] reasons, LongAdder[] counts) {
+        String separator = " {";
+        for (Enum<?> reason : reasons) {
+            long count = counts[reason.ordinal()].sum();
+            if (count > 0) {
+                summary.append(separator).append(reason.name().toLowerCase()).append('=').append(count);
+                separator = ", ";
+            }
+        }
+        if (!separator.equals(" {")) {
+            summary.append('}');
+        }
+    }
+}
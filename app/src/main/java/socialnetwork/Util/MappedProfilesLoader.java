@@ -0,0 +1,747 @@
+package socialnetwork.Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import socialnetwork.Graph.IdDictionary;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Model.Gender;
+
+/**
+ * Loads a profiles CSV file straight into a {@link ProfileGraph}, for files
+ * too large for {@link ProfilesLoader}.
+ *
+ * The file is memory-mapped and cut into blocks. The quotes of every block
+ * are counted in parallel, which tells whether each block starts inside a
+ * quoted field, so every block boundary can be moved to the first line break
+ * that is outside quotes without reading the file sequentially. The
+ * resulting record-aligned chunks are parsed in parallel into primitive
+ * buffers (ids as two longs, friendship levels as bytes), without building
+ * a line, a field list or a {@code Profile} per record, and then merged into
+ * CSR rows.
+ *
+ * The graph is the same one {@link ProfilesLoader} followed by
+ * {@link ProfileGraph#fromProfiles} builds: when an id appears twice the last
+ * record wins, and friendships are only kept when both profiles exist, are
+ * different and list each other with the same level. Unlike
+ * {@link ProfilesLoader}, a friendship level outside the range the graph can
+ * store fails the load even if the friendship would have been dropped.
+ */
+public class MappedProfilesLoader {
+    private static final Logger logger = LogManager.getLogger(MappedProfilesLoader.class);
+
+    private static final long DEFAULT_BLOCK_SIZE = 64L << 20;
+    private static final int DEFAULT_TRACE_LIMIT = 10;
+
+    private final long blockSize;
+    private boolean skipInvalidRows = false;
+    private int traceLimit = DEFAULT_TRACE_LIMIT;
+
+    /* statistics of the last load */
+    private long bytesLoaded;
+    private long loadNanos;
+    private LoadDiagnostics diagnostics;
+
+    public MappedProfilesLoader() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public MappedProfilesLoader(long blockSize) {
+        if (blockSize <= 0 || blockSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Block size must be between 1 and " + Integer.MAX_VALUE);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /* Rejects invalid rows and goes on instead of failing the load on the first one */
+    public MappedProfilesLoader setSkipInvalidRows(boolean skipInvalidRows) {
+        this.skipInvalidRows = skipInvalidRows;
+        return this;
+    }
+
+    /* How many problems are logged per load, the others are only counted */
+    public MappedProfilesLoader setTraceLimit(int traceLimit) {
+        if (traceLimit < 0) {
+            throw new IllegalArgumentException("Trace limit cannot be negative");
+        }
+        this.traceLimit = traceLimit;
+        return this;
+    }
+
+    public ProfileGraph loadGraphFromCSV(String filename) throws IOException {
+        return loadGraphFromCSV(filename, 1);
+    }
+
+    public ProfileGraph loadGraphFromCSV(String filename, int headerLine) throws IOException {
+        long start = System.nanoTime();
+        ProfileGraph graph;
+        LoadDiagnostics diagnostics = new LoadDiagnostics(traceLimit);
+        this.diagnostics = diagnostics;
+
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            long position = 0;
+            for (int i = 1; i < headerLine; i++) {
+                position = lineEnd(channel, position, size);
+            }
+            long headerEnd = lineEnd(channel, position, size);
+            Columns columns = readHeader(channel, position, headerEnd);
+
+            long[] bounds = chunkBounds(channel, headerEnd, size);
+            long phaseStart = System.nanoTime();
+            diagnostics.addPhaseNanos(LoadDiagnostics.Phase.READ, phaseStart - start);
+
+            Chunk[] chunks;
+            try {
+                chunks = IntStream.range(0, bounds.length - 1)
+                    .parallel()
+                    .mapToObj(i -> parseChunk(channel, bounds[i], bounds[i + 1], columns, diagnostics, skipInvalidRows))
+                    .toArray(Chunk[]::new);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            long mergeStart = System.nanoTime();
+            diagnostics.addPhaseNanos(LoadDiagnostics.Phase.PARSE, mergeStart - phaseStart);
+
+            graph = merge(chunks, diagnostics);
+            diagnostics.addPhaseNanos(LoadDiagnostics.Phase.MERGE, System.nanoTime() - mergeStart);
+            bytesLoaded = size;
+        }
+
+        loadNanos = System.nanoTime() - start;
+        logger.info(
+            diagnostics.summary(filename)
+            + String.format(" profiles=%d mb=%.1f total_ms=%d mb_per_s=%.1f", graph.snapshot().size(), bytesLoaded / 1e6, loadNanos / 1_000_000, getThroughput())
+        );
+        return graph;
+    }
+
+    /* Size in bytes of the last file loaded */
+    public long getBytesLoaded() {
+        return bytesLoaded;
+    }
+
+    public long getLoadMillis() {
+        return loadNanos / 1_000_000;
+    }
+
+    /* Load throughput of the last file, in MB/s */
+    public double getThroughput() {
+        return loadNanos == 0 ? 0 : bytesLoaded / 1e6 / (loadNanos / 1e9);
+    }
+
+    /* Counters of the last load, kept when it failed */
+    public LoadDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /* Column positions of the required fields */
+    private static final class Columns {
+        int count;
+        int profileID;
+        int name;
+        int age;
+        int gender;
+        int friends;
+    }
+
+    private static Columns readHeader(FileChannel channel, long start, long end) throws IOException {
+        if (start >= end) {
+            throw new IllegalArgumentException("The CSV file has no header line.");
+        }
+
+        byte[] bytes = new byte[(int) (end - start)];
+        channel.map(FileChannel.MapMode.READ_ONLY, start, bytes.length).get(bytes);
+        List<String> fields = ProfilesLoader.parseLine(new String(bytes, StandardCharsets.UTF_8).trim());
+        if (!ProfilesLoader.checkRequiredFields(fields)) {
+            throw new IllegalArgumentException("The CSV file is missing some required fields.");
+        }
+
+        Columns columns = new Columns();
+        columns.count = fields.size();
+        columns.profileID = ProfilesLoader.getFieldIndex(fields, ProfilesLoader.profileIDFieldName);
+        columns.name = ProfilesLoader.getFieldIndex(fields, ProfilesLoader.nameFieldName);
+        columns.age = ProfilesLoader.getFieldIndex(fields, ProfilesLoader.ageFieldName);
+        columns.gender = ProfilesLoader.getFieldIndex(fields, ProfilesLoader.genderFieldName);
+        columns.friends = ProfilesLoader.getFieldIndex(fields, ProfilesLoader.friendsFieldName);
+        return columns;
+    }
+
+    /* Position right after the line break that ends the line at position, or size */
+    private long lineEnd(FileChannel channel, long position, long size) throws IOException {
+        return recordEnd(channel, position, size, false);
+    }
+
+    /*
+    Position right after the first line break at or after position that is
+    outside quotes, given whether position is inside a quoted field, or size
+    */
+    private long recordEnd(FileChannel channel, long position, long size, boolean inQuotes) throws IOException {
+        while (position < size) {
+            int length = (int) Math.min(blockSize, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++) {
+                byte c = window.get(i);
+                if (c == '"') {
+                    inQuotes = !inQuotes;
+                } else if (c == '\n' && !inQuotes) {
+                    return position + i + 1;
+                }
+            }
+            position += length;
+        }
+        return size;
+    }
+
+    /*
+    Splits [start, size) into chunks that begin and end at record boundaries
+    and returns their bounds
+    */
+    private long[] chunkBounds(FileChannel channel, long start, long size) throws IOException {
+        int blocks = (int) Math.max(1, (size - start + blockSize - 1) / blockSize);
+        boolean[] oddQuotes = new boolean[blocks];
+        try {
+            IntStream.range(0, blocks).parallel().forEach(block -> {
+                long position = start + block * blockSize;
+                int length = (int) Math.min(blockSize, size - position);
+                if (length <= 0) {
+                    return;
+                }
+
+                try {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    int quotes = 0;
+                    for (int i = 0; i < length; i++) {
+                        if (window.get(i) == '"') {
+                            quotes++;
+                        }
+                    }
+                    oddQuotes[block] = (quotes & 1) == 1;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            // A block starts inside quotes if the blocks before it hold an odd number of quotes
+            boolean[] startsInQuotes = new boolean[blocks];
+            for (int block = 1; block < blocks; block++) {
+                startsInQuotes[block] = startsInQuotes[block - 1] ^ oddQuotes[block - 1];
+            }
+
+            long[] bounds = new long[blocks + 1];
+            bounds[0] = start;
+            IntStream.range(1, blocks).parallel().forEach(block -> {
+                try {
+                    bounds[block] = recordEnd(channel, start + block * blockSize, size, startsInQuotes[block]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            bounds[blocks] = size;
+
+            // Records longer than a block make several blocks end at the same boundary
+            for (int block = 1; block <= blocks; block++) {
+                bounds[block] = Math.max(bounds[block], bounds[block - 1]);
+            }
+            return bounds;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* Records parsed from one chunk, in file order */
+    private static final class Chunk {
+        int count;
+        long[] idHigh = new long[64];
+        long[] idLow = new long[64];
+        String[] names = new String[64];
+        int[] ages = new int[64];
+        byte[] genders = new byte[64];
+
+        /* friends of record i are [friendsEnd[i - 1], friendsEnd[i]) */
+        int[] friendsEnd = new int[64];
+        int friendCount;
+        long[] friendHigh = new long[256];
+        long[] friendLow = new long[256];
+        byte[] friendLevels = new byte[256];
+
+        int friendsStart(int record) {
+            return record == 0 ? 0 : friendsEnd[record - 1];
+        }
+
+        void addRecord(long high, long low, String name, int age, Gender gender) {
+            if (count == idHigh.length) {
+                int capacity = count * 2;
+                idHigh = Arrays.copyOf(idHigh, capacity);
+                idLow = Arrays.copyOf(idLow, capacity);
+                names = Arrays.copyOf(names, capacity);
+                ages = Arrays.copyOf(ages, capacity);
+                genders = Arrays.copyOf(genders, capacity);
+                friendsEnd = Arrays.copyOf(friendsEnd, capacity);
+            }
+            idHigh[count] = high;
+            idLow[count] = low;
+            names[count] = name;
+            ages[count] = age;
+            genders[count] = (byte) gender.ordinal();
+            friendsEnd[count] = friendCount;
+            count++;
+        }
+
+        /* Adds a friend to the last record */
+        void addFriend(long high, long low, byte level) {
+            if (friendCount == friendHigh.length) {
+                int capacity = friendCount * 2;
+                friendHigh = Arrays.copyOf(friendHigh, capacity);
+                friendLow = Arrays.copyOf(friendLow, capacity);
+                friendLevels = Arrays.copyOf(friendLevels, capacity);
+            }
+            friendHigh[friendCount] = high;
+            friendLow[friendCount] = low;
+            friendLevels[friendCount] = level;
+            friendCount++;
+            friendsEnd[count - 1] = friendCount;
+        }
+    }
+
+    private static Chunk parseChunk(FileChannel channel, long start, long end, Columns columns, LoadDiagnostics diagnostics, boolean skipInvalidRows) {
+        Chunk chunk = new Chunk();
+        if (start >= end) {
+            return chunk;
+        }
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("CSV record at byte " + start + " is too long");
+        }
+
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        int length = (int) (end - start);
+        int[] fieldStarts = new int[columns.count];
+        int[] fieldEnds = new int[columns.count];
+        int position = 0;
+        int rows = 0;
+        Row row = new Row(diagnostics);
+        try {
+            while (position < length) {
+                int recordStart = position;
+                // Split one record into fields, the quotes are kept in the fields
+                int field = 0;
+                int fieldStart = position;
+                boolean inQuotes = false;
+                boolean blank = true;
+                int i = position;
+                for (; i < length; i++) {
+                    byte c = buffer.get(i);
+                    if (c == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (!inQuotes && (c == ',' || c == '\n')) {
+                        if (field < columns.count) {
+                            fieldStarts[field] = fieldStart;
+                            fieldEnds[field] = i;
+                        }
+                        field++;
+                        fieldStart = i + 1;
+                        if (c == '\n') {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (c > ' ') {
+                        blank = false;
+                    }
+                }
+                if (i == length) {
+                    if (field < columns.count) {
+                        fieldStarts[field] = fieldStart;
+                        fieldEnds[field] = length;
+                    }
+                    field++;
+                }
+                position = i + 1;
+
+                if (blank && field == 1) {
+                    continue;
+                }
+                rows++;
+
+                row.offset = start + recordStart;
+                int records = chunk.count;
+                int friends = chunk.friendCount;
+                try {
+                    if (field != columns.count) {
+                        int fields = field;
+                        diagnostics.rejectRow(LoadDiagnostics.RowProblem.FIELD_COUNT, row.where(), () -> fields + " fields");
+                        throw new IllegalArgumentException("Invalid CSV file structure. Line with a different number of fields than the header found.");
+                    }
+                    parseRecord(buffer, fieldStarts, fieldEnds, columns, chunk, row);
+                } catch (IllegalArgumentException e) {
+                    if (!skipInvalidRows) {
+                        throw e;
+                    }
+                    chunk.count = records;
+                    chunk.friendCount = friends;
+                }
+            }
+        } finally {
+            diagnostics.addRows(rows);
+        }
+
+        return chunk;
+    }
+
+    /* The record a chunk is parsing, to count and trace its problems */
+    private static final class Row {
+        final LoadDiagnostics diagnostics;
+        long offset;
+
+        Row(LoadDiagnostics diagnostics) {
+            this.diagnostics = diagnostics;
+        }
+
+        String where() {
+            return "at byte " + offset;
+        }
+
+        /* Counts the row as rejected, returns the exception for the caller to throw */
+        IllegalArgumentException rejected(LoadDiagnostics.RowProblem problem, IllegalArgumentException e) {
+            diagnostics.rejectRow(problem, where(), e::getMessage);
+            return e;
+        }
+    }
+
+    private static void parseRecord(MappedByteBuffer buffer, int[] starts, int[] ends, Columns columns, Chunk chunk, Row row) {
+        String profileID = text(buffer, starts[columns.profileID], ends[columns.profileID]);
+        UUID id;
+        try {
+            id = UUID.fromString(profileID);
+        } catch (IllegalArgumentException e) {
+            throw row.rejected(LoadDiagnostics.RowProblem.INVALID_ID, e);
+        }
+
+        String name = text(buffer, starts[columns.name], ends[columns.name]);
+        if (name.isEmpty()) {
+            throw row.rejected(LoadDiagnostics.RowProblem.INVALID_PROFILE, new IllegalArgumentException("Name cannot be null or empty"));
+        }
+
+        int age;
+        try {
+            age = Integer.parseInt(text(buffer, starts[columns.age], ends[columns.age]));
+        } catch (NumberFormatException e) {
+            throw row.rejected(LoadDiagnostics.RowProblem.INVALID_AGE, e);
+        }
+        if (age < 0) {
+            throw row.rejected(LoadDiagnostics.RowProblem.INVALID_PROFILE, new IllegalArgumentException("Age cannot be negative"));
+        }
+
+        String text = text(buffer, starts[columns.gender], ends[columns.gender]);
+        if (text.isEmpty()) {
+            throw row.rejected(LoadDiagnostics.RowProblem.INVALID_PROFILE, new IllegalArgumentException("Gender cannot be null or empty"));
+        }
+        Gender gender;
+        try {
+            gender = Gender.fromString(text);
+        } catch (IllegalArgumentException e) {
+            throw row.rejected(LoadDiagnostics.RowProblem.INVALID_PROFILE, e);
+        }
+
+        chunk.addRecord(id.getMostSignificantBits(), id.getLeastSignificantBits(), name, age, gender);
+        parseFriends(buffer, starts[columns.friends], ends[columns.friends], profileID, chunk, row);
+    }
+
+    /* Parses "id:level,id:level,..." into the friends of the last record of chunk */
+    private static void parseFriends(MappedByteBuffer buffer, int start, int end, String profileID, Chunk chunk, Row row) {
+        long[] id = new long[2];
+        int itemStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && buffer.get(i) != ',') {
+                continue;
+            }
+
+            int from = skipBlanks(buffer, itemStart, i);
+            int to = trimBlanks(buffer, from, i);
+            itemStart = i + 1;
+            if (from == to) {
+                continue;
+            }
+
+            int colon = -1;
+            int colons = 0;
+            for (int k = from; k < to; k++) {
+                if (buffer.get(k) == ':') {
+                    colon = k;
+                    colons++;
+                }
+            }
+            if (colons != 1) {
+                int itemFrom = from;
+                int itemTo = to;
+                row.diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.INVALID_FORMAT, profileID, () -> text(buffer, itemFrom, itemTo));
+                continue;
+            }
+
+            if (!parseUUID(buffer, from, colon, id)) {
+                try {
+                    UUID friendID = UUID.fromString(text(buffer, from, colon));
+                    id[0] = friendID.getMostSignificantBits();
+                    id[1] = friendID.getLeastSignificantBits();
+                } catch (IllegalArgumentException e) {
+                    row.diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.INVALID_ID, profileID, e::getMessage);
+                    continue;
+                }
+            }
+
+            int level = parseLevel(buffer, colon + 1, to);
+            if (level == Integer.MIN_VALUE) {
+                int levelFrom = colon + 1;
+                int levelTo = to;
+                row.diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.INVALID_LEVEL, profileID, () -> text(buffer, levelFrom, levelTo));
+                continue;
+            }
+            if (level < 0 || level > Byte.MAX_VALUE) {
+                throw row.rejected(
+                    LoadDiagnostics.RowProblem.LEVEL_OUT_OF_RANGE,
+                    new IllegalArgumentException("Friendship level must be between 0 and " + Byte.MAX_VALUE)
+                );
+            }
+
+            chunk.addFriend(id[0], id[1], (byte) level);
+        }
+    }
+
+    /* Parses a canonical 8-4-4-4-12 hex UUID into id, returns false if it isn't one */
+    private static boolean parseUUID(MappedByteBuffer buffer, int start, int end, long[] id) {
+        if (end - start != 36) {
+            return false;
+        }
+
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 36; i++) {
+            byte c = buffer.get(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return false;
+            }
+            if (i < 18) {
+                high = (high << 4) | digit;
+            } else {
+                low = (low << 4) | digit;
+            }
+        }
+
+        id[0] = high;
+        id[1] = low;
+        return true;
+    }
+
+    /* Parses a decimal level, or returns Integer.MIN_VALUE if it isn't one */
+    private static int parseLevel(MappedByteBuffer buffer, int start, int end) {
+        if (start == end) {
+            return Integer.MIN_VALUE;
+        }
+
+        boolean negative = buffer.get(start) == '-';
+        int i = negative || buffer.get(start) == '+' ? start + 1 : start;
+        if (i == end || end - i > 9) {
+            return Integer.MIN_VALUE;
+        }
+
+        int value = 0;
+        for (; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c < '0' || c > '9') {
+                return Integer.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /* Field text without quotes and surrounding blanks, like ProfilesLoader reads it */
+    private static String text(MappedByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c != '"' && c != '\r') {
+                bytes[length++] = c;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8).trim();
+    }
+
+    private static int skipBlanks(MappedByteBuffer buffer, int start, int end) {
+        while (start < end && isBlank(buffer.get(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimBlanks(MappedByteBuffer buffer, int start, int end) {
+        while (end > start && isBlank(buffer.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isBlank(byte c) {
+        return c <= ' ' || c == '"';
+    }
+
+    /*
+    Numbers the records of every chunk, the last record of an id wins, and
+    builds the CSR rows keeping only the symmetric friendships
+    */
+    private static ProfileGraph merge(Chunk[] chunks, LoadDiagnostics diagnostics) {
+        int records = 0;
+        for (Chunk chunk : chunks) {
+            records += chunk.count;
+        }
+
+        int[] chunkOf = new int[records];
+        int[] indexInChunk = new int[records];
+        int record = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            for (int i = 0; i < chunks[c].count; i++, record++) {
+                chunkOf[record] = c;
+                indexInChunk[record] = i;
+            }
+        }
+
+        // Walking back from the end, the first record seen of an id is the one that survives
+        IdDictionary seen = new IdDictionary(records);
+        boolean[] replaced = new boolean[records];
+        int n = 0;
+        for (record = records - 1; record >= 0; record--) {
+            Chunk chunk = chunks[chunkOf[record]];
+            int i = indexInChunk[record];
+            if (seen.putIfAbsent(chunk.idHigh[i], chunk.idLow[i], record) >= 0) {
+                replaced[record] = true;
+                int replacedRecord = record;
+                UUID id = new UUID(chunk.idHigh[i], chunk.idLow[i]);
+                diagnostics.rejectRow(LoadDiagnostics.RowProblem.REPLACED, "of profile " + id, () -> "record " + (replacedRecord + 1));
+            } else {
+                n++;
+            }
+        }
+
+        // Nodes are the surviving records in file order
+        int[] recordOfNode = new int[n];
+        long[] idHigh = new long[n];
+        long[] idLow = new long[n];
+        int node = 0;
+        for (record = 0; record < records; record++) {
+            if (!replaced[record]) {
+                Chunk chunk = chunks[chunkOf[record]];
+                idHigh[node] = chunk.idHigh[indexInChunk[record]];
+                idLow[node] = chunk.idLow[indexInChunk[record]];
+                recordOfNode[node++] = record;
+            }
+        }
+        IdDictionary nodeOf = IdDictionary.of(idHigh, idLow);
+
+        UUID[] ids = new UUID[n];
+        String[] names = new String[n];
+        int[] ages = new int[n];
+        byte[] genders = new byte[n];
+
+        // Each row packs (friend, level) sorted by friend, duplicates keep the last level
+        long[][] rows = new long[n][];
+        IntStream.range(0, n).parallel().forEach(v -> {
+            Chunk chunk = chunks[chunkOf[recordOfNode[v]]];
+            int i = indexInChunk[recordOfNode[v]];
+            ids[v] = new UUID(chunk.idHigh[i], chunk.idLow[i]);
+            names[v] = chunk.names[i];
+            ages[v] = chunk.ages[i];
+            genders[v] = chunk.genders[i];
+
+            int start = chunk.friendsStart(i);
+            int end = chunk.friendsEnd[i];
+            long[] keys = new long[end - start];
+            int count = 0;
+            for (int k = start; k < end; k++) {
+                int friend = nodeOf.get(chunk.friendHigh[k], chunk.friendLow[k]);
+                if (friend < 0 || friend == v) {
+                    continue;
+                }
+                keys[count++] = ((long) friend << 32) | ((long) (k - start) << 8) | chunk.friendLevels[k];
+            }
+
+            Arrays.sort(keys, 0, count);
+            long[] row = new long[count];
+            int size = 0;
+            for (int k = 0; k < count; k++) {
+                if (k + 1 < count && keys[k + 1] >>> 32 == keys[k] >>> 32) {
+                    int friend = (int) (keys[k] >>> 32);
+                    diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.DUPLICATE, ids[v].toString(), () -> new UUID(idHigh[friend], idLow[friend]).toString());
+                    continue;
+                }
+                row[size++] = ((keys[k] >>> 32) << 8) | (keys[k] & 0xFF);
+            }
+            rows[v] = Arrays.copyOf(row, size);
+            diagnostics.addFriendshipsRemoved(end - start - count);
+        });
+
+        // A friendship is kept only if the friend lists it back with the same level
+        int[] degrees = new int[n];
+        IntStream.range(0, n).parallel().forEach(v -> {
+            for (long edge : rows[v]) {
+                if (isSymmetric(rows, v, edge)) {
+                    degrees[v]++;
+                }
+            }
+        });
+
+        int[] offsets = new int[n + 1];
+        long listed = 0;
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + degrees[v];
+            listed += rows[v].length;
+        }
+        diagnostics.addFriendshipsRemoved(listed - offsets[n]);
+        int[] neighbors = new int[offsets[n]];
+        byte[] levels = new byte[offsets[n]];
+        IntStream.range(0, n).parallel().forEach(v -> {
+            int k = offsets[v];
+            for (long edge : rows[v]) {
+                if (isSymmetric(rows, v, edge)) {
+                    neighbors[k] = (int) (edge >>> 8);
+                    levels[k] = (byte) edge;
+                    k++;
+                }
+            }
+        });
+
+        return ProfileGraph.fromArrays(nodeOf, ids, names, ages, genders, offsets, neighbors, levels);
+    }
+
+    private static boolean isSymmetric(long[][] rows, int node, long edge) {
+        int friend = (int) (edge >>> 8);
+        return Arrays.binarySearch(rows[friend], ((long) node << 8) | (edge & 0xFF)) >= 0;
+    }
+}
@@ -0,0 +1,438 @@
+package socialnetwork.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Writes synthetic profiles CSV files in the {@link ProfilesLoader} schema,
+ * large enough to show how loading and suggestions scale.
+ *
+ * Friendships are drawn independently from a Kronecker (R-MAT) distribution,
+ * which gives the skewed, power-law-like degrees of real social networks, or
+ * uniformly for comparison. Profiles can be split into communities of
+ * consecutive profiles so that most friendships stay inside a community.
+ * Every friendship is written on both profiles with the same level, ids,
+ * names, ages and genders are derived from the profile number and the seed,
+ * and the same settings always produce the same file.
+ *
+ * Memory doesn't grow with the number of profiles: both directions of every
+ * friendship are buffered, sorted and spilled to temporary run files, which
+ * are then merged to write one row per profile. Only one buffer of
+ * {@code runSize} friendships is held at a time.
+ *
+ * Run it with
+ * {@code java socialnetwork.Util.ProfilesGenerator <output> [--profiles=N] [--degree=D]
+ * [--distribution=kronecker|uniform] [--community-size=C] [--mixing=M] [--seed=S]}.
+ */
+public class ProfilesGenerator {
+    private static final Logger logger = LogManager.getLogger(ProfilesGenerator.class);
+
+    public enum DegreeDistribution {
+        KRONECKER,
+        UNIFORM
+    }
+
+    /* Graph500 R-MAT quadrant probabilities, d is the rest */
+    private static final double RMAT_A = 0.57;
+    private static final double RMAT_B = 0.19;
+    private static final double RMAT_C = 0.19;
+
+    private static final String[] FIRST_NAMES = {
+        "Patricia", "Dorothy", "James", "Maria", "Robert", "Linda", "Michael", "Barbara",
+        "William", "Elizabeth", "David", "Jennifer", "Richard", "Susan", "Joseph", "Jessica"
+    };
+    private static final String[] LAST_NAMES = {
+        "Gomez", "Flores", "Smith", "Garcia", "Brown", "Lopez", "Johnson", "Martinez",
+        "Williams", "Rodriguez", "Jones", "Hernandez", "Miller", "Perez", "Davis", "Sanchez"
+    };
+    private static final String[] GENDERS = {"MALE", "FEMALE", "NON_BINARY"};
+
+    private long profiles = 10000;
+    private int averageDegree = 16;
+    private DegreeDistribution distribution = DegreeDistribution.KRONECKER;
+    private int communitySize = 0;
+    private double mixing = 0.8;
+    private long seed = 42;
+    private int runSize = 1 << 23;
+
+    public ProfilesGenerator setProfiles(long profiles) {
+        if (profiles < 0 || profiles > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Number of profiles must be between 0 and " + Integer.MAX_VALUE);
+        }
+        this.profiles = profiles;
+        return this;
+    }
+
+    /*
+    Average number of friends per profile. Kronecker graphs end up somewhat
+    below it, since friendships drawn twice between hubs are merged.
+    */
+    public ProfilesGenerator setAverageDegree(int averageDegree) {
+        if (averageDegree < 0) {
+            throw new IllegalArgumentException("Average degree cannot be negative");
+        }
+        this.averageDegree = averageDegree;
+        return this;
+    }
+
+    public ProfilesGenerator setDistribution(DegreeDistribution distribution) {
+        this.distribution = distribution;
+        return this;
+    }
+
+    /* Profiles per community, 0 for a single community */
+    public ProfilesGenerator setCommunitySize(int communitySize) {
+        if (communitySize < 0) {
+            throw new IllegalArgumentException("Community size cannot be negative");
+        }
+        this.communitySize = communitySize;
+        return this;
+    }
+
+    /* Fraction of the friendships drawn inside a community */
+    public ProfilesGenerator setMixing(double mixing) {
+        if (mixing < 0 || mixing > 1) {
+            throw new IllegalArgumentException("Mixing must be between 0 and 1");
+        }
+        this.mixing = mixing;
+        return this;
+    }
+
+    public ProfilesGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /* Friendships sorted in memory before spilling them to a run file */
+    public ProfilesGenerator setRunSize(int runSize) {
+        if (runSize < 2) {
+            throw new IllegalArgumentException("Run size must be at least 2");
+        }
+        this.runSize = runSize;
+        return this;
+    }
+
+    public void generate(Path output) throws IOException {
+        long start = System.nanoTime();
+        int n = (int) profiles;
+        List<Path> runs = new ArrayList<>();
+        EdgeSource edges = null;
+        try {
+            edges = writeRuns(n, output, runs);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(output), StandardCharsets.UTF_8), 1 << 20)) {
+                writeProfiles(writer, n, edges);
+            }
+        } finally {
+            // Run readers are closed before their files are deleted, also when writing failed
+            try {
+                if (edges != null) {
+                    edges.close();
+                }
+            } finally {
+                for (Path run : runs) {
+                    Files.deleteIfExists(run);
+                }
+            }
+        }
+
+        logger.info("Generated " + n + " profiles into " + output + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /*
+    Draws the friendships, spilling sorted runs of both directions of each
+    one, and returns them merged in (profile, friend) order
+    */
+    private EdgeSource writeRuns(int n, Path output, List<Path> runs) throws IOException {
+        long[] buffer = new long[runSize - runSize % 2];
+        int buffered = 0;
+        long edges = n < 2 ? 0 : (long) n * averageDegree / 2;
+        SplittableRandom random = new SplittableRandom(seed);
+
+        for (long e = 0; e < edges; e++) {
+            long edge = drawEdge(random, n);
+            int node1 = (int) (edge >>> 32);
+            int node2 = (int) edge;
+            if (node1 == node2) {
+                continue;
+            }
+
+            if (buffered == buffer.length) {
+                runs.add(spill(buffer, buffered, output));
+                buffered = 0;
+            }
+            buffer[buffered++] = ((long) node1 << 32) | node2;
+            buffer[buffered++] = ((long) node2 << 32) | node1;
+        }
+
+        Arrays.sort(buffer, 0, buffered);
+        if (runs.isEmpty()) {
+            return new BufferSource(buffer, buffered);
+        }
+
+        runs.add(spill(buffer, buffered, output));
+        List<EdgeSource> sources = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                sources.add(new RunSource(run));
+            }
+            return new MergedSource(sources);
+        } catch (IOException | RuntimeException e) {
+            for (EdgeSource source : sources) {
+                try {
+                    source.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /* Returns (node1 << 32) | node2 */
+    private long drawEdge(SplittableRandom random, int n) {
+        if (communitySize > 0 && communitySize < n && random.nextDouble() < mixing) {
+            int communities = (n + communitySize - 1) / communitySize;
+            while (true) {
+                long base = (long) random.nextInt(communities) * communitySize;
+                int size = (int) Math.min(communitySize, n - base);
+                long edge = drawEdge(random, size, size);
+                if (edge >= 0) {
+                    return ((base + (edge >>> 32)) << 32) | (base + (int) edge);
+                }
+            }
+        }
+
+        while (true) {
+            long edge = drawEdge(random, n, n);
+            if (edge >= 0) {
+                return edge;
+            }
+        }
+    }
+
+    /* Draws an edge among [0, size), or -1 if the draw fell outside and must be retried */
+    private long drawEdge(SplittableRandom random, int size, int bound) {
+        if (size < 2) {
+            return 0;
+        }
+        if (distribution == DegreeDistribution.UNIFORM) {
+            return ((long) random.nextInt(size) << 32) | random.nextInt(size);
+        }
+
+        // R-MAT: pick a quadrant of the adjacency matrix per bit of the node numbers
+        int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+        long row = 0;
+        long column = 0;
+        for (int bit = bits - 1; bit >= 0; bit--) {
+            double r = random.nextDouble();
+            if (r >= RMAT_A + RMAT_B + RMAT_C) {
+                row |= 1L << bit;
+                column |= 1L << bit;
+            } else if (r >= RMAT_A + RMAT_B) {
+                row |= 1L << bit;
+            } else if (r >= RMAT_A) {
+                column |= 1L << bit;
+            }
+        }
+        if (row >= bound || column >= bound) {
+            return -1;
+        }
+        return (row << 32) | column;
+    }
+
+    private static Path spill(long[] buffer, int count, Path output) throws IOException {
+        Arrays.sort(buffer, 0, count);
+        Path run = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName() + ".run", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (int i = 0; i < count; i++) {
+                out.writeLong(buffer[i]);
+            }
+        }
+        return run;
+    }
+
+    private void writeProfiles(Writer writer, int n, EdgeSource edges) throws IOException {
+        writer.write("profile_id,name,age,gender,friends\n");
+
+        StringBuilder line = new StringBuilder();
+        long next = edges.next();
+        for (int node = 0; node < n; node++) {
+            long hash = mix(seed ^ (node * 0x9E3779B97F4A7C15L));
+            line.setLength(0);
+            line.append(idOf(node)).append(',')
+                .append(FIRST_NAMES[(int) (hash & 15)]).append(' ').append(LAST_NAMES[(int) ((hash >>> 4) & 15)]).append(',')
+                .append(18 + (int) ((hash >>> 8) % 63)).append(',')
+                .append(GENDERS[(int) ((hash >>> 16) % GENDERS.length)]).append(",\"");
+
+            int previous = -1;
+            boolean first = true;
+            while (next >= 0 && (int) (next >>> 32) == node) {
+                int friend = (int) next;
+                next = edges.next();
+                if (friend == previous) {
+                    continue;
+                }
+                previous = friend;
+
+                if (!first) {
+                    line.append(',');
+                }
+                first = false;
+                line.append(idOf(friend)).append(':').append(levelOf(node, friend));
+            }
+
+            line.append("\"\n");
+            writer.append(line);
+        }
+    }
+
+    /* Random-looking version 4 UUID, the same for the same profile number and seed */
+    private UUID idOf(int node) {
+        long high = mix(seed + node * 0xBF58476D1CE4E5B9L + 1);
+        long low = mix(high ^ 0x94D049BB133111EBL);
+        return new UUID((high & ~0xF000L) | 0x4000L, (low & ~(3L << 62)) | (1L << 63));
+    }
+
+    /* Same level on both profiles of a friendship */
+    private int levelOf(int node1, int node2) {
+        long pair = ((long) Math.min(node1, node2) << 32) | Math.max(node1, node2);
+        return 1 + (int) Long.remainderUnsigned(mix(pair ^ seed), 5);
+    }
+
+    /* SplitMix64 finalizer */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /* Sorted stream of packed (profile, friend) pairs, -1 once exhausted */
+    private interface EdgeSource {
+        long next() throws IOException;
+
+        default void close() throws IOException {
+        }
+    }
+
+    private static final class BufferSource implements EdgeSource {
+        private final long[] buffer;
+        private final int count;
+        private int position;
+
+        BufferSource(long[] buffer, int count) {
+            this.buffer = buffer;
+            this.count = count;
+        }
+
+        @Override
+        public long next() {
+            return position < count ? buffer[position++] : -1;
+        }
+    }
+
+    private static final class RunSource implements EdgeSource {
+        private final DataInputStream in;
+
+        RunSource(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        @Override
+        public long next() throws IOException {
+            try {
+                return in.readLong();
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class MergedSource implements EdgeSource {
+        private final List<EdgeSource> sources;
+        private final PriorityQueue<long[]> heads = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+
+        MergedSource(List<EdgeSource> sources) throws IOException {
+            this.sources = sources;
+            for (int i = 0; i < sources.size(); i++) {
+                long head = sources.get(i).next();
+                if (head >= 0) {
+                    heads.add(new long[] {head, i});
+                }
+            }
+        }
+
+        @Override
+        public long next() throws IOException {
+            long[] head = heads.poll();
+            if (head == null) {
+                return -1;
+            }
+
+            long value = head[0];
+            head[0] = sources.get((int) head[1]).next();
+            if (head[0] >= 0) {
+                heads.add(head);
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (EdgeSource source : sources) {
+                source.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ProfilesGenerator <output> [--profiles=N] [--degree=D] [--distribution=kronecker|uniform] [--community-size=C] [--mixing=M] [--seed=S] [--run-size=R]");
+            System.exit(1);
+        }
+
+        ProfilesGenerator generator = new ProfilesGenerator();
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Invalid option " + args[i]);
+            }
+
+            switch (option[0]) {
+                case "--profiles" -> generator.setProfiles(Long.parseLong(option[1]));
+                case "--degree" -> generator.setAverageDegree(Integer.parseInt(option[1]));
+                case "--distribution" -> generator.setDistribution(DegreeDistribution.valueOf(option[1].toUpperCase()));
+                case "--community-size" -> generator.setCommunitySize(Integer.parseInt(option[1]));
+                case "--mixing" -> generator.setMixing(Double.parseDouble(option[1]));
+                case "--seed" -> generator.setSeed(Long.parseLong(option[1]));
+                case "--run-size" -> generator.setRunSize(Integer.parseInt(option[1]));
+                default -> throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        generator.generate(Path.of(args[0]));
+    }
+}
@@ -17,22 +17,47 @@ import socialnetwork.Model.Profile;
 public class ProfilesLoader {
     private static final Logger logger = LogManager.getLogger(ProfilesLoader.class);
 
-    private static final String profileIDFieldName = "profile_id";
-    private static final String nameFieldName = "name";
-    private static final String ageFieldName = "age";
-    private static final String genderFieldName = "gender";
-    private static final String friendsFieldName = "friends";
+    static final String profileIDFieldName = "profile_id";
+    static final String nameFieldName = "name";
+    static final String ageFieldName = "age";
+    static final String genderFieldName = "gender";
+    static final String friendsFieldName = "friends";
 
     private static final String[] requiredFields = {profileIDFieldName, nameFieldName, ageFieldName, genderFieldName, friendsFieldName};
 
+    private static final int DEFAULT_TRACE_LIMIT = 10;
+
     private List<String> fields;
     private Map<String, Integer> requiredFieldsToIndexMap;
 
+    private boolean skipInvalidRows = false;
+    private int traceLimit = DEFAULT_TRACE_LIMIT;
+
+    /* state of the load in progress, and what is left of the last one */
+    private LoadDiagnostics diagnostics;
+    private long lineNumber;
+    private RelationshipValidator.Report validationReport;
+
     public ProfilesLoader() {
         fields = new ArrayList<>();
         requiredFieldsToIndexMap = new HashMap<>();
     }
 
+    /* Rejects invalid rows and goes on instead of failing the load on the first one */
+    public ProfilesLoader setSkipInvalidRows(boolean skipInvalidRows) {
+        this.skipInvalidRows = skipInvalidRows;
+        return this;
+    }
+
+    /* How many problems, and how many parsed rows at DEBUG, are logged per load */
+    public ProfilesLoader setTraceLimit(int traceLimit) {
+        if (traceLimit < 0) {
+            throw new IllegalArgumentException("Trace limit cannot be negative");
+        }
+        this.traceLimit = traceLimit;
+        return this;
+    }
+
     public Map<UUID, Profile> loadProfilesFromCSV(String filename) throws IOException {
         return loadProfilesFromCSV(filename, 1);
     }
@@ -40,7 +65,11 @@ public class ProfilesLoader {
     public Map<UUID, Profile> loadProfilesFromCSV(String filename, int headerLine) throws IOException {
         Profile profile;
         Map<UUID, Profile> profiles = new HashMap<>();
+        diagnostics = new LoadDiagnostics(traceLimit);
+        validationReport = null;
 
+        long start = System.nanoTime();
+        long parseNanos = 0;
         try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
             String line;
             
@@ -48,35 +77,72 @@ public class ProfilesLoader {
             for (int i = 1; i < headerLine; i++) {
                 line = reader.readLine();
             }
+            lineNumber = headerLine;
 
             line = line.trim();
             setFieldsFromLine(line);
             setRequiredFieldsToIndexMap();
             
-            List<String> parts;
             while ((line = reader.readLine()) != null) {
+                lineNumber++;
                 line = line.trim();
                 if (line.isEmpty()) {
                     continue;
                 }
 
-                parts = parseLine(line);
-                if (parts.size() != fields.size()) {
-                    throw new IllegalArgumentException("Invalid CSV file structure. Line with a different number of fields than the header found.");
+                long parseStart = System.nanoTime();
+                diagnostics.addRows(1);
+                try {
+                    List<String> parts = parseLine(line);
+                    if (parts.size() != fields.size()) {
+                        diagnostics.rejectRow(LoadDiagnostics.RowProblem.FIELD_COUNT, "at line " + lineNumber, () -> parts.size() + " fields");
+                        throw new IllegalArgumentException("Invalid CSV file structure. Line with a different number of fields than the header found.");
+                    }
+                    if (diagnostics.traceRow()) {
+                        diagnostics.trace("Line " + lineNumber + " parsed as " + parts);
+                    }
+
+                    profile = createProfileFromLineParts(parts);
+                } catch (IllegalArgumentException e) {
+                    if (!skipInvalidRows) {
+                        throw e;
+                    }
+                    continue;
+                } finally {
+                    parseNanos += System.nanoTime() - parseStart;
                 }
 
-                profile = createProfileFromLineParts(parts);
-                logger.info("profile: " + profile + " successfully loaded.");
-
-                profiles.put(profile.getProfileID(), profile);
+                Profile replaced = profiles.put(profile.getProfileID(), profile);
+                if (replaced != null) {
+                    diagnostics.rejectRow(LoadDiagnostics.RowProblem.REPLACED, "of profile " + replaced.getProfileID(), () -> "line " + lineNumber);
+                }
             }
+        } finally {
+            diagnostics.addPhaseNanos(LoadDiagnostics.Phase.PARSE, parseNanos);
+            diagnostics.addPhaseNanos(LoadDiagnostics.Phase.READ, System.nanoTime() - start - parseNanos);
         }
         
-        cleanWrongRelationships(profiles);
+        validationReport = new RelationshipValidator(traceLimit).validate(profiles.values());
+        diagnostics.addPhaseNanos(LoadDiagnostics.Phase.VALIDATE, validationReport.getElapsedNanos());
+        diagnostics.addFriendshipsRemoved(validationReport.getRemoved());
+        if (validationReport.getRemoved() > 0) {
+            logger.warn(validationReport.toString());
+        }
+        logger.info(diagnostics.summary(filename));
 
         return profiles;
     }
 
+    /* Counters of the last load, kept when it failed */
+    public LoadDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /* Friendships removed from the last file loaded */
+    public RelationshipValidator.Report getValidationReport() {
+        return validationReport;
+    }
+
     private void setFieldsFromLine(String line) {
         List<String> tmpFields = parseLine(line);
         boolean valid = checkRequiredFields(tmpFields);
@@ -87,7 +153,7 @@ public class ProfilesLoader {
         fields = tmpFields;
     }
 
-    private static boolean checkRequiredFields(List<String> fields) {
+    static boolean checkRequiredFields(List<String> fields) {
         for (String field : requiredFields) {
             if (!fields.contains(field)) {
                 logger.error("Missing required field: " + field + " fields: " + fields);
@@ -106,7 +172,7 @@ public class ProfilesLoader {
         requiredFieldsToIndexMap = indexMap;
     }
 
-    private static int getFieldIndex(List<String> fields, String fieldName) {
+    static int getFieldIndex(List<String> fields, String fieldName) {
         for (int i = 0; i < fields.size(); i++) {
             if (fields.get(i).equals(fieldName)) {
                 return i;
@@ -116,12 +182,22 @@ public class ProfilesLoader {
     }
 
     private Profile createProfileFromLineParts(List<String> parts) {
-        int age = Integer.parseInt(parts.get(
-            requiredFieldsToIndexMap.get(ageFieldName)
-        ));
-        UUID profileID = UUID.fromString(parts.get(
-            requiredFieldsToIndexMap.get(profileIDFieldName)
-        ));
+        int age;
+        try {
+            age = Integer.parseInt(parts.get(
+                requiredFieldsToIndexMap.get(ageFieldName)
+            ));
+        } catch (NumberFormatException e) {
+            throw rejected(LoadDiagnostics.RowProblem.INVALID_AGE, e);
+        }
+        UUID profileID;
+        try {
+            profileID = UUID.fromString(parts.get(
+                requiredFieldsToIndexMap.get(profileIDFieldName)
+            ));
+        } catch (IllegalArgumentException e) {
+            throw rejected(LoadDiagnostics.RowProblem.INVALID_ID, e);
+        }
         String name = parts.get(
             requiredFieldsToIndexMap.get(nameFieldName)
         );
@@ -130,7 +206,17 @@ public class ProfilesLoader {
         );
         Map<UUID, Integer> friends = parseFriendshipData(parts, profileID);
 
-        return new Profile(profileID, name, age, gender, friends);
+        try {
+            return new Profile(profileID, name, age, gender, friends);
+        } catch (IllegalArgumentException e) {
+            throw rejected(LoadDiagnostics.RowProblem.INVALID_PROFILE, e);
+        }
+    }
+
+    /* Counts the row as rejected, returns e for the caller to throw */
+    private IllegalArgumentException rejected(LoadDiagnostics.RowProblem problem, IllegalArgumentException e) {
+        diagnostics.rejectRow(problem, "at line " + lineNumber, e::getMessage);
+        return e;
     }
 
     private Map<UUID, Integer> parseFriendshipData(List<String> parts, UUID profileID) {
@@ -145,65 +231,35 @@ public class ProfilesLoader {
 
             friendshipParts = friendship.split(":");
             if (friendshipParts.length != 2) {
-                logger.warn("Invalid friendship data format: " + friendship);
+                diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.INVALID_FORMAT, profileID.toString(), () -> friendship);
                 continue;
             }
 
+            UUID friendID;
+            int friendshipLevel;
             try {
-                UUID friendID = UUID.fromString(friendshipParts[0]);
-                int friendshipLevel = Integer.parseInt(friendshipParts[1]);
-                
-                if (friends.containsKey(friendID)) {
-                    logger.warn("Friendship relationship already exists for " + profileID + " and " + friendID);
-                }
-                friends.put(friendID, friendshipLevel);
-            } catch (Exception e) {
-                logger.error("Error adding friend to profile " + profileID + ": " + e.getMessage(), e);
+                friendID = UUID.fromString(friendshipParts[0]);
+            } catch (IllegalArgumentException e) {
+                diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.INVALID_ID, profileID.toString(), () -> friendship);
+                continue;
+            }
+            try {
+                friendshipLevel = Integer.parseInt(friendshipParts[1]);
+            } catch (NumberFormatException e) {
+                diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.INVALID_LEVEL, profileID.toString(), () -> friendship);
+                continue;
             }
-        }
-
-        return friends;
-    }
-
-    private void cleanWrongRelationships(Map<UUID, Profile> profiles) {
-        for (Profile profile : profiles.values()) {
-            Map<UUID, Integer> friends = profile.getFriends();
-            for (Map.Entry<UUID, Integer> entry : friends.entrySet()) {
-                UUID friendID = entry.getKey();
-                
-                // Remove friendships with profiles that don't exist
-                if (!profiles.containsKey(friendID)) {
-                    logger.warn("Profile " + profile.getProfileID() + " has a friendship relationship with a profile that doesn't exist: " + friendID);
-                    profile.removeFriend(friendID);
-                    continue;
-                }
-
-                // Remove unidirectional friendships
-                if (!profiles.get(friendID).getFriends().containsKey(profile.getProfileID())) {
-                    logger.warn("Profile " + profile.getProfileID() + " has an unidirectional friendship relationship with profile " + friendID);
-                    profile.removeFriend(friendID);
-                    continue;
-                }
-
-                // Remove self friendships
-                if (profile.getProfileID().equals(friendID)) {
-                    logger.warn("Profile " + profile.getProfileID() + " has a self friendship relationship with itself");
-                    profile.removeFriend(friendID);
-                    continue;
-                }
 
-                // Remove friendships with different friendship levels
-                if (!entry.getValue().equals(profiles.get(friendID).getFriends().get(profile.getProfileID()))) {
-                    logger.warn("Profile " + profile.getProfileID() + " has an asymmetrical friendship relationship with profile " + friendID);
-                    profile.removeFriend(friendID);
-                    continue;
-                }
+            if (friends.put(friendID, friendshipLevel) != null) {
+                diagnostics.malformedFriendship(LoadDiagnostics.FriendshipProblem.DUPLICATE, profileID.toString(), friendID::toString);
             }
         }
+
+        return friends;
     }
     
     // this is ok now
-    private static List<String> parseLine(String line) {
+    static List<String> parseLine(String line) {
         List<String> fields = new ArrayList<>();
         
         StringBuilder currentField = new StringBuilder();
@@ -234,7 +290,6 @@ public class ProfilesLoader {
         }
         
         fields.add(currentField.toString().trim());
-        logger.debug("Line " + line + " parsed as " + fields);
 
         return fields;
     }
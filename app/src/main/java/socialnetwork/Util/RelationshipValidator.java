@@ -0,0 +1,242 @@
+package socialnetwork.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import socialnetwork.Graph.IdDictionary;
+import socialnetwork.Model.Profile;
+
+/**
+ * Checks the friendships of profiles that are not stored in a graph yet and
+ * removes the ones a {@code ProfileGraph} cannot hold: friendships with a
+ * profile that does not exist, with the profile itself, that the friend
+ * does not list back, or that the friend lists back with another level.
+ *
+ * The friends of every profile are read once into CSR rows sorted by
+ * friend, so checking a friendship is a binary search in the friend's row
+ * instead of copying its friends map. Rows are built, checked and repaired
+ * in parallel, one profile per task, and the problems found are returned as
+ * a single {@link Report} rather than logged one by one.
+ *
+ * The result does not depend on the order the profiles are checked in: a
+ * friendship is kept exactly when both profiles exist, are different and
+ * list each other with the same level.
+ */
+public class RelationshipValidator {
+    private static final int DEFAULT_SAMPLE_SIZE = 10;
+
+    public enum Problem {
+        MISSING_FRIEND("with a profile that does not exist"),
+        SELF_FRIENDSHIP("with the profile itself"),
+        ONE_WAY("not listed back"),
+        ASYMMETRIC_LEVEL("listed back with another level");
+
+        private final String description;
+
+        Problem(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Friendships checked and removed by one validation, per problem, with
+     * the first few offending friendships of each problem in profile order.
+     */
+    public static final class Report {
+        private final int profiles;
+        private final long friendships;
+        private final Map<Problem, Long> counts;
+        private final Map<Problem, List<String>> samples;
+        private final long elapsedNanos;
+
+        private Report(int profiles, long friendships, Map<Problem, Long> counts, Map<Problem, List<String>> samples, long elapsedNanos) {
+            this.profiles = profiles;
+            this.friendships = friendships;
+            this.counts = counts;
+            this.samples = samples;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getProfiles() {
+            return profiles;
+        }
+
+        /* Friendships checked, one per direction */
+        public long getFriendships() {
+            return friendships;
+        }
+
+        public long getCount(Problem problem) {
+            return counts.get(problem);
+        }
+
+        public long getRemoved() {
+            long total = 0;
+            for (long count : counts.values()) {
+                total += count;
+            }
+            return total;
+        }
+
+        /* Offending friendships as "profile -> friend", at most the sample size */
+        public List<String> getSample(Problem problem) {
+            return Collections.unmodifiableList(samples.get(problem));
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(
+                "Checked %d friendships of %d profiles in %d ms, removed %d",
+                friendships, profiles, elapsedNanos / 1_000_000, getRemoved()
+            ));
+            for (Problem problem : Problem.values()) {
+                long count = counts.get(problem);
+                if (count == 0) {
+                    continue;
+                }
+                report.append(String.format("%n  %d %s, e.g. %s", count, problem.description, String.join(", ", samples.get(problem))));
+            }
+            return report.toString();
+        }
+    }
+
+    private final int sampleSize;
+
+    public RelationshipValidator() {
+        this(DEFAULT_SAMPLE_SIZE);
+    }
+
+    public RelationshipValidator(int sampleSize) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("Sample size cannot be negative");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /* Removes the invalid friendships of profiles, none of which may be stored in a graph */
+    public Report validate(Collection<Profile> profiles) {
+        long start = System.nanoTime();
+
+        Profile[] nodes = profiles.toArray(new Profile[0]);
+        int n = nodes.length;
+        long[] idHigh = new long[n];
+        long[] idLow = new long[n];
+        for (int v = 0; v < n; v++) {
+            idHigh[v] = nodes[v].getProfileID().getMostSignificantBits();
+            idLow[v] = nodes[v].getProfileID().getLeastSignificantBits();
+        }
+        IdDictionary nodeOf = IdDictionary.of(idHigh, idLow);
+
+        // One copy of every friends map, its size gives the row lengths
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<UUID, Integer>[] friends = new Map[n];
+        IntStream.range(0, n).parallel().forEach(v -> friends[v] = nodes[v].getFriends());
+
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = Math.addExact(offsets[v], friends[v].size());
+        }
+        int edges = offsets[n];
+
+        // Rows sorted by friend node, friends that do not exist (-1) first
+        int[] targets = new int[edges];
+        Integer[] levels = new Integer[edges];
+        UUID[] friendIDs = new UUID[edges];
+        IntStream.range(0, n).parallel().forEach(v -> {
+            int degree = friends[v].size();
+            UUID[] ids = new UUID[degree];
+            Integer[] rowLevels = new Integer[degree];
+            long[] keys = new long[degree];
+            int k = 0;
+            for (Map.Entry<UUID, Integer> entry : friends[v].entrySet()) {
+                ids[k] = entry.getKey();
+                rowLevels[k] = entry.getValue();
+                keys[k] = ((long) nodeOf.get(entry.getKey()) << 32) | k;
+                k++;
+            }
+            friends[v] = null;
+
+            Arrays.sort(keys);
+            for (k = 0; k < degree; k++) {
+                int slot = offsets[v] + k;
+                int index = (int) keys[k];
+                targets[slot] = (int) (keys[k] >> 32);
+                levels[slot] = rowLevels[index];
+                friendIDs[slot] = ids[index];
+            }
+        });
+
+        // Problem of every friendship, checked against the friend's row
+        byte[] problems = new byte[edges];
+        IntStream.range(0, n).parallel().forEach(v -> {
+            for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+                Problem problem = check(v, targets[slot], levels[slot], offsets, targets, levels);
+                problems[slot] = (byte) (problem == null ? 0 : problem.ordinal() + 1);
+            }
+        });
+
+        // Bulk repair, every profile only touches its own friends
+        IntStream.range(0, n).parallel().forEach(v -> {
+            for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+                if (problems[slot] != 0) {
+                    nodes[v].removeFriend(friendIDs[slot]);
+                }
+            }
+        });
+
+        Map<Problem, Long> counts = new EnumMap<>(Problem.class);
+        Map<Problem, List<String>> samples = new EnumMap<>(Problem.class);
+        long[] totals = new long[Problem.values().length];
+        for (Problem problem : Problem.values()) {
+            samples.put(problem, new ArrayList<>());
+        }
+        for (int v = 0; v < n; v++) {
+            for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+                if (problems[slot] == 0) {
+                    continue;
+                }
+                Problem problem = Problem.values()[problems[slot] - 1];
+                totals[problem.ordinal()]++;
+                List<String> sample = samples.get(problem);
+                if (sample.size() < sampleSize) {
+                    sample.add(nodes[v].getProfileID() + " -> " + friendIDs[slot]);
+                }
+            }
+        }
+        for (Problem problem : Problem.values()) {
+            counts.put(problem, totals[problem.ordinal()]);
+        }
+
+        return new Report(n, edges, counts, samples, System.nanoTime() - start);
+    }
+
+    private static Problem check(int node, int friend, Integer level, int[] offsets, int[] targets, Integer[] levels) {
+        if (friend < 0) {
+            return Problem.MISSING_FRIEND;
+        }
+        if (friend == node) {
+            return Problem.SELF_FRIENDSHIP;
+        }
+
+        int back = Arrays.binarySearch(targets, offsets[friend], offsets[friend + 1], node);
+        if (back < 0) {
+            return Problem.ONE_WAY;
+        }
+        if (!Objects.equals(level, levels[back])) {
+            return Problem.ASYMMETRIC_LEVEL;
+        }
+        return null;
+    }
+}
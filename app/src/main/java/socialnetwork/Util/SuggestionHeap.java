@@ -0,0 +1,149 @@
+package socialnetwork.Util;
+
+import java.util.Arrays;
+
+import socialnetwork.Graph.GraphSnapshot;
+
+/**
+ * Bounded heap that keeps the best {@code k} suggestion candidates of a
+ * query, ranked exactly like {@link Suggestion#compareTo}.
+ *
+ * Candidates are packed into a single long so nothing is allocated per
+ * candidate: the friendship level and the first character of the name
+ * (inverted, so alphabetically first ranks higher) sit in the high bits and
+ * the node in the low 32 bits. Two keys whose high bits differ are ordered by
+ * a plain long comparison; only ties fall back to the full name, the age
+ * difference and the profile id.
+ *
+ * The heap is a min-heap on that order, so its root is the worst candidate
+ * kept so far and is the one replaced when a better candidate shows up.
+ */
+public class SuggestionHeap {
+    private long[] keys;
+    private int size;
+    private int capacity;
+
+    private GraphSnapshot graph;
+    private int receiverAge;
+
+    public SuggestionHeap() {
+        keys = new long[16];
+    }
+
+    /* Empties the heap and prepares it for a query of the given receiver */
+    public void reset(GraphSnapshot graph, int receiver, int capacity) {
+        this.graph = graph;
+        this.receiverAge = graph.ageOf(receiver);
+        this.capacity = capacity;
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* Offers a candidate, returns true if it was kept */
+    public boolean offer(int node, int friendshipLevel) {
+        if (capacity <= 0) {
+            return false;
+        }
+
+        long key = pack(node, friendshipLevel);
+        if (size < capacity) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, (int) Math.min(capacity, 2L * size));
+            }
+            keys[size] = key;
+            siftUp(size++);
+            return true;
+        }
+
+        if (compare(key, keys[0]) <= 0) {
+            return false;
+        }
+
+        keys[0] = key;
+        siftDown(0);
+        return true;
+    }
+
+    /*
+    Empties the heap into nodes, best candidate first, and returns how many
+    nodes were written
+    */
+    public int drainInto(int[] nodes) {
+        int count = size;
+        while (size > 0) {
+            nodes[size - 1] = (int) keys[0];
+            keys[0] = keys[--size];
+            siftDown(0);
+        }
+        graph = null;
+        return count;
+    }
+
+    private long pack(int node, int friendshipLevel) {
+        String name = graph.nameOf(node);
+        long firstChar = name.isEmpty() ? 0 : name.charAt(0);
+        return ((long) friendshipLevel << 48) | ((0xFFFFL - firstChar) << 32) | (node & 0xFFFFFFFFL);
+    }
+
+    /* Same order as Suggestion.compareTo, the greater key is the better one */
+    private int compare(long key1, long key2) {
+        int packedComparison = Long.compare(key1 >>> 32, key2 >>> 32);
+        if (packedComparison != 0) {
+            return packedComparison;
+        }
+
+        int node1 = (int) key1;
+        int node2 = (int) key2;
+        int alphabeticalComparison = graph.nameOf(node1).compareTo(graph.nameOf(node2));
+        if (alphabeticalComparison != 0) {
+            return -alphabeticalComparison;
+        }
+
+        int ageComparison = -Integer.compare(
+            Math.abs(graph.ageOf(node1) - receiverAge),
+            Math.abs(graph.ageOf(node2) - receiverAge)
+        );
+        if (ageComparison != 0) {
+            return ageComparison;
+        }
+
+        return graph.idOf(node1).compareTo(graph.idOf(node2));
+    }
+
+    private void siftUp(int i) {
+        long key = keys[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (compare(key, keys[parent]) >= 0) {
+                break;
+            }
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        keys[i] = key;
+    }
+
+    private void siftDown(int i) {
+        if (size == 0) {
+            return;
+        }
+
+        long key = keys[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && compare(keys[child + 1], keys[child]) < 0) {
+                child++;
+            }
+            if (compare(key, keys[child]) <= 0) {
+                break;
+            }
+            keys[i] = keys[child];
+            i = child;
+        }
+        keys[i] = key;
+    }
+}
@@ -0,0 +1,155 @@
+package socialnetwork.Graph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressedAdjacencyTest {
+    /* Around the block size, so rows with one, two and many blocks and a last partial one are all there */
+    private static final int[] DEGREES = {0, 1, 2, 63, 64, 65, 127, 128, 129, 500, 3000};
+
+    private int[] offsets;
+    private int[] neighbors;
+    private byte[] levels;
+
+    /* Rows with small and huge gaps, friends below and above the node, and levels of every width */
+    private void randomRows(Random random, int nodeCount) {
+        offsets = new int[nodeCount + 1];
+        int[][] rows = new int[nodeCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            int degree = DEGREES[node % DEGREES.length];
+            int bound = random.nextBoolean() ? 4 * degree + 10 : Integer.MAX_VALUE;
+            rows[node] = random.ints(0, bound).distinct().limit(degree).sorted().toArray();
+            offsets[node + 1] = offsets[node] + degree;
+        }
+        neighbors = new int[offsets[nodeCount]];
+        levels = new byte[neighbors.length];
+        for (int node = 0; node < nodeCount; node++) {
+            System.arraycopy(rows[node], 0, neighbors, offsets[node], rows[node].length);
+            int maxLevel = 1 << random.nextInt(8);
+            for (int slot = offsets[node]; slot < offsets[node + 1]; slot++) {
+                levels[slot] = (byte) random.nextInt(Math.min(maxLevel, 128));
+            }
+        }
+    }
+
+    private NeighborCursor plain(int node) {
+        NeighborCursor cursor = new NeighborCursor();
+        cursor.reset(neighbors, levels, offsets[node], offsets[node + 1]);
+        return cursor;
+    }
+
+    private static NeighborCursor compressed(CompressedAdjacency adjacency, int node) {
+        NeighborCursor cursor = new NeighborCursor();
+        cursor.reset(adjacency, node);
+        return cursor;
+    }
+
+    @Test
+    void readsBackEveryRow() {
+        Random random = new Random(21);
+        randomRows(random, 200);
+        CompressedAdjacency adjacency = CompressedAdjacency.of(offsets, neighbors, levels, 200);
+
+        for (int node = 0; node < 200; node++) {
+            int start = offsets[node];
+            int degree = offsets[node + 1] - start;
+            assertEquals(degree, adjacency.degree(node));
+            for (int k = 0; k < degree; k++) {
+                assertEquals(neighbors[start + k], adjacency.neighbor(node, k));
+                assertEquals(levels[start + k], adjacency.level(node, k));
+                assertEquals(k, adjacency.find(node, neighbors[start + k]));
+            }
+
+            NeighborCursor cursor = compressed(adjacency, node);
+            assertEquals(degree, cursor.size());
+            for (int k = 0; k < degree; k++) {
+                cursor.next();
+                assertEquals(neighbors[start + k], cursor.neighbor());
+                assertEquals(levels[start + k], cursor.level());
+            }
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    void findsTheInsertionPointOfMissingFriends() {
+        Random random = new Random(22);
+        randomRows(random, 100);
+        CompressedAdjacency adjacency = CompressedAdjacency.of(offsets, neighbors, levels, 100);
+
+        for (int node = 0; node < 100; node++) {
+            int[] row = Arrays.copyOfRange(neighbors, offsets[node], offsets[node + 1]);
+            for (int i = 0; i < 200; i++) {
+                int friend = random.nextBoolean() ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(4 * row.length + 10);
+                assertEquals(Arrays.binarySearch(row, friend), adjacency.find(node, friend), "node " + node + " friend " + friend);
+            }
+        }
+    }
+
+    @Test
+    void skipToLandsWhereAPlainRowDoes() {
+        Random random = new Random(23);
+        randomRows(random, 100);
+        CompressedAdjacency adjacency = CompressedAdjacency.of(offsets, neighbors, levels, 100);
+
+        for (int node = 0; node < 100; node++) {
+            int degree = offsets[node + 1] - offsets[node];
+            int last = degree == 0 ? 0 : neighbors[offsets[node + 1] - 1];
+            for (int run = 0; run < 20; run++) {
+                NeighborCursor expected = plain(node);
+                NeighborCursor actual = compressed(adjacency, node);
+                // Some runs step through a few friends first, skips then start mid-block
+                for (int steps = random.nextInt(3); steps > 0; steps--) {
+                    assertEquals(expected.next(), actual.next());
+                }
+                int target = 0;
+                while (true) {
+                    target = (int) Math.min(Integer.MAX_VALUE, (long) target + random.nextInt(last / 8 + 1) + 1);
+                    boolean found = expected.skipTo(target);
+                    assertEquals(found, actual.skipTo(target), "node " + node + " target " + target);
+                    if (!found) {
+                        break;
+                    }
+                    assertEquals(expected.neighbor(), actual.neighbor());
+                    assertEquals(expected.level(), actual.level());
+                    // Reading on after a skip goes on from there
+                    if (random.nextBoolean()) {
+                        boolean more = expected.next();
+                        assertEquals(more, actual.next());
+                        if (!more) {
+                            break;
+                        }
+                        assertEquals(expected.neighbor(), actual.neighbor());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void compressedGraphKeepsItsRowsThroughWrites() {
+        ProfileGraph graph = TestGraphs.randomGraph(new Random(24), 500, 1000);
+        String plain = TestGraphs.dump(graph.snapshot());
+
+        graph.setCompressedAdjacency(true);
+        assertTrue(graph.snapshot().isCompressed());
+        assertEquals(plain, TestGraphs.dump(graph.snapshot()));
+
+        // Writes land in the overlay and are folded into a new compressed base
+        TestGraphs.randomWrites(graph, new Random(25), 3000);
+        String written = TestGraphs.dump(graph.snapshot());
+        graph.compact();
+        assertTrue(graph.snapshot().isCompressed());
+        assertEquals(written, TestGraphs.dump(graph.snapshot()));
+
+        graph.setCompressedAdjacency(false);
+        assertFalse(graph.snapshot().isCompressed());
+        assertEquals(written, TestGraphs.dump(graph.snapshot()));
+    }
+}
@@ -0,0 +1,133 @@
+package socialnetwork.Graph;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraphFileTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        // Random writes remove profiles, so the file renumbers the rest
+        Random random = new Random(1);
+        ProfileGraph graph = TestGraphs.randomGraph(random, 1000, 2000);
+        TestGraphs.randomWrites(graph, random, 2000);
+        Path file = directory.resolve("graph.bin");
+
+        GraphFile.write(graph.snapshot(), file);
+        ProfileGraph read = GraphFile.read(file);
+
+        assertEquals(TestGraphs.dump(graph.snapshot()), TestGraphs.dump(read.snapshot()));
+        assertEquals(graph.snapshot().size(), read.snapshot().nodeCount());
+        assertEquals(graph.snapshot().version(), read.snapshot().version());
+        assertFalse(Files.exists(directory.resolve("graph.bin.tmp")));
+    }
+
+    @Test
+    void graphReadBackTakesNewWrites() throws IOException {
+        ProfileGraph graph = TestGraphs.randomGraph(new Random(2), 300, 600);
+        Path file = directory.resolve("graph.bin");
+        GraphFile.write(graph.snapshot(), file);
+        ProfileGraph read = GraphFile.read(file);
+
+        // Both graphs go through the same writes from here, by id
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            GraphSnapshot snapshot = graph.snapshot();
+            int node1 = random.nextInt(snapshot.nodeCount());
+            int node2 = random.nextInt(snapshot.nodeCount());
+            if (!snapshot.contains(node1) || !snapshot.contains(node2) || node1 == node2) {
+                continue;
+            }
+            int level = 1 + random.nextInt(5);
+            int read1 = read.indexOf(snapshot.idOf(node1));
+            int read2 = read.indexOf(snapshot.idOf(node2));
+            if (snapshot.areFriends(node1, node2)) {
+                graph.disconnect(node1, node2);
+                read.disconnect(read1, read2);
+            } else {
+                graph.connect(node1, node2, level);
+                read.connect(read1, read2, level);
+            }
+        }
+
+        assertEquals(TestGraphs.dump(graph.snapshot()), TestGraphs.dump(read.snapshot()));
+    }
+
+    @Test
+    void rejectsDamagedFiles() throws IOException {
+        ProfileGraph graph = TestGraphs.randomGraph(new Random(4), 200, 400);
+        Path file = directory.resolve("graph.bin");
+        GraphFile.write(graph.snapshot(), file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        byte[] flipped = bytes.clone();
+        flipped[flipped.length - 9] ^= 1;
+        Files.write(file, flipped);
+        assertEquals("Invalid graph file: checksum mismatch", assertThrows(IllegalArgumentException.class, () -> GraphFile.read(file)).getMessage());
+
+        byte[] magic = bytes.clone();
+        magic[0] ^= 1;
+        Files.write(file, magic);
+        assertEquals("Invalid graph file: bad magic number", assertThrows(IllegalArgumentException.class, () -> GraphFile.read(file)).getMessage());
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 8));
+        assertThrows(IllegalArgumentException.class, () -> GraphFile.read(file));
+    }
+
+    @Test
+    void mappedGraphReadsLikeTheGraphReadBack() throws IOException {
+        ProfileGraph graph = TestGraphs.randomGraph(new Random(5), 1000, 2000);
+        Path file = directory.resolve("graph.bin");
+        GraphFile.write(graph.snapshot(), file);
+
+        ProfileGraph read = GraphFile.read(file);
+        ProfileGraph mapped = GraphFile.map(file);
+
+        assertTrue(mapped.snapshot().isMapped());
+        assertEquals(TestGraphs.dump(read.snapshot()), TestGraphs.dump(mapped.snapshot()));
+        assertEquals(read.snapshot().version(), mapped.snapshot().version());
+        for (UUID id : read.snapshot().profileIDs()) {
+            assertEquals(read.indexOf(id), mapped.indexOf(id));
+        }
+        assertEquals(-1, mapped.indexOf(TestGraphs.randomId(new Random(7))));
+    }
+
+    @Test
+    void mappedGraphTakesWritesAndCompactsIntoANewFile() throws IOException {
+        ProfileGraph graph = TestGraphs.randomGraph(new Random(6), 500, 1000);
+        Path file = directory.resolve("graph.bin");
+        GraphFile.write(graph.snapshot(), file);
+        ProfileGraph read = GraphFile.read(file);
+        ProfileGraph mapped = GraphFile.map(file);
+
+        // The same random writes by node give the same graph, nodes are numbered the same in both
+        for (int round = 0; round < 3; round++) {
+            TestGraphs.randomWrites(read, new Random(round), 3000);
+            TestGraphs.randomWrites(mapped, new Random(round), 3000);
+            assertEquals(TestGraphs.dump(read.snapshot()), TestGraphs.dump(mapped.snapshot()));
+
+            mapped.compact();
+            assertTrue(mapped.snapshot().isMapped());
+            assertEquals(TestGraphs.dump(read.snapshot()), TestGraphs.dump(mapped.snapshot()));
+        }
+
+        // A mapped graph saves like any other
+        Path saved = directory.resolve("saved.bin");
+        GraphFile.write(mapped.snapshot(), saved);
+        assertEquals(TestGraphs.dump(read.snapshot()), TestGraphs.dump(GraphFile.map(saved).snapshot()));
+    }
+}
@@ -0,0 +1,137 @@
+package socialnetwork.Graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.randomId;
+
+class IdDictionaryTest {
+    @Test
+    void removedIdCanBePutAgain() {
+        Random random = new Random(20);
+        UUID id = randomId(random);
+        UUID other = randomId(random);
+        IdDictionary dictionary = new IdDictionary();
+
+        assertEquals(-1, dictionary.putIfAbsent(id, 5));
+        assertEquals(5, dictionary.putIfAbsent(id, 6));
+        assertEquals(5, dictionary.remove(id));
+        assertEquals(-1, dictionary.get(id));
+        assertEquals(-1, dictionary.remove(id));
+        assertEquals(0, dictionary.size());
+
+        // The tombstone only hides id, other ids still go past it
+        assertEquals(-1, dictionary.putIfAbsent(other, 8));
+        assertEquals(-1, dictionary.putIfAbsent(id, 7));
+        assertEquals(7, dictionary.get(id));
+        assertEquals(8, dictionary.get(other));
+        assertEquals(2, dictionary.size());
+
+        // Cycling the same id reuses its slot, so it never fills the table
+        for (int node = 0; node < 1000; node++) {
+            assertEquals(7 + node, dictionary.remove(id));
+            assertEquals(-1, dictionary.putIfAbsent(id, 8 + node));
+        }
+        assertEquals(1007, dictionary.get(id));
+        assertEquals(8, dictionary.get(other));
+    }
+
+    @Test
+    void keepsEveryIdAcrossRebuilds() {
+        Random random = new Random(21);
+        IdDictionary dictionary = new IdDictionary(1);
+        List<UUID> live = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+
+        // Adds and removals past the 2/3 load of each table size, tombstones included
+        for (int node = 0; node < 5000; node++) {
+            UUID id = randomId(random);
+            assertEquals(-1, dictionary.putIfAbsent(id, node));
+            live.add(id);
+            if (random.nextInt(3) == 0) {
+                UUID gone = live.remove(random.nextInt(live.size()));
+                assertTrue(dictionary.remove(gone) >= 0);
+                removed.add(gone);
+            }
+        }
+
+        assertEquals(live.size(), dictionary.size());
+        for (UUID id : live) {
+            assertTrue(dictionary.contains(id), id.toString());
+        }
+        for (UUID id : removed) {
+            assertEquals(-1, dictionary.get(id));
+        }
+    }
+
+    @Test
+    void ofRejectsDuplicateIds() {
+        Random random = new Random(22);
+        UUID[] ids = new UUID[100];
+        for (int node = 0; node < ids.length; node++) {
+            ids[node] = randomId(random);
+        }
+        IdDictionary dictionary = IdDictionary.of(ids);
+        for (int node = 0; node < ids.length; node++) {
+            assertEquals(node, dictionary.get(ids[node]));
+        }
+
+        ids[70] = ids[30];
+        assertThrows(IllegalArgumentException.class, () -> IdDictionary.of(ids));
+    }
+
+    @Test
+    void rejectsSizesNoTableHolds() {
+        assertThrows(IllegalArgumentException.class, () -> new IdDictionary((1 << 28) + 1));
+        assertThrows(IllegalArgumentException.class, () -> new IdDictionary(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void readersNeverSeeTornEntriesWhileTheTableGrows() throws InterruptedException {
+        Random random = new Random(23);
+        UUID[] ids = new UUID[200_000];
+        for (int node = 0; node < ids.length; node++) {
+            ids[node] = randomId(random);
+        }
+        IdDictionary dictionary = new IdDictionary();
+        AtomicInteger published = new AtomicInteger();
+        AtomicInteger wrong = new AtomicInteger();
+
+        Thread reader = new Thread(() -> {
+            Random picks = new Random(24);
+            while (published.get() < ids.length) {
+                int count = published.get();
+                if (count == 0) {
+                    continue;
+                }
+                // Every id put so far has its own node, the next one may or may not be there yet
+                int node = picks.nextInt(count);
+                if (dictionary.get(ids[node]) != node) {
+                    wrong.incrementAndGet();
+                }
+                int next = count < ids.length ? dictionary.get(ids[count]) : -1;
+                if (next != -1 && next != count) {
+                    wrong.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+
+        for (int node = 0; node < ids.length; node++) {
+            dictionary.putIfAbsent(ids[node], node);
+            published.set(node + 1);
+        }
+        reader.join();
+
+        assertEquals(0, wrong.get());
+        assertEquals(ids.length, dictionary.size());
+    }
+}
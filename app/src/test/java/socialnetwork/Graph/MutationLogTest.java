@@ -0,0 +1,119 @@
+package socialnetwork.Graph;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MutationLogTest {
+    @TempDir
+    Path directory;
+
+    /* Opens a log on graph, as ProfilesManager.openStore does */
+    private MutationLog attach(ProfileGraph graph, Path path) throws IOException {
+        MutationLog log = MutationLog.open(path, 0);
+        graph.addListener(log);
+        return log;
+    }
+
+    private static ProfileGraph restore(Path base, Path log) throws IOException {
+        ProfileGraph graph = GraphFile.read(base);
+        try (MutationLog reopened = MutationLog.open(log, 0)) {
+            reopened.replay(graph);
+        }
+        return graph;
+    }
+
+    @Test
+    void replayRestoresTheWritesSinceTheBase() throws IOException {
+        Random random = new Random(1);
+        ProfileGraph graph = TestGraphs.randomGraph(random, 300, 600);
+        Path base = directory.resolve("graph.bin");
+        Path logFile = directory.resolve("graph.log");
+        GraphFile.write(graph.snapshot(), base);
+
+        try (MutationLog log = attach(graph, logFile)) {
+            TestGraphs.randomWrites(graph, random, 3000);
+            log.sync();
+        }
+
+        ProfileGraph restored = restore(base, logFile);
+        assertEquals(TestGraphs.dump(graph.snapshot()), TestGraphs.dump(restored.snapshot()));
+        assertEquals(graph.snapshot().version(), restored.snapshot().version());
+    }
+
+    @Test
+    void replaySkipsWritesTheGraphHolds() throws IOException {
+        Random random = new Random(2);
+        ProfileGraph graph = TestGraphs.randomGraph(random, 300, 600);
+        Path logFile = directory.resolve("graph.log");
+        Path base = directory.resolve("graph.bin");
+
+        try (MutationLog log = attach(graph, logFile)) {
+            TestGraphs.randomWrites(graph, random, 1000);
+            // A base saved halfway already holds the writes logged so far
+            GraphFile.write(graph.snapshot(), base);
+            TestGraphs.randomWrites(graph, random, 1000);
+            log.sync();
+        }
+
+        ProfileGraph restored = GraphFile.read(base);
+        long baseVersion = restored.snapshot().version();
+        try (MutationLog log = MutationLog.open(logFile, 0)) {
+            assertEquals(graph.snapshot().version() - baseVersion, log.replay(restored));
+        }
+        assertEquals(TestGraphs.dump(graph.snapshot()), TestGraphs.dump(restored.snapshot()));
+    }
+
+    @Test
+    void truncateKeepsOnlyNewerWrites() throws IOException {
+        Random random = new Random(3);
+        ProfileGraph graph = TestGraphs.randomGraph(random, 300, 600);
+        Path logFile = directory.resolve("graph.log");
+        Path base = directory.resolve("graph.bin");
+
+        try (MutationLog log = attach(graph, logFile)) {
+            TestGraphs.randomWrites(graph, random, 2000);
+            log.sync();
+            GraphFile.write(graph.snapshot(), base);
+            long before = Files.size(logFile);
+            log.truncate(graph.snapshot().version());
+            assertTrue(Files.size(logFile) < before);
+
+            // The log goes on appending to the new file
+            TestGraphs.randomWrites(graph, random, 500);
+            log.sync();
+        }
+
+        ProfileGraph restored = restore(base, logFile);
+        assertEquals(TestGraphs.dump(graph.snapshot()), TestGraphs.dump(restored.snapshot()));
+    }
+
+    @Test
+    void tornRecordIsCutOff() throws IOException {
+        Random random = new Random(4);
+        ProfileGraph graph = TestGraphs.randomGraph(random, 200, 400);
+        Path base = directory.resolve("graph.bin");
+        Path logFile = directory.resolve("graph.log");
+        GraphFile.write(graph.snapshot(), base);
+
+        try (MutationLog log = attach(graph, logFile)) {
+            TestGraphs.randomWrites(graph, random, 500);
+            log.sync();
+        }
+        long size = Files.size(logFile);
+        // Half a record, as a crash in the middle of a write leaves it
+        Files.write(logFile, new byte[] {40, 0, 0, 0, 3, 1, 2}, StandardOpenOption.APPEND);
+
+        ProfileGraph restored = restore(base, logFile);
+        assertEquals(size, Files.size(logFile));
+        assertEquals(TestGraphs.dump(graph.snapshot()), TestGraphs.dump(restored.snapshot()));
+    }
+}
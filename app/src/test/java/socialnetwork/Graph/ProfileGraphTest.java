@@ -0,0 +1,130 @@
+package socialnetwork.Graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Model.Gender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.dump;
+import static socialnetwork.Graph.TestGraphs.randomGraph;
+import static socialnetwork.Graph.TestGraphs.randomId;
+import static socialnetwork.Graph.TestGraphs.randomWrites;
+
+class ProfileGraphTest {
+    @Test
+    void snapshotIsNotChangedByLaterWrites() {
+        Random random = new Random(7);
+        ProfileGraph graph = randomGraph(random, 500, 1000);
+        List<GraphSnapshot> snapshots = new ArrayList<>();
+        List<String> dumps = new ArrayList<>();
+
+        for (int round = 0; round < 6; round++) {
+            GraphSnapshot snapshot = graph.snapshot();
+            snapshots.add(snapshot);
+            dumps.add(dump(snapshot));
+            randomWrites(graph, random, 2000);
+            // Folding the overlay into a new base must not show through older snapshots either
+            if (round % 2 == 1) {
+                graph.compact();
+            }
+        }
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertEquals(dumps.get(i), dump(snapshots.get(i)), "snapshot " + i);
+        }
+    }
+
+    @Test
+    void compactionKeepsTheGraph() {
+        Random random = new Random(3);
+        ProfileGraph graph = randomGraph(random, 400, 800);
+        // Removed profiles become markers of the new base
+        randomWrites(graph, random, 800);
+        String before = dump(graph.snapshot());
+        long version = graph.snapshot().version();
+
+        graph.compact();
+
+        assertEquals(before, dump(graph.snapshot()));
+        assertEquals(version, graph.snapshot().version());
+    }
+
+    @Test
+    void writesAreVersionedAndBothSidesChangeTogether() {
+        Random random = new Random(8);
+        ProfileGraph graph = ProfileGraph.empty();
+        int ana = graph.addNode(randomId(random), "Ana", 30, Gender.FEMALE);
+        int bob = graph.addNode(randomId(random), "Bob", 31, Gender.MALE);
+        GraphSnapshot before = graph.snapshot();
+
+        graph.connect(ana, bob, 3);
+        GraphSnapshot after = graph.snapshot();
+
+        assertEquals(before.version() + 1, after.version());
+        assertFalse(before.areFriends(ana, bob));
+        assertTrue(after.areFriends(ana, bob));
+        assertTrue(after.areFriends(bob, ana));
+        assertEquals(3, after.level(bob, after.findNeighbor(bob, ana)));
+        assertThrows(IllegalArgumentException.class, () -> graph.connect(bob, ana, 1));
+    }
+
+    @Test
+    void removedProfileKeepsItsNodeInOlderSnapshots() {
+        Random random = new Random(9);
+        ProfileGraph graph = ProfileGraph.empty();
+        UUID id = randomId(random);
+        int ana = graph.addNode(id, "Ana", 30, Gender.FEMALE);
+        int bob = graph.addNode(randomId(random), "Bob", 31, Gender.MALE);
+        graph.connect(ana, bob, 2);
+        GraphSnapshot before = graph.snapshot();
+
+        graph.removeNode(ana);
+        GraphSnapshot after = graph.snapshot();
+
+        assertTrue(before.contains(ana));
+        assertEquals(1, before.degree(bob));
+        assertFalse(after.contains(ana));
+        assertEquals(0, after.degree(bob));
+        assertEquals(-1, graph.indexOf(id));
+        // Node ids are not reused, the profile can be added again under a new one
+        assertEquals(2, graph.addNode(id, "Ana", 30, Gender.FEMALE));
+    }
+
+    @Test
+    void readersNeverSeeHalfAWrite() throws InterruptedException {
+        ProfileGraph graph = randomGraph(new Random(11), 300, 600);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> randomWrites(graph, new Random(12), 30000));
+        writer.start();
+
+        NeighborCursor cursor = new NeighborCursor();
+        while (writer.isAlive() && failure.get() == null) {
+            GraphSnapshot snapshot = graph.snapshot();
+            for (int node = 0; node < snapshot.nodeCount(); node++) {
+                if (!snapshot.contains(node)) {
+                    continue;
+                }
+                snapshot.neighbors(node, cursor);
+                while (cursor.next()) {
+                    int friend = cursor.neighbor();
+                    if (!snapshot.contains(friend) || snapshot.findNeighbor(friend, node) < 0) {
+                        failure.set("version " + snapshot.version() + ": " + node + " -> " + friend + " is one-sided");
+                    }
+                }
+            }
+        }
+        writer.join();
+
+        assertNull(failure.get());
+    }
+}
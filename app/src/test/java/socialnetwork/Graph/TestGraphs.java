@@ -0,0 +1,91 @@
+package socialnetwork.Graph;
+
+import java.util.Random;
+import java.util.UUID;
+
+import socialnetwork.Model.Gender;
+
+/**
+ * Random graphs and writes shared by the tests. Everything, ids included,
+ * is drawn from the given generator, so the same seed always gives the
+ * same graph and the same writes.
+ */
+public final class TestGraphs {
+    /* Few names, so every tie breaker of the suggestion order is reached */
+    private static final String[] NAMES = {"Ana", "Anna", "Bob", "Bo", "Zoe", "Ana Maria", "bob"};
+
+    private TestGraphs() {
+    }
+
+    public static UUID randomId(Random random) {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+
+    /* nodes profiles and edges attempts at a friendship of level 1 to 5 between two random ones */
+    public static ProfileGraph randomGraph(Random random, int nodes, int edges) {
+        ProfileGraph graph = ProfileGraph.empty();
+        populate(graph, random, nodes, edges);
+        return graph;
+    }
+
+    /* Adds nodes random profiles to graph and tries edges random friendships among all of its nodes */
+    public static void populate(ProfileGraph graph, Random random, int nodes, int edges) {
+        for (int node = 0; node < nodes; node++) {
+            graph.addNode(randomId(random), NAMES[random.nextInt(NAMES.length)], 18 + random.nextInt(50), Gender.values()[random.nextInt(3)]);
+        }
+
+        int nodeCount = graph.snapshot().nodeCount();
+        for (int i = 0; i < edges; i++) {
+            try {
+                graph.connect(random.nextInt(nodeCount), random.nextInt(nodeCount), 1 + random.nextInt(5));
+            } catch (IllegalArgumentException e) {
+                // Self and duplicate friendships are rejected
+            }
+        }
+    }
+
+    /* Random adds, removals, connections and disconnections, invalid ones included */
+    public static void randomWrites(ProfileGraph graph, Random random, int writes) {
+        for (int i = 0; i < writes; i++) {
+            int nodes = graph.snapshot().nodeCount();
+            int node1 = random.nextInt(nodes);
+            int node2 = random.nextInt(nodes);
+            try {
+                int op = random.nextInt(20);
+                if (op < 10) {
+                    graph.connect(node1, node2, 1 + random.nextInt(5));
+                } else if (op < 16) {
+                    // Mostly an existing friendship, two random profiles are rarely friends
+                    GraphSnapshot snapshot = graph.snapshot();
+                    int degree = snapshot.contains(node1) ? snapshot.degree(node1) : 0;
+                    graph.disconnect(node1, degree > 0 && op < 15 ? snapshot.neighbor(node1, random.nextInt(degree)) : node2);
+                } else if (op < 18) {
+                    graph.removeNode(node1);
+                } else {
+                    graph.addNode(randomId(random), NAMES[i % NAMES.length], 18 + random.nextInt(50), Gender.values()[i % 3]);
+                }
+            } catch (IllegalArgumentException e) {
+                // Writes on removed profiles or existing friendships are expected to fail
+            }
+        }
+    }
+
+    /* Every profile and friendship of a snapshot as text, rows read through a cursor */
+    public static String dump(GraphSnapshot snapshot) {
+        StringBuilder out = new StringBuilder();
+        NeighborCursor cursor = new NeighborCursor();
+        for (int node = 0; node < snapshot.nodeCount(); node++) {
+            if (!snapshot.contains(node)) {
+                continue;
+            }
+            out.append(snapshot.idOf(node)).append(' ').append(snapshot.nameOf(node)).append(' ')
+                .append(snapshot.ageOf(node)).append(' ').append(snapshot.genderOf(node)).append(':');
+            snapshot.neighbors(node, cursor);
+            while (cursor.next()) {
+                out.append(' ').append(snapshot.idOf(cursor.neighbor())).append('/').append(cursor.level());
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
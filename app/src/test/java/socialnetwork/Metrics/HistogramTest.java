@@ -0,0 +1,109 @@
+package socialnetwork.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+    /* The documented precision, about 3% */
+    private static final double PRECISION = 0.03;
+
+    private static void assertClose(long expected, long actual, String what) {
+        assertTrue(Math.abs((double) actual - expected) <= PRECISION * expected, what + ": expected about " + expected + " but was " + actual);
+    }
+
+    @Test
+    void valuesBelow32HaveABucketEach() {
+        for (int value = 0; value < 32; value++) {
+            assertEquals(value, Histogram.bucketOf(value));
+            assertEquals(value, Histogram.valueOf(value));
+        }
+        assertEquals(32, Histogram.bucketOf(32));
+    }
+
+    @Test
+    void bucketsCoverEveryValueUpToLongMax() {
+        List<Long> values = new ArrayList<>();
+        for (int exponent = 5; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            values.add(power - 1);
+            values.add(power);
+            values.add(power + 1);
+        }
+        values.add(Long.MAX_VALUE - 1);
+        values.add(Long.MAX_VALUE);
+        Random random = new Random(60);
+        for (int i = 0; i < 10000; i++) {
+            values.add((random.nextLong() >>> 1) >>> random.nextInt(63));
+        }
+
+        for (long value : values) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(bucket >= 0 && bucket < Histogram.BUCKETS, value + " in bucket " + bucket);
+            long reported = Histogram.valueOf(bucket);
+            assertTrue(reported >= 0, value + " reported as " + reported);
+            assertClose(value, reported, "value " + value);
+            assertEquals(bucket, Histogram.bucketOf(reported), "value " + value);
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+
+        // Buckets are ordered like their values
+        long[] sorted = values.stream().mapToLong(Long::longValue).sorted().toArray();
+        for (int i = 1; i < sorted.length; i++) {
+            assertTrue(Histogram.bucketOf(sorted[i - 1]) <= Histogram.bucketOf(sorted[i]), sorted[i - 1] + " and " + sorted[i]);
+        }
+    }
+
+    @Test
+    void percentilesOfKnownDistributions() {
+        Histogram uniform = new Histogram();
+        for (long value = 1; value <= 100_000; value++) {
+            uniform.record(value);
+        }
+        assertClose(50_000, uniform.getP50(), "uniform p50");
+        assertClose(99_000, uniform.getP99(), "uniform p99");
+        assertEquals(100_000, uniform.getMax());
+        assertEquals(50_000.5, uniform.getMean(), 1e-9);
+
+        // Latencies in nanoseconds, log-normal around a millisecond
+        Random random = new Random(61);
+        Histogram latencies = new Histogram();
+        long[] values = new long[200_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(Math.log(1_000_000) + 1.5 * random.nextGaussian());
+            latencies.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertClose(values[values.length / 2 - 1], latencies.getP50(), "log-normal p50");
+        assertClose(values[values.length * 99 / 100 - 1], latencies.getP99(), "log-normal p99");
+        assertClose(values[values.length * 999 / 1000 - 1], latencies.getP999(), "log-normal p99.9");
+
+        // Small values are exact
+        Histogram small = new Histogram();
+        for (int i = 0; i < 100; i++) {
+            small.record(i % 10);
+        }
+        assertEquals(4, small.getP50());
+        assertEquals(9, small.getP99());
+    }
+
+    @Test
+    void extremeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(0, histogram.percentile(10));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertClose(Long.MAX_VALUE, histogram.getP50(), "p50");
+        assertClose(Long.MAX_VALUE, histogram.getP99(), "p99");
+    }
+}
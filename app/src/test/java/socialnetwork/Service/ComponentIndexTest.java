@@ -0,0 +1,105 @@
+package socialnetwork.Service;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+import socialnetwork.Graph.ProfileGraph;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static socialnetwork.Graph.TestGraphs.randomGraph;
+import static socialnetwork.Graph.TestGraphs.randomWrites;
+
+class ComponentIndexTest {
+    /* Checks every profile of the graph against a breadth-first labeling */
+    private static void assertComponents(ComponentIndex index, GraphSnapshot snapshot) {
+        int nodes = snapshot.nodeCount();
+        int[] label = new int[nodes];
+        int[] sizes = new int[nodes];
+        Arrays.fill(label, -1);
+        int components = 0;
+        NeighborCursor cursor = new NeighborCursor();
+        for (int start = 0; start < nodes; start++) {
+            if (!snapshot.contains(start) || label[start] >= 0) {
+                continue;
+            }
+            components++;
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            queue.add(start);
+            label[start] = start;
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                sizes[start]++;
+                snapshot.neighbors(node, cursor);
+                while (cursor.next()) {
+                    if (label[cursor.neighbor()] < 0) {
+                        label[cursor.neighbor()] = start;
+                        queue.add(cursor.neighbor());
+                    }
+                }
+            }
+        }
+
+        assertEquals(components, index.componentCount());
+        int previous = -1;
+        for (int node = 0; node < nodes; node++) {
+            if (!snapshot.contains(node)) {
+                continue;
+            }
+            assertEquals(sizes[label[node]], index.componentSize(node), "node " + node);
+            if (previous >= 0) {
+                assertEquals(label[previous] == label[node], index.sameComponent(previous, node), "nodes " + previous + " and " + node);
+            }
+            previous = node;
+        }
+    }
+
+    @Test
+    void followsWritesThatMergeAndSplitComponents() {
+        Random random = new Random(25);
+        ProfileGraph graph = randomGraph(random, 1000, 900);
+        ComponentIndex index = ComponentIndex.of(graph);
+        assertComponents(index, graph.snapshot());
+
+        for (int round = 0; round < 20; round++) {
+            randomWrites(graph, random, 500);
+            assertComponents(index, graph.snapshot());
+        }
+    }
+
+    @Test
+    void staysRightWhileWritersRun() throws InterruptedException {
+        ProfileGraph graph = randomGraph(new Random(26), 1000, 1200);
+        Thread[] writers = new Thread[3];
+        for (int i = 0; i < writers.length; i++) {
+            Random random = new Random(27 + i);
+            writers[i] = new Thread(() -> randomWrites(graph, random, 20000));
+        }
+
+        // Built while the first writer runs, so some writes arrive during the build
+        writers[0].start();
+        ComponentIndex index = ComponentIndex.of(graph);
+        writers[1].start();
+        writers[2].start();
+
+        // Queries racing the writers must not fail, their answers are checked once the writers are done
+        Random random = new Random(30);
+        while (writers[0].isAlive()) {
+            int node = random.nextInt(graph.snapshot().nodeCount());
+            try {
+                index.componentSize(node);
+            } catch (IllegalArgumentException e) {
+                // The profile was removed
+            }
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertComponents(index, graph.snapshot());
+    }
+}
@@ -0,0 +1,230 @@
+package socialnetwork.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+import socialnetwork.Model.Profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.randomId;
+
+class ConnectionsVisualizerTest {
+    private static final String NAME_TO_ESCAPE = "Ann \"Quote\" \\ <b> & x\ny";
+
+    private final Random random = new Random(70);
+    private final ProfilesManager manager = new ProfilesManager();
+
+    private UUID profile(String name) {
+        UUID profileID = randomId(random);
+        manager.addProfile(new Profile(profileID, name, 30, "female", null));
+        return profileID;
+    }
+
+    private String node(UUID profileID) {
+        return "n" + manager.getGraph().indexOf(profileID);
+    }
+
+    private String export(UUID profileID, int depth, ExportOptions options) throws IOException {
+        ConnectionsVisualizer.setProfilesManager(manager);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ConnectionsVisualizer().exportGraph(profileID, depth, out, options);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /* Lines of a JSON lines export with the given type */
+    private static List<String> ofType(String output, String type) {
+        List<String> lines = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            if (line.startsWith("{\"type\":\"" + type + "\"")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static String field(String line, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\":\"?([^\",}]*)").matcher(line);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /* Profiles within depth friendships of source, source included */
+    private static int withinDepth(GraphSnapshot graph, int source, int depth) {
+        int[] distance = new int[graph.nodeCount()];
+        Arrays.fill(distance, -1);
+        distance[source] = 0;
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(source);
+        int reached = 0;
+        NeighborCursor cursor = new NeighborCursor();
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            reached++;
+            if (distance[node] == depth) {
+                continue;
+            }
+            graph.neighbors(node, cursor);
+            while (cursor.next()) {
+                if (distance[cursor.neighbor()] < 0) {
+                    distance[cursor.neighbor()] = distance[node] + 1;
+                    queue.add(cursor.neighbor());
+                }
+            }
+        }
+        return reached;
+    }
+
+    /*
+    Root has a friend of level 0 with a friend of its own, who has one more,
+    and a hub friend with four friends nobody else knows
+    */
+    private UUID[] smallTree() {
+        UUID root = profile("Root");
+        UUID zero = profile("Zero");
+        UUID hub = profile("Hub");
+        UUID far = profile("Far");
+        UUID farther = profile(NAME_TO_ESCAPE);
+        manager.connectProfiles(root, zero, 0);
+        manager.connectProfiles(root, hub, 2);
+        manager.connectProfiles(zero, far, 3);
+        manager.connectProfiles(far, farther, 4);
+        for (int i = 0; i < 4; i++) {
+            manager.connectProfiles(hub, profile("Leaf" + i), 1);
+        }
+        return new UUID[] {root, zero, hub, far, farther};
+    }
+
+    @Test
+    void treeHoldsTheProfilesWithinTheDepth() throws IOException {
+        UUID[] ids = new UUID[300];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = profile("Profile" + i);
+        }
+        for (int i = 0; i < 450; i++) {
+            manager.connectProfiles(ids[random.nextInt(ids.length)], ids[random.nextInt(ids.length)], 1 + random.nextInt(5));
+        }
+        GraphSnapshot graph = manager.getSnapshot();
+
+        for (int source = 0; source < ids.length; source += 37) {
+            for (int depth = 0; depth <= 6; depth++) {
+                String output = export(ids[source], depth, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES));
+                int expected = withinDepth(graph, manager.getGraph().indexOf(ids[source]), depth);
+                assertEquals(expected, ofType(output, "node").size(), "source " + source + " at depth " + depth);
+                assertEquals(expected - 1, ofType(output, "edge").size(), "source " + source + " at depth " + depth);
+            }
+        }
+    }
+
+    @Test
+    void leavesAboveTheThresholdAreCollapsed() throws IOException {
+        UUID[] tree = smallTree();
+        UUID root = tree[0];
+        UUID hub = tree[2];
+
+        assertEquals(3, ofType(export(root, 1, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES)), "node").size());
+        assertEquals(8, ofType(export(root, 2, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES)), "node").size());
+        assertEquals(9, ofType(export(root, 3, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES)), "node").size());
+
+        // Four leaves under the hub, only the far profile under the level 0 friend at depth 2
+        String collapsed = export(root, 2, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES).setCollapseLeavesAbove(3));
+        assertEquals(4, ofType(collapsed, "node").size());
+        List<String> groups = ofType(collapsed, "group");
+        assertEquals(1, groups.size());
+        assertEquals("4", field(groups.get(0), "count"));
+        assertTrue(collapsed.contains("{\"type\":\"edge\",\"source\":\"g" + node(hub).substring(1) + "\",\"target\":\"" + node(hub) + "\"}\n"), collapsed);
+
+        // At the threshold nothing is collapsed
+        String kept = export(root, 2, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES).setCollapseLeavesAbove(4));
+        assertEquals(8, ofType(kept, "node").size());
+        assertEquals(0, ofType(kept, "group").size());
+
+        // The root's two friends are leaves at depth 1
+        String rootLeaves = export(root, 1, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES).setCollapseLeavesAbove(1));
+        assertEquals(1, ofType(rootLeaves, "node").size());
+        assertEquals("2", field(ofType(rootLeaves, "group").get(0), "count"));
+    }
+
+    @Test
+    void nodeBudgetKeepsTheClosestProfilesAndCountsTheRest() throws IOException {
+        UUID root = smallTree()[0];
+
+        for (int budget = 1; budget <= 8; budget++) {
+            String output = export(root, 3, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES).setMaxNodes(budget).setCollapseLeavesAbove(3));
+            List<String> nodes = ofType(output, "node");
+            List<String> groups = ofType(output, "group");
+            List<String> omitted = ofType(output, "omitted");
+
+            // Root, its two friends, the far profiles and one group for the hub's leaves
+            assertEquals(Math.min(budget, 6), nodes.size() + groups.size(), "budget " + budget);
+            assertEquals(node(root), field(nodes.get(0), "id"), "budget " + budget);
+            int written = nodes.size();
+            for (String group : groups) {
+                written += Integer.parseInt(field(group, "count"));
+            }
+            int left = omitted.isEmpty() ? 0 : Integer.parseInt(field(omitted.get(0), "count"));
+            assertEquals(budget < 6 ? 1 : 0, omitted.size(), "budget " + budget);
+            assertEquals(9, written + left, "budget " + budget);
+
+            // Every edge points back at an element written before it
+            Set<String> seen = new HashSet<>();
+            for (String line : output.split("\n")) {
+                String type = field(line, "type");
+                if (type.equals("edge")) {
+                    assertTrue(seen.contains(field(line, "source")) && seen.contains(field(line, "target")), line);
+                } else if (!type.equals("omitted")) {
+                    seen.add(field(line, "id"));
+                }
+            }
+        }
+
+        // At depth 1 the budget leaves out one of the root's friends
+        String cut = export(root, 1, new ExportOptions().setFormat(ExportOptions.Format.JSON_LINES).setMaxNodes(2));
+        assertEquals(2, ofType(cut, "node").size());
+        assertEquals("1", field(ofType(cut, "omitted").get(0), "count"));
+    }
+
+    @Test
+    void everyFormatEscapesNamesAndKeepsLevelZero() throws IOException {
+        UUID[] tree = smallTree();
+        String root = node(tree[0]);
+        String zero = node(tree[1]);
+        String hub = node(tree[2]);
+        String group = "g" + hub.substring(1);
+        ExportOptions options = new ExportOptions().setCollapseLeavesAbove(3);
+
+        String dot = export(tree[0], 3, options.setFormat(ExportOptions.Format.DOT));
+        assertTrue(dot.startsWith("graph \"Friendships cluster\" {\n") && dot.endsWith("}\n"), dot);
+        assertTrue(dot.contains("[label=\"Ann \\\"Quote\\\" \\\\ <b> & x\\ny\", tooltip=\"" + tree[4] + "\"];\n"), dot);
+        assertTrue(dot.contains("  " + zero + " -- " + root + " [label=\"0\"];\n"), dot);
+        assertTrue(dot.contains("  " + group + " -- " + hub + " [style=dashed];\n"), dot);
+
+        String graphML = export(tree[0], 3, options.setFormat(ExportOptions.Format.GRAPHML));
+        assertTrue(graphML.endsWith("</graphml>\n"), graphML);
+        assertTrue(graphML.contains("<data key=\"label\">Ann &quot;Quote&quot; \\ &lt;b&gt; &amp; x\ny</data>"), graphML);
+        assertTrue(graphML.contains("<edge source=\"" + zero + "\" target=\"" + root + "\"><data key=\"strength\">0</data></edge>\n"), graphML);
+        assertTrue(graphML.contains("<edge source=\"" + group + "\" target=\"" + hub + "\"></edge>\n"), graphML);
+
+        String jsonLines = export(tree[0], 3, options.setFormat(ExportOptions.Format.JSON_LINES));
+        assertTrue(jsonLines.contains(",\"name\":\"Ann \\\"Quote\\\" \\\\ <b> & x\\u000ay\"}\n"), jsonLines);
+        assertTrue(jsonLines.contains("{\"type\":\"edge\",\"source\":\"" + zero + "\",\"target\":\"" + root + "\",\"strength\":0}\n"), jsonLines);
+        assertTrue(jsonLines.contains("{\"type\":\"edge\",\"source\":\"" + group + "\",\"target\":\"" + hub + "\"}\n"), jsonLines);
+        // The escaped name is still a single line
+        assertEquals(6, jsonLines.split("\n").length - ofType(jsonLines, "edge").size());
+    }
+}
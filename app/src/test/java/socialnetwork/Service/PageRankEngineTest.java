@@ -0,0 +1,189 @@
+package socialnetwork.Service;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Model.Gender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.randomGraph;
+import static socialnetwork.Graph.TestGraphs.randomId;
+
+class PageRankEngineTest {
+    private static final ProfileIndex.Filter UNFILTERED = ProfileIndex.unindexed(null, 0, Integer.MAX_VALUE);
+
+    /* Personalized PageRank from source by power iteration, walks stuck at a profile without friends start over */
+    private static double[] powerIteration(GraphSnapshot graph, int source, double alpha) {
+        int n = graph.nodeCount();
+        NeighborCursor cursor = new NeighborCursor();
+        double[] scores = new double[n];
+        scores[source] = 1;
+        for (int iteration = 0; iteration < 500; iteration++) {
+            double[] next = new double[n];
+            next[source] += alpha;
+            for (int u = 0; u < n; u++) {
+                if (scores[u] == 0) {
+                    continue;
+                }
+                double mass = (1 - alpha) * scores[u];
+                long weight = weightedDegree(graph, u);
+                if (weight == 0) {
+                    next[source] += mass;
+                    continue;
+                }
+                graph.neighbors(u, cursor);
+                while (cursor.next()) {
+                    next[cursor.neighbor()] += mass * cursor.level() / weight;
+                }
+            }
+            scores = next;
+        }
+        return scores;
+    }
+
+    private static long weightedDegree(GraphSnapshot graph, int node) {
+        long weight = 0;
+        NeighborCursor cursor = graph.neighbors(node, new NeighborCursor());
+        while (cursor.next()) {
+            weight += cursor.level();
+        }
+        return weight;
+    }
+
+    private static Set<Integer> friends(GraphSnapshot graph, int node) {
+        Set<Integer> friends = new HashSet<>();
+        NeighborCursor cursor = graph.neighbors(node, new NeighborCursor());
+        while (cursor.next()) {
+            friends.add(cursor.neighbor());
+        }
+        return friends;
+    }
+
+    /* hubs profiles that are all friends with every one of leaves profiles */
+    private static GraphSnapshot hubsAndLeaves(int hubs, int leaves) {
+        Random random = new Random(53);
+        int n = hubs + leaves;
+        UUID[] ids = new UUID[n];
+        String[] names = new String[n];
+        int[] ages = new int[n];
+        byte[] genders = new byte[n];
+        for (int node = 0; node < n; node++) {
+            ids[node] = randomId(random);
+            names[node] = "Profile" + node;
+            ages[node] = 30;
+            genders[node] = (byte) Gender.FEMALE.ordinal();
+        }
+        int[] offsets = new int[n + 1];
+        int[] neighbors = new int[2 * hubs * leaves];
+        byte[] levels = new byte[neighbors.length];
+        int slot = 0;
+        for (int node = 0; node < n; node++) {
+            offsets[node] = slot;
+            int first = node < hubs ? hubs : 0;
+            int last = node < hubs ? n : hubs;
+            for (int friend = first; friend < last; friend++) {
+                neighbors[slot] = friend;
+                levels[slot++] = 1;
+            }
+        }
+        offsets[n] = slot;
+        return ProfileGraph.fromArrays(ids, names, ages, genders, offsets, neighbors, levels).snapshot();
+    }
+
+    @Test
+    void rankingAgreesWithPowerIterationWithinEpsilonTimesDegree() {
+        GraphSnapshot graph = randomGraph(new Random(50), 80, 240).snapshot();
+        double epsilon = 1e-4;
+        PageRankEngine engine = new PageRankEngine().setEpsilon(epsilon).setMaxMillis(60_000);
+
+        for (int source = 0; source < graph.nodeCount(); source++) {
+            if (graph.degree(source) == 0) {
+                continue;
+            }
+            double[] exact = powerIteration(graph, source, engine.getAlpha());
+            int[] ranking = engine.rankSuggestions(source, Integer.MAX_VALUE, UNFILTERED, graph);
+
+            // An estimate is within epsilon times the weighted degree of the score, so the order can only swap within that
+            for (int i = 0; i < ranking.length; i++) {
+                for (int j = i + 1; j < ranking.length; j++) {
+                    double tolerance = epsilon * (weightedDegree(graph, ranking[i]) + weightedDegree(graph, ranking[j]));
+                    assertTrue(exact[ranking[i]] >= exact[ranking[j]] - tolerance, "source " + source + " ranks " + ranking[i] + " before " + ranking[j]);
+                }
+            }
+
+            // and every profile scoring more than that has an estimate
+            Set<Integer> ranked = new HashSet<>();
+            for (int node : ranking) {
+                ranked.add(node);
+            }
+            Set<Integer> friends = friends(graph, source);
+            for (int node = 0; node < graph.nodeCount(); node++) {
+                if (node != source && !friends.contains(node) && exact[node] > epsilon * weightedDegree(graph, node)) {
+                    assertTrue(ranked.contains(node), "source " + source + " misses " + node);
+                }
+            }
+        }
+        assertEquals(0, engine.getTruncatedQueries());
+    }
+
+    @Test
+    void neverSuggestsTheProfileOrItsFriends() {
+        GraphSnapshot graph = randomGraph(new Random(51), 200, 800).snapshot();
+        PageRankEngine engine = new PageRankEngine();
+        ProfileIndex.Filter women = ProfileIndex.unindexed(Gender.FEMALE, 0, Integer.MAX_VALUE);
+
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            Set<Integer> friends = friends(graph, node);
+            for (int suggestion : engine.rankSuggestions(node, Integer.MAX_VALUE, UNFILTERED, graph)) {
+                assertTrue(suggestion != node && !friends.contains(suggestion), "node " + node + " gets " + suggestion);
+            }
+            for (int suggestion : engine.rankSuggestions(node, 5, women, graph)) {
+                assertFalse(friends.contains(suggestion), "node " + node + " gets " + suggestion);
+                assertEquals(Gender.FEMALE, graph.genderOf(suggestion));
+            }
+        }
+    }
+
+    @Test
+    void queriesCutShortAreCounted() {
+        GraphSnapshot graph = randomGraph(new Random(52), 2000, 10000).snapshot();
+        int node = 0;
+        while (graph.degree(node) == 0) {
+            node++;
+        }
+
+        PageRankEngine bounded = new PageRankEngine().setMaxTouched(20);
+        int[] ranking = bounded.rankSuggestions(node, Integer.MAX_VALUE, UNFILTERED, graph);
+        assertTrue(ranking.length < 20, ranking.length + " suggestions");
+        assertEquals(1, bounded.getQueries());
+        assertEquals(1, bounded.getTruncatedQueries());
+
+        PageRankEngine unbounded = new PageRankEngine().setMaxMillis(60_000);
+        unbounded.rankSuggestions(node, 10, UNFILTERED, graph);
+        assertEquals(0, unbounded.getTruncatedQueries());
+    }
+
+    @Test
+    void hubPushesStopAtTheDeadline() {
+        // Every push on a hub walks 40000 friends twice, and the leaves send the walk back to all of them
+        GraphSnapshot graph = hubsAndLeaves(100, 40000);
+        PageRankEngine engine = new PageRankEngine().setEpsilon(1e-12).setMaxMillis(5);
+
+        long start = System.nanoTime();
+        engine.rankSuggestions(100, 10, UNFILTERED, graph);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // Reading the clock once per 64 pushes let this query overrun its 5 ms many times over
+        assertEquals(1, engine.getTruncatedQueries());
+        assertTrue(millis < 40, millis + " ms");
+    }
+}
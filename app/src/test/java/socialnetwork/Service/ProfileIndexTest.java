@@ -0,0 +1,75 @@
+package socialnetwork.Service;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Model.Gender;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.randomGraph;
+import static socialnetwork.Graph.TestGraphs.randomWrites;
+
+class ProfileIndexTest {
+    /* Estimates of whole age buckets are exact, checked against a count of the snapshot */
+    private static void assertCounts(ProfileIndex index, GraphSnapshot snapshot) {
+        for (Gender gender : new Gender[] {null, Gender.MALE, Gender.FEMALE, Gender.NON_BINARY}) {
+            for (int minAge = 0; minAge < 80; minAge += ProfileIndex.AGE_BUCKET_WIDTH) {
+                int maxAge = minAge + 2 * ProfileIndex.AGE_BUCKET_WIDTH - 1;
+                long expected = 0;
+                for (int node = 0; node < snapshot.nodeCount(); node++) {
+                    if (snapshot.contains(node) && (gender == null || snapshot.genderOf(node) == gender)
+                        && snapshot.ageOf(node) >= minAge && snapshot.ageOf(node) <= maxAge) {
+                        expected++;
+                    }
+                }
+                assertEquals(expected, index.estimateMatches(gender, minAge, maxAge), gender + " " + minAge + "-" + maxAge);
+            }
+        }
+    }
+
+    @Test
+    void followsAddedAndRemovedProfiles() {
+        Random random = new Random(13);
+        ProfileGraph graph = randomGraph(random, 500, 1000);
+        ProfileIndex index = ProfileIndex.of(graph);
+        assertCounts(index, graph.snapshot());
+
+        for (int round = 0; round < 5; round++) {
+            randomWrites(graph, random, 2000);
+            assertCounts(index, graph.snapshot());
+        }
+    }
+
+    @Test
+    void countsWritesMadeWhileItIsBuilt() throws InterruptedException {
+        ProfileGraph graph = randomGraph(new Random(14), 100_000, 0);
+        Thread[] writers = new Thread[2];
+        for (int i = 0; i < writers.length; i++) {
+            Random random = new Random(15 + i);
+            writers[i] = new Thread(() -> randomWrites(graph, random, 20000));
+            writers[i].start();
+        }
+
+        ProfileIndex index = ProfileIndex.of(graph);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertCounts(index, graph.snapshot());
+    }
+
+    @Test
+    void filterNoProfilePassesIsEmpty() {
+        ProfileIndex index = ProfileIndex.of(randomGraph(new Random(16), 100, 0));
+
+        // Fixture ages are 18 to 67
+        assertTrue(index.filter(null, 100, 120).isEmpty());
+        assertTrue(index.filter(Gender.MALE, 40, 30).isEmpty());
+        assertFalse(index.filter(Gender.FEMALE, 18, 67).isEmpty());
+    }
+}
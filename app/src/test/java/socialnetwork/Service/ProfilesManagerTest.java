@@ -0,0 +1,130 @@
+package socialnetwork.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import socialnetwork.Graph.GraphFile;
+import socialnetwork.Graph.MutationLog;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Model.Profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static socialnetwork.Graph.TestGraphs.randomId;
+
+class ProfilesManagerTest {
+    @TempDir
+    Path directory;
+
+    /* The network as a restart would find it, read while the store is still open */
+    private static ProfileGraph restore(Path base, Path log) throws IOException {
+        ProfileGraph graph = GraphFile.read(base);
+        try (MutationLog reopened = MutationLog.open(log, 0)) {
+            reopened.replay(graph);
+        }
+        return graph;
+    }
+
+    @Test
+    void friendshipsChangedThroughProfilesAreDurableAndMeasured() throws IOException {
+        Random random = new Random(17);
+        UUID anaID = randomId(random);
+        UUID bobID = randomId(random);
+        Path base = directory.resolve("graph.bin");
+        Path log = directory.resolve("graph.log");
+
+        ProfilesManager manager = new ProfilesManager();
+        manager.addProfile(new Profile(anaID, "Ana", 30, "female", null));
+        manager.addProfile(new Profile(bobID, "Bob", 31, "male", null));
+        manager.openStore(base.toString(), log.toString(), 0);
+
+        manager.getProfile(anaID).addFriend(bobID, 3);
+        ProfileGraph restored = restore(base, log);
+        assertEquals(Map.of(bobID, 3), restored.snapshot().friendsOf(restored.indexOf(anaID)));
+        assertEquals(1, manager.getMetrics().connectProfiles.getCalls());
+
+        assertEquals(Integer.valueOf(3), manager.getProfile(bobID).removeFriend(anaID));
+        restored = restore(base, log);
+        assertEquals(Map.of(), restored.snapshot().friendsOf(restored.indexOf(anaID)));
+        assertEquals(1, manager.getMetrics().disconnectProfiles.getCalls());
+
+        manager.closeStore();
+    }
+
+    private static List<UUID> idsOf(List<Profile> profiles) {
+        List<UUID> ids = new ArrayList<>();
+        for (Profile profile : profiles) {
+            ids.add(profile.getProfileID());
+        }
+        return ids;
+    }
+
+    /* Suggestions of every profile of a batch, checking none is delivered twice */
+    private static Map<UUID, List<UUID>> collect(Map<UUID, List<UUID>> delivered, UUID profileID, List<Profile> suggestions) {
+        assertNull(delivered.put(profileID, idsOf(suggestions)), profileID + " delivered twice");
+        return delivered;
+    }
+
+    @Test
+    void batchSuggestionsMatchSingleQueries() {
+        Random random = new Random(18);
+        String[] names = {"Ana", "Bob", "Zoe"};
+        String[] genders = {"female", "male", "non_binary"};
+        ProfilesManager manager = new ProfilesManager();
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            UUID profileID = randomId(random);
+            manager.addProfile(new Profile(profileID, names[random.nextInt(names.length)], 18 + random.nextInt(50), genders[random.nextInt(3)], null));
+            ids.add(profileID);
+        }
+        for (int i = 0; i < 2000; i++) {
+            manager.connectProfiles(ids.get(random.nextInt(ids.size())), ids.get(random.nextInt(ids.size())), 1 + random.nextInt(5));
+        }
+        // Removed profiles leave holes the batch over everyone has to skip
+        for (int i = 0; i < 20; i++) {
+            manager.removeProfile(ids.remove(random.nextInt(ids.size())));
+        }
+
+        List<UUID> batch = new ArrayList<>();
+        List<UUID> unknown = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += 3) {
+            batch.add(ids.get(i));
+            UUID missing = randomId(random);
+            batch.add(missing);
+            unknown.add(missing);
+        }
+
+        Object[][] queries = {{10, null, null, null}, {5, "female", 25, 50}, {3, "MALE", null, 30}, {null, null, 60, null}};
+        for (Object[] query : queries) {
+            Integer maxSuggestions = (Integer) query[0];
+            String gender = (String) query[1];
+            Integer minAge = (Integer) query[2];
+            Integer maxAge = (Integer) query[3];
+
+            Map<UUID, List<UUID>> expected = new ConcurrentHashMap<>();
+            for (UUID profileID : ids) {
+                expected.put(profileID, idsOf(manager.suggestConnections(profileID, maxSuggestions, gender, minAge, maxAge)));
+            }
+
+            Map<UUID, List<UUID>> all = new ConcurrentHashMap<>();
+            manager.suggestConnectionsForAll(maxSuggestions, gender, minAge, maxAge, (profileID, suggestions) -> collect(all, profileID, suggestions));
+            assertEquals(expected, all, gender + " " + minAge + " " + maxAge);
+
+            Map<UUID, List<UUID>> some = new ConcurrentHashMap<>();
+            manager.suggestConnections(batch, maxSuggestions, gender, minAge, maxAge, (profileID, suggestions) -> collect(some, profileID, suggestions));
+            assertEquals(batch.size() - unknown.size(), some.size());
+            for (UUID profileID : batch) {
+                assertEquals(expected.get(profileID), some.get(profileID), profileID.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package socialnetwork.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Model.Gender;
+import socialnetwork.Model.Profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.populate;
+import static socialnetwork.Graph.TestGraphs.randomGraph;
+import static socialnetwork.Graph.TestGraphs.randomWrites;
+
+class SuggestionsCacheTest {
+    private static ProfilesManager randomManager(int cacheCapacity, Random random) {
+        ProfilesManager manager = new ProfilesManager(cacheCapacity);
+        populate(manager.getGraph(), random, 200, 800);
+        return manager;
+    }
+
+    private static List<UUID> ids(List<Profile> profiles) {
+        return profiles.stream().map(Profile::getProfileID).toList();
+    }
+
+    /* Suggestions as the original full ranking gives them on the current snapshot */
+    private static List<UUID> expected(ProfilesManager manager, UUID id, Gender gender) {
+        GraphSnapshot snapshot = manager.getSnapshot();
+        return ids(SuggestionsEngine.getSuggestions(id, 5, gender, 0, 1000, snapshot));
+    }
+
+    @Test
+    void cachedSuggestionsFollowWrites() {
+        Random random = new Random(5);
+        ProfilesManager manager = randomManager(50, random);
+        ProfileGraph graph = manager.getGraph();
+
+        // Queries go to a few profiles so most are hits, which the writes must invalidate
+        for (int i = 0; i < 5000; i++) {
+            if (random.nextInt(8) == 0) {
+                randomWrites(graph, random, 1);
+                continue;
+            }
+            GraphSnapshot snapshot = manager.getSnapshot();
+            int node = random.nextInt(20);
+            if (!snapshot.contains(node)) {
+                continue;
+            }
+            UUID id = snapshot.idOf(node);
+            Gender gender = random.nextBoolean() ? Gender.FEMALE : null;
+            List<UUID> suggested = ids(manager.suggestConnections(id, 5, gender == null ? null : gender.name(), null, null));
+            assertEquals(expected(manager, id, gender), suggested, "query " + i);
+        }
+
+        SuggestionsCache cache = manager.getSuggestionsCache();
+        assertTrue(cache.hits() > cache.misses());
+        assertTrue(cache.size() <= 50);
+    }
+
+    @Test
+    void disabledCacheKeepsNothing() {
+        Random random = new Random(6);
+        ProfilesManager manager = randomManager(0, random);
+        UUID[] ids = manager.getProfilesIDs();
+
+        for (UUID id : ids) {
+            assertEquals(expected(manager, id, null), ids(manager.suggestConnections(id, 5)));
+        }
+
+        SuggestionsCache cache = manager.getSuggestionsCache();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.hits() + cache.misses());
+    }
+
+    @Test
+    void filteredMissesAreNotCached() {
+        Random random = new Random(7);
+        ProfilesManager manager = randomManager(50, random);
+        UUID id = manager.getProfilesIDs()[0];
+
+        manager.suggestConnections(id, 5, "MALE", null, null);
+        manager.suggestConnections(id, 5, null, 30, null);
+        assertEquals(0, manager.getSuggestionsCache().size());
+
+        manager.suggestConnections(id, 5);
+        assertEquals(1, manager.getSuggestionsCache().size());
+    }
+
+    @Test
+    void keepsHotRankingsWithinItsCapacity() {
+        Random random = new Random(8);
+        ProfileGraph graph = randomGraph(random, 300, 1200);
+        SuggestionsCache cache = SuggestionsCache.of(graph, 10);
+        GraphSnapshot snapshot = graph.snapshot();
+
+        // Five hot profiles between one-off queries of the rest
+        int hotHits = 0;
+        for (int cold = 5; cold < 300; cold++) {
+            for (int hot = 0; hot < 5; hot++) {
+                if (cache.getCachedRanking(hot, snapshot) != null) {
+                    hotHits++;
+                } else {
+                    cache.rank(hot, snapshot);
+                }
+            }
+            cache.getRanking(cold, snapshot);
+            assertTrue(cache.size() <= 10);
+        }
+
+        assertTrue(hotHits >= 5 * 295 - 10, hotHits + " hot hits");
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    void readersRacingAWriterGetTheRankingOfTheirSnapshot() throws InterruptedException {
+        ProfileGraph graph = randomGraph(new Random(9), 300, 1200);
+        SuggestionsCache cache = SuggestionsCache.of(graph, 40);
+        Thread writer = new Thread(() -> randomWrites(graph, new Random(10), 20000));
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[3];
+        for (int i = 0; i < readers.length; i++) {
+            Random random = new Random(11 + i);
+            readers[i] = new Thread(() -> {
+                while (writer.isAlive() && failure.get() == null) {
+                    GraphSnapshot snapshot = graph.snapshot();
+                    int node = random.nextInt(60);
+                    if (!snapshot.contains(node)) {
+                        continue;
+                    }
+                    int[] expected = SuggestionsEngine.rankSuggestions(node, snapshot);
+                    if (!Arrays.equals(expected, cache.getRanking(node, snapshot))) {
+                        failure.set("node " + node + " at version " + snapshot.version());
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 40);
+    }
+}
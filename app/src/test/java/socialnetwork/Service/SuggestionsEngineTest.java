@@ -0,0 +1,239 @@
+package socialnetwork.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Model.Gender;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.randomGraph;
+import static socialnetwork.Graph.TestGraphs.randomId;
+
+class SuggestionsEngineTest {
+    private static Set<Integer> friends(GraphSnapshot graph, int node) {
+        Set<Integer> friends = new HashSet<>();
+        NeighborCursor cursor = graph.neighbors(node, new NeighborCursor());
+        while (cursor.next()) {
+            friends.add(cursor.neighbor());
+        }
+        return friends;
+    }
+
+    /* Friends of friends by mutual friends, then the node's levels with them summed, then lowest node */
+    private static int[] expectedMutualRanking(GraphSnapshot graph, int node) {
+        Set<Integer> friends = friends(graph, node);
+        List<int[]> candidates = new ArrayList<>();
+        for (int candidate = 0; candidate < graph.nodeCount(); candidate++) {
+            if (candidate == node || friends.contains(candidate)) {
+                continue;
+            }
+            int mutual = 0;
+            int levelSum = 0;
+            for (int friend : friends) {
+                if (graph.areFriends(friend, candidate)) {
+                    mutual++;
+                    levelSum += graph.level(node, graph.findNeighbor(node, friend));
+                }
+            }
+            if (mutual > 0) {
+                candidates.add(new int[] {candidate, mutual, levelSum});
+            }
+        }
+        candidates.sort(Comparator.<int[]>comparingInt(c -> -c[1]).thenComparingInt(c -> -c[2]).thenComparingInt(c -> c[0]));
+        return candidates.stream().mapToInt(c -> c[0]).toArray();
+    }
+
+    @Test
+    void ranksByMutualFriends() {
+        Random random = new Random(8);
+        GraphSnapshot graph = randomGraph(random, 300, 1500).snapshot();
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            assertArrayEquals(expectedMutualRanking(graph, node), SuggestionsEngine.rankSuggestions(node, graph, RankingStrategy.MUTUAL_FRIENDS), "node " + node);
+        }
+    }
+
+    @Test
+    void countsMutualFriends() {
+        Random random = new Random(9);
+        GraphSnapshot graph = randomGraph(random, 200, 3000).snapshot();
+        for (int i = 0; i < 2000; i++) {
+            int node1 = random.nextInt(200);
+            int node2 = random.nextInt(200);
+            Set<Integer> mutual = friends(graph, node1);
+            mutual.retainAll(friends(graph, node2));
+            assertEquals(mutual.size(), SuggestionsEngine.countMutualFriends(node1, node2, graph));
+        }
+    }
+
+    /* Graph of sorted rows, row levels[node][k] being the level of rows[node][k] */
+    private static GraphSnapshot fromRows(int[][] rows, byte[][] levels, Random random) {
+        int nodes = rows.length;
+        UUID[] ids = new UUID[nodes];
+        String[] names = new String[nodes];
+        int[] ages = new int[nodes];
+        byte[] genders = new byte[nodes];
+        int[] offsets = new int[nodes + 1];
+        for (int node = 0; node < nodes; node++) {
+            ids[node] = randomId(random);
+            names[node] = "Profile" + node;
+            ages[node] = 30;
+            offsets[node + 1] = offsets[node] + rows[node].length;
+        }
+        int[] neighbors = new int[offsets[nodes]];
+        byte[] edgeLevels = new byte[offsets[nodes]];
+        for (int node = 0; node < nodes; node++) {
+            System.arraycopy(rows[node], 0, neighbors, offsets[node], rows[node].length);
+            System.arraycopy(levels[node], 0, edgeLevels, offsets[node], rows[node].length);
+        }
+        return ProfileGraph.fromArrays(ids, names, ages, genders, offsets, neighbors, edgeLevels).snapshot();
+    }
+
+    /*
+    Node 0 is friends with nodes 3 to 3 + friends, at level levelOf(friend),
+    and nodes 1 and 2 with the friends in [first, end) of theirs
+    */
+    private static GraphSnapshot twoCandidates(int friends, int first1, int end1, int first2, int end2, IntUnaryOperator levelOf) {
+        int nodes = friends + 3;
+        int[][] rows = new int[nodes][];
+        byte[][] levels = new byte[nodes][];
+        rows[0] = IntStream.range(3, nodes).toArray();
+        levels[0] = new byte[friends];
+        for (int k = 0; k < friends; k++) {
+            levels[0][k] = (byte) levelOf.applyAsInt(3 + k);
+        }
+        rows[1] = IntStream.range(first1, end1).toArray();
+        levels[1] = new byte[rows[1].length];
+        Arrays.fill(levels[1], (byte) 1);
+        rows[2] = IntStream.range(first2, end2).toArray();
+        levels[2] = new byte[rows[2].length];
+        Arrays.fill(levels[2], (byte) 1);
+        for (int friend = 3; friend < nodes; friend++) {
+            final int f = friend;
+            rows[friend] = IntStream.of(0, 1, 2).filter(c -> c == 0 || (c == 1 ? f >= first1 && f < end1 : f >= first2 && f < end2)).toArray();
+            levels[friend] = new byte[rows[friend].length];
+            Arrays.fill(levels[friend], (byte) 1);
+            levels[friend][0] = (byte) levelOf.applyAsInt(friend);
+        }
+        return fromRows(rows, levels, new Random(13));
+    }
+
+    @Test
+    void countsPastTheSortKeyStillRankInOrder() {
+        // Node 2 has 200 more mutual friends, both counts are past what the packed key holds
+        GraphSnapshot mutual = twoCandidates(33_000, 3, 32_803, 3, 33_003, friend -> 1);
+        assertArrayEquals(new int[] {2, 1}, SuggestionsEngine.rankSuggestions(0, mutual, RankingStrategy.MUTUAL_FRIENDS));
+
+        // 1100 mutual friends each, node 1 shares the only friend of level 1, both level sums are past the key
+        GraphSnapshot levelSums = twoCandidates(1101, 3, 1103, 4, 1104, friend -> friend == 3 ? 1 : 127);
+        assertArrayEquals(new int[] {2, 1}, SuggestionsEngine.rankSuggestions(0, levelSums, RankingStrategy.MUTUAL_FRIENDS));
+        assertArrayEquals(expectedMutualRanking(levelSums, 0), SuggestionsEngine.rankSuggestions(0, levelSums, RankingStrategy.MUTUAL_FRIENDS));
+    }
+
+    @Test
+    void profileWithTensOfThousandsOfMutualFriendsRanksFirst() {
+        // More mutual friends than fit below the sign bit of the packed sort key
+        int shared = 40_000;
+        int receiver = 0;
+        int popular = 1;
+        int other = 2;
+        int nodes = shared + 3;
+        Random random = new Random(10);
+
+        // Built as CSR rows, connecting one by one would copy the two long rows every time
+        UUID[] ids = new UUID[nodes];
+        String[] names = new String[nodes];
+        int[] ages = new int[nodes];
+        byte[] genders = new byte[nodes];
+        for (int node = 0; node < nodes; node++) {
+            ids[node] = randomId(random);
+            names[node] = "Profile" + node;
+            ages[node] = 30;
+        }
+        int[] offsets = new int[nodes + 1];
+        int[] neighbors = new int[4 * shared + 2];
+        byte[] levels = new byte[neighbors.length];
+        int slot = 0;
+        for (int node = 0; node < nodes; node++) {
+            offsets[node] = slot;
+            if (node == receiver || node == popular) {
+                for (int friend = 3; friend < nodes; friend++) {
+                    neighbors[slot] = friend;
+                    levels[slot++] = 1;
+                }
+            } else if (node == other) {
+                neighbors[slot] = 3;
+                levels[slot++] = 5;
+            } else {
+                neighbors[slot] = receiver;
+                levels[slot++] = 1;
+                neighbors[slot] = popular;
+                levels[slot++] = 1;
+                if (node == 3) {
+                    neighbors[slot] = other;
+                    levels[slot++] = 5;
+                }
+            }
+        }
+        offsets[nodes] = slot;
+        GraphSnapshot graph = ProfileGraph.fromArrays(ids, names, ages, genders, offsets, neighbors, levels).snapshot();
+
+        int[] ranking = SuggestionsEngine.rankSuggestions(receiver, graph, RankingStrategy.MUTUAL_FRIENDS);
+
+        assertArrayEquals(new int[] {popular, other}, ranking);
+    }
+
+    @Test
+    void hubSampleDrawsEveryFriendAtMostOnce() {
+        // A hub just over the hub degree, sampled with a fan-out of all but one of its friends
+        int hubFriends = 200;
+        Random random = new Random(11);
+        ProfileGraph graph = ProfileGraph.empty();
+        int receiver = graph.addNode(randomId(random), "Receiver", 30, Gender.FEMALE);
+        int hub = graph.addNode(randomId(random), "Hub", 30, Gender.MALE);
+        graph.connect(receiver, hub, 1);
+        for (int i = 0; i < hubFriends; i++) {
+            graph.connect(hub, graph.addNode(randomId(random), "Friend" + i, 30, Gender.MALE), 1);
+        }
+        HubPolicy hubs = new HubPolicy(hubFriends, hubFriends);
+
+        int[] ranking = SuggestionsEngine.rankSuggestions(receiver, graph.snapshot(), RankingStrategy.FRIENDSHIP_LEVEL, hubs);
+
+        // Equal levels accept every draw, so only the receiver's own draw can be lost; with replacement about a third would be
+        assertEquals(1, hubs.getSampledHubs());
+        assertTrue(ranking.length >= hubFriends - 1, ranking.length + " candidates");
+    }
+
+    @Test
+    void topSuggestionsCountCandidatesBeforeTheFilter() {
+        GraphSnapshot graph = randomGraph(new Random(12), 300, 1500).snapshot();
+        HubPolicy hubs = new HubPolicy(8, 4);
+        ProfileIndex.Filter unfiltered = ProfileIndex.unindexed(null, 0, Integer.MAX_VALUE);
+        ProfileIndex.Filter women = ProfileIndex.unindexed(Gender.FEMALE, 20, 40);
+
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            // The cached path records the length of the unfiltered ranking, the top-K path has to match it
+            int expected = SuggestionsEngine.rankSuggestions(node, graph).length;
+            assertEquals(expected, SuggestionsEngine.getTopSuggestions(node, 3, unfiltered, HubPolicy.NONE, graph).getCandidates(), "node " + node);
+            assertEquals(expected, SuggestionsEngine.getTopSuggestions(node, 3, women, HubPolicy.NONE, graph).getCandidates(), "node " + node);
+            assertEquals(expected, SuggestionsEngine.getTopSuggestions(node, 0, women, HubPolicy.NONE, graph).getCandidates(), "node " + node);
+
+            int sampled = SuggestionsEngine.rankSuggestions(node, graph, RankingStrategy.FRIENDSHIP_LEVEL, hubs).length;
+            assertEquals(sampled, SuggestionsEngine.getTopSuggestions(node, 3, women, hubs, graph).getCandidates(), "node " + node);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package socialnetwork.Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import socialnetwork.Model.Profile;
+import socialnetwork.Util.LoadDiagnostics.FriendshipProblem;
+import socialnetwork.Util.LoadDiagnostics.RowProblem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.randomId;
+
+class LoadDiagnosticsTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void countsEveryProblemAndTracesOnlyUpToTheSharedLimit() throws IOException {
+        Random random = new Random(40);
+        int valid = 30;
+        UUID[] ids = new UUID[valid];
+        for (int i = 0; i < valid; i++) {
+            ids[i] = randomId(random);
+        }
+
+        // A chain of friendships, the first rows also list one malformed friendship of every kind
+        List<String> lines = new ArrayList<>();
+        lines.add("profile_id,name,age,gender,friends");
+        for (int i = 0; i < valid; i++) {
+            List<String> friends = new ArrayList<>();
+            if (i > 0) {
+                friends.add(ids[i - 1] + ":2");
+            }
+            if (i < valid - 1) {
+                friends.add(ids[i + 1] + ":2");
+            }
+            if (i < 4) {
+                friends.add("no-level");
+                friends.add("not-an-id:3");
+                friends.add(ids[i + 1] + ":high");
+                friends.add(ids[i + 1] + ":2");
+            }
+            lines.add(ids[i] + ",Profile " + i + "," + (20 + i) + ",FEMALE,\"" + String.join(",", friends) + "\"");
+        }
+        for (int i = 0; i < 3; i++) {
+            lines.add(randomId(random) + ",Short,30,MALE");
+            lines.add("not-an-id,Bad id,30,MALE,\"\"");
+            lines.add(randomId(random) + ",Bad age,thirty,MALE,\"\"");
+            lines.add(randomId(random) + ",Bad gender,30,ROBOT,\"\"");
+        }
+        // Replaces profile 10 without its friends, so profiles 9 and 11 lose theirs with it
+        lines.add(ids[10] + ",Profile 10 again,40,MALE,\"\"");
+        Path file = directory.resolve("profiles.csv");
+        Files.write(file, lines);
+
+        ProfilesLoader loader = new ProfilesLoader().setSkipInvalidRows(true).setTraceLimit(5);
+        Map<UUID, Profile> profiles = loader.loadProfilesFromCSV(file.toString());
+        LoadDiagnostics diagnostics = loader.getDiagnostics();
+
+        assertEquals(valid, profiles.size());
+        assertEquals(valid + 13, diagnostics.getRows());
+        assertEquals(valid, diagnostics.getLoadedRows());
+        assertEquals(3, diagnostics.getRejectedRows(RowProblem.FIELD_COUNT));
+        assertEquals(3, diagnostics.getRejectedRows(RowProblem.INVALID_ID));
+        assertEquals(3, diagnostics.getRejectedRows(RowProblem.INVALID_AGE));
+        assertEquals(3, diagnostics.getRejectedRows(RowProblem.INVALID_PROFILE));
+        assertEquals(1, diagnostics.getRejectedRows(RowProblem.REPLACED));
+        for (FriendshipProblem problem : FriendshipProblem.values()) {
+            assertEquals(4, diagnostics.getMalformedFriendships(problem), problem.toString());
+        }
+        assertEquals(2, diagnostics.getFriendshipsRemoved());
+
+        // 13 rows and 16 friendships, but a single limit for both
+        assertEquals(5, diagnostics.getTracedProblems());
+        assertEquals(24, diagnostics.getUntracedProblems());
+        assertTrue(diagnostics.summary("profiles.csv").endsWith(" untraced_problems=24"), diagnostics.summary("profiles.csv"));
+    }
+
+    @Test
+    void tracesEveryProblemUnderTheLimit() {
+        LoadDiagnostics diagnostics = new LoadDiagnostics(10);
+        diagnostics.rejectRow(RowProblem.INVALID_AGE, "at line 2", () -> "thirty");
+        diagnostics.malformedFriendship(FriendshipProblem.DUPLICATE, "profile", () -> "friend");
+
+        assertEquals(2, diagnostics.getTracedProblems());
+        assertEquals(0, diagnostics.getUntracedProblems());
+    }
+}
@@ -0,0 +1,80 @@
+package socialnetwork.Util;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import socialnetwork.Graph.GraphSnapshot;
+import socialnetwork.Graph.NeighborCursor;
+import socialnetwork.Graph.ProfileGraph;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedProfilesLoaderTest {
+    @TempDir
+    Path directory;
+
+    /* Profiles and friendships by id, so graphs that number their nodes differently compare equal */
+    private static List<String> profiles(ProfileGraph graph) {
+        GraphSnapshot snapshot = graph.snapshot();
+        NeighborCursor cursor = new NeighborCursor();
+        List<String> lines = new ArrayList<>();
+        for (int node = 0; node < snapshot.nodeCount(); node++) {
+            if (!snapshot.contains(node)) {
+                continue;
+            }
+            List<String> friends = new ArrayList<>();
+            snapshot.neighbors(node, cursor);
+            while (cursor.next()) {
+                friends.add(snapshot.idOf(cursor.neighbor()) + ":" + cursor.level());
+            }
+            Collections.sort(friends);
+            lines.add(snapshot.idOf(node) + "," + snapshot.nameOf(node) + "," + snapshot.ageOf(node) + "," + snapshot.genderOf(node) + "," + friends);
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static String resource(String name) throws URISyntaxException {
+        return Path.of(MappedProfilesLoaderTest.class.getResource("/" + name).toURI()).toString();
+    }
+
+    @Test
+    void loadsTheSameGraphAsProfilesLoader() throws IOException, URISyntaxException {
+        String file = resource("profiles_80.csv");
+        List<String> expected = profiles(ProfileGraph.fromProfiles(new ProfilesLoader().loadProfilesFromCSV(file).values()));
+
+        // Small blocks put boundaries inside quoted friend lists
+        for (long blockSize : new long[] {97, 333, 4096, 1 << 20}) {
+            assertEquals(expected, profiles(new MappedProfilesLoader(blockSize).loadGraphFromCSV(file)), "block size " + blockSize);
+        }
+    }
+
+    @Test
+    void recordsAreNotSplitInsideQuotes() throws IOException {
+        String a = "1220dffb-7dba-4bf7-a984-59ffef16b797";
+        String b = "84ff8e68-beda-4e27-a5b8-9c762fc5f294";
+        String c = "33751487-97d9-49dc-a789-de98a5ded67f";
+        String csv = "profile_id,name,age,gender,friends\n"
+            + a + ",\"Gomez, Patricia\n Ann\",38,FEMALE,\"" + b + ":2,\n" + c + ":1\"\n"
+            + b + ",Dorothy,65,FEMALE,\"" + a + ":2\"\n"
+            + c + ",\"Lee\nKim\",40,MALE,\"" + a + ":1\"\n";
+        Path file = directory.resolve("quoted.csv");
+        Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+
+        List<String> expected = profiles(new MappedProfilesLoader().loadGraphFromCSV(file.toString()));
+        assertEquals(3, expected.size());
+        // Between them these block sizes put a boundary on every byte; each window scanned is a mapping, so none is tiny
+        for (int blockSize = 3; blockSize <= 40; blockSize++) {
+            assertEquals(expected, profiles(new MappedProfilesLoader(blockSize).loadGraphFromCSV(file.toString())), "block size " + blockSize);
+        }
+    }
+}
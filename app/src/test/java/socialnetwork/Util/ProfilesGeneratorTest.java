@@ -0,0 +1,60 @@
+package socialnetwork.Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import socialnetwork.Model.Profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProfilesGeneratorTest {
+    @TempDir
+    Path directory;
+
+    private static long runFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().contains(".run")).count();
+        }
+    }
+
+    @Test
+    void mergedRunsLoadWithoutDroppedFriendships() throws IOException {
+        Path merged = directory.resolve("merged.csv");
+        Path inMemory = directory.resolve("in-memory.csv");
+        ProfilesGenerator generator = new ProfilesGenerator().setProfiles(3000).setAverageDegree(12).setCommunitySize(100).setSeed(7);
+
+        // About 18000 friendships, both directions, in runs of 1000
+        generator.setRunSize(1000).generate(merged);
+        generator.setRunSize(1 << 20).generate(inMemory);
+
+        assertEquals(Files.readString(inMemory), Files.readString(merged));
+        assertEquals(0, runFiles(directory));
+
+        ProfilesLoader loader = new ProfilesLoader();
+        Map<UUID, Profile> profiles = loader.loadProfilesFromCSV(merged.toString());
+        assertEquals(3000, profiles.size());
+        assertEquals(0, loader.getDiagnostics().getRejectedRows());
+        assertEquals(0, loader.getDiagnostics().getMalformedFriendships());
+        assertEquals(0, loader.getValidationReport().getRemoved());
+        assertTrue(loader.getValidationReport().getFriendships() > 20000, loader.getValidationReport().getFriendships() + " friendships");
+    }
+
+    @Test
+    void runsAreRemovedWhenWritingFails() throws IOException {
+        // A directory can't be opened as the output file, once every run is spilled
+        Path output = Files.createDirectory(directory.resolve("output.csv"));
+        ProfilesGenerator generator = new ProfilesGenerator().setProfiles(1000).setAverageDegree(8).setRunSize(500);
+
+        assertThrows(IOException.class, () -> generator.generate(output));
+        assertEquals(0, runFiles(directory));
+    }
+}
@@ -0,0 +1,125 @@
+package socialnetwork.Util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Model.Profile;
+import socialnetwork.Util.RelationshipValidator.Problem;
+import socialnetwork.Util.RelationshipValidator.Report;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static socialnetwork.Graph.TestGraphs.randomId;
+
+class RelationshipValidatorTest {
+    private static Profile profile(UUID profileID, Map<UUID, Integer> friends) {
+        return new Profile(profileID, "Profile", 30, "female", new HashMap<>(friends));
+    }
+
+    @Test
+    void removesEachKindOfInvalidFriendship() {
+        Random random = new Random(30);
+        UUID a = randomId(random);
+        UUID b = randomId(random);
+        UUID c = randomId(random);
+        UUID d = randomId(random);
+        UUID missing = randomId(random);
+
+        Profile profileA = profile(a, Map.of(b, 3, c, 2, missing, 1, a, 4));
+        Profile profileB = profile(b, Map.of(a, 3, c, 5));
+        Profile profileC = profile(c, Map.of(a, 1));
+        Profile profileD = profile(d, Map.of(b, 2));
+
+        Report report = new RelationshipValidator(1).validate(List.of(profileA, profileB, profileC, profileD));
+
+        // Only a and b list each other with the same level
+        assertEquals(Map.of(b, 3), profileA.getFriends());
+        assertEquals(Map.of(a, 3), profileB.getFriends());
+        assertEquals(Map.of(), profileC.getFriends());
+        assertEquals(Map.of(), profileD.getFriends());
+
+        assertEquals(4, report.getProfiles());
+        assertEquals(8, report.getFriendships());
+        assertEquals(1, report.getCount(Problem.MISSING_FRIEND));
+        assertEquals(1, report.getCount(Problem.SELF_FRIENDSHIP));
+        assertEquals(2, report.getCount(Problem.ONE_WAY));
+        assertEquals(2, report.getCount(Problem.ASYMMETRIC_LEVEL));
+        assertEquals(6, report.getRemoved());
+        assertEquals(List.of(a + " -> " + missing), report.getSample(Problem.MISSING_FRIEND));
+        assertEquals(1, report.getSample(Problem.ONE_WAY).size());
+    }
+
+    @Test
+    void keepsExactlyTheFriendshipsListedBackWithTheSameLevel() {
+        Random random = new Random(31);
+        int n = 500;
+        UUID[] ids = new UUID[n];
+        for (int v = 0; v < n; v++) {
+            ids[v] = randomId(random);
+        }
+
+        // Mostly symmetric friendships, with every kind of mistake mixed in
+        List<Map<UUID, Integer>> friends = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            friends.add(new HashMap<>());
+        }
+        for (int i = 0; i < 4000; i++) {
+            int v = random.nextInt(n);
+            int w = random.nextInt(n);
+            int level = 1 + random.nextInt(5);
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                friends.get(v).put(randomId(random), level);
+            } else if (kind == 1) {
+                friends.get(v).put(ids[v], level);
+            } else {
+                friends.get(v).put(ids[w], level);
+                if (kind > 3) {
+                    friends.get(w).put(ids[v], kind == 4 ? 1 + level % 5 : level);
+                }
+            }
+        }
+
+        // The sequential rule, applied to a copy
+        Map<UUID, Map<UUID, Integer>> byID = new HashMap<>();
+        for (int v = 0; v < n; v++) {
+            byID.put(ids[v], friends.get(v));
+        }
+        List<Map<UUID, Integer>> expected = new ArrayList<>();
+        long friendships = 0;
+        for (int v = 0; v < n; v++) {
+            Map<UUID, Integer> kept = new HashMap<>();
+            for (Map.Entry<UUID, Integer> friend : friends.get(v).entrySet()) {
+                Map<UUID, Integer> back = byID.get(friend.getKey());
+                if (!friend.getKey().equals(ids[v]) && back != null && friend.getValue().equals(back.get(ids[v]))) {
+                    kept.put(friend.getKey(), friend.getValue());
+                }
+            }
+            expected.add(kept);
+            friendships += friends.get(v).size();
+        }
+
+        List<Profile> profiles = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            profiles.add(profile(ids[v], friends.get(v)));
+        }
+        Report report = new RelationshipValidator().validate(profiles);
+
+        long kept = 0;
+        for (int v = 0; v < n; v++) {
+            assertEquals(expected.get(v), profiles.get(v).getFriends(), "profile " + v);
+            kept += expected.get(v).size();
+        }
+        assertEquals(friendships, report.getFriendships());
+        assertEquals(friendships - kept, report.getRemoved());
+        for (Problem problem : Problem.values()) {
+            assertTrue(report.getCount(problem) > 0, problem.toString());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package socialnetwork.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import socialnetwork.Graph.GraphSnapshot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static socialnetwork.Graph.TestGraphs.randomGraph;
+
+class SuggestionHeapTest {
+    /* The best k candidates as Suggestion.compareTo ranks them, best first */
+    private static int[] expected(GraphSnapshot graph, int receiver, int[] candidates, int[] levels, int k) {
+        List<Suggestion> suggestions = new ArrayList<>();
+        for (int i = 0; i < candidates.length; i++) {
+            suggestions.add(new Suggestion(levels[i], graph.profile(candidates[i]), graph.profile(receiver)));
+        }
+        suggestions.sort(Collections.reverseOrder());
+        return suggestions.stream()
+            .limit(k)
+            .mapToInt(suggestion -> graph.indexOf(suggestion.getProfile().getProfileID()))
+            .toArray();
+    }
+
+    @Test
+    void keepsTheBestCandidatesInSuggestionOrder() {
+        Random random = new Random(42);
+        SuggestionHeap heap = new SuggestionHeap();
+        for (int round = 0; round < 200; round++) {
+            GraphSnapshot graph = randomGraph(random, 60, 0).snapshot();
+            int receiver = random.nextInt(60);
+            int[] candidates = random.ints(0, 60).filter(node -> node != receiver).distinct().limit(40).toArray();
+            int[] levels = random.ints(candidates.length, 1, 4).toArray();
+            int k = 1 + random.nextInt(50);
+
+            heap.reset(graph, receiver, k);
+            for (int i = 0; i < candidates.length; i++) {
+                heap.offer(candidates[i], levels[i]);
+            }
+            int[] nodes = new int[k];
+            int count = heap.drainInto(nodes);
+
+            assertArrayEquals(expected(graph, receiver, candidates, levels, k), Arrays.copyOf(nodes, count), "round " + round);
+        }
+    }
+
+    @Test
+    void keepsAtMostItsCapacity() {
+        GraphSnapshot graph = randomGraph(new Random(1), 10, 0).snapshot();
+        SuggestionHeap heap = new SuggestionHeap();
+
+        heap.reset(graph, 0, 0);
+        assertFalse(heap.offer(1, 3));
+        assertEquals(0, heap.size());
+
+        heap.reset(graph, 0, 2);
+        for (int node = 1; node < 10; node++) {
+            heap.offer(node, 1);
+        }
+        assertEquals(2, heap.size());
+    }
+}
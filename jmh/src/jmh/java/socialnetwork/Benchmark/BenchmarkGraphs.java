@@ -0,0 +1,125 @@
+package socialnetwork.Benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Profiles CSV files shared by the benchmarks, generated once per JVM in a
+ * temporary directory and removed on exit.
+ *
+ * A "uniform" graph connects every profile to random profiles, a "powerlaw"
+ * graph grows by preferential attachment (Barabási–Albert), so a few hubs
+ * have most of the friendships. Both have about {@code degree} friends per
+ * profile on average and every edge is written on both of its profiles with
+ * the same level.
+ */
+final class BenchmarkGraphs {
+    private static final String[] NAMES = {"Patricia Gomez", "Dorothy Flores", "James Smith", "Maria Garcia", "Robert Brown", "Linda Lopez"};
+    private static final String[] GENDERS = {"MALE", "FEMALE", "NON_BINARY"};
+
+    private static final Map<String, Path> files = new ConcurrentHashMap<>();
+
+    private BenchmarkGraphs() {
+    }
+
+    static Path csv(int size, String distribution, int degree) {
+        return files.computeIfAbsent(size + "-" + distribution + "-" + degree, key -> {
+            try {
+                Path file = Files.createTempFile("profiles-" + key + "-", ".csv");
+                file.toFile().deleteOnExit();
+                write(file, size, distribution, degree, 42);
+                return file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void write(Path file, int size, String distribution, int degree, long seed) throws IOException {
+        Random random = new Random(seed);
+        UUID[] ids = new UUID[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+
+        int[][] friends = new int[size][4];
+        int[] degrees = new int[size];
+        int edgesPerNode = Math.max(1, degree / 2);
+        if (distribution.equals("powerlaw")) {
+            // Each new node picks endpoints of existing edges, i.e. nodes proportionally to their degree
+            int[] endpoints = new int[2 * size * edgesPerNode];
+            int endpointCount = 0;
+            for (int node = 1; node < size; node++) {
+                for (int e = 0; e < Math.min(edgesPerNode, node); e++) {
+                    int friend = endpointCount == 0 ? random.nextInt(node) : endpoints[random.nextInt(endpointCount)];
+                    if (addEdge(friends, degrees, node, friend)) {
+                        endpoints[endpointCount++] = node;
+                        endpoints[endpointCount++] = friend;
+                    }
+                }
+            }
+        } else if (distribution.equals("uniform")) {
+            for (int node = 0; node < size; node++) {
+                for (int e = 0; e < edgesPerNode; e++) {
+                    addEdge(friends, degrees, node, random.nextInt(size));
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown degree distribution " + distribution);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("profile_id,name,age,gender,friends\n");
+            StringBuilder line = new StringBuilder();
+            for (int node = 0; node < size; node++) {
+                line.setLength(0);
+                line.append(ids[node]).append(',')
+                    .append(NAMES[node % NAMES.length]).append(',')
+                    .append(18 + node % 60).append(',')
+                    .append(GENDERS[node % GENDERS.length]).append(",\"");
+                for (int k = 0; k < degrees[node]; k++) {
+                    int friend = friends[node][k];
+                    if (k > 0) {
+                        line.append(',');
+                    }
+                    line.append(ids[friend]).append(':').append(level(node, friend));
+                }
+                writer.append(line).append("\"\n");
+            }
+        }
+    }
+
+    private static boolean addEdge(int[][] friends, int[] degrees, int node1, int node2) {
+        if (node1 == node2) {
+            return false;
+        }
+        for (int k = 0; k < degrees[node1]; k++) {
+            if (friends[node1][k] == node2) {
+                return false;
+            }
+        }
+        append(friends, degrees, node1, node2);
+        append(friends, degrees, node2, node1);
+        return true;
+    }
+
+    private static void append(int[][] friends, int[] degrees, int node, int friend) {
+        if (degrees[node] == friends[node].length) {
+            friends[node] = Arrays.copyOf(friends[node], degrees[node] * 2);
+        }
+        friends[node][degrees[node]++] = friend;
+    }
+
+    /* Same level on both sides of an edge */
+    private static int level(int node1, int node2) {
+        return 1 + (Math.min(node1, node2) * 31 + Math.max(node1, node2)) % 5;
+    }
+}
@@ -0,0 +1,74 @@
+package socialnetwork.Benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import socialnetwork.Graph.IdDictionary;
+
+/*
+Looking up the node of a random profile id, in the dictionary the graph uses
+and in the HashMap<UUID, Integer> it replaced. The ids looked up are copies,
+as they are when they come from a request.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdDictionaryBenchmark {
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private IdDictionary dictionary;
+    private Map<UUID, Integer> map;
+    private UUID[] ids;
+    private UUID[] lookups;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ids = new UUID[size];
+        map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            ids[i] = new UUID(random.nextLong(), random.nextLong());
+            map.put(ids[i], i);
+        }
+        dictionary = IdDictionary.of(ids);
+
+        lookups = new UUID[size];
+        for (int i = 0; i < size; i++) {
+            UUID id = ids[random.nextInt(size)];
+            lookups[i] = new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        }
+    }
+
+    @Benchmark
+    public int dictionary() {
+        return dictionary.get(randomLookup());
+    }
+
+    @Benchmark
+    public int hashMap() {
+        return map.get(randomLookup());
+    }
+
+    @Benchmark
+    public IdDictionary bulkBuild() {
+        return IdDictionary.of(ids);
+    }
+
+    private UUID randomLookup() {
+        return lookups[ThreadLocalRandom.current().nextInt(lookups.length)];
+    }
+}
@@ -0,0 +1,62 @@
+package socialnetwork.Benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import socialnetwork.Graph.GraphFile;
+import socialnetwork.Graph.ProfileGraph;
+import socialnetwork.Util.MappedProfilesLoader;
+import socialnetwork.Util.ProfilesLoader;
+
+/* Loading a whole dataset: the CSV loaders and the binary graph file */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoaderBenchmark {
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"uniform", "powerlaw"})
+    public String distribution;
+
+    @Param({"16"})
+    public int degree;
+
+    private String csv;
+    private Path graphFile;
+
+    @Setup
+    public void setup() throws IOException {
+        csv = BenchmarkGraphs.csv(size, distribution, degree).toString();
+
+        graphFile = Files.createTempFile("profiles-", ".graph");
+        graphFile.toFile().deleteOnExit();
+        GraphFile.write(new MappedProfilesLoader().loadGraphFromCSV(csv).snapshot(), graphFile);
+    }
+
+    @Benchmark
+    public ProfileGraph csvLoad() throws IOException {
+        return ProfileGraph.fromProfiles(new ProfilesLoader().loadProfilesFromCSV(csv).values());
+    }
+
+    @Benchmark
+    public ProfileGraph mappedCsvLoad() throws IOException {
+        return new MappedProfilesLoader().loadGraphFromCSV(csv);
+    }
+
+    @Benchmark
+    public ProfileGraph graphFileLoad() throws IOException {
+        return GraphFile.read(graphFile);
+    }
+}
@@ -0,0 +1,69 @@
+package socialnetwork.Benchmark;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import socialnetwork.Model.Profile;
+import socialnetwork.Service.ProfilesManager;
+
+/*
+suggestConnections for random profiles. The uncached manager recomputes
+every query, the cached one mostly serves repeated profiles from the cache.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SuggestionsBenchmark {
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"uniform", "powerlaw"})
+    public String distribution;
+
+    @Param({"16"})
+    public int degree;
+
+    private ProfilesManager uncached;
+    private ProfilesManager cached;
+    private UUID[] ids;
+
+    @Setup
+    public void setup() {
+        String csv = BenchmarkGraphs.csv(size, distribution, degree).toString();
+        uncached = new ProfilesManager(0);
+        uncached.loadProfilesMapped(csv);
+        cached = new ProfilesManager();
+        cached.loadProfilesMapped(csv);
+        ids = uncached.getProfilesIDs();
+    }
+
+    @Benchmark
+    public List<Profile> withoutFilters() {
+        return uncached.suggestConnections(randomID(), 10);
+    }
+
+    @Benchmark
+    public List<Profile> withFilters() {
+        return uncached.suggestConnections(randomID(), 10, "FEMALE", 25, 40);
+    }
+
+    @Benchmark
+    public List<Profile> cachedWithFilters() {
+        return cached.suggestConnections(randomID(), 10, "FEMALE", 25, 40);
+    }
+
+    private UUID randomID() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+}
@@ -0,0 +1,52 @@
+package socialnetwork.Benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import socialnetwork.Service.ConnectionsVisualizer;
+import socialnetwork.Service.ProfilesManager;
+
+/* Union-find tree build of ConnectionsVisualizer from a random profile, without drawing */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TreeBenchmark {
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"uniform", "powerlaw"})
+    public String distribution;
+
+    @Param({"16"})
+    public int degree;
+
+    @Param({"3", "10"})
+    public int depth;
+
+    private UUID[] ids;
+
+    @Setup
+    public void setup() {
+        ProfilesManager manager = new ProfilesManager();
+        manager.loadProfilesMapped(BenchmarkGraphs.csv(size, distribution, degree).toString());
+        ConnectionsVisualizer.setProfilesManager(manager);
+        ids = manager.getProfilesIDs();
+    }
+
+    @Benchmark
+    public ConnectionsVisualizer computeTree() {
+        ConnectionsVisualizer visualizer = new ConnectionsVisualizer();
+        visualizer.computeTree(ids[ThreadLocalRandom.current().nextInt(ids.length)], depth);
+        return visualizer;
+    }
+}
@@ -0,0 +1,67 @@
+package socialnetwork.Benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import socialnetwork.Service.ProfilesManager;
+
+/*
+connectProfiles followed by disconnectProfiles on a random pair, so the
+graph keeps its size across iterations. Pairs that are already friends only
+pay for the failed connect.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WritesBenchmark {
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"uniform", "powerlaw"})
+    public String distribution;
+
+    @Param({"16"})
+    public int degree;
+
+    private ProfilesManager manager;
+    private UUID[] ids;
+
+    @Setup
+    public void setup() {
+        manager = new ProfilesManager();
+        manager.loadProfilesMapped(BenchmarkGraphs.csv(size, distribution, degree).toString());
+        ids = manager.getProfilesIDs();
+    }
+
+    @Benchmark
+    public boolean connectDisconnect() {
+        return connectDisconnectRandomPair();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean connectDisconnect4Threads() {
+        return connectDisconnectRandomPair();
+    }
+
+    private boolean connectDisconnectRandomPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        UUID profileID1 = ids[random.nextInt(ids.length)];
+        UUID profileID2 = ids[random.nextInt(ids.length)];
+        if (!manager.connectProfiles(profileID1, profileID2, 1 + random.nextInt(5))) {
+            return false;
+        }
+        return manager.disconnectProfiles(profileID1, profileID2);
+    }
+}